@@ -16,21 +16,79 @@
 package eus.ixa.ixa.pipe.lemma;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Pattern;
+
+import eus.ixa.ixa.pipe.pos.FeatureIdContextGenerator;
+import eus.ixa.ixa.pipe.pos.FeatureIdModel;
 
 /**
  * Simple feature generator for learning statistical lemmatizers.
+ * <p>
+ * The features are planned per sentence: the lexical features of each token
+ * (word, tag, suffixes, prefixes and shape) are kept for its position and
+ * computed again only if the token or its tag at that position change, and
+ * only the features of the previous prediction are added for each hypothesis
+ * of the beam. The feature ids written by
+ * {@link #getContextIds} are built in a reused buffer, without string
+ * concatenation.
  * @author ragerri
- * @version 2016-02-15
+ * @version 2016-05-24
  */
-public class DefaultLemmatizerContextGenerator implements LemmatizerContextGenerator {
-  
+public class DefaultLemmatizerContextGenerator implements LemmatizerContextGenerator, FeatureIdContextGenerator {
+
   private static final int PREFIX_LENGTH = 5;
   private static final int SUFFIX_LENGTH = 7;
+  /**
+   * The maximum number of features of a context.
+   */
+  public static final int MAX_CONTEXT_SIZE = 2 + 3 + SUFFIX_LENGTH + PREFIX_LENGTH + 3;
 
-  private static Pattern hasCap = Pattern.compile("[A-Z]");
-  private static Pattern hasNum = Pattern.compile("[0-9]");
+  /**
+   * The lexical features of the token last seen at each position, null until
+   * computed. They are checked against the token and tag on every call, as
+   * the arrays of a sentence may be reused with other contents.
+   */
+  private TokenFeatures[] tokenFeatures = new TokenFeatures[0];
+  /**
+   * The buffer where features are built by {@link #getContextIds}.
+   */
+  private final StringBuilder feature = new StringBuilder();
+  /**
+   * The tokens of the sentence whose lexical feature ids are planned.
+   */
+  private String[] idsToks;
+  /**
+   * The tags of the sentence whose lexical feature ids are planned.
+   */
+  private String[] idsTags;
+  /**
+   * The model of the planned feature ids.
+   */
+  private FeatureIdModel idsModel;
+  /**
+   * The lexical feature ids of each token: the word id followed by the ids
+   * of the rest of lexical features, at {@code index * MAX_CONTEXT_SIZE}.
+   */
+  private int[] staticIds = new int[0];
+  /**
+   * The number of word ids of each token, -1 if not computed yet.
+   */
+  private int[] numWordIds = new int[0];
+  /**
+   * The tag of each token whose id is in {@link #tagIds}, null if none.
+   */
+  private String[] idsTagOf = new String[0];
+  /**
+   * The tag feature id of each token, -1 if unknown to the model. The tag of
+   * a token may change between calls, e.g., when tags and lemmas are decoded
+   * jointly, so it is checked on every call.
+   */
+  private int[] tagIds = new int[0];
+  /**
+   * The number of the rest of lexical feature ids of each token.
+   */
+  private int[] numLexicalIds = new int[0];
 
   public DefaultLemmatizerContextGenerator() {
   }
@@ -50,38 +108,65 @@ public class DefaultLemmatizerContextGenerator implements LemmatizerContextGener
     }
     return suffs;
   }
-  
+
   public String[] getContext(int index, String[] sequence, String[] priorDecisions, Object[] additionalContext) {
     return getContext(index, sequence, (String[]) additionalContext[0], priorDecisions);
   }
 
   public String[] getContext(int index, String[] toks, String[] tags, String[] preds) {
-    // Word
-    String w0;
-    // Tag
-    String t0;
+    TokenFeatures lexical = getTokenFeatures(index, toks, tags);
     // Previous prediction
     String p_1;
-
-    String lex = toks[index].toString();
     if (index < 1) {
       p_1 = "p_1=bos";
     }
     else {
       p_1 = "p_1=" + preds[index - 1];
     }
+    String[] features = new String[5 + lexical.features.length];
+    features[0] = lexical.w0;
+    features[1] = lexical.t0;
+    features[2] = p_1;
+    features[3] = p_1 + lexical.t0;
+    features[4] = p_1 + lexical.w0;
+    System.arraycopy(lexical.features, 0, features, 5, lexical.features.length);
+    return features;
+  }
 
-    w0 = "w0=" + toks[index];
-    t0 = "t0=" + tags[index];
+  /**
+   * Get the lexical features of a token, computing them unless those of the
+   * same token and tag are kept for its position.
+   * @param index the token index
+   * @param toks the tokens of the sentence
+   * @param tags the tags of the sentence
+   * @return the lexical features
+   */
+  private TokenFeatures getTokenFeatures(int index, String[] toks, String[] tags) {
+    if (tokenFeatures.length < toks.length) {
+      tokenFeatures = Arrays.copyOf(tokenFeatures, toks.length);
+    }
+    TokenFeatures lexical = tokenFeatures[index];
+    if (lexical == null || !lexical.lex.equals(toks[index])) {
+      lexical = computeTokenFeatures(toks[index], tags[index]);
+      tokenFeatures[index] = lexical;
+    }
+    else if (!lexical.tag.equals(tags[index])) {
+      // same token with another tag, e.g., when decoding jointly
+      lexical = new TokenFeatures(lexical.lex, tags[index], lexical.w0,
+          "t0=" + tags[index], lexical.features);
+      tokenFeatures[index] = lexical;
+    }
+    return lexical;
+  }
 
+  /**
+   * Compute the lexical features of a token.
+   * @param lex the token
+   * @param tag the tag of the token
+   * @return the lexical features
+   */
+  private static TokenFeatures computeTokenFeatures(String lex, String tag) {
     List<String> features = new ArrayList<String>();
-    
-    features.add(w0);
-    features.add(t0);
-    features.add(p_1);
-    features.add(p_1 + t0);
-    features.add(p_1 + w0);
-    
     // do some basic suffix analysis
     String[] suffs = getSuffixes(lex);
     for (int i = 0; i < suffs.length; i++) {
@@ -97,14 +182,203 @@ public class DefaultLemmatizerContextGenerator implements LemmatizerContextGener
       features.add("h");
     }
 
-    if (hasCap.matcher(lex).find()) {
+    if (hasCapital(lex)) {
       features.add("c");
     }
 
-    if (hasNum.matcher(lex).find()) {
+    if (hasDigit(lex)) {
       features.add("d");
     }
-    
-    return features.toArray(new String[features.size()]);
+    return new TokenFeatures(lex, tag, "w0=" + lex, "t0=" + tag, features.toArray(new String[features.size()]));
+  }
+
+  public int getMaxContextSize() {
+    return MAX_CONTEXT_SIZE;
+  }
+
+  /**
+   * Writes the ids of the features of {@link #getContext(int, String[], String[], String[])}
+   * in the same order, leaving out the features unknown to the model. The
+   * lexical feature ids of each token are computed once per sentence, and
+   * the tag feature id once per token and tag; the features of the previous
+   * prediction are built in a reused buffer.
+   */
+  public int getContextIds(int index, String[] toks, Object[] additionalContext,
+      String prevDecision, String prevPrevDecision, FeatureIdModel model, int[] ids) {
+    String[] tags = (String[]) additionalContext[0];
+    if (idsToks != toks || idsTags != tags || idsModel != model) {
+      if (numWordIds.length < toks.length) {
+        staticIds = new int[toks.length * MAX_CONTEXT_SIZE];
+        numWordIds = new int[toks.length];
+        numLexicalIds = new int[toks.length];
+        idsTagOf = new String[toks.length];
+        tagIds = new int[toks.length];
+      }
+      Arrays.fill(numWordIds, -1);
+      Arrays.fill(idsTagOf, null);
+      idsToks = toks;
+      idsTags = tags;
+      idsModel = model;
+    }
+    if (numWordIds[index] < 0) {
+      computeStaticIds(index, toks[index], model);
+    }
+    if (idsTagOf[index] == null || !idsTagOf[index].equals(tags[index])) {
+      feature.setLength(0);
+      tagIds[index] = model.getFeatureId(feature.append("t0=").append(tags[index]));
+      idsTagOf[index] = tags[index];
+    }
+    int base = index * MAX_CONTEXT_SIZE;
+    int n = numWordIds[index];
+    System.arraycopy(staticIds, base, ids, 0, n);
+    if (tagIds[index] >= 0) {
+      ids[n++] = tagIds[index];
+    }
+    // p_1, p_1 + t0 and p_1 + w0 share the p_1 prefix in the buffer
+    feature.setLength(0);
+    feature.append("p_1=").append(index < 1 ? "bos" : prevDecision);
+    int prefix = feature.length();
+    n = addFeature(feature, model, ids, n);
+    feature.append("t0=").append(tags[index]);
+    n = addFeature(feature, model, ids, n);
+    feature.setLength(prefix);
+    feature.append("w0=").append(toks[index]);
+    n = addFeature(feature, model, ids, n);
+    System.arraycopy(staticIds, base + numWordIds[index], ids, n, numLexicalIds[index]);
+    return n + numLexicalIds[index];
+  }
+
+  /**
+   * Compute the lexical feature ids of a token, which do not depend on its
+   * tag.
+   * @param index the token index
+   * @param lex the token
+   * @param model the model providing the feature ids
+   */
+  private void computeStaticIds(int index, String lex, FeatureIdModel model) {
+    int base = index * MAX_CONTEXT_SIZE;
+    int n = base;
+    feature.setLength(0);
+    n = addFeature(feature.append("w0=").append(lex), model, staticIds, n);
+    numWordIds[index] = n - base;
+    int lexical = n;
+    // getSuffixes and getPrefixes leave the first element null
+    for (int li = 0; li < SUFFIX_LENGTH; li++) {
+      feature.setLength(0);
+      feature.append("suf=");
+      if (li == 0) {
+        feature.append("null");
+      }
+      else {
+        feature.append(lex, Math.max(lex.length() - li - 1, 0), lex.length());
+      }
+      n = addFeature(feature, model, staticIds, n);
+    }
+    for (int li = 0; li < PREFIX_LENGTH; li++) {
+      feature.setLength(0);
+      feature.append("pre=");
+      if (li == 0) {
+        feature.append("null");
+      }
+      else {
+        feature.append(lex, 0, Math.min(li + 1, lex.length()));
+      }
+      n = addFeature(feature, model, staticIds, n);
+    }
+    if (lex.indexOf('-') != -1) {
+      feature.setLength(0);
+      n = addFeature(feature.append('h'), model, staticIds, n);
+    }
+    if (hasCapital(lex)) {
+      feature.setLength(0);
+      n = addFeature(feature.append('c'), model, staticIds, n);
+    }
+    if (hasDigit(lex)) {
+      feature.setLength(0);
+      n = addFeature(feature.append('d'), model, staticIds, n);
+    }
+    numLexicalIds[index] = n - lexical;
+  }
+
+  /**
+   * Add the id of a feature, if known by the model.
+   * @param buffer the feature
+   * @param model the model
+   * @param ids the feature ids
+   * @param n the number of feature ids
+   * @return the new number of feature ids
+   */
+  private static int addFeature(CharSequence buffer, FeatureIdModel model, int[] ids, int n) {
+    int id = model.getFeatureId(buffer);
+    if (id < 0) {
+      return n;
+    }
+    ids[n] = id;
+    return n + 1;
+  }
+
+  /**
+   * Check whether a word contains an ASCII capital letter.
+   * @param lex the word
+   * @return true if there is a capital letter
+   */
+  private static boolean hasCapital(String lex) {
+    for (int i = 0; i < lex.length(); i++) {
+      char c = lex.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether a word contains a digit.
+   * @param lex the word
+   * @return true if there is a digit
+   */
+  private static boolean hasDigit(String lex) {
+    for (int i = 0; i < lex.length(); i++) {
+      char c = lex.charAt(i);
+      if (c >= '0' && c <= '9') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The features of a token which do not depend on the previous prediction.
+   */
+  private static final class TokenFeatures {
+
+    /**
+     * The token.
+     */
+    private final String lex;
+    /**
+     * The tag of the token.
+     */
+    private final String tag;
+    /**
+     * The word feature.
+     */
+    private final String w0;
+    /**
+     * The tag feature.
+     */
+    private final String t0;
+    /**
+     * The suffix, prefix and shape features.
+     */
+    private final String[] features;
+
+    TokenFeatures(String aLex, String aTag, String aW0, String aT0, String[] aFeatures) {
+      this.lex = aLex;
+      this.tag = aTag;
+      this.w0 = aW0;
+      this.t0 = aT0;
+      this.features = aFeatures;
+    }
   }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import eus.ixa.ixa.pipe.pos.StringUtils;
+
+/**
+ * Decodes lemmas from the shortest edit script (SES) classes of a lemmatizer
+ * model. Every class of the model is compiled once into an array of
+ * operations, which are applied to the word form in a reused char buffer,
+ * without reversing the word form or parsing the script for every token. The
+ * lemmas are the same as those of
+ * {@link StringUtils#decodeShortestEditScript(String, String)}, which still
+ * decodes the classes unknown to the model, e.g., those of dictionary lemmas.
+ * <p>
+ * The decoder is not thread safe, as it reuses its buffer.
+ * @author ragerri
+ * @version 2016-05-28
+ */
+public class EditScriptDecoder {
+
+  /**
+   * The number of chars of a compiled operation: the operation, the index in
+   * the reversed word form and two characters.
+   */
+  private static final int OP_SIZE = 4;
+
+  /**
+   * The compiled operations of each class of the model; the classes which
+   * are not valid scripts are not compiled.
+   */
+  private final Map<String, char[]> compiledScripts = new HashMap<String, char[]>();
+  /**
+   * The buffer where the operations are applied.
+   */
+  private char[] buffer = new char[32];
+
+  /**
+   * Compile the classes of a lemmatizer model.
+   * @param lemmaClasses the classes
+   */
+  public EditScriptDecoder(String[] lemmaClasses) {
+    for (String lemmaClass : lemmaClasses) {
+      char[] ops = compile(lemmaClass);
+      if (ops != null) {
+        compiledScripts.put(lemmaClass, ops);
+      }
+    }
+  }
+
+  /**
+   * Get the number of compiled classes.
+   * @return the number of compiled classes
+   */
+  public int size() {
+    return compiledScripts.size();
+  }
+
+  /**
+   * Compile a shortest edit script into its operations, reading it as
+   * {@link StringUtils#decodeShortestEditScript(String, String)} does: only
+   * the first digit of an index is read and unknown operations are skipped.
+   * @param script the script
+   * @return the operations, OP_SIZE chars each, null if the script is not
+   * valid
+   */
+  static char[] compile(String script) {
+    char[] ops = new char[script.length() * OP_SIZE];
+    int numOps = 0;
+    int i = 0;
+    while (i < script.length()) {
+      char op = script.charAt(i);
+      i++;
+      if (op != 'R' && op != 'I' && op != 'D') {
+        continue;
+      }
+      int length = op == 'R' ? 3 : op == 'I' ? 2 : 1;
+      if (i + length > script.length()) {
+        return null;
+      }
+      int index = Character.digit(script.charAt(i), 10);
+      if (index < 0) {
+        return null;
+      }
+      int base = numOps * OP_SIZE;
+      ops[base] = op;
+      ops[base + 1] = (char) index;
+      if (length > 1) {
+        ops[base + 2] = script.charAt(i + 1);
+      }
+      if (length > 2) {
+        ops[base + 3] = script.charAt(i + 2);
+      }
+      numOps++;
+      // the deletion is followed by the deleted character, never read
+      i += op == 'D' ? 2 : length;
+    }
+    char[] compiled = new char[numOps * OP_SIZE];
+    System.arraycopy(ops, 0, compiled, 0, compiled.length);
+    return compiled;
+  }
+
+  /**
+   * Apply the shortest edit script of a lemma class to a word form.
+   * @param wordForm the word form
+   * @param lemmaClass the lemma class
+   * @return the lemma, the word form if the script cannot be applied to it
+   */
+  public String decode(String wordForm, String lemmaClass) {
+    char[] ops = compiledScripts.get(lemmaClass);
+    if (ops == null) {
+      return StringUtils.decodeShortestEditScript(wordForm, lemmaClass);
+    }
+    int length = wordForm.length();
+    if (buffer.length < length + ops.length / OP_SIZE) {
+      buffer = new char[Math.max(buffer.length * 2, length + ops.length / OP_SIZE)];
+    }
+    wordForm.getChars(0, length, buffer, 0);
+    // the indexes of the script count from the end of the word form
+    for (int i = 0; i < ops.length; i += OP_SIZE) {
+      int index = ops[i + 1];
+      if (ops[i] == 'R') {
+        if (length <= index) {
+          return wordForm;
+        }
+        if (buffer[length - 1 - index] == ops[i + 2]) {
+          buffer[length - 1 - index] = ops[i + 3];
+        }
+      }
+      else if (ops[i] == 'I') {
+        if (length < index) {
+          return wordForm;
+        }
+        int at = length - index;
+        System.arraycopy(buffer, at, buffer, at + 1, index);
+        buffer[at] = ops[i + 2];
+        length++;
+      }
+      else {
+        if (length <= index) {
+          return wordForm;
+        }
+        int at = length - 1 - index;
+        System.arraycopy(buffer, at + 1, buffer, at, index);
+        length--;
+      }
+    }
+    return new String(buffer, 0, length);
+  }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import eus.ixa.ixa.pipe.pos.OutcomeConstraints;
+
+import opennlp.tools.util.InvalidFormatException;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.model.ArtifactSerializer;
+
+/**
+ * The lemma classes seen in the training data for each suffix of the
+ * lowercased word and postag. A suffix and postag admit a handful of shortest
+ * edit scripts out of the thousands a model may know, so the lemmatizer only
+ * scores those; tokens whose suffix and postag were not seen in the training
+ * data are scored over every class. The index is built when training and
+ * stored in the {@link LemmatizerModel}.
+ * @author ragerri
+ * @version 2016-05-29
+ */
+public class LemmaClassIndex implements OutcomeConstraints {
+
+  /**
+   * The length of the suffixes of the index.
+   */
+  public static final int DEFAULT_SUFFIX_LENGTH = 3;
+  /**
+   * The separator of the suffix, postag and lemma classes in the serialized
+   * index, which cannot be part of a token of the training data.
+   */
+  private static final char SEPARATOR = '\t';
+
+  private final int suffixLength;
+  /**
+   * The lemma classes of each suffix and postag.
+   */
+  private final Map<String, String[]> classes;
+
+  /**
+   * Construct an index.
+   * @param aSuffixLength the length of the suffixes
+   * @param someClasses the lemma classes of each suffix and postag
+   */
+  private LemmaClassIndex(int aSuffixLength, Map<String, String[]> someClasses) {
+    suffixLength = aSuffixLength;
+    classes = someClasses;
+  }
+
+  /**
+   * Build the index of the training data. The samples are read to the end
+   * and reset.
+   * @param samples the training samples
+   * @param suffixLength the length of the suffixes
+   * @return the index
+   * @throws IOException if the samples cannot be read
+   */
+  public static LemmaClassIndex build(ObjectStream<LemmaSample> samples, int suffixLength) throws IOException {
+    Map<String, Set<String>> seen = new LinkedHashMap<String, Set<String>>();
+    LemmaSample sample;
+    while ((sample = samples.read()) != null) {
+      String[] toks = sample.getTokens();
+      String[] tags = sample.getTags();
+      String[] lemmaClasses = sample.getLemmas();
+      for (int i = 0; i < toks.length; i++) {
+        String key = getKey(toks[i], tags[i], suffixLength);
+        Set<String> keyClasses = seen.get(key);
+        if (keyClasses == null) {
+          keyClasses = new LinkedHashSet<String>();
+          seen.put(key, keyClasses);
+        }
+        keyClasses.add(lemmaClasses[i]);
+      }
+    }
+    samples.reset();
+    Map<String, String[]> index = new HashMap<String, String[]>();
+    for (Map.Entry<String, Set<String>> entry : seen.entrySet()) {
+      index.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+    }
+    return new LemmaClassIndex(suffixLength, index);
+  }
+
+  /**
+   * Get the key of the index of a token.
+   * @param tok the token
+   * @param tag the postag of the token
+   * @param suffixLength the length of the suffixes
+   * @return the suffix of the lowercased token and the postag
+   */
+  private static String getKey(String tok, String tag, int suffixLength) {
+    String lex = tok.toLowerCase();
+    return lex.substring(Math.max(0, lex.length() - suffixLength)) + SEPARATOR + tag;
+  }
+
+  /**
+   * Get the lemma classes seen in the training data for the suffix and postag
+   * of a token; the postags are the first additional context.
+   */
+  public String[] getAllowedOutcomes(int index, String[] tokens, Object[] additionalContext) {
+    String[] tags = (String[]) additionalContext[0];
+    return classes.get(getKey(tokens[index], tags[index], suffixLength));
+  }
+
+  /**
+   * Get the length of the suffixes.
+   * @return the length of the suffixes
+   */
+  public int getSuffixLength() {
+    return suffixLength;
+  }
+
+  /**
+   * Get the number of suffix and postag pairs.
+   * @return the number of pairs
+   */
+  public int size() {
+    return classes.size();
+  }
+
+  /**
+   * Reads and writes the index in a model package: a line with the suffix
+   * length followed by a line per suffix and postag with its lemma classes,
+   * separated by tabs.
+   */
+  public static class Serializer implements ArtifactSerializer<LemmaClassIndex> {
+
+    public LemmaClassIndex create(InputStream in) throws IOException {
+      // the stream of the model package is not closed
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+      String line = reader.readLine();
+      if (line == null) {
+        throw new InvalidFormatException("Empty lemma class index!");
+      }
+      int suffixLength;
+      try {
+        suffixLength = Integer.parseInt(line.trim());
+      } catch (NumberFormatException e) {
+        throw new InvalidFormatException("Invalid lemma class index suffix length: " + line, e);
+      }
+      Map<String, String[]> index = new HashMap<String, String[]>();
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length < 3) {
+          throw new InvalidFormatException("Invalid lemma class index entry: " + line);
+        }
+        String[] lemmaClasses = new String[fields.length - 2];
+        System.arraycopy(fields, 2, lemmaClasses, 0, lemmaClasses.length);
+        index.put(fields[0] + SEPARATOR + fields[1], lemmaClasses);
+      }
+      return new LemmaClassIndex(suffixLength, index);
+    }
+
+    public void serialize(LemmaClassIndex artifact, OutputStream out) throws IOException {
+      Writer writer = new OutputStreamWriter(out, "UTF-8");
+      writer.write(Integer.toString(artifact.suffixLength));
+      writer.write('\n');
+      for (Map.Entry<String, String[]> entry : artifact.classes.entrySet()) {
+        writer.write(entry.getKey());
+        for (String lemmaClass : entry.getValue()) {
+          writer.write(SEPARATOR);
+          writer.write(lemmaClass);
+        }
+        writer.write('\n');
+      }
+      // the stream of the model package is not closed
+      writer.flush();
+    }
+  }
+
+}
@@ -19,20 +19,21 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import eus.ixa.ixa.pipe.pos.StringUtils;
-
 import opennlp.tools.util.FilterObjectStream;
 import opennlp.tools.util.ObjectStream;
 
 
 /**
  * Reads data for training and testing. The format consists of:
- * word\tabpostag\tablemma.
+ * word\tabpostag\tablemma. The lemmas are read as the shortest edit
+ * script from the word, memoized across streams.
  * @author ragerri
- * @version 2016-02-16
+ * @version 2016-05-28
  */
 public class LemmaSampleStream extends FilterObjectStream<String, LemmaSample> {
 
+  private final ShortestEditScripts editScripts = new ShortestEditScripts();
+
   public LemmaSampleStream(ObjectStream<String> samples) {
     super(samples);
   }
@@ -51,7 +52,7 @@ public class LemmaSampleStream extends FilterObjectStream<String, LemmaSample> {
       else {
         toks.add(parts[0]);
         tags.add(parts[1]);
-        String ses = StringUtils.getShortestEditScript(parts[0], parts[2]);
+        String ses = editScripts.getShortestEditScript(parts[0], parts[2]);
         preds.add(ses);
       }
     }
@@ -17,11 +17,20 @@ package eus.ixa.ixa.pipe.lemma;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import eus.ixa.ixa.pipe.pos.StringUtils;
+import eus.ixa.ixa.pipe.pos.DecodingStrategy;
+import eus.ixa.ixa.pipe.pos.FeatureIdBeamSearch;
+import eus.ixa.ixa.pipe.pos.FeatureIdContextGenerator;
+import eus.ixa.ixa.pipe.pos.FeatureIdModel;
+import eus.ixa.ixa.pipe.pos.IndexedMaxentModel;
+import eus.ixa.ixa.pipe.pos.OutcomeConstraints;
+import eus.ixa.ixa.pipe.pos.SequenceAlternatives;
 
 import opennlp.tools.ml.BeamSearch;
 import opennlp.tools.ml.EventModelSequenceTrainer;
@@ -47,13 +56,53 @@ import opennlp.tools.util.TrainingParameters;
 public class LemmatizerME implements Lemmatizer {
   
   public static final int DEFAULT_BEAM_SIZE = 3;
+  /**
+   * The training parameter which, if true, stores the {@link LemmaClassIndex}
+   * of the training data in the model. Models with the index cannot be read
+   * by releases which do not know its artifact.
+   */
+  public static final String LEMMA_CLASSES_PARAMETER = "LemmaClasses";
+  /**
+   * The number of previous lemma classes seen by the features of the
+   * {@link DefaultLemmatizerContextGenerator}, used by the Viterbi decoder.
+   */
+  public static final int ORDER = 1;
   protected int beamSize;
   private Sequence bestSequence;
   
   private SequenceClassificationModel<String> model;
+  /**
+   * The event model of the lemmatizer, null if it is a sequence model.
+   */
+  private MaxentModel maxentModel;
   
   private LemmatizerContextGenerator contextGenerator;
   private SequenceValidator<String> sequenceValidator;
+  /**
+   * The beam search over feature ids, null if the model or the context
+   * generator do not support feature ids.
+   */
+  private FeatureIdBeamSearch featureIdDecoder;
+  /**
+   * The beam search over feature ids which decodes sentences with some lemma
+   * classes already known, null if the decoding strategy, the model or the
+   * context generator do not support feature ids.
+   */
+  private FeatureIdBeamSearch pinnedDecoder;
+  /**
+   * The beam search over feature ids which decoded the last sentence, if
+   * {@link #bestSequence} is null.
+   */
+  private FeatureIdBeamSearch lastDecoder;
+  /**
+   * The lemma classes admitted by the suffix and postag of each token, null
+   * if every class is scored.
+   */
+  private LemmaClassIndex lemmaClassIndex;
+  /**
+   * The lemma classes of the model compiled into edit operations.
+   */
+  private EditScriptDecoder editScripts;
   
   /**
    * Initializes the current instance with the provided model
@@ -62,7 +111,41 @@ public class LemmatizerME implements Lemmatizer {
    * @param model the model
    */
   public LemmatizerME(LemmatizerModel model) {
+    this(model, DecodingStrategy.parse(DecodingStrategy.DEFAULT_DECODING));
+  }
+
+  /**
+   * Initializes the current instance with the provided model and decoding
+   * strategy. Sequence models are always decoded with their own beam search.
+   * Every lemma class is scored, so the lemmas are those of the OpenNLP beam
+   * search.
+   *
+   * @param model the model
+   * @param decoding the decoding strategy
+   */
+  public LemmatizerME(LemmatizerModel model, DecodingStrategy decoding) {
+    this(model, decoding, false);
+  }
+
+  /**
+   * Initializes the current instance with the provided model and decoding
+   * strategy, choosing whether the beam search over feature ids only scores
+   * the lemma classes admitted by the suffix and postag of each token, as
+   * given by the {@link LemmaClassIndex} of the model. Tokens whose suffix
+   * and postag are not in the index are scored over every class. Pruning is
+   * faster but, as the admitted classes are normalized among themselves, the
+   * lemmas may differ from those of scoring every class; models without an
+   * index are never pruned.
+   *
+   * @param model the model
+   * @param decoding the decoding strategy
+   * @param pruneClasses whether to score only the admitted lemma classes
+   */
+  public LemmatizerME(LemmatizerModel model, DecodingStrategy decoding, boolean pruneClasses) {
     
+    if (pruneClasses) {
+      lemmaClassIndex = model.getLemmaClassIndex();
+    }
     LemmatizerFactory factory = model.getFactory();
     int defaultBeamSize = LemmatizerME.DEFAULT_BEAM_SIZE;
     String beamSizeString = model.getManifestProperty(BeamSearch.BEAM_SIZE_PARAMETER);
@@ -71,25 +154,219 @@ public class LemmatizerME implements Lemmatizer {
     }
     
     contextGenerator = factory.getContextGenerator();
-    beamSize = defaultBeamSize;
+    beamSize = decoding.getBeamSize(defaultBeamSize);
 
     sequenceValidator = factory.getSequenceValidator();
 
     if (model.getLemmatizerSequenceModel() != null) {
       this.model = model.getLemmatizerSequenceModel();
+      this.maxentModel = model.getLemmatizerMaxentModel();
+      if (maxentModel != null && (beamSize != defaultBeamSize
+          || decoding.getType() != DecodingStrategy.Type.BEAM)) {
+        this.model = decoding.createDecoder(maxentModel, ORDER, defaultBeamSize);
+      }
+      if (decoding.getType() != DecodingStrategy.Type.VITERBI) {
+        createFeatureIdDecoders(decoding.getType() == DecodingStrategy.Type.BEAM);
+      }
     }
     else {
       this.model = new opennlp.tools.ml.BeamSearch<String>(beamSize,
           (MaxentModel) model.getLemmatizerSequenceModel(), 0);
     }
+    editScripts = new EditScriptDecoder(this.model.getOutcomes());
   }
   
+  /**
+   * Create the beam searches over feature ids, which decode as the beam search
+   * of the model without building feature strings, unless they only score the
+   * classes of the lemma class index. The beam search decoding sentences with
+   * known lemma classes is also used for greedy decoding, with a beam of 1.
+   * They require a perceptron or maxent model, a
+   * {@link FeatureIdContextGenerator} and the default sequence validator.
+   *
+   * @param beam whether to create the beam search of every sentence too
+   */
+  private void createFeatureIdDecoders(boolean beam) {
+    if (maxentModel == null || !(contextGenerator instanceof FeatureIdContextGenerator)
+        || sequenceValidator.getClass() != DefaultLemmatizerSequenceValidator.class) {
+      return;
+    }
+    FeatureIdModel featureIdModel = IndexedMaxentModel.getFeatureIdModel(maxentModel);
+    if (featureIdModel == null) {
+      return;
+    }
+    if (beam) {
+      featureIdDecoder = new FeatureIdBeamSearch(featureIdModel,
+          (FeatureIdContextGenerator) contextGenerator, (OutcomeConstraints) lemmaClassIndex,
+          beamSize, lemmaClassIndex != null);
+    }
+    pinnedDecoder = new FeatureIdBeamSearch(featureIdModel,
+        (FeatureIdContextGenerator) contextGenerator,
+        new PinnedLemmaClasses(lemmaClassIndex), beamSize, true);
+  }
+
+  /**
+   * Get the beam search over feature ids, e.g., to decode tags and lemmas
+   * jointly.
+   * @return the beam search, null if the decoding strategy, the model or its
+   * context generator do not support feature ids
+   */
+  public FeatureIdBeamSearch getFeatureIdDecoder() {
+    return featureIdDecoder;
+  }
+
 public String[] lemmatize(String[] toks, String[] tags) {
+    if (featureIdDecoder != null) {
+      String[] preds = featureIdDecoder.bestSequence(toks, new Object[] {tags});
+      if (preds != null) {
+        bestSequence = null;
+        lastDecoder = featureIdDecoder;
+        return preds;
+      }
+    }
     bestSequence = model.bestSequence(toks, new Object[] {tags}, contextGenerator, sequenceValidator);
     List<String> c = bestSequence.getOutcomes();
     return c.toArray(new String[c.size()]);
   }
-  
+
+  /**
+   * Predicts the lemma classes of a sentence into an array, e.g., the lemma
+   * buffer of a {@code BatchAnnotation}.
+   * @param toks the array of tokens
+   * @param tags the array of pos tags
+   * @param preds the array where the class of each token is stored
+   * @param offset the index of the class of the first token
+   */
+  public void lemmatizeInto(String[] toks, String[] tags, String[] preds, int offset) {
+    if (featureIdDecoder != null
+        && featureIdDecoder.bestSequence(toks, new Object[] {tags}, preds, offset)) {
+      bestSequence = null;
+      lastDecoder = featureIdDecoder;
+      return;
+    }
+    String[] classes = lemmatize(toks, tags);
+    System.arraycopy(classes, 0, preds, offset, classes.length);
+  }
+
+  /**
+   * Predicts the k best sequences of lemma classes of a sentence and the most
+   * probable classes of each token, with their marginal probabilities, in a
+   * single decoding pass.
+   *
+   * @param toks the array of tokens
+   * @param tags the array of pos tags
+   * @param k the number of sequences and classes per token to keep
+   * @return the lemma class alternatives
+   */
+  public SequenceAlternatives lemmatize(String[] toks, String[] tags, int k) {
+    if (featureIdDecoder != null) {
+      SequenceAlternatives alternatives = featureIdDecoder.bestSequences(toks, new Object[] {tags}, k);
+      if (alternatives != null) {
+        bestSequence = null;
+        lastDecoder = featureIdDecoder;
+        return alternatives;
+      }
+    }
+    Sequence[] sequences = model.bestSequences(k, toks, new Object[] {tags}, contextGenerator, sequenceValidator);
+    bestSequence = sequences[0];
+    return SequenceAlternatives.fromSequences(sequences, k);
+  }
+
+  /**
+   * Predicts the lemma classes of a sentence in which some classes are
+   * already known, keeping the k best sequences and the most probable classes
+   * of each token, as {@link #lemmatize(String[], String[], String[])}
+   * decodes them; decoders other than the beam search over feature ids only
+   * keep the best sequence. The known classes are the only alternatives of
+   * their tokens.
+   *
+   * @param toks the array of tokens
+   * @param tags the array of pos tags
+   * @param pinned the known lemma class of each token, null if unknown
+   * @param k the number of sequences and classes per token to keep
+   * @return the lemma class alternatives
+   */
+  public SequenceAlternatives lemmatize(String[] toks, String[] tags, String[] pinned, int k) {
+    SequenceAlternatives alternatives;
+    if (pinnedDecoder != null) {
+      alternatives = pinnedDecoder.bestSequences(toks, new Object[] {tags, pinned}, k);
+      if (alternatives != null) {
+        bestSequence = null;
+        lastDecoder = pinnedDecoder;
+      }
+      else {
+        alternatives = lemmatize(toks, tags, k);
+      }
+    }
+    else {
+      lemmatize(toks, tags, pinned);
+      alternatives = SequenceAlternatives.fromSequences(new Sequence[] {bestSequence}, k);
+    }
+    for (int i = 0; i < toks.length; i++) {
+      if (pinned[i] != null) {
+        alternatives.pin(i, pinned[i]);
+      }
+    }
+    return alternatives;
+  }
+
+  /**
+   * Predicts the lemma classes of a sentence in which some classes are already
+   * known, e.g., from a lemma dictionary. The beam search over feature ids
+   * allows a single outcome for each token whose class is known, which is
+   * appended to every hypothesis without being scored, so that the following
+   * tokens see it as their previous prediction. Known classes which are not
+   * outcomes of the model are decoded as any other token and then replaced.
+   * Other decoders pin the known classes with the sequence validator, so
+   * they are still scored. If no sequence is valid, the classes are those of
+   * the best sequence without pinning, replaced by the known ones.
+   *
+   * @param toks the array of tokens
+   * @param tags the array of pos tags
+   * @param pinned the known lemma class of each token, null if unknown
+   * @return the array of lemma classes
+   */
+  public String[] lemmatize(String[] toks, String[] tags, final String[] pinned) {
+    String[] preds = null;
+    if (pinnedDecoder != null) {
+      preds = pinnedDecoder.bestSequence(toks, new Object[] {tags, pinned});
+      if (preds != null) {
+        bestSequence = null;
+        lastDecoder = pinnedDecoder;
+      }
+    }
+    else {
+      // sequence models are only accessible via bestSequence: pin the known
+      // classes with the validator, they are still scored; the Viterbi search
+      // is exact under the constraint too
+      final String[] outcomes = model.getOutcomes();
+      final Set<String> knownOutcomes = new HashSet<String>(Arrays.asList(outcomes));
+      SequenceValidator<String> pinnedValidator = new SequenceValidator<String>() {
+        public boolean validSequence(int i, String[] sequence, String[] s, String outcome) {
+          if (pinned[i] != null && knownOutcomes.contains(pinned[i])) {
+            return pinned[i].equals(outcome);
+          }
+          return sequenceValidator.validSequence(i, sequence, s, outcome);
+        }
+      };
+      Sequence sequence = model.bestSequence(toks, new Object[] {tags}, contextGenerator, pinnedValidator);
+      if (sequence != null) {
+        bestSequence = sequence;
+        List<String> c = sequence.getOutcomes();
+        preds = c.toArray(new String[c.size()]);
+      }
+    }
+    if (preds == null) {
+      preds = lemmatize(toks, tags);
+    }
+    for (int i = 0; i < preds.length; i++) {
+      if (pinned[i] != null) {
+        preds[i] = pinned[i];
+      }
+    }
+    return preds;
+  }
+
   /**
    * Decodes the lemma from the word and the induced lemma class.
    * @param toks the array of tokens
@@ -99,15 +376,27 @@ public String[] lemmatize(String[] toks, String[] tags) {
   public String[] decodeLemmas(String[] toks, String[] preds) {
     List<String> lemmas = new ArrayList<String>();
     for (int i = 0; i < toks.length; i++) {
-      String lemma = StringUtils.decodeShortestEditScript(toks[i].toLowerCase(), preds[i]);
+      String lemma = decodeLemma(toks[i], preds[i]);
       //System.err.println("-> DEBUG: " + toks[i].toLowerCase() + " " + preds[i] + " " + lemma);
-      if (lemma.length() == 0) {
-        lemma = "_";
-      }
       lemmas.add(lemma);
     }
     return lemmas.toArray(new String[lemmas.size()]);
   }
+
+  /**
+   * Decodes the lemma of a word from its induced lemma class, applying the
+   * edit operations compiled when the model was loaded.
+   * @param tok the token
+   * @param pred the lemma class
+   * @return the lemma, "_" if empty
+   */
+  public String decodeLemma(String tok, String pred) {
+    String lemma = editScripts.decode(tok.toLowerCase(), pred);
+    if (lemma.length() == 0) {
+      lemma = "_";
+    }
+    return lemma;
+  }
   
   public Sequence[] topKSequences(String[] sentence, String[] tags) {
     return model.bestSequences(DEFAULT_BEAM_SIZE, sentence,
@@ -127,6 +416,11 @@ public String[] lemmatize(String[] toks, String[] tags) {
    * @param probs An array used to hold the probabilities of the last decoded sequence.
    */
   public void probs(double[] probs) {
+    if (bestSequence == null) {
+      double[] decoded = lastDecoder.getProbs();
+      System.arraycopy(decoded, 0, probs, 0, decoded.length);
+      return;
+    }
     bestSequence.getProbs(probs);
   }
 
@@ -137,6 +431,9 @@ public String[] lemmatize(String[] toks, String[] tags) {
      * when it was last called.
      */
   public double[] probs() {
+    if (bestSequence == null) {
+      return lastDecoder.getProbs();
+    }
     return bestSequence.getProbs();
   }
   
@@ -159,6 +456,12 @@ public String[] lemmatize(String[] toks, String[] tags) {
 
     MaxentModel lemmatizerModel = null;
     SequenceClassificationModel<String> seqLemmatizerModel = null;
+    LemmaClassIndex lemmaClassIndex = null;
+    if (!TrainerType.SEQUENCE_TRAINER.equals(trainerType)
+        && Boolean.valueOf(trainParams.getSettings().get(LEMMA_CLASSES_PARAMETER))) {
+      // the lemma classes of each suffix and postag, for the beam search
+      lemmaClassIndex = LemmaClassIndex.build(samples, LemmaClassIndex.DEFAULT_SUFFIX_LENGTH);
+    }
     if (TrainerType.EVENT_MODEL_TRAINER.equals(trainerType)) {
       ObjectStream<Event> es = new LemmaSampleEventStream(samples, contextGenerator);
 
@@ -186,7 +489,8 @@ public String[] lemmatize(String[] toks, String[] tags) {
     }
 
     if (lemmatizerModel != null) {
-      return new LemmatizerModel(languageCode, lemmatizerModel, beamSize, manifestInfoEntries, posFactory);
+      return new LemmatizerModel(languageCode, lemmatizerModel, beamSize, manifestInfoEntries, posFactory,
+          lemmaClassIndex);
     }
     else {
       return new LemmatizerModel(languageCode, seqLemmatizerModel, manifestInfoEntries, posFactory);
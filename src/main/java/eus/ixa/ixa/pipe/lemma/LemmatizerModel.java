@@ -23,11 +23,11 @@ import java.util.Map;
 import java.util.Properties;
 
 import opennlp.tools.ml.BeamSearch;
-import opennlp.tools.ml.model.AbstractModel;
 import opennlp.tools.ml.model.MaxentModel;
 import opennlp.tools.ml.model.SequenceClassificationModel;
 import opennlp.tools.util.BaseToolFactory;
 import opennlp.tools.util.InvalidFormatException;
+import opennlp.tools.util.model.ArtifactSerializer;
 import opennlp.tools.util.model.BaseModel;
 
 /**
@@ -40,6 +40,8 @@ public class LemmatizerModel extends BaseModel {
 
   private static final String COMPONENT_NAME = "StatisticalLemmatizer";
   private static final String LEMMATIZER_MODEL_ENTRY_NAME = "lemmatizer.model";
+  private static final String LEMMA_CLASS_INDEX_EXTENSION = "lemmaclasses";
+  private static final String LEMMA_CLASS_INDEX_ENTRY_NAME = "lemmatizer." + LEMMA_CLASS_INDEX_EXTENSION;
 
   public LemmatizerModel(String languageCode, SequenceClassificationModel<String> lemmatizerModel,
       Map<String, String> manifestInfoEntries, LemmatizerFactory factory) {
@@ -55,8 +57,27 @@ public class LemmatizerModel extends BaseModel {
 
   public LemmatizerModel(String languageCode, MaxentModel lemmatizerModel, int beamSize,
       Map<String, String> manifestInfoEntries, LemmatizerFactory factory) {
+    this(languageCode, lemmatizerModel, beamSize, manifestInfoEntries, factory, null);
+  }
+
+  /**
+   * Creates a lemmatizer model with the index of the lemma classes seen for
+   * each suffix and postag in the training data.
+   * @param languageCode the language
+   * @param lemmatizerModel the model
+   * @param beamSize the beam size
+   * @param manifestInfoEntries the manifest entries
+   * @param factory the factory
+   * @param lemmaClassIndex the lemma class index, null if none
+   */
+  public LemmatizerModel(String languageCode, MaxentModel lemmatizerModel, int beamSize,
+      Map<String, String> manifestInfoEntries, LemmatizerFactory factory,
+      LemmaClassIndex lemmaClassIndex) {
     super(COMPONENT_NAME, languageCode, manifestInfoEntries, factory);
     artifactMap.put(LEMMATIZER_MODEL_ENTRY_NAME, lemmatizerModel);
+    if (lemmaClassIndex != null) {
+      artifactMap.put(LEMMA_CLASS_INDEX_ENTRY_NAME, lemmaClassIndex);
+    }
 
     Properties manifest = (Properties) artifactMap.get(MANIFEST_ENTRY);
     manifest.put(BeamSearch.BEAM_SIZE_PARAMETER, Integer.toString(beamSize));
@@ -83,7 +104,7 @@ public class LemmatizerModel extends BaseModel {
   protected void validateArtifactMap() throws InvalidFormatException {
     super.validateArtifactMap();
 
-    if (!(artifactMap.get(LEMMATIZER_MODEL_ENTRY_NAME) instanceof AbstractModel)) {
+    if (!(artifactMap.get(LEMMATIZER_MODEL_ENTRY_NAME) instanceof MaxentModel)) {
       throw new InvalidFormatException("Lemmatizer model is incomplete!");
     }
   }
@@ -110,6 +131,35 @@ public class LemmatizerModel extends BaseModel {
     }
   }
 
+  /**
+   * Get the event model of the lemmatizer, if it was trained with an event
+   * trainer.
+   *
+   * @return the maxent model or null if the lemmatizer is a sequence model
+   */
+  public MaxentModel getLemmatizerMaxentModel() {
+    if (artifactMap.get(LEMMATIZER_MODEL_ENTRY_NAME) instanceof MaxentModel) {
+      return (MaxentModel) artifactMap.get(LEMMATIZER_MODEL_ENTRY_NAME);
+    }
+    return null;
+  }
+
+  /**
+   * Get the index of the lemma classes seen for each suffix and postag in
+   * the training data.
+   * @return the index, null if the model was trained without it
+   */
+  public LemmaClassIndex getLemmaClassIndex() {
+    return (LemmaClassIndex) artifactMap.get(LEMMA_CLASS_INDEX_ENTRY_NAME);
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  protected void createArtifactSerializers(Map<String, ArtifactSerializer> serializers) {
+    super.createArtifactSerializers(serializers);
+    serializers.put(LEMMA_CLASS_INDEX_EXTENSION, new LemmaClassIndex.Serializer());
+  }
+
   @Override
   protected Class<? extends BaseToolFactory> getDefaultFactory() {
     return LemmatizerFactory.class;
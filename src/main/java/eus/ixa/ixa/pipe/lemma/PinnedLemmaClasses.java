@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import eus.ixa.ixa.pipe.pos.FeatureIdBeamSearch;
+import eus.ixa.ixa.pipe.pos.OutcomeConstraints;
+
+/**
+ * The lemma classes of a sentence in which the classes of some tokens are
+ * already known, e.g., from a lemma dictionary. The known class of a token is
+ * its only allowed outcome, so a restricted {@link FeatureIdBeamSearch}
+ * appends it to every hypothesis without scoring it; the rest of tokens are
+ * constrained by the other constraints, if any. The known classes are the
+ * second element of the additional context, after the postags.
+ * @author ragerri
+ * @version 2016-05-31
+ */
+final class PinnedLemmaClasses implements OutcomeConstraints {
+
+  /**
+   * The constraints of the tokens whose class is not known, null if none.
+   */
+  private final OutcomeConstraints constraints;
+  /**
+   * The known class of the current token, reused for every token.
+   */
+  private final String[] pinnedClass = new String[1];
+
+  /**
+   * Constrain the tokens whose class is known.
+   * @param someConstraints the constraints of the rest of tokens, null if none
+   */
+  PinnedLemmaClasses(OutcomeConstraints someConstraints) {
+    constraints = someConstraints;
+  }
+
+  public String[] getAllowedOutcomes(int index, String[] tokens, Object[] additionalContext) {
+    String[] pinned = (String[]) additionalContext[1];
+    if (pinned[index] != null) {
+      pinnedClass[0] = pinned[index];
+      return pinnedClass;
+    }
+    return constraints == null ? null : constraints.getAllowedOutcomes(index, tokens, additionalContext);
+  }
+
+}
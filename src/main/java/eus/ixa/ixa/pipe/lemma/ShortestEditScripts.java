@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import eus.ixa.ixa.pipe.pos.StringUtils;
+
+/**
+ * Computes the shortest edit scripts (SES) of the training data of the
+ * lemmatizer. The scripts are the same as those of
+ * {@link StringUtils#getShortestEditScript(String, String)}, but the
+ * Levenshtein distance matrix and the reversed strings are kept in buffers
+ * reused for every pair, and the script of each (word form, lemma) pair is
+ * memoized in a cache shared by every instance, so that the pairs repeated
+ * across a corpus, the folds of a cross evaluation or the training runs of
+ * the same process are computed once.
+ * <p>
+ * The buffers make instances not thread safe; the shared cache is.
+ * @author ragerri
+ * @version 2016-05-28
+ */
+public class ShortestEditScripts {
+
+  /**
+   * The maximum number of (word form, lemma) pairs of the shared cache.
+   */
+  public static final long MAX_CACHED_SCRIPTS = 1000000;
+
+  /**
+   * The scripts shared by every instance.
+   */
+  private static final Cache<String, String> SHARED_SCRIPTS = CacheBuilder
+      .newBuilder().maximumSize(MAX_CACHED_SCRIPTS).build();
+
+  /**
+   * The memoized scripts, keyed by word form and lemma.
+   */
+  private final Cache<String, String> scripts;
+  /**
+   * The Levenshtein distance matrix, row by row.
+   */
+  private int[] distance = new int[256];
+  private final StringBuilder reversedWordForm = new StringBuilder();
+  private final StringBuilder reversedLemma = new StringBuilder();
+  private final StringBuilder permutations = new StringBuilder();
+  private final StringBuilder key = new StringBuilder();
+
+  /**
+   * Construct a SES computer memoizing in the shared cache.
+   */
+  public ShortestEditScripts() {
+    this(SHARED_SCRIPTS);
+  }
+
+  /**
+   * Construct a SES computer.
+   * @param aScripts the cache of scripts, null for no memoization
+   */
+  ShortestEditScripts(Cache<String, String> aScripts) {
+    scripts = aScripts;
+  }
+
+  /**
+   * Get the SES required to go from a word to a lemma.
+   * @param wordForm the word
+   * @param lemma the lemma
+   * @return the shortest edit script
+   */
+  public String getShortestEditScript(String wordForm, String lemma) {
+    if (scripts == null) {
+      return computeShortestEditScript(wordForm, lemma);
+    }
+    // the length of the word form keeps the key unambiguous
+    key.setLength(0);
+    key.append(wordForm.length()).append(' ').append(wordForm).append(lemma);
+    String pairKey = key.toString();
+    String ses = scripts.getIfPresent(pairKey);
+    if (ses == null) {
+      ses = computeShortestEditScript(wordForm, lemma);
+      scripts.put(pairKey, ses);
+    }
+    return ses;
+  }
+
+  /**
+   * Compute the SES required to go from a word to a lemma, as
+   * {@link StringUtils#levenshteinDistance(String, String)} and
+   * {@link StringUtils#computeShortestEditScript} do, on the reused buffers.
+   * @param wordForm the word
+   * @param lemma the lemma
+   * @return the shortest edit script
+   */
+  private String computeShortestEditScript(String wordForm, String lemma) {
+    String lowerWordForm = wordForm.toLowerCase();
+    String lowerLemma = lemma.toLowerCase();
+    if (lowerWordForm.equals(lowerLemma)) {
+      return "O";
+    }
+    reversedWordForm.setLength(0);
+    reversedWordForm.append(lowerWordForm).reverse();
+    reversedLemma.setLength(0);
+    reversedLemma.append(lowerLemma).reverse();
+    int n = reversedWordForm.length();
+    int m = reversedLemma.length();
+    if (n == 0 || m == 0) {
+      // the distance matrix of an empty string is left empty
+      return "";
+    }
+    int width = m + 1;
+    if (distance.length < (n + 1) * width) {
+      distance = new int[Math.max(distance.length * 2, (n + 1) * width)];
+    }
+    for (int i = 0; i <= n; i++) {
+      distance[i * width] = i;
+    }
+    for (int j = 0; j <= m; j++) {
+      distance[j] = j;
+    }
+    for (int i = 1; i <= n; i++) {
+      char c = reversedWordForm.charAt(i - 1);
+      int row = i * width;
+      for (int j = 1; j <= m; j++) {
+        int cost = c == reversedLemma.charAt(j - 1) ? 0 : 1;
+        int min = distance[row - width + j] + 1;
+        if (distance[row + j - 1] + 1 < min) {
+          min = distance[row + j - 1] + 1;
+        }
+        if (distance[row - width + j - 1] + cost < min) {
+          min = distance[row - width + j - 1] + cost;
+        }
+        distance[row + j] = min;
+      }
+    }
+    permutations.setLength(0);
+    int i = n;
+    int j = m;
+    while (distance[i * width + j] != 0) {
+      int current = distance[i * width + j];
+      if (i > 0 && j > 0 && distance[(i - 1) * width + j - 1] < current) {
+        permutations.append('R').append(i - 1).append(reversedWordForm.charAt(i - 1)).append(reversedLemma.charAt(j - 1));
+        i--;
+        j--;
+      }
+      else if (j > 0 && distance[i * width + j - 1] < current) {
+        permutations.append('I').append(i).append(reversedLemma.charAt(j - 1));
+        j--;
+      }
+      else if (i > 0 && distance[(i - 1) * width + j] < current) {
+        permutations.append('D').append(i - 1).append(reversedWordForm.charAt(i - 1));
+        i--;
+      }
+      else if (i > 0 && j > 0 && distance[(i - 1) * width + j - 1] == current) {
+        i--;
+        j--;
+      }
+      else if (i > 0 && distance[(i - 1) * width + j] == current) {
+        i--;
+      }
+      else if (j > 0 && distance[i * width + j - 1] == current) {
+        j--;
+      }
+    }
+    return permutations.toString();
+  }
+
+}
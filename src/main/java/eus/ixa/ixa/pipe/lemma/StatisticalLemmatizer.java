@@ -15,17 +15,30 @@
  */
 package eus.ixa.ixa.pipe.lemma;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 
+import opennlp.tools.util.Sequence;
+
+import eus.ixa.ixa.pipe.pos.CompiledModels;
+import eus.ixa.ixa.pipe.pos.DecodingStrategy;
+import eus.ixa.ixa.pipe.pos.FeatureIdBeamSearch;
+import eus.ixa.ixa.pipe.pos.JointDecoder;
+import eus.ixa.ixa.pipe.pos.ModelRegistry;
 import eus.ixa.ixa.pipe.pos.Morpheme;
 import eus.ixa.ixa.pipe.pos.MorphoFactory;
+import eus.ixa.ixa.pipe.pos.SequenceAlternatives;
+import eus.ixa.ixa.pipe.pos.StatisticalTagger;
+import eus.ixa.ixa.pipe.pos.StringUtils;
 
 /**
  * Probabilistic lemmatizer.
@@ -41,14 +54,43 @@ public class StatisticalLemmatizer {
    */
   private final LemmatizerME lemmatizer;
   /**
-   * The models to use for every language. The keys of the hashmap are the language
-   * codes, the values the models.
+   * The model wrapped by the lemmatizer.
+   */
+  private final LemmatizerModel lemmatizerModel;
+  /**
+   * The registry of models, shared by every instance. Models are identified by
+   * path and checksum, so several models of the same language can be in use.
    */
-  private static ConcurrentHashMap<String, LemmatizerModel> lemmaModels = new ConcurrentHashMap<String, LemmatizerModel>();
+  private static final ModelRegistry<LemmatizerModel> MODELS = new ModelRegistry<LemmatizerModel>(
+      new ModelRegistry.ModelLoader<LemmatizerModel>() {
+        public LemmatizerModel load(final File modelFile) throws IOException {
+          final long lStartTime = new Date().getTime();
+          final LemmatizerModel model = CompiledModels.isCompiled(modelFile) ? CompiledModels
+              .loadLemmatizerModel(modelFile) : new LemmatizerModel(modelFile);
+          final long lEndTime = new Date().getTime();
+          final long difference = lEndTime - lStartTime;
+          System.err.println("ixa-pipe-lemma model loaded in: " + difference
+              + " miliseconds ... [DONE]");
+          return model;
+        }
+      });
+  /**
+   * The handle to the model in the registry, null if the model was not
+   * obtained from the registry.
+   */
+  private final ModelRegistry.Handle<LemmatizerModel> modelHandle;
   /**
    * The morpho factory.
    */
   private MorphoFactory morphoFactory;
+  /**
+   * The joint decoder of tags and lemmas, created for the last tagger used.
+   */
+  private JointDecoder jointDecoder;
+  /**
+   * The tagger of the joint decoder.
+   */
+  private StatisticalTagger jointTagger;
 
   /**
    * Construct a statistical lemmatizer.
@@ -57,10 +99,12 @@ public class StatisticalLemmatizer {
    *          the properties object
    */
   public StatisticalLemmatizer(final Properties props) {
-    final String lang = props.getProperty("language");
     final String model = props.getProperty("lemmatizerModel");
-    final LemmatizerModel lemmatizerModel = loadModel(lang, model);
-    this.lemmatizer = new LemmatizerME(lemmatizerModel);
+    this.modelHandle = loadModel(model);
+    this.lemmatizerModel = this.modelHandle.get();
+    this.lemmatizer = new LemmatizerME(this.lemmatizerModel,
+        DecodingStrategy.parse(props.getProperty("decoding")),
+        Boolean.valueOf(props.getProperty("pruneLemmaClasses")));
   }
 
   /**
@@ -72,10 +116,69 @@ public class StatisticalLemmatizer {
    *          the morpho factory
    */
   public StatisticalLemmatizer(final Properties props, final MorphoFactory aMorphoFactory) {
-    final String lang = props.getProperty("language");
     final String model = props.getProperty("lemmatizerModel");
-    final LemmatizerModel posModel = loadModel(lang, model);
-    this.lemmatizer = new LemmatizerME(posModel);
+    this.modelHandle = loadModel(model);
+    this.lemmatizerModel = this.modelHandle.get();
+    this.lemmatizer = new LemmatizerME(this.lemmatizerModel,
+        DecodingStrategy.parse(props.getProperty("decoding")),
+        Boolean.valueOf(props.getProperty("pruneLemmaClasses")));
+    this.morphoFactory = aMorphoFactory;
+  }
+
+  /**
+   * Construct a statistical lemmatizer over an already loaded model. The
+   * {@code LemmatizerME} is not thread-safe, but several lemmatizers can share
+   * the same {@link LemmatizerModel}.
+   * 
+   * @param aLemmatizerModel
+   *          the model
+   * @param aMorphoFactory
+   *          the morpho factory
+   */
+  public StatisticalLemmatizer(final LemmatizerModel aLemmatizerModel,
+      final MorphoFactory aMorphoFactory) {
+    this(aLemmatizerModel, aMorphoFactory, DecodingStrategy
+        .parse(DecodingStrategy.DEFAULT_DECODING));
+  }
+
+  /**
+   * Construct a statistical lemmatizer over an already loaded model with a
+   * decoding strategy.
+   * 
+   * @param aLemmatizerModel
+   *          the model
+   * @param aMorphoFactory
+   *          the morpho factory
+   * @param decoding
+   *          the decoding strategy
+   */
+  public StatisticalLemmatizer(final LemmatizerModel aLemmatizerModel,
+      final MorphoFactory aMorphoFactory, final DecodingStrategy decoding) {
+    this(aLemmatizerModel, aMorphoFactory, decoding, false);
+  }
+
+  /**
+   * Construct a statistical lemmatizer over an already loaded model with a
+   * decoding strategy, choosing whether to score only the lemma classes
+   * admitted by the lemma class index of the model, see
+   * {@link LemmatizerME#LemmatizerME(LemmatizerModel, DecodingStrategy, boolean)}.
+   * 
+   * @param aLemmatizerModel
+   *          the model
+   * @param aMorphoFactory
+   *          the morpho factory
+   * @param decoding
+   *          the decoding strategy
+   * @param pruneClasses
+   *          whether to score only the admitted lemma classes
+   */
+  public StatisticalLemmatizer(final LemmatizerModel aLemmatizerModel,
+      final MorphoFactory aMorphoFactory, final DecodingStrategy decoding,
+      final boolean pruneClasses) {
+    this.modelHandle = null;
+    this.lemmatizerModel = aLemmatizerModel;
+    this.lemmatizer = new LemmatizerME(this.lemmatizerModel, decoding,
+        pruneClasses);
     this.morphoFactory = aMorphoFactory;
   }
 
@@ -100,12 +203,181 @@ public class StatisticalLemmatizer {
    * @return the lemmas
    */
   public List<String> lemmatize(String[] tokens, String[] posTags) {
+    final List<String> lemmas = new ArrayList<String>(Arrays.asList(getLemmas(tokens, posTags)));
+    return lemmas;
+  }
+
+  /**
+   * Produce lemmas from a tokenized sentence and its postags.
+   * @param tokens the tokens
+   * @param posTags the pos tags
+   * @return the array of lemmas
+   */
+  public String[] getLemmas(String[] tokens, String[] posTags) {
     String[] annotatedLemmas = lemmatizer.lemmatize(tokens, posTags);
-    String[] decodedLemmas = lemmatizer.decodeLemmas(tokens, annotatedLemmas);
-    final List<String> lemmas = new ArrayList<String>(Arrays.asList(decodedLemmas));
+    return lemmatizer.decodeLemmas(tokens, annotatedLemmas);
+  }
+
+  /**
+   * Produce lemmas from a tokenized sentence and its postags into an array,
+   * e.g., the lemma buffer of a {@code BatchAnnotation}, decoding the lemma
+   * classes in place.
+   * @param tokens the tokens
+   * @param posTags the pos tags
+   * @param lemmas the array where the lemma of each token is stored
+   * @param offset the index of the lemma of the first token
+   */
+  public void getLemmas(String[] tokens, String[] posTags, String[] lemmas, int offset) {
+    lemmatizer.lemmatizeInto(tokens, posTags, lemmas, offset);
+    for (int i = 0; i < tokens.length; i++) {
+      lemmas[offset + i] = lemmatizer.decodeLemma(tokens[i], lemmas[offset + i]);
+    }
+  }
+
+  /**
+   * Produce lemmas from a tokenized sentence and its postags, given the lemmas
+   * already known for some of its tokens, e.g., from a dictionary. The known
+   * lemmas are pinned in the decoder, so that only the rest of tokens are
+   * scored by the model.
+   * @param tokens the tokens
+   * @param posTags the pos tags
+   * @param knownLemmas the known lemma of each token, null if unknown
+   * @return the array of lemmas
+   */
+  public String[] getLemmas(String[] tokens, String[] posTags, String[] knownLemmas) {
+    final String[] pinned = new String[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      if (knownLemmas[i] != null) {
+        pinned[i] = StringUtils.getShortestEditScript(tokens[i], knownLemmas[i]);
+      }
+    }
+    final String[] lemmas = lemmatizer.decodeLemmas(tokens, lemmatizer.lemmatize(tokens, posTags, pinned));
+    for (int i = 0; i < tokens.length; i++) {
+      if (knownLemmas[i] != null) {
+        lemmas[i] = knownLemmas[i];
+      }
+    }
     return lemmas;
   }
 
+  /**
+   * Produce the postags and lemmas of a tokenized sentence in a single
+   * decoding pass of the tagger and lemmatizer models, instead of
+   * lemmatizing the best sequence of postags of the tagger. The tagger must
+   * not be used concurrently.
+   * @param tagger the tagger
+   * @param tokens the tokens
+   * @return the postags and the lemmas, null if the tagger or the lemmatizer
+   * do not decode over feature ids or no sequence is valid
+   */
+  public String[][] tagAndLemmatize(StatisticalTagger tagger, String[] tokens) {
+    if (tagger != jointTagger) {
+      final FeatureIdBeamSearch tagSearch = tagger.getFeatureIdDecoder();
+      final FeatureIdBeamSearch lemmaSearch = lemmatizer.getFeatureIdDecoder();
+      jointDecoder = tagSearch == null || lemmaSearch == null ? null : new JointDecoder(tagSearch, lemmaSearch);
+      jointTagger = tagger;
+    }
+    if (jointDecoder == null) {
+      return null;
+    }
+    final String[][] decoded = jointDecoder.decode(tokens);
+    if (decoded == null) {
+      return null;
+    }
+    return new String[][] {decoded[0], lemmatizer.decodeLemmas(tokens, decoded[1])};
+  }
+
+  /**
+   * Produce the k best sequences of lemmas of a tokenized sentence and its
+   * postags, and the most probable lemmas of each token with their marginal
+   * probabilities, in a single decoding pass.
+   * @param tokens the tokens
+   * @param posTags the pos tags
+   * @param k the number of sequences and lemmas per token to keep
+   * @return the lemma alternatives
+   */
+  public SequenceAlternatives getLemmaAlternatives(String[] tokens, String[] posTags, int k) {
+    return decodeAlternatives(tokens, lemmatizer.lemmatize(tokens, posTags, k));
+  }
+
+  /**
+   * Produce the most probable lemmas of each token of a tokenized sentence and
+   * its postags, given the lemmas already known for some of its tokens. The
+   * known lemmas are pinned as in {@link #getLemmas(String[], String[], String[])}
+   * and are the only alternatives of their tokens.
+   * @param tokens the tokens
+   * @param posTags the pos tags
+   * @param knownLemmas the known lemma of each token, null if unknown
+   * @param k the number of lemmas per token to keep
+   * @return the lemma alternatives
+   */
+  public SequenceAlternatives getLemmaAlternatives(String[] tokens, String[] posTags, String[] knownLemmas, int k) {
+    final String[] pinned = new String[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      if (knownLemmas[i] != null) {
+        pinned[i] = StringUtils.getShortestEditScript(tokens[i], knownLemmas[i]);
+      }
+    }
+    final SequenceAlternatives alternatives = decodeAlternatives(tokens,
+        lemmatizer.lemmatize(tokens, posTags, pinned, k));
+    for (int i = 0; i < tokens.length; i++) {
+      if (knownLemmas[i] != null) {
+        alternatives.pin(i, knownLemmas[i]);
+      }
+    }
+    return alternatives;
+  }
+
+  /**
+   * Decode the lemmas of lemma class alternatives. Classes decoding to the
+   * same lemma are merged adding up their probabilities.
+   * @param tokens the tokens
+   * @param classes the lemma class alternatives
+   * @return the lemma alternatives
+   */
+  private SequenceAlternatives decodeAlternatives(String[] tokens, SequenceAlternatives classes) {
+    final Sequence[] classSequences = classes.getSequences();
+    final Sequence[] sequences = new Sequence[classSequences.length];
+    for (int h = 0; h < classSequences.length; h++) {
+      final List<String> preds = classSequences[h].getOutcomes();
+      final double[] probs = classSequences[h].getProbs();
+      sequences[h] = new Sequence();
+      for (int i = 0; i < tokens.length; i++) {
+        sequences[h].add(lemmatizer.decodeLemma(tokens[i], preds.get(i)), probs[i]);
+      }
+    }
+    final String[][] outcomes = new String[tokens.length][];
+    final double[][] probs = new double[tokens.length][];
+    final double[] confidences = new double[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      final String best = lemmatizer.decodeLemma(tokens[i], classes.getBestOutcome(i));
+      confidences[i] = classes.getConfidence(i);
+      final Map<String, Double> lemmaProbs = new LinkedHashMap<String, Double>();
+      final String[] preds = classes.getOutcomes(i);
+      for (int j = 0; j < preds.length; j++) {
+        final String lemma = lemmatizer.decodeLemma(tokens[i], preds[j]);
+        final Double prob = lemmaProbs.get(lemma);
+        lemmaProbs.put(lemma, prob == null ? classes.getProbs(i)[j] : prob + classes.getProbs(i)[j]);
+        if (lemma.equals(best) && !preds[j].equals(classes.getBestOutcome(i))) {
+          confidences[i] += classes.getProbs(i)[j];
+        }
+      }
+      final List<Map.Entry<String, Double>> entries = new ArrayList<Map.Entry<String, Double>>(lemmaProbs.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+        public int compare(Map.Entry<String, Double> e1, Map.Entry<String, Double> e2) {
+          return Double.compare(e2.getValue(), e1.getValue());
+        }
+      });
+      outcomes[i] = new String[entries.size()];
+      probs[i] = new double[entries.size()];
+      for (int j = 0; j < entries.size(); j++) {
+        outcomes[i][j] = entries.get(j).getKey();
+        probs[i][j] = entries.get(j).getValue();
+      }
+    }
+    return new SequenceAlternatives(sequences, outcomes, probs, confidences);
+  }
+
   /**
    * Create {@code Morpheme} objects from the output of posAnnotate.
    * @param tokens the tokens
@@ -127,31 +399,47 @@ public class StatisticalLemmatizer {
   }
 
   /**
-   * Loads statically the probabilistic model. Every instance of this finder
-   * will share the same model.
+   * Get the model used by this lemmatizer.
+   * 
+   * @return the model
+   */
+  public final LemmatizerModel getModel() {
+    return this.lemmatizerModel;
+  }
+
+  /**
+   * Release the model in the registry, if it was obtained from it. The model
+   * is unloaded once no other instance uses it.
+   */
+  public final void release() {
+    if (this.modelHandle != null) {
+      this.modelHandle.release();
+    }
+  }
+
+  /**
+   * Get the registry of models shared by every instance.
+   * 
+   * @return the model registry
+   */
+  public static ModelRegistry<LemmatizerModel> getModelRegistry() {
+    return MODELS;
+  }
+
+  /**
+   * Leases the probabilistic model from the registry. Every instance using the
+   * same model file will share the same model.
    * 
-   * @param lang
-   *          the language
    * @param model
    *          the model to be loaded
-   * @return the model as a {@link LemmatizerModel} object
+   * @return the handle to the model
    */
-  private LemmatizerModel loadModel(final String lang, final String model) {
-    final long lStartTime = new Date().getTime();
+  private ModelRegistry.Handle<LemmatizerModel> loadModel(final String model) {
     try {
-      synchronized (lemmaModels) {
-        if (!lemmaModels.containsKey(lang)) {
-          lemmaModels.put(lang, new LemmatizerModel(new FileInputStream(model)));
-        }
-      }
+      return MODELS.acquire(model);
     } catch (final IOException e) {
-      e.printStackTrace();
+      throw new IllegalArgumentException("Could not load model " + model, e);
     }
-    final long lEndTime = new Date().getTime();
-    final long difference = lEndTime - lStartTime;
-    System.err.println("ixa-pipe-lemma model loaded in: " + difference
-        + " miliseconds ... [DONE]");
-    return lemmaModels.get(lang);
   }
 
 }
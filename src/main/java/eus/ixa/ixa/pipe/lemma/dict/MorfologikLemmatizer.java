@@ -19,8 +19,6 @@ package eus.ixa.ixa.pipe.lemma.dict;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
 import morfologik.stemming.Dictionary;
@@ -28,6 +26,7 @@ import morfologik.stemming.DictionaryLookup;
 import morfologik.stemming.IStemmer;
 import morfologik.stemming.WordData;
 import eus.ixa.ixa.pipe.lemma.Lemmatizer;
+import eus.ixa.ixa.pipe.pos.dict.DictionaryLookupCache;
 
 /**
  * Lemmatizer based on Morfologik Stemming library. It requires a FSA Morfologik
@@ -41,8 +40,14 @@ public class MorfologikLemmatizer implements Lemmatizer {
 
   /**
    * The Morfologik steamer to perform lemmatization with FSA dictionaries.
+   * {@code DictionaryLookup} reuses internal buffers, so every thread gets its
+   * own steamer over the shared (immutable) FSA dictionary.
    */
-  private final IStemmer dictLookup;
+  private final ThreadLocal<IStemmer> dictLookup;
+  /**
+   * The cache of lookups, null if not caching.
+   */
+  private final DictionaryLookupCache cache;
 
   /**
    * Reads a dictionary in morfologik FSA format.
@@ -57,60 +62,51 @@ public class MorfologikLemmatizer implements Lemmatizer {
    */
   public MorfologikLemmatizer(final URL dictURL)
       throws IOException {
-    this.dictLookup = new DictionaryLookup(Dictionary.read(dictURL));
+    this(dictURL, null);
   }
 
   /**
-   * Get the lemma for a surface form word and a postag from a FSA morfologik
-   * generated dictionary.
+   * Reads a dictionary in morfologik FSA format, caching the lookups.
    * 
-   * @param word
-   *          the surface form
-   * @return the hashmap with the word and tag as keys and the lemma as value
+   * @param dictURL
+   *          the URL containing the dictionary
+   * @param aCache
+   *          the cache of lookups, null for no caching
+   * @throws IOException
+   *           throws an exception if dictionary path is not correct
    */
-  private HashMap<List<String>, String> getLemmaTagsDict(final String word) {
-    final List<WordData> wdList = this.dictLookup.lookup(word);
-    final HashMap<List<String>, String> dictMap = new HashMap<List<String>, String>();
-    for (final WordData wd : wdList) {
-      final List<String> wordLemmaTags = new ArrayList<String>();
-      wordLemmaTags.add(word);
-      wordLemmaTags.add(wd.getTag().toString());
-      dictMap.put(wordLemmaTags, wd.getStem().toString());
-    }
-    return dictMap;
+  public MorfologikLemmatizer(final URL dictURL,
+      final DictionaryLookupCache aCache) throws IOException {
+    this.cache = aCache;
+    final Dictionary dictionary = Dictionary.read(dictURL);
+    this.dictLookup = new ThreadLocal<IStemmer>() {
+      @Override
+      protected IStemmer initialValue() {
+        return new DictionaryLookup(dictionary);
+      }
+    };
   }
 
   /**
-   * Generate the dictionary keys (word, postag).
+   * Get the lemma for a surface form word and a postag from a FSA morfologik
+   * generated dictionary.
    * 
    * @param word
-   *          the surface form
+   *          the lowercased surface form
    * @param postag
-   *          the assigned postag
-   * @return a list of keys consisting of the word and its postag
+   *          the postag
+   * @return the lemma or "O" if not found
    */
-  private List<String> getDictKeys(final String word, final String postag) {
-    final List<String> keys = new ArrayList<String>();
-    keys.addAll(Arrays.asList(word.toLowerCase(), postag));
-    return keys;
+  private String lookup(final String word, final String postag) {
+    String lemma = "O";
+    for (final WordData wd : this.dictLookup.get().lookup(word)) {
+      if (wd.getTag().toString().equals(postag)) {
+        lemma = wd.getStem().toString();
+      }
+    }
+    return lemma;
   }
 
-  /**
-   * Generates the dictionary map.
-   * 
-   * @param word
-   *          the surface form word
-   * @param postag
-   *          the postag assigned by the pos tagger
-   * @return the hash map dictionary
-   */
-  private HashMap<List<String>, String> getDictMap(final String word,
-      final String postag) {
-    HashMap<List<String>, String> dictMap = new HashMap<List<String>, String>();
-    dictMap = this.getLemmaTagsDict(word.toLowerCase());
-    return dictMap;
-  }
-  
   /* (non-Javadoc)
    * @see eus.ixa.ixa.pipe.lemma.Lemmatizer#lemmatize(java.lang.String[], java.lang.String[])
    */
@@ -124,22 +120,31 @@ public class MorfologikLemmatizer implements Lemmatizer {
 
   /**
    * Looks-up the lemma in a dictionary. Outputs "O" if not found.
- * @param word the token
- * @param postag the postag
- * @return the lemma
- */
-public String apply(final String word, final String postag) {
-    String lemma = null;
-    final List<String> keys = this.getDictKeys(word, postag);
-    final HashMap<List<String>, String> dictMap = this.getDictMap(word, postag);
-    // lookup lemma as value of the map
-    final String keyValue = dictMap.get(keys);
-    if (keyValue != null) {
-      lemma = keyValue;
-    } else {
-      lemma = "O";
+   * 
+   * @param word the token
+   * @param postag the postag
+   * @return the lemma
+   */
+  public String apply(final String word, final String postag) {
+    final String lowercaseWord = word.toLowerCase();
+    if (this.cache == null) {
+      return lookup(lowercaseWord, postag);
+    }
+    String lemma = this.cache.get(lowercaseWord, postag);
+    if (lemma == null) {
+      lemma = lookup(lowercaseWord, postag);
+      this.cache.put(lowercaseWord, postag, lemma);
     }
     return lemma;
   }
 
+  /**
+   * Get the cache of dictionary lookups.
+   * 
+   * @return the cache or null if not caching
+   */
+  public final DictionaryLookupCache getCache() {
+    return this.cache;
+  }
+
 }
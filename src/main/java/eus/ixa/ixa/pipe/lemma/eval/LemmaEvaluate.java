@@ -16,9 +16,8 @@
 
 package eus.ixa.ixa.pipe.lemma.eval;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
 import opennlp.tools.util.ObjectStream;
 import eus.ixa.ixa.pipe.lemma.LemmaSample;
@@ -26,6 +25,8 @@ import eus.ixa.ixa.pipe.lemma.LemmaSampleStream;
 import eus.ixa.ixa.pipe.lemma.LemmatizerEvaluator;
 import eus.ixa.ixa.pipe.lemma.LemmatizerME;
 import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
+import eus.ixa.ixa.pipe.pos.CompiledModels;
+import eus.ixa.ixa.pipe.pos.Quantization;
 import eus.ixa.ixa.pipe.pos.eval.Evaluate;
 import eus.ixa.ixa.pipe.pos.train.InputOutputUtils;
 
@@ -49,6 +50,10 @@ public class LemmaEvaluate implements Evaluate {
    * An instance of the probabilistic {@link LemmatizerME}.
    */
   private final LemmatizerME lemmatizer;
+  /**
+   * The lemmatizer of the reference (unquantized) model, null if none.
+   */
+  private final LemmatizerME referenceLemmatizer;
 
   /**
    * Construct an evaluator. The features are encoded in the model itself.
@@ -61,28 +66,82 @@ public class LemmaEvaluate implements Evaluate {
    *           if input data not available
    */
   public LemmaEvaluate(final String testData, final String model) throws IOException {
+    this(testData, model, null);
+  }
+
+  /**
+   * Construct an evaluator which also reports the accuracy difference against
+   * a reference model, usually the unquantized model from which a quantized
+   * model was compiled.
+   * 
+   * @param testData
+   *          the reference data to evaluate against
+   * @param model
+   *          the model to be evaluated, trained or compiled
+   * @param referenceModel
+   *          the reference model, null if none
+   * @throws IOException
+   *           if input data not available
+   */
+  public LemmaEvaluate(final String testData, final String model,
+      final String referenceModel) throws IOException {
 
     final ObjectStream<String> testStream = InputOutputUtils
         .readFileIntoMarkableStreamFactory(testData);
     this.testSamples = new LemmaSampleStream(testStream);
-    InputStream trainedModelInputStream = null;
     try {
       if (lemmatizerModel == null) {
-        trainedModelInputStream = new FileInputStream(model);
-        lemmatizerModel = new LemmatizerModel(trainedModelInputStream);
+        lemmatizerModel = loadModel(model);
       }
     } catch (final IOException e) {
       e.printStackTrace();
-    } finally {
-      if (trainedModelInputStream != null) {
-        try {
-          trainedModelInputStream.close();
-        } catch (final IOException e) {
-          System.err.println("Could not load model!");
-        }
-      }
     }
     this.lemmatizer = new LemmatizerME(lemmatizerModel);
+    this.referenceLemmatizer = referenceModel == null ? null
+        : new LemmatizerME(loadModel(referenceModel));
+  }
+
+  /**
+   * Load a trained or compiled lemmatizer model.
+   * 
+   * @param model
+   *          the model file
+   * @return the model
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  private static LemmatizerModel loadModel(final String model) throws IOException {
+    final File modelFile = new File(model);
+    return CompiledModels.isCompiled(modelFile) ? CompiledModels
+        .loadLemmatizerModel(modelFile) : new LemmatizerModel(modelFile);
+  }
+
+  /**
+   * Evaluate the reference model, if any, and print its accuracy and the
+   * difference with the accuracy of the evaluated model.
+   * 
+   * @param accuracy
+   *          the word accuracy of the evaluated model
+   */
+  private void printAccuracyDelta(final double accuracy) {
+    if (this.referenceLemmatizer == null) {
+      if (CompiledModels.getQuantization(lemmatizerModel
+          .getLemmatizerMaxentModel()) != Quantization.NONE) {
+        System.err.println("Quantized model: choose the unquantized model with "
+            + "--referenceModel to report the accuracy difference");
+      }
+      return;
+    }
+    final LemmatizerEvaluator evaluator = new LemmatizerEvaluator(this.referenceLemmatizer);
+    try {
+      this.testSamples.reset();
+      evaluator.evaluate(this.testSamples);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    System.out.println("Reference model accuracy: " + evaluator.getWordAccuracy());
+    System.out.println("Accuracy difference: "
+        + (accuracy - evaluator.getWordAccuracy()));
   }
 
   /**
@@ -96,6 +155,7 @@ public class LemmaEvaluate implements Evaluate {
       e.printStackTrace();
     }
     System.out.println(evaluator.getWordAccuracy());
+    printAccuracyDelta(evaluator.getWordAccuracy());
   }
 
   @Override
@@ -108,7 +168,7 @@ public class LemmaEvaluate implements Evaluate {
       e.printStackTrace();
     }
     System.out.println(evaluator.getWordAccuracy());
-    
+    printAccuracyDelta(evaluator.getWordAccuracy());
   }
 
   @Override
@@ -121,7 +181,7 @@ public class LemmaEvaluate implements Evaluate {
       e.printStackTrace();
     }
     System.out.println(evaluator.getWordAccuracy());
-    
+    printAccuracyDelta(evaluator.getWordAccuracy());
   }
 
   /**
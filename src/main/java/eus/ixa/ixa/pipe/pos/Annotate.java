@@ -17,18 +17,32 @@
 package eus.ixa.ixa.pipe.pos;
 
 import ixa.kaflib.KAFDocument;
-import ixa.kaflib.Term;
 import ixa.kaflib.WF;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.TagDictionary;
 import opennlp.tools.util.Span;
+import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
 import eus.ixa.ixa.pipe.lemma.StatisticalLemmatizer;
 import eus.ixa.ixa.pipe.lemma.dict.MorfologikLemmatizer;
+import eus.ixa.ixa.pipe.pos.dict.DictionaryLookupCache;
 import eus.ixa.ixa.pipe.pos.dict.DictionaryTagger;
 import eus.ixa.ixa.pipe.pos.dict.MorfologikTagger;
 import eus.ixa.ixa.pipe.pos.dict.MultiWordMatcher;
@@ -40,16 +54,46 @@ import eus.ixa.ixa.pipe.pos.dict.MultiWordMatcher;
  * @author ragerri
  * @version 2014-12-05
  */
-public class Annotate {
+public class Annotate implements Closeable {
 
   /**
-   * The morpho tagger.
+   * The default number of annotation threads.
    */
-  private final StatisticalTagger posTagger;
+  public static final String DEFAULT_THREADS = "1";
   /**
-   * The statistical lemmatizer.
+   * The default size of the sentence cache; 0 means no caching.
    */
-  private final StatisticalLemmatizer lemmatizer;
+  public static final String DEFAULT_CACHE_SIZE = "0";
+  /**
+   * The default number of alternatives kept per term; 0 means only the best
+   * postag and lemma.
+   */
+  public static final String DEFAULT_ALTERNATIVES = "0";
+  /**
+   * The default tag constraints: every tag is scored.
+   */
+  public static final String DEFAULT_TAG_CONSTRAINTS = "none";
+  /**
+   * The number of sentences annotated at a time when streaming.
+   */
+  public static final int STREAM_CHUNK_SIZE = 256;
+
+  /**
+   * The POS model, shared by the annotators of an {@link AnnotatorPool}.
+   */
+  private final HotSwapModel<POSModel> posModel;
+  /**
+   * The lemmatizer model, shared by the annotators of an {@link AnnotatorPool}.
+   */
+  private final HotSwapModel<LemmatizerModel> lemmatizerModel;
+  /**
+   * The morpho tagger, over the current POS model.
+   */
+  private StatisticalTagger posTagger;
+  /**
+   * The statistical lemmatizer, over the current lemmatizer model.
+   */
+  private StatisticalLemmatizer lemmatizer;
   /**
    * The language.
    */
@@ -62,6 +106,33 @@ public class Annotate {
    * The dictionary lemmatizer.
    */
   private MorfologikLemmatizer dictLemmatizer;
+  /**
+   * If true look up the lemma dictionary first and only decode statistically
+   * the tokens not found in it.
+   */
+  private final boolean dictFirst;
+  /**
+   * The strategy to decode the tags and lemma classes of a sentence.
+   */
+  private final DecodingStrategy decoding;
+  /**
+   * The number of best sequences and postag and lemma alternatives per term
+   * kept from the decoding pass, 0 if none.
+   */
+  private final int alternatives;
+  /**
+   * If true decode the tags and lemmas of a sentence in a single pass.
+   */
+  private final boolean joint;
+  /**
+   * If true only score the lemma classes of the lemma class index.
+   */
+  private final boolean pruneLemmaClasses;
+  /**
+   * The tag dictionary restricting the tags scored: none, model (the tag
+   * dictionary of the POS model) or dictionary (the POS tagger dictionary).
+   */
+  private final String tagConstraints;
   /**
    * If true detect multiwords.
    */
@@ -78,9 +149,84 @@ public class Annotate {
    * The monosemic dictionary postagger.
    */
   private DictionaryTagger dictMorphoTagger;
+  /**
+   * The cache of annotated sentences, null if not caching.
+   */
+  private final SentenceCache sentenceCache;
+  /**
+   * The id of the language and options of this annotator which, together with
+   * the ids of the models, identifies its annotations in the sentence cache.
+   */
+  private final String optionsId;
+  /**
+   * The load time in milliseconds of each resource.
+   */
+  private final Map<String, Long> loadTimes;
+  /**
+   * The buffer of the batch annotation API.
+   */
+  private final BatchAnnotation batchAnnotation = new BatchAnnotation();
+  /**
+   * The worker pool to annotate sentences in parallel, null if annotating
+   * sequentially.
+   */
+  private ExecutorService executor;
+  /**
+   * The number of open annotators sharing the models and worker pool of this
+   * one; the last one to be closed shuts them down.
+   */
+  private final AtomicInteger openAnnotators;
+  /**
+   * Whether this annotator has been closed.
+   */
+  private final AtomicBoolean closed = new AtomicBoolean();
+  /**
+   * The morpho tagger of each worker thread; every worker gets its own
+   * {@code POSTaggerME} over the shared model.
+   */
+  private final ThreadLocal<StatisticalTagger> workerTagger = new ThreadLocal<StatisticalTagger>() {
+    @Override
+    protected StatisticalTagger initialValue() {
+      return createTagger(posModel.get());
+    }
+  };
+  /**
+   * The statistical lemmatizer of each worker thread; every worker gets its own
+   * {@code LemmatizerME} over the shared model.
+   */
+  private final ThreadLocal<StatisticalLemmatizer> workerLemmatizer = new ThreadLocal<StatisticalLemmatizer>() {
+    @Override
+    protected StatisticalLemmatizer initialValue() {
+      return createLemmatizer(lemmatizerModel.get());
+    }
+  };
 
   /**
-   * Construct an annotator with a {@code MorphoFactory}.
+   * Construct an annotator with a {@code MorphoFactory}. If the
+   * {@code threads} property is greater than 1, the sentences of each document
+   * are tagged and lemmatized by a pool of that many worker threads. If the
+   * {@code dictFirst} property is true, the lemma dictionary is looked up
+   * before the statistical lemmatizer, which then only scores the tokens not
+   * found in the dictionary. If the {@code cacheSize} property is greater than
+   * 0, the annotation of up to that many distinct sentences is cached and
+   * repeated sentences are not tagged again. The lookups of each dictionary are
+   * cached within the {@code dictCacheSize} budget in megabytes (0 disables
+   * the cache). The {@code decoding} property chooses the decoding strategy,
+   * see {@link DecodingStrategy}. If the {@code alternatives} property is
+   * greater than 0, that many best sequences and postag and lemma
+   * alternatives per term, with their probabilities, are kept from the
+   * decoding pass, see {@link SequenceAlternatives}. The
+   * {@code tagConstraints} property restricts the tags scored for the tokens
+   * known by the tag dictionary of the model ({@code model}) or by the POS
+   * tagger dictionary of the language ({@code dictionary}); it defaults to
+   * {@code none}. If the {@code joint} property is true, the tags and lemmas
+   * of each sentence are decoded in a single pass of the POS and lemmatizer
+   * models, see {@link JointDecoder}, unless alternatives, multiwords or the
+   * {@code dictFirst} lookup are requested. If the {@code pruneLemmaClasses}
+   * property is true, the lemmatizer only scores the lemma classes admitted by
+   * the lemma class index of the model for the suffix and postag of each
+   * token, which is faster but may change the lemmas. The models and
+   * dictionaries are loaded in parallel.
    * 
    * @param properties
    *          the properties file
@@ -88,222 +234,892 @@ public class Annotate {
    *           io exception if model not properly loaded
    */
   public Annotate(final Properties properties) throws IOException {
+    this(properties, AnnotatorResources.load(properties));
+  }
+
+  /**
+   * Construct an annotator over resources already loaded.
+   * 
+   * @param properties
+   *          the properties file
+   * @param resources
+   *          the resources required by the properties
+   */
+  public Annotate(final Properties properties,
+      final AnnotatorResources resources) {
     this.lang = properties.getProperty("language");
     this.multiwords = Boolean.valueOf(properties.getProperty("multiwords"));
     this.dictag = Boolean.valueOf(properties.getProperty("dictag"));
-    if (this.multiwords) {
-      this.multiWordMatcher = new MultiWordMatcher(properties);
+    this.multiWordMatcher = resources.getMultiWordMatcher();
+    this.dictMorphoTagger = resources.getDictMorphoTagger();
+    this.dictLemmatizer = resources.getDictLemmatizer();
+    this.decoding = DecodingStrategy.parse(properties.getProperty("decoding"));
+    this.alternatives = Integer.parseInt(properties.getProperty(
+        "alternatives", DEFAULT_ALTERNATIVES));
+    this.tagConstraints = properties.getProperty("tagConstraints",
+        DEFAULT_TAG_CONSTRAINTS);
+    this.dictFirst = Boolean.valueOf(properties.getProperty("dictFirst"))
+        && this.dictLemmatizer != null;
+    this.joint = Boolean.valueOf(properties.getProperty("joint"));
+    this.pruneLemmaClasses = Boolean.valueOf(properties
+        .getProperty("pruneLemmaClasses"));
+    this.morphoFactory = new MorphoFactory();
+    this.posModel = resources.getPosModel();
+    this.lemmatizerModel = resources.getLemmatizerModel();
+    this.loadTimes = resources.getLoadTimes();
+    this.posTagger = createTagger(this.posModel.get());
+    this.lemmatizer = createLemmatizer(this.lemmatizerModel.get());
+    this.optionsId = this.lang + "|" + this.multiwords + "|" + this.dictag
+        + "|" + this.dictFirst + "|" + this.decoding + "|" + this.alternatives
+        + "|" + this.tagConstraints + "|" + this.joint + "|"
+        + this.pruneLemmaClasses;
+    final int cacheSize = Integer.parseInt(properties.getProperty("cacheSize",
+        DEFAULT_CACHE_SIZE));
+    this.sentenceCache = cacheSize > 0 ? new SentenceCache(cacheSize) : null;
+    this.openAnnotators = new AtomicInteger(1);
+    final int threads = Integer.parseInt(properties.getProperty("threads",
+        DEFAULT_THREADS));
+    if (threads > 1) {
+      this.executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+              final Thread thread = new Thread(runnable, "ixa-pipe-pos-worker");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
     }
-    if (this.dictag) {
-      loadMorphoTaggerDicts(properties);
+  }
+
+  /**
+   * Start loading the resources of an annotator in the background. The future
+   * is done when the annotator is ready, so a server can accept connections
+   * meanwhile and report that it is not ready yet.
+   * 
+   * @param properties
+   *          the properties file
+   * @return the future annotator
+   */
+  public static Future<Annotate> createAsync(final Properties properties) {
+    final Future<AnnotatorResources> resources = AnnotatorResources
+        .loadAsync(properties);
+    return new Future<Annotate>() {
+      public boolean cancel(final boolean mayInterruptIfRunning) {
+        return resources.cancel(mayInterruptIfRunning);
+      }
+
+      public boolean isCancelled() {
+        return resources.isCancelled();
+      }
+
+      public boolean isDone() {
+        return resources.isDone();
+      }
+
+      public Annotate get() throws InterruptedException, ExecutionException {
+        return new Annotate(properties, resources.get());
+      }
+
+      public Annotate get(final long timeout, final TimeUnit unit)
+          throws InterruptedException, ExecutionException, TimeoutException {
+        return new Annotate(properties, resources.get(timeout, unit));
+      }
+    };
+  }
+
+  /**
+   * Construct an annotator sharing the models, dictionaries and worker pool of
+   * another annotator. Only the decoders, which are not thread-safe, are
+   * created anew. Used by {@link AnnotatorPool} to lease one annotator per
+   * thread.
+   * 
+   * @param annotate
+   *          the annotator whose resources are shared
+   */
+  Annotate(final Annotate annotate) {
+    this.lang = annotate.lang;
+    this.multiwords = annotate.multiwords;
+    this.dictag = annotate.dictag;
+    this.multiWordMatcher = annotate.multiWordMatcher;
+    this.dictMorphoTagger = annotate.dictMorphoTagger;
+    this.dictLemmatizer = annotate.dictLemmatizer;
+    this.dictFirst = annotate.dictFirst;
+    this.decoding = annotate.decoding;
+    this.alternatives = annotate.alternatives;
+    this.joint = annotate.joint;
+    this.pruneLemmaClasses = annotate.pruneLemmaClasses;
+    this.tagConstraints = annotate.tagConstraints;
+    this.morphoFactory = annotate.morphoFactory;
+    this.posModel = annotate.posModel;
+    this.lemmatizerModel = annotate.lemmatizerModel;
+    this.posTagger = createTagger(this.posModel.get());
+    this.lemmatizer = createLemmatizer(this.lemmatizerModel.get());
+    this.executor = annotate.executor;
+    this.openAnnotators = annotate.openAnnotators;
+    this.openAnnotators.incrementAndGet();
+    this.sentenceCache = annotate.sentenceCache;
+    this.optionsId = annotate.optionsId;
+    this.loadTimes = annotate.loadTimes;
+  }
+
+  /**
+   * Annotate a NAF document with the annotation core and write the result with
+   * every serializer given. The sentences are tagged and lemmatized only once
+   * regardless of the number of serializers.
+   * 
+   * @param kaf
+   *          the NAF document
+   * @param serializers
+   *          the serializers, e.g., {@link NAFTermsSerializer},
+   *          {@link CoNLLSerializer} or {@link JSONSerializer}
+   * @throws IOException
+   *           if a serializer fails to write
+   */
+  public final void annotate(final KAFDocument kaf,
+      final AnnotationSerializer... serializers) throws IOException {
+    serialize(annotateSentences(getTokens(kaf.getSentences())), serializers);
+  }
+
+  /**
+   * Annotate morphological information into a NAF document.
+   * 
+   * @param kaf
+   *          the NAF document
+   */
+  public final void annotatePOSToKAF(final KAFDocument kaf) {
+    final NAFTermsSerializer nafSerializer = new NAFTermsSerializer(kaf);
+    final List<SentenceAnnotation> annotations = annotateSentences(getTokens(nafSerializer
+        .getSentences()));
+    for (final SentenceAnnotation annotation : annotations) {
+      nafSerializer.serialize(annotation);
     }
-    loadLemmatizerDicts(properties);
-    this.morphoFactory = new MorphoFactory();
-    this.posTagger = new StatisticalTagger(properties, this.morphoFactory);
-    this.lemmatizer = new StatisticalLemmatizer(properties, this.morphoFactory);
   }
 
-  // TODO static loading of lemmatizer dictionaries
   /**
-   * Load the binary lemmatizer dictionaries by language. Exits if no lemmatizer
-   * dictionary (binary) is available for the input language.
+   * Annotate morphological information in tabulated CoNLL-style format.
    * 
-   * @param props
-   *          the props object
+   * @param kaf
+   *          the naf input document
+   * @return the text annotated in tabulated format
+   * @throws IOException
+   *           throws io exception
    */
-  private void loadLemmatizerDicts(final Properties props) {
-    final Resources resources = new Resources();
-    final URL binLemmatizerURL = resources.getBinaryDict(this.lang);
-    if (binLemmatizerURL == null) {
-      System.err
-          .println("WARNING: No lemmatizer dictionary available for language "
-              + this.lang + " in src/main/resources!");
-    } else {
-      try {
-        this.dictLemmatizer = new MorfologikLemmatizer(binLemmatizerURL);
-      } catch (final IOException e) {
-        e.printStackTrace();
+  public final String annotatePOSToCoNLL(final KAFDocument kaf)
+      throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    annotate(kaf, new CoNLLSerializer(sb));
+    return sb.toString();
+  }
+
+  /**
+   * Annotate a batch of tokenized sentences without building any NAF
+   * document. The result is stored in a buffer owned by this annotator, which
+   * is overwritten by the next call.
+   * 
+   * @param sentences
+   *          the tokenized sentences
+   * @return the annotation of the batch
+   */
+  public final BatchAnnotation annotate(final List<String[]> sentences) {
+    return annotate(sentences, this.batchAnnotation);
+  }
+
+  /**
+   * Annotate a batch of tokenized sentences without building any NAF
+   * document, reusing the buffers of a previous result. Unless caching
+   * sentences, detecting multiwords, looking up the dictionary first or
+   * keeping alternatives, every term is a token, so the slice of each
+   * sentence in the buffers is known beforehand and the lemmas, KAF pos values
+   * and dictionary postags are written straight into it, without building
+   * any {@link SentenceAnnotation}.
+   * 
+   * @param sentences
+   *          the tokenized sentences
+   * @param batch
+   *          the result buffer; its previous content is discarded
+   * @return the batch buffer with the annotation of the sentences
+   */
+  public final BatchAnnotation annotate(final List<String[]> sentences,
+      final BatchAnnotation batch) {
+    batch.clear();
+    if (this.sentenceCache != null || this.multiwords || this.dictFirst
+        || this.alternatives > 0) {
+      for (final SentenceAnnotation annotation : annotateSentences(sentences)) {
+        batch.add(annotation);
       }
+      return batch;
+    }
+    for (final String[] tokens : sentences) {
+      batch.addTokens(tokens);
     }
+    // every sentence is annotated with the same version of the models
+    final ModelRegistry.Handle<POSModel> posHandle = this.posModel.acquire();
+    final ModelRegistry.Handle<LemmatizerModel> lemmatizerHandle = this.lemmatizerModel
+        .acquire();
+    try {
+      analyzeSentences(sentences, batch, posHandle.get(),
+          lemmatizerHandle.get());
+    } finally {
+      posHandle.release();
+      lemmatizerHandle.release();
+    }
+    return batch;
+  }
 
+  /**
+   * Tag and lemmatize the sentences of a batch whose terms are their tokens
+   * into their slices of the batch.
+   * 
+   * @param sentences
+   *          the tokenized sentences
+   * @param batch
+   *          the batch, with the slice of every sentence already added
+   * @param aPosModel
+   *          the POS model leased for the batch
+   * @param aLemmatizerModel
+   *          the lemmatizer model leased for the batch
+   */
+  private void analyzeSentences(final List<String[]> sentences,
+      final BatchAnnotation batch, final POSModel aPosModel,
+      final LemmatizerModel aLemmatizerModel) {
+    if (this.executor == null) {
+      updateDecoders(aPosModel, aLemmatizerModel);
+      for (int s = 0; s < sentences.size(); s++) {
+        analyzeSentence(sentences.get(s), this.posTagger, this.lemmatizer,
+            batch, batch.getSentenceStart(s));
+      }
+      return;
+    }
+    final List<Future<?>> futures = new ArrayList<Future<?>>(sentences.size());
+    for (int s = 0; s < sentences.size(); s++) {
+      final String[] tokens = sentences.get(s);
+      final int start = batch.getSentenceStart(s);
+      futures.add(this.executor.submit(new Runnable() {
+        public void run() {
+          analyzeSentence(tokens, getWorkerTagger(aPosModel),
+              getWorkerLemmatizer(aLemmatizerModel), batch, start);
+        }
+      }));
+    }
+    try {
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while annotating!", e);
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException("Error while annotating sentence!",
+          e.getCause());
+    }
   }
 
-  // TODO static loading of postag dictionaries
   /**
-   * Load the pos tagger dictionaries by language and format. Exits if no pos
-   * tagger dictionary (binary) is available for the input language.
+   * Annotate tokenized text read one sentence at a time, writing the result
+   * with every serializer given as it goes. Only a bounded number of
+   * sentences is kept in memory, so the input can be of any size.
    * 
-   * @param props
-   *          the props object
+   * @param reader
+   *          the tokenized sentence reader
+   * @param serializers
+   *          the serializers
+   * @throws IOException
+   *           if io problems
    */
-  private void loadMorphoTaggerDicts(final Properties props) {
-    final Resources resources = new Resources();
-    final URL binDictMorphoTaggerURL = resources.getBinaryTaggerDict(this.lang);
-    if (binDictMorphoTaggerURL == null) {
-      System.err
-          .println("ERROR: No binary POS tagger dictionary available for language "
-              + this.lang + " in src/main/resources!!");
-      System.exit(1);
+  public final void annotate(final TokenizedSentenceReader reader,
+      final AnnotationSerializer... serializers) throws IOException {
+    final List<String[]> chunk = new ArrayList<String[]>(STREAM_CHUNK_SIZE);
+    String[] tokens;
+    while ((tokens = reader.read()) != null) {
+      chunk.add(tokens);
+      if (chunk.size() == STREAM_CHUNK_SIZE) {
+        serialize(annotateSentences(chunk), serializers);
+        chunk.clear();
+      }
     }
+    serialize(annotateSentences(chunk), serializers);
+  }
+
+  /**
+   * Annotate a list of tokenized sentences without building any NAF document,
+   * writing the result with every serializer given.
+   * 
+   * @param sentences
+   *          the tokenized sentences
+   * @param serializers
+   *          the serializers
+   * @throws IOException
+   *           if a serializer fails to write
+   */
+  public final void annotate(final List<String[]> sentences,
+      final AnnotationSerializer... serializers) throws IOException {
+    serialize(annotateSentences(sentences), serializers);
+  }
+
+  /**
+   * Annotate a tokenized sentence without building any NAF document.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the annotation of the sentence
+   */
+  public final SentenceAnnotation annotate(final String[] tokens) {
+    final ModelRegistry.Handle<POSModel> posHandle = this.posModel.acquire();
+    final ModelRegistry.Handle<LemmatizerModel> lemmatizerHandle = this.lemmatizerModel
+        .acquire();
     try {
-      this.dictMorphoTagger = new MorfologikTagger(binDictMorphoTaggerURL,
-          this.lang);
-    } catch (final IOException e) {
-      e.printStackTrace();
+      updateDecoders(posHandle.get(), lemmatizerHandle.get());
+      return annotateSentence(tokens, this.posTagger, this.lemmatizer,
+          getAnnotatorId(posHandle, lemmatizerHandle));
+    } finally {
+      posHandle.release();
+      lemmatizerHandle.release();
     }
   }
 
- 
+  /**
+   * Replace the models of this annotator, and of every annotator sharing them
+   * in an {@link AnnotatorPool}, by new versions. The swap is atomic: each
+   * document or batch of sentences being annotated is processed entirely with
+   * either the old or the new models. The old models are released and, unless
+   * used elsewhere, unloaded.
+   * 
+   * @param model
+   *          the path of the new POS model, null to keep the current one
+   * @param lemmatizerModelPath
+   *          the path of the new lemmatizer model, null to keep the current one
+   * @throws IOException
+   *           if a new model cannot be read; then the current one is kept
+   */
+  public final void swapModels(final String model,
+      final String lemmatizerModelPath) throws IOException {
+    if (model != null) {
+      this.posModel.swap(model);
+    }
+    if (lemmatizerModelPath != null) {
+      this.lemmatizerModel.swap(lemmatizerModelPath);
+    }
+    if (this.sentenceCache != null) {
+      // the annotations of the old models are not looked up anymore
+      this.sentenceCache.clear();
+    }
+  }
 
   /**
-   * Annotate morphological information into a NAF document.
+   * Release the models of this annotator, and of every annotator sharing them
+   * in an {@link AnnotatorPool}, in the model registries. The annotator must
+   * not be used afterwards.
+   */
+  public final void releaseModels() {
+    this.posModel.release();
+    this.lemmatizerModel.release();
+  }
+
+  /**
+   * Close this annotator, which must not be used afterwards. When the last of
+   * the annotators sharing the models and worker pool of this one is closed,
+   * the worker pool is shut down and the models are released, see
+   * {@link #releaseModels()}. Closing an annotator again has no effect.
+   */
+  public final void close() {
+    if (!this.closed.compareAndSet(false, true)) {
+      return;
+    }
+    if (this.openAnnotators.decrementAndGet() == 0) {
+      if (this.executor != null) {
+        this.executor.shutdown();
+      }
+      releaseModels();
+    }
+  }
+
+  /**
+   * Get the time it took to load each model and dictionary.
    * 
-   * @param kaf
-   *          the NAF document
+   * @return the load times in milliseconds by resource name, see
+   *         {@link AnnotatorResources}
    */
-  public final void annotatePOSToKAF(final KAFDocument kaf) {
-    final List<List<WF>> sentences = kaf.getSentences();
-    for (final List<WF> wfs : sentences) {
+  public final Map<String, Long> getLoadTimes() {
+    return this.loadTimes;
+  }
 
-      final List<ixa.kaflib.Span<WF>> tokenSpans = new ArrayList<ixa.kaflib.Span<WF>>();
-      List<Morpheme> morphemes = null;
-      final String[] tokens = new String[wfs.size()];
-      for (int i = 0; i < wfs.size(); i++) {
-        tokens[i] = wfs.get(i).getForm();
-        final List<WF> wfTarget = new ArrayList<WF>();
-        wfTarget.add(wfs.get(i));
-        tokenSpans.add(KAFDocument.newWFSpan(wfTarget));
+  /**
+   * Get the cache of annotated sentences, shared by the annotators of an
+   * {@link AnnotatorPool}.
+   * 
+   * @return the sentence cache or null if not caching
+   */
+  public final SentenceCache getSentenceCache() {
+    return this.sentenceCache;
+  }
+
+  /**
+   * Get the caches of the dictionary lookups, shared by the annotators of an
+   * {@link AnnotatorPool}.
+   * 
+   * @return the caches of the lemmatizer and tagger dictionaries in use
+   */
+  public final List<DictionaryLookupCache> getDictionaryCaches() {
+    final List<DictionaryLookupCache> caches = new ArrayList<DictionaryLookupCache>();
+    if (this.dictLemmatizer != null && this.dictLemmatizer.getCache() != null) {
+      caches.add(this.dictLemmatizer.getCache());
+    }
+    if (this.dictMorphoTagger instanceof MorfologikTagger
+        && ((MorfologikTagger) this.dictMorphoTagger).getCache() != null) {
+      caches.add(((MorfologikTagger) this.dictMorphoTagger).getCache());
+    }
+    return caches;
+  }
+
+  /**
+   * Write the annotation of several sentences with every serializer given.
+   * 
+   * @param annotations
+   *          the sentence annotations
+   * @param serializers
+   *          the serializers
+   * @throws IOException
+   *           if a serializer fails to write
+   */
+  private static void serialize(final List<SentenceAnnotation> annotations,
+      final AnnotationSerializer... serializers) throws IOException {
+    for (final SentenceAnnotation annotation : annotations) {
+      for (final AnnotationSerializer serializer : serializers) {
+        serializer.serialize(annotation);
       }
-      if (this.multiwords) {
-        final String[] multiWordTokens = this.multiWordMatcher
-            .getTokensWithMultiWords(tokens);
-        morphemes = this.posTagger.getMorphemes(multiWordTokens);
-        getMultiWordSpans(tokens, wfs, tokenSpans);
-      } else {
-        List<String> posTags = this.posTagger.posAnnotate(tokens);
-        String[] posTagsArray = new String[posTags.size()];
-        posTagsArray = posTags.toArray(posTagsArray);
-        morphemes = this.lemmatizer.getMorphemes(tokens, posTagsArray);
+    }
+  }
+
+  /**
+   * The annotation core. Get the morphological analysis of every tokenized
+   * sentence, in the order of the input sentences. If more than one thread is
+   * configured the sentences are processed by the worker pool.
+   * 
+   * @param sentences
+   *          the tokenized sentences
+   * @return the annotation of each sentence
+   */
+  private List<SentenceAnnotation> annotateSentences(
+      final List<String[]> sentences) {
+    // every sentence is annotated with the same version of the models
+    final ModelRegistry.Handle<POSModel> posHandle = this.posModel.acquire();
+    final ModelRegistry.Handle<LemmatizerModel> lemmatizerHandle = this.lemmatizerModel
+        .acquire();
+    try {
+      return annotateSentences(sentences, posHandle, lemmatizerHandle);
+    } finally {
+      posHandle.release();
+      lemmatizerHandle.release();
+    }
+  }
+
+  /**
+   * Get the morphological analysis of every tokenized sentence with the
+   * models leased for them.
+   * 
+   * @param sentences
+   *          the tokenized sentences
+   * @param posHandle
+   *          the POS model
+   * @param lemmatizerHandle
+   *          the lemmatizer model
+   * @return the annotation of each sentence
+   */
+  private List<SentenceAnnotation> annotateSentences(
+      final List<String[]> sentences,
+      final ModelRegistry.Handle<POSModel> posHandle,
+      final ModelRegistry.Handle<LemmatizerModel> lemmatizerHandle) {
+    final List<SentenceAnnotation> annotations = new ArrayList<SentenceAnnotation>(
+        sentences.size());
+    final String annotatorId = getAnnotatorId(posHandle, lemmatizerHandle);
+    if (this.executor == null) {
+      updateDecoders(posHandle.get(), lemmatizerHandle.get());
+      for (final String[] tokens : sentences) {
+        annotations.add(annotateSentence(tokens, this.posTagger,
+            this.lemmatizer, annotatorId));
       }
-      for (int i = 0; i < morphemes.size(); i++) {
-        final Term term = kaf.newTerm(tokenSpans.get(i));
-        if (this.dictag) {
-          final String dictPosTag = this.dictMorphoTagger.tag(morphemes.get(i)
-              .getWord(), morphemes.get(i).getTag());
-          morphemes.get(i).setTag(dictPosTag);
+      return annotations;
+    }
+    final List<Future<SentenceAnnotation>> futures = new ArrayList<Future<SentenceAnnotation>>(
+        sentences.size());
+    for (final String[] tokens : sentences) {
+      futures.add(this.executor.submit(new Callable<SentenceAnnotation>() {
+        public SentenceAnnotation call() {
+          return annotateSentence(tokens,
+              getWorkerTagger(posHandle.get()),
+              getWorkerLemmatizer(lemmatizerHandle.get()), annotatorId);
         }
-        final String posId = Resources.getKafTagSet(morphemes.get(i).getTag(), lang);
-        final String type = Resources.setTermType(posId);
-        // dictionary lemmatizer overwrites probabilistic predictions if
-        // lemma is not equal to "O"
-        if (this.dictLemmatizer != null) {
-          final String lemma = this.dictLemmatizer.apply(morphemes.get(i)
-              .getWord(), morphemes.get(i).getTag());
-          if (!lemma.equalsIgnoreCase("O")) {
-            morphemes.get(i).setLemma(lemma);
-          }
+      }));
+    }
+    try {
+      for (final Future<SentenceAnnotation> future : futures) {
+        annotations.add(future.get());
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while annotating!", e);
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException("Error while annotating sentence!",
+          e.getCause());
+    }
+    return annotations;
+  }
+
+  /**
+   * Get the id identifying the annotations of this annotator with the given
+   * models in the sentence cache.
+   * 
+   * @param posHandle
+   *          the POS model
+   * @param lemmatizerHandle
+   *          the lemmatizer model
+   * @return the annotator id
+   */
+  private String getAnnotatorId(final ModelRegistry.Handle<POSModel> posHandle,
+      final ModelRegistry.Handle<LemmatizerModel> lemmatizerHandle) {
+    return this.optionsId + "|" + posHandle.getId() + "|"
+        + lemmatizerHandle.getId();
+  }
+
+  /**
+   * Create the decoders of this annotator anew if the models have been
+   * swapped.
+   * 
+   * @param aPosModel
+   *          the current POS model
+   * @param aLemmatizerModel
+   *          the current lemmatizer model
+   */
+  private void updateDecoders(final POSModel aPosModel,
+      final LemmatizerModel aLemmatizerModel) {
+    if (this.posTagger.getModel() != aPosModel) {
+      this.posTagger = createTagger(aPosModel);
+    }
+    if (this.lemmatizer.getModel() != aLemmatizerModel) {
+      this.lemmatizer = createLemmatizer(aLemmatizerModel);
+    }
+  }
+
+  /**
+   * Create a morpho tagger over a POS model with the decoding strategy and
+   * the tag constraints of this annotator.
+   * 
+   * @param aPosModel
+   *          the POS model
+   * @return the morpho tagger
+   */
+  private StatisticalTagger createTagger(final POSModel aPosModel) {
+    TagDictionary constraints = null;
+    if (this.tagConstraints.equalsIgnoreCase("model")) {
+      constraints = aPosModel.getFactory().getTagDictionary();
+    } else if (this.tagConstraints.equalsIgnoreCase("dictionary")
+        && this.dictMorphoTagger instanceof TagDictionary) {
+      constraints = (TagDictionary) this.dictMorphoTagger;
+    }
+    return new StatisticalTagger(aPosModel, this.morphoFactory, this.decoding,
+        constraints);
+  }
+
+  /**
+   * Create a statistical lemmatizer over a lemmatizer model with the decoding
+   * strategy and the lemma class pruning of this annotator.
+   * 
+   * @param aLemmatizerModel
+   *          the lemmatizer model
+   * @return the statistical lemmatizer
+   */
+  private StatisticalLemmatizer createLemmatizer(
+      final LemmatizerModel aLemmatizerModel) {
+    return new StatisticalLemmatizer(aLemmatizerModel, this.morphoFactory,
+        this.decoding, this.pruneLemmaClasses);
+  }
+
+  /**
+   * Get the morpho tagger of the current worker thread over a POS model.
+   * 
+   * @param aPosModel
+   *          the current POS model
+   * @return the morpho tagger
+   */
+  private StatisticalTagger getWorkerTagger(final POSModel aPosModel) {
+    StatisticalTagger tagger = this.workerTagger.get();
+    if (tagger.getModel() != aPosModel) {
+      tagger = createTagger(aPosModel);
+      this.workerTagger.set(tagger);
+    }
+    return tagger;
+  }
+
+  /**
+   * Get the statistical lemmatizer of the current worker thread over a
+   * lemmatizer model.
+   * 
+   * @param aLemmatizerModel
+   *          the current lemmatizer model
+   * @return the statistical lemmatizer
+   */
+  private StatisticalLemmatizer getWorkerLemmatizer(
+      final LemmatizerModel aLemmatizerModel) {
+    StatisticalLemmatizer statisticalLemmatizer = this.workerLemmatizer.get();
+    if (statisticalLemmatizer.getModel() != aLemmatizerModel) {
+      statisticalLemmatizer = createLemmatizer(aLemmatizerModel);
+      this.workerLemmatizer.set(statisticalLemmatizer);
+    }
+    return statisticalLemmatizer;
+  }
+
+  /**
+   * Annotate a tokenized sentence, looking it up first in the sentence cache
+   * if caching.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @param aPosTagger
+   *          the morpho tagger to use
+   * @param aLemmatizer
+   *          the statistical lemmatizer to use
+   * @param annotatorId
+   *          the id of the annotator and its current models in the cache
+   * @return the annotation of the sentence
+   */
+  private SentenceAnnotation annotateSentence(final String[] tokens,
+      final StatisticalTagger aPosTagger,
+      final StatisticalLemmatizer aLemmatizer, final String annotatorId) {
+    if (this.sentenceCache == null) {
+      return analyzeSentence(tokens, aPosTagger, aLemmatizer);
+    }
+    SentenceAnnotation annotation = this.sentenceCache.get(annotatorId,
+        tokens);
+    if (annotation == null) {
+      annotation = analyzeSentence(tokens, aPosTagger, aLemmatizer);
+      this.sentenceCache.put(annotatorId, tokens, annotation);
+    }
+    return annotation;
+  }
+
+  /**
+   * Tag and lemmatize a tokenized sentence, post-processing the statistical
+   * output with the dictionaries if available.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @param aPosTagger
+   *          the morpho tagger to use
+   * @param aLemmatizer
+   *          the statistical lemmatizer to use
+   * @return the annotation of the sentence
+   */
+  private SentenceAnnotation analyzeSentence(final String[] tokens,
+      final StatisticalTagger aPosTagger,
+      final StatisticalLemmatizer aLemmatizer) {
+    final String[] words;
+    final String[] tags;
+    final String[] lemmas;
+    SequenceAlternatives tagAlternatives = null;
+    SequenceAlternatives lemmaAlternatives = null;
+    if (this.multiwords) {
+      words = this.multiWordMatcher.getTokensWithMultiWords(tokens);
+    } else {
+      words = tokens;
+    }
+    // null if the models cannot be decoded jointly
+    final String[][] jointAnnotation = this.joint && this.alternatives == 0
+        && !this.multiwords && !this.dictFirst ? aLemmatizer.tagAndLemmatize(
+        aPosTagger, words) : null;
+    if (jointAnnotation != null) {
+      tags = jointAnnotation[0];
+    } else if (this.alternatives > 0) {
+      tagAlternatives = aPosTagger.tag(words, this.alternatives);
+      tags = tagAlternatives.getBestOutcomes();
+    } else {
+      tags = aPosTagger.tag(words);
+    }
+    if (jointAnnotation != null) {
+      lemmas = jointAnnotation[1];
+      postProcess(words, tags, lemmas);
+    } else if (this.multiwords) {
+      lemmas = new String[words.length];
+      postProcess(words, tags, lemmas);
+    } else if (this.dictFirst) {
+      final String[] statisticalTags = tags.clone();
+      final String[] dictLemmas = new String[words.length];
+      postProcess(words, tags, dictLemmas);
+      // only the tokens not in the dictionary are decoded statistically
+      if (this.alternatives > 0) {
+        lemmaAlternatives = aLemmatizer.getLemmaAlternatives(words,
+            statisticalTags, dictLemmas, this.alternatives);
+        lemmas = lemmaAlternatives.getBestOutcomes();
+      } else {
+        lemmas = aLemmatizer.getLemmas(words, statisticalTags, dictLemmas);
+      }
+    } else {
+      if (this.alternatives > 0) {
+        lemmaAlternatives = aLemmatizer.getLemmaAlternatives(words, tags,
+            this.alternatives);
+        lemmas = lemmaAlternatives.getBestOutcomes();
+      } else {
+        lemmas = aLemmatizer.getLemmas(words, tags);
+      }
+      postProcess(words, tags, lemmas);
+    }
+    final String[] posIds = new String[words.length];
+    for (int i = 0; i < words.length; i++) {
+      posIds[i] = Resources.getKafTagSet(tags[i], this.lang);
+      // the dictionaries override the statistical alternatives
+      if (tagAlternatives != null
+          && !tags[i].equals(tagAlternatives.getBestOutcome(i))) {
+        tagAlternatives.pin(i, tags[i]);
+      }
+      if (lemmaAlternatives != null
+          && !lemmas[i].equals(lemmaAlternatives.getBestOutcome(i))) {
+        lemmaAlternatives.pin(i, lemmas[i]);
+      }
+    }
+    return new SentenceAnnotation(words, tags, lemmas, posIds, getTermStarts(
+        tokens, words.length), tagAlternatives, lemmaAlternatives);
+  }
+
+  /**
+   * Tag and lemmatize a tokenized sentence whose terms are its tokens,
+   * writing the postags, lemmas and KAF pos values straight into its slice of
+   * a batch.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @param aPosTagger
+   *          the morpho tagger to use
+   * @param aLemmatizer
+   *          the statistical lemmatizer to use
+   * @param batch
+   *          the batch
+   * @param start
+   *          the index of the first term of the sentence in the batch
+   */
+  private void analyzeSentence(final String[] tokens,
+      final StatisticalTagger aPosTagger,
+      final StatisticalLemmatizer aLemmatizer, final BatchAnnotation batch,
+      final int start) {
+    final String[] tags = batch.getTags();
+    final String[] lemmas = batch.getLemmas();
+    final String[] posIds = batch.getPosIds();
+    // null if the models cannot be decoded jointly
+    final String[][] jointAnnotation = this.joint ? aLemmatizer
+        .tagAndLemmatize(aPosTagger, tokens) : null;
+    if (jointAnnotation != null) {
+      System.arraycopy(jointAnnotation[0], 0, tags, start, tokens.length);
+      System.arraycopy(jointAnnotation[1], 0, lemmas, start, tokens.length);
+    } else {
+      // the lemmatizer reads the postags of the sentence as its context
+      final String[] sentenceTags = aPosTagger.tag(tokens);
+      aLemmatizer.getLemmas(tokens, sentenceTags, lemmas, start);
+      System.arraycopy(sentenceTags, 0, tags, start, tokens.length);
+    }
+    postProcess(tokens, tags, lemmas, start);
+    for (int i = start; i < start + tokens.length; i++) {
+      posIds[i] = Resources.getKafTagSet(tags[i], this.lang);
+    }
+  }
+
+  /**
+   * Post-process the tags and lemmas of a sentence with the dictionaries, if
+   * available.
+   * 
+   * @param words
+   *          the words of the sentence
+   * @param tags
+   *          the tags, overwritten by the monosemic dictionary
+   * @param lemmas
+   *          the lemmas, overwritten by the lemmatizer dictionary
+   */
+  private void postProcess(final String[] words, final String[] tags,
+      final String[] lemmas) {
+    postProcess(words, tags, lemmas, 0);
+  }
+
+  /**
+   * Post-process the tags and lemmas of a sentence with the dictionaries, if
+   * available.
+   * 
+   * @param words
+   *          the words of the sentence
+   * @param tags
+   *          the tags, overwritten by the monosemic dictionary
+   * @param lemmas
+   *          the lemmas, overwritten by the lemmatizer dictionary
+   * @param offset
+   *          the index of the tag and lemma of the first word
+   */
+  private void postProcess(final String[] words, final String[] tags,
+      final String[] lemmas, final int offset) {
+    for (int i = 0; i < words.length; i++) {
+      final int term = offset + i;
+      if (this.dictag) {
+        tags[term] = this.dictMorphoTagger.tag(words[i], tags[term]);
+      }
+      // dictionary lemmatizer overwrites probabilistic predictions if
+      // lemma is not equal to "O"
+      if (this.dictLemmatizer != null) {
+        final String lemma = this.dictLemmatizer.apply(words[i], tags[term]);
+        if (!lemma.equalsIgnoreCase("O")) {
+          lemmas[term] = lemma;
         }
-        term.setType(type);
-        term.setLemma(morphemes.get(i).getLemma());
-        term.setPos(posId);
-        term.setMorphofeat(morphemes.get(i).getTag());
       }
     }
   }
 
   /**
-   * Creates the multiword spans. It gets an initial list of spans (one per
-   * token) and creates a multiword span when a multiword is detected.
+   * Get the index of the first token of each term, followed by the number of
+   * tokens. Every token is a term unless multiwords are detected.
    * 
    * @param tokens
-   *          the list of tokens
-   * @param wfs
-   *          the list of WFs
-   * @param tokenSpans
-   *          the list of initial token spans
-   */
-  private void getMultiWordSpans(final String[] tokens, final List<WF> wfs,
-      final List<ixa.kaflib.Span<WF>> tokenSpans) {
+   *          the tokens of the sentence
+   * @param numTerms
+   *          the number of terms
+   * @return the term starts
+   */
+  private int[] getTermStarts(final String[] tokens, final int numTerms) {
+    final int[] termStarts = new int[numTerms + 1];
+    termStarts[numTerms] = tokens.length;
+    if (!this.multiwords) {
+      for (int i = 0; i < numTerms; i++) {
+        termStarts[i] = i;
+      }
+      return termStarts;
+    }
     final Span[] multiWordSpans = this.multiWordMatcher
         .multiWordsToSpans(tokens);
-    int counter = 0;
+    int term = 0;
+    int token = 0;
     for (final Span mwSpan : multiWordSpans) {
-      final Integer fromIndex = mwSpan.getStart() - counter;
-      final Integer toIndex = mwSpan.getEnd() - counter;
-      // add to the counter the length of the span removed
-      counter = counter + tokenSpans.subList(fromIndex, toIndex).size() - 1;
-      // create multiword targets and Span
-      final List<WF> wfTargets = wfs
-          .subList(mwSpan.getStart(), mwSpan.getEnd());
-      final ixa.kaflib.Span<WF> multiWordSpan = KAFDocument
-          .newWFSpan(wfTargets);
-      // remove the token Spans to be replaced by the multiword span
-      tokenSpans.subList(fromIndex, toIndex).clear();
-      // add the new Span containing several WFs (multiWordSpan)
-      // the counter is used to allow matching the spans to the
-      // tokenSpans list indexes
-      tokenSpans.add(fromIndex, multiWordSpan);
+      while (token < mwSpan.getStart()) {
+        termStarts[term++] = token++;
+      }
+      termStarts[term++] = token;
+      token = mwSpan.getEnd();
+    }
+    while (term < numTerms) {
+      termStarts[term++] = token++;
     }
+    return termStarts;
   }
 
   /**
-   * Annotate morphological information in tabulated CoNLL-style format.
+   * Get the arrays of token forms of a list of sentences.
    * 
-   * @param kaf
-   *          the naf input document
-   * @return the text annotated in tabulated format
-   * @throws IOException
-   *           throws io exception
+   * @param sentences
+   *          the sentences as lists of WFs
+   * @return the tokens of each sentence
    */
-  public final String annotatePOSToCoNLL(final KAFDocument kaf)
-      throws IOException {
-    final StringBuilder sb = new StringBuilder();
-    final List<List<WF>> sentences = kaf.getSentences();
+  private static List<String[]> getTokens(final List<List<WF>> sentences) {
+    final List<String[]> tokens = new ArrayList<String[]>(sentences.size());
     for (final List<WF> wfs : sentences) {
-
-      final List<ixa.kaflib.Span<WF>> tokenSpans = new ArrayList<ixa.kaflib.Span<WF>>();
-      List<Morpheme> morphemes = null;
-      // Get an array of token forms from a list of WF objects.
-      final String[] tokens = new String[wfs.size()];
+      final String[] sentence = new String[wfs.size()];
       for (int i = 0; i < wfs.size(); i++) {
-        tokens[i] = wfs.get(i).getForm();
-        final List<WF> wfTarget = new ArrayList<WF>();
-        wfTarget.add(wfs.get(i));
-        tokenSpans.add(KAFDocument.newWFSpan(wfTarget));
-      }
-      if (this.multiwords) {
-        final String[] multiWordTokens = this.multiWordMatcher
-            .getTokensWithMultiWords(tokens);
-        morphemes = this.posTagger.getMorphemes(multiWordTokens);
-        getMultiWordSpans(tokens, wfs, tokenSpans);
-      } else {
-        List<String> posTags = this.posTagger.posAnnotate(tokens);
-        String[] posTagsArray = new String[posTags.size()];
-        posTagsArray = posTags.toArray(posTagsArray);
-        morphemes = this.lemmatizer.getMorphemes(tokens, posTagsArray);
+        sentence[i] = wfs.get(i).getForm();
       }
-      for (int i = 0; i < morphemes.size(); i++) {
-        final String posTag = morphemes.get(i).getTag();
-        final String word = morphemes.get(i).getWord();
-        if (this.dictag) {
-          final String dictPosTag = this.dictMorphoTagger.tag(word, posTag);
-          morphemes.get(i).setTag(dictPosTag);
-        }
-        // dictionary lemmatizer overwrites probabilistic predictions
-        // if lemma is not equal to word
-        if (this.dictLemmatizer != null) {
-          final String lemma = this.dictLemmatizer.apply(word, morphemes.get(i)
-              .getTag());
-          if (!lemma.equalsIgnoreCase("O")) {
-            morphemes.get(i).setLemma(lemma);
-          }
-        }
-        sb.append(word).append("\t").append(morphemes.get(i).getLemma())
-            .append("\t").append(morphemes.get(i).getTag()).append("\n");
-      }
-      sb.append("\n");
+      tokens.add(sentence);
     }
-    return sb.toString();
+    return tokens;
   }
 
 }
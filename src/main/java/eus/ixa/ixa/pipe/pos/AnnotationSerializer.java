@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.IOException;
+
+/**
+ * Writes the output of the annotation core of {@link Annotate}. Every
+ * serializer passed to {@link Annotate#annotate} receives the annotation of
+ * each sentence in document order, so several output formats cost a single
+ * decoding pass.
+ * 
+ * @author ragerri
+ * @version 2016-05-12
+ */
+public interface AnnotationSerializer {
+
+  /**
+   * Serialize the annotation of the next sentence.
+   * 
+   * @param sentence
+   *          the sentence annotation
+   * @throws IOException
+   *           if io problems
+   */
+  void serialize(SentenceAnnotation sentence) throws IOException;
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of {@link Annotate} objects sharing one copy of the POS and lemmatizer
+ * models and of the dictionaries. {@code Annotate} is not thread-safe, so
+ * every thread leases an annotator, uses it and gives it back:
+ * 
+ * <pre>
+ * final Annotate annotator = pool.acquire();
+ * try {
+ *   annotator.annotatePOSToKAF(kaf);
+ * } finally {
+ *   pool.release(annotator);
+ * }
+ * </pre>
+ * 
+ * Only the decoder state ({@code POSTaggerME} and {@code LemmatizerME}) is
+ * created for each annotator in the pool.
+ * 
+ * @author ragerri
+ * @version 2016-05-10
+ */
+public class AnnotatorPool implements Closeable {
+
+  /**
+   * The annotators not currently leased.
+   */
+  private final BlockingQueue<Annotate> idle;
+  /**
+   * Every annotator created by this pool.
+   */
+  private final Set<Annotate> annotators = Collections
+      .newSetFromMap(new IdentityHashMap<Annotate, Boolean>());
+  /**
+   * The annotators currently leased. Removing an annotator from this set is
+   * what entitles a thread to give it back, so concurrent releases of the
+   * same annotator cannot both succeed.
+   */
+  private final Set<Annotate> leased = Collections
+      .newSetFromMap(new ConcurrentHashMap<Annotate, Boolean>());
+  /**
+   * The sentence cache shared by the annotators, null if not caching.
+   */
+  private final SentenceCache sentenceCache;
+
+  /**
+   * Construct a pool of annotators. The models and dictionaries specified in
+   * the properties are loaded only once.
+   * 
+   * @param properties
+   *          the properties to build the annotators
+   * @param size
+   *          the number of annotators in the pool
+   * @throws IOException
+   *           if the models or dictionaries are not properly loaded
+   */
+  public AnnotatorPool(final Properties properties, final int size)
+      throws IOException {
+    if (size < 1) {
+      throw new IllegalArgumentException("Pool size must be at least 1!");
+    }
+    this.idle = new ArrayBlockingQueue<Annotate>(size);
+    final Annotate shared = new Annotate(properties);
+    this.sentenceCache = shared.getSentenceCache();
+    add(shared);
+    for (int i = 1; i < size; i++) {
+      add(new Annotate(shared));
+    }
+  }
+
+  /**
+   * Add a new annotator to the pool.
+   * 
+   * @param annotator
+   *          the annotator
+   */
+  private void add(final Annotate annotator) {
+    this.annotators.add(annotator);
+    this.idle.add(annotator);
+  }
+
+  /**
+   * Lease an annotator, waiting until one is available.
+   * 
+   * @return the annotator, to be used only by the current thread until it is
+   *         released
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  public final Annotate acquire() throws InterruptedException {
+    final Annotate annotator = this.idle.take();
+    this.leased.add(annotator);
+    return annotator;
+  }
+
+  /**
+   * Give back an annotator obtained from {@link #acquire()}.
+   * 
+   * @param annotator
+   *          the annotator
+   */
+  public final void release(final Annotate annotator) {
+    if (!this.annotators.contains(annotator)) {
+      throw new IllegalArgumentException(
+          "Annotator does not belong to this pool!");
+    }
+    if (!this.leased.remove(annotator)) {
+      throw new IllegalStateException("Annotator already released!");
+    }
+    this.idle.add(annotator);
+  }
+
+  /**
+   * Get the number of annotators in the pool.
+   * 
+   * @return the size of the pool
+   */
+  public final int size() {
+    return this.annotators.size();
+  }
+
+  /**
+   * Get the sentence cache shared by the annotators of the pool.
+   * 
+   * @return the sentence cache or null if not caching
+   */
+  public final SentenceCache getSentenceCache() {
+    return this.sentenceCache;
+  }
+
+  /**
+   * Get the number of annotators not currently leased.
+   * 
+   * @return the number of idle annotators
+   */
+  public final int available() {
+    return this.idle.size();
+  }
+
+  /**
+   * Close every annotator of the pool, which shuts down their worker pool and
+   * releases their models. No annotator must be leased anymore.
+   */
+  public final void close() {
+    for (final Annotate annotator : this.annotators) {
+      annotator.close();
+    }
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import opennlp.tools.postag.POSModel;
+import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
+import eus.ixa.ixa.pipe.lemma.StatisticalLemmatizer;
+import eus.ixa.ixa.pipe.lemma.dict.MorfologikLemmatizer;
+import eus.ixa.ixa.pipe.pos.dict.DictionaryLookupCache;
+import eus.ixa.ixa.pipe.pos.dict.DictionaryTagger;
+import eus.ixa.ixa.pipe.pos.dict.MorfologikTagger;
+import eus.ixa.ixa.pipe.pos.dict.MultiWordMatcher;
+
+/**
+ * The resources of an {@link Annotate} object: the multiword dictionary, the
+ * monosemic tagger dictionary, the lemmatizer dictionary, the POS model and
+ * the lemmatizer model. They are independent of each other, so they are loaded
+ * in parallel and the cold start takes as long as the slowest resource
+ * instead of the sum of all of them. The load time of each resource is
+ * recorded.
+ *
+ * @author ragerri
+ * @version 2016-05-21
+ */
+public class AnnotatorResources {
+
+  /**
+   * The name of the multiword dictionary in the load times.
+   */
+  public static final String MULTIWORDS = "multiwords";
+  /**
+   * The name of the monosemic tagger dictionary in the load times.
+   */
+  public static final String TAGGER_DICTIONARY = "taggerDictionary";
+  /**
+   * The name of the lemmatizer dictionary in the load times.
+   */
+  public static final String LEMMATIZER_DICTIONARY = "lemmatizerDictionary";
+  /**
+   * The name of the POS model in the load times.
+   */
+  public static final String POS_MODEL = "posModel";
+  /**
+   * The name of the lemmatizer model in the load times.
+   */
+  public static final String LEMMATIZER_MODEL = "lemmatizerModel";
+
+  /**
+   * The multiword matcher, null if multiwords are not detected.
+   */
+  private MultiWordMatcher multiWordMatcher;
+  /**
+   * The monosemic dictionary postagger, null if not post-processing.
+   */
+  private DictionaryTagger dictMorphoTagger;
+  /**
+   * The dictionary lemmatizer, null if there is no dictionary for the
+   * language.
+   */
+  private MorfologikLemmatizer dictLemmatizer;
+  /**
+   * The POS model.
+   */
+  private HotSwapModel<POSModel> posModel;
+  /**
+   * The lemmatizer model.
+   */
+  private HotSwapModel<LemmatizerModel> lemmatizerModel;
+  /**
+   * The load time in milliseconds of each resource, in loading order.
+   */
+  private final Map<String, Long> loadTimes = Collections
+      .synchronizedMap(new LinkedHashMap<String, Long>());
+
+  /**
+   * Resources are created by {@link #load(Properties)}.
+   */
+  private AnnotatorResources() {
+  }
+
+  /**
+   * Load the resources required by the properties in parallel, waiting for
+   * all of them.
+   *
+   * @param properties
+   *          the annotation properties
+   * @return the resources
+   * @throws IOException
+   *           if some model cannot be read
+   */
+  public static AnnotatorResources load(final Properties properties)
+      throws IOException {
+    final long lStartTime = System.currentTimeMillis();
+    final AnnotatorResources resources = new AnnotatorResources();
+    final ExecutorService loaders = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+          public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "ixa-pipe-pos-loader");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      final Future<?> multiwords = loaders.submit(new Callable<Void>() {
+        public Void call() throws IOException {
+          resources.loadMultiWords(properties);
+          return null;
+        }
+      });
+      final Future<?> taggerDict = loaders.submit(new Callable<Void>() {
+        public Void call() {
+          resources.loadMorphoTaggerDicts(properties);
+          return null;
+        }
+      });
+      final Future<?> lemmatizerDict = loaders.submit(new Callable<Void>() {
+        public Void call() {
+          resources.loadLemmatizerDicts(properties);
+          return null;
+        }
+      });
+      final Future<?> posModel = loaders.submit(new Callable<Void>() {
+        public Void call() throws IOException {
+          final long start = System.currentTimeMillis();
+          resources.posModel = new HotSwapModel<POSModel>(
+              StatisticalTagger.getModelRegistry(),
+              properties.getProperty("model"));
+          resources.loadTimes.put(POS_MODEL, System.currentTimeMillis()
+              - start);
+          return null;
+        }
+      });
+      final Future<?> lemmatizerModel = loaders.submit(new Callable<Void>() {
+        public Void call() throws IOException {
+          final long start = System.currentTimeMillis();
+          resources.lemmatizerModel = new HotSwapModel<LemmatizerModel>(
+              StatisticalLemmatizer.getModelRegistry(),
+              properties.getProperty("lemmatizerModel"));
+          resources.loadTimes.put(LEMMATIZER_MODEL,
+              System.currentTimeMillis() - start);
+          return null;
+        }
+      });
+      try {
+        // wait for every loader, even if one fails, before releasing anything
+        Throwable failure = null;
+        for (final Future<?> loader : new Future<?>[] { multiwords,
+            taggerDict, lemmatizerDict, posModel, lemmatizerModel }) {
+          try {
+            loader.get();
+          } catch (final ExecutionException e) {
+            if (failure == null) {
+              failure = e.getCause();
+            }
+          }
+        }
+        if (failure != null) {
+          resources.release();
+          throw toIOException(failure);
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        resources.release();
+        throw new IOException("Interrupted while loading the resources!", e);
+      }
+    } finally {
+      loaders.shutdownNow();
+    }
+    System.err.println("ixa-pipe-pos resources loaded in: "
+        + (System.currentTimeMillis() - lStartTime) + " miliseconds "
+        + resources.loadTimes + " ... [DONE]");
+    return resources;
+  }
+
+  /**
+   * Start loading the resources required by the properties in the background.
+   *
+   * @param properties
+   *          the annotation properties
+   * @return the future resources
+   */
+  public static Future<AnnotatorResources> loadAsync(
+      final Properties properties) {
+    final ExecutorService loader = Executors
+        .newSingleThreadExecutor(new ThreadFactory() {
+          public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "ixa-pipe-pos-loader");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      return loader.submit(new Callable<AnnotatorResources>() {
+        public AnnotatorResources call() throws IOException {
+          return load(properties);
+        }
+      });
+    } finally {
+      loader.shutdown();
+    }
+  }
+
+  /**
+   * Convert the failure of a loader into an IOException.
+   *
+   * @param cause
+   *          the failure
+   * @return the exception to throw
+   */
+  private static IOException toIOException(final Throwable cause) {
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(cause);
+  }
+
+  /**
+   * Release the models loaded so far.
+   */
+  private void release() {
+    if (this.posModel != null) {
+      this.posModel.release();
+    }
+    if (this.lemmatizerModel != null) {
+      this.lemmatizerModel.release();
+    }
+  }
+
+  /**
+   * Load the multiword dictionary if multiwords are to be detected.
+   *
+   * @param props
+   *          the props object
+   * @throws IOException
+   *           if the dictionary cannot be read
+   */
+  private void loadMultiWords(final Properties props) throws IOException {
+    if (Boolean.valueOf(props.getProperty("multiwords"))) {
+      final long start = System.currentTimeMillis();
+      this.multiWordMatcher = new MultiWordMatcher(props);
+      this.loadTimes.put(MULTIWORDS, System.currentTimeMillis() - start);
+    }
+  }
+
+  // TODO static loading of lemmatizer dictionaries
+  /**
+   * Load the binary lemmatizer dictionaries by language. Exits if no lemmatizer
+   * dictionary (binary) is available for the input language.
+   *
+   * @param props
+   *          the props object
+   */
+  private void loadLemmatizerDicts(final Properties props) {
+    final String lang = props.getProperty("language");
+    final Resources resources = new Resources();
+    final URL binLemmatizerURL = resources.getBinaryDict(lang);
+    if (binLemmatizerURL == null) {
+      System.err
+          .println("WARNING: No lemmatizer dictionary available for language "
+              + lang + " in src/main/resources!");
+    } else {
+      final long start = System.currentTimeMillis();
+      try {
+        this.dictLemmatizer = new MorfologikLemmatizer(binLemmatizerURL,
+            createDictionaryCache(props));
+      } catch (final IOException e) {
+        e.printStackTrace();
+      }
+      this.loadTimes.put(LEMMATIZER_DICTIONARY, System.currentTimeMillis()
+          - start);
+    }
+
+  }
+
+  /**
+   * Create the cache of a dictionary with the memory budget, in megabytes, of
+   * the {@code dictCacheSize} property.
+   *
+   * @param props
+   *          the props object
+   * @return the cache or null if the budget is 0
+   */
+  private static DictionaryLookupCache createDictionaryCache(
+      final Properties props) {
+    final long megabytes = Long.parseLong(props.getProperty("dictCacheSize",
+        DictionaryLookupCache.DEFAULT_CACHE_MB));
+    return megabytes > 0 ? new DictionaryLookupCache(megabytes * 1024 * 1024)
+        : null;
+  }
+
+  // TODO static loading of postag dictionaries
+  /**
+   * Load the pos tagger dictionaries by language and format if tagger output
+   * is to be post-processed or constrained by the dictionary. Exits if no pos
+   * tagger dictionary (binary) is available for the input language.
+   *
+   * @param props
+   *          the props object
+   */
+  private void loadMorphoTaggerDicts(final Properties props) {
+    if (!Boolean.valueOf(props.getProperty("dictag"))
+        && !"dictionary".equalsIgnoreCase(props.getProperty("tagConstraints"))) {
+      return;
+    }
+    final String lang = props.getProperty("language");
+    final Resources resources = new Resources();
+    final URL binDictMorphoTaggerURL = resources.getBinaryTaggerDict(lang);
+    if (binDictMorphoTaggerURL == null) {
+      System.err
+          .println("ERROR: No binary POS tagger dictionary available for language "
+              + lang + " in src/main/resources!!");
+      System.exit(1);
+    }
+    final long start = System.currentTimeMillis();
+    try {
+      this.dictMorphoTagger = new MorfologikTagger(binDictMorphoTaggerURL,
+          lang, createDictionaryCache(props));
+    } catch (final IOException e) {
+      e.printStackTrace();
+    }
+    this.loadTimes.put(TAGGER_DICTIONARY, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Get the multiword matcher.
+   *
+   * @return the matcher or null if multiwords are not detected
+   */
+  public final MultiWordMatcher getMultiWordMatcher() {
+    return this.multiWordMatcher;
+  }
+
+  /**
+   * Get the monosemic dictionary postagger.
+   *
+   * @return the tagger or null if tagger output is neither post-processed
+   *         nor constrained by the dictionary
+   */
+  public final DictionaryTagger getDictMorphoTagger() {
+    return this.dictMorphoTagger;
+  }
+
+  /**
+   * Get the dictionary lemmatizer.
+   *
+   * @return the lemmatizer or null if there is no dictionary for the language
+   */
+  public final MorfologikLemmatizer getDictLemmatizer() {
+    return this.dictLemmatizer;
+  }
+
+  /**
+   * Get the POS model.
+   *
+   * @return the POS model
+   */
+  public final HotSwapModel<POSModel> getPosModel() {
+    return this.posModel;
+  }
+
+  /**
+   * Get the lemmatizer model.
+   *
+   * @return the lemmatizer model
+   */
+  public final HotSwapModel<LemmatizerModel> getLemmatizerModel() {
+    return this.lemmatizerModel;
+  }
+
+  /**
+   * Get the load time of each resource.
+   *
+   * @return the load times in milliseconds by resource name
+   */
+  public final Map<String, Long> getLoadTimes() {
+    synchronized (this.loadTimes) {
+      return new LinkedHashMap<String, Long>(this.loadTimes);
+    }
+  }
+
+}
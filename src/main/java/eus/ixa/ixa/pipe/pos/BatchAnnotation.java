@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.Arrays;
+
+/**
+ * The result of annotating a batch of tokenized sentences with
+ * {@link Annotate#annotate(java.util.List)}, stored as a struct of arrays: the
+ * terms of all the sentences are laid out consecutively in the word, tag,
+ * lemma and KAF pos arrays, and the terms of sentence {@code s} go from
+ * {@code getSentenceStart(s)} (inclusive) to {@code getSentenceStart(s + 1)}
+ * (exclusive). The arrays are reused across calls and only grow when a batch
+ * does not fit; entries beyond {@link #getNumTerms()} are meaningless. The
+ * postag and lemma alternatives, if requested, are kept per sentence.
+ * 
+ * @author ragerri
+ * @version 2016-05-16
+ */
+public class BatchAnnotation {
+
+  /**
+   * The initial capacity in terms.
+   */
+  private static final int INITIAL_TERMS = 1024;
+  /**
+   * The initial capacity in sentences.
+   */
+  private static final int INITIAL_SENTENCES = 64;
+  /**
+   * The number of sentences.
+   */
+  private int numSentences;
+  /**
+   * The number of terms.
+   */
+  private int numTerms;
+  /**
+   * The index of the first term of each sentence.
+   */
+  private int[] sentenceStarts = new int[INITIAL_SENTENCES + 1];
+  /**
+   * The word forms.
+   */
+  private String[] words = new String[INITIAL_TERMS];
+  /**
+   * The postags.
+   */
+  private String[] tags = new String[INITIAL_TERMS];
+  /**
+   * The lemmas.
+   */
+  private String[] lemmas = new String[INITIAL_TERMS];
+  /**
+   * The KAF pos values.
+   */
+  private String[] posIds = new String[INITIAL_TERMS];
+  /**
+   * The index of the first token of each term within its sentence.
+   */
+  private int[] tokenStarts = new int[INITIAL_TERMS];
+  /**
+   * The postag alternatives of each sentence.
+   */
+  private SequenceAlternatives[] tagAlternatives = new SequenceAlternatives[INITIAL_SENTENCES];
+  /**
+   * The lemma alternatives of each sentence.
+   */
+  private SequenceAlternatives[] lemmaAlternatives = new SequenceAlternatives[INITIAL_SENTENCES];
+
+  /**
+   * Empty the batch keeping the buffers.
+   */
+  public final void clear() {
+    this.numSentences = 0;
+    this.numTerms = 0;
+  }
+
+  /**
+   * Append the annotation of a sentence to the batch.
+   * 
+   * @param sentence
+   *          the sentence annotation
+   */
+  public final void add(final SentenceAnnotation sentence) {
+    final int size = sentence.size();
+    ensureCapacity(this.numSentences + 1, this.numTerms + size);
+    for (int i = 0; i < size; i++) {
+      final int term = this.numTerms + i;
+      this.words[term] = sentence.getWord(i);
+      this.tags[term] = sentence.getTag(i);
+      this.lemmas[term] = sentence.getLemma(i);
+      this.posIds[term] = sentence.getPosId(i);
+      this.tokenStarts[term] = sentence.getTermStart(i);
+    }
+    this.tagAlternatives[this.numSentences] = sentence.getTagAlternatives();
+    this.lemmaAlternatives[this.numSentences] = sentence
+        .getLemmaAlternatives();
+    this.numTerms += size;
+    this.numSentences++;
+    this.sentenceStarts[this.numSentences] = this.numTerms;
+  }
+
+  /**
+   * Append a sentence whose terms are its tokens to the batch, leaving its
+   * postags, lemmas and KAF pos values to be written by the annotator
+   * straight into the backing arrays. The arrays are only grown here, so the
+   * slices of the sentences appended can be filled concurrently.
+   * 
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the index of the first term of the sentence
+   */
+  final int addTokens(final String[] tokens) {
+    final int start = this.numTerms;
+    ensureCapacity(this.numSentences + 1, start + tokens.length);
+    System.arraycopy(tokens, 0, this.words, start, tokens.length);
+    for (int i = 0; i < tokens.length; i++) {
+      this.tokenStarts[start + i] = i;
+    }
+    this.tagAlternatives[this.numSentences] = null;
+    this.lemmaAlternatives[this.numSentences] = null;
+    this.numTerms += tokens.length;
+    this.numSentences++;
+    this.sentenceStarts[this.numSentences] = this.numTerms;
+    return start;
+  }
+
+  /**
+   * Grow the buffers if needed.
+   * 
+   * @param sentences
+   *          the number of sentences to fit
+   * @param terms
+   *          the number of terms to fit
+   */
+  private void ensureCapacity(final int sentences, final int terms) {
+    if (sentences + 1 > this.sentenceStarts.length) {
+      this.sentenceStarts = Arrays.copyOf(this.sentenceStarts,
+          Math.max(sentences + 1, this.sentenceStarts.length * 2));
+    }
+    if (sentences > this.tagAlternatives.length) {
+      final int capacity = Math.max(sentences, this.tagAlternatives.length * 2);
+      this.tagAlternatives = Arrays.copyOf(this.tagAlternatives, capacity);
+      this.lemmaAlternatives = Arrays.copyOf(this.lemmaAlternatives, capacity);
+    }
+    if (terms > this.words.length) {
+      final int capacity = Math.max(terms, this.words.length * 2);
+      this.words = Arrays.copyOf(this.words, capacity);
+      this.tags = Arrays.copyOf(this.tags, capacity);
+      this.lemmas = Arrays.copyOf(this.lemmas, capacity);
+      this.posIds = Arrays.copyOf(this.posIds, capacity);
+      this.tokenStarts = Arrays.copyOf(this.tokenStarts, capacity);
+    }
+  }
+
+  /**
+   * Get the number of sentences in the batch.
+   * 
+   * @return the number of sentences
+   */
+  public final int getNumSentences() {
+    return this.numSentences;
+  }
+
+  /**
+   * Get the number of terms in the batch.
+   * 
+   * @return the number of terms
+   */
+  public final int getNumTerms() {
+    return this.numTerms;
+  }
+
+  /**
+   * Get the index of the first term of a sentence. For
+   * {@code s == getNumSentences()} it returns the number of terms.
+   * 
+   * @param s
+   *          the sentence index
+   * @return the term index
+   */
+  public final int getSentenceStart(final int s) {
+    return this.sentenceStarts[s];
+  }
+
+  /**
+   * Get the word forms; multiword terms join their tokens with '#'.
+   * 
+   * @return the backing array of word forms
+   */
+  public final String[] getWords() {
+    return this.words;
+  }
+
+  /**
+   * Get the postags.
+   * 
+   * @return the backing array of postags
+   */
+  public final String[] getTags() {
+    return this.tags;
+  }
+
+  /**
+   * Get the lemmas.
+   * 
+   * @return the backing array of lemmas
+   */
+  public final String[] getLemmas() {
+    return this.lemmas;
+  }
+
+  /**
+   * Get the KAF pos values.
+   * 
+   * @return the backing array of KAF pos values
+   */
+  public final String[] getPosIds() {
+    return this.posIds;
+  }
+
+  /**
+   * Get the index of the first token of each term within its sentence.
+   * 
+   * @return the backing array of token indexes
+   */
+  public final int[] getTokenStarts() {
+    return this.tokenStarts;
+  }
+
+  /**
+   * Get the postag alternatives of each sentence; the alternatives of term
+   * {@code t} of sentence {@code s} are at index
+   * {@code t - getSentenceStart(s)}.
+   * 
+   * @return the backing array of postag alternatives, by sentence; null
+   *         entries if not requested
+   */
+  public final SequenceAlternatives[] getTagAlternatives() {
+    return this.tagAlternatives;
+  }
+
+  /**
+   * Get the lemma alternatives of each sentence.
+   * 
+   * @return the backing array of lemma alternatives, by sentence; null
+   *         entries if not requested
+   */
+  public final SequenceAlternatives[] getLemmaAlternatives() {
+    return this.lemmaAlternatives;
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import ixa.kaflib.KAFDocument;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.Files;
+
+/**
+ * Annotates many documents in one JVM. The models and dictionaries are loaded
+ * once into an {@link AnnotatorPool} and the documents are processed
+ * concurrently by a number of workers. Documents whose output already exists
+ * are skipped, so an interrupted job can be resumed by running it again; every
+ * output is written to a temporary file first and renamed when complete. The
+ * documents of an input directory are written to the same relative path in
+ * the output directory.
+ * 
+ * @author ragerri
+ * @version 2016-05-24
+ */
+public class BatchDocumentAnnotator implements Closeable {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The pool of annotators.
+   */
+  private final AnnotatorPool pool;
+  /**
+   * The number of workers.
+   */
+  private final int workers;
+  /**
+   * The output format, one of naf, conll or json.
+   */
+  private final String outputFormat;
+  /**
+   * Whether NAF is read and written with the streaming parser.
+   */
+  private final boolean streaming;
+  /**
+   * The name of the linguistic processor for the NAF header.
+   */
+  private final String lpName;
+  /**
+   * The version of the linguistic processor for the NAF header.
+   */
+  private final String lpVersion;
+  /**
+   * The number of documents annotated.
+   */
+  private final AtomicInteger annotated = new AtomicInteger();
+  /**
+   * The number of documents skipped because their output exists.
+   */
+  private final AtomicInteger skipped = new AtomicInteger();
+  /**
+   * The number of documents that could not be annotated.
+   */
+  private final AtomicInteger failed = new AtomicInteger();
+
+  /**
+   * Construct a batch annotator.
+   * 
+   * @param properties
+   *          the annotation properties
+   * @param aWorkers
+   *          the number of documents processed concurrently
+   * @param anOutputFormat
+   *          the output format, one of naf, conll or json
+   * @param isStreaming
+   *          whether NAF is processed with the streaming parser
+   * @param aLpName
+   *          the name of the linguistic processor
+   * @param aLpVersion
+   *          the version of the linguistic processor
+   * @throws IOException
+   *           if the models or dictionaries are not properly loaded
+   */
+  public BatchDocumentAnnotator(final Properties properties,
+      final int aWorkers, final String anOutputFormat,
+      final boolean isStreaming, final String aLpName, final String aLpVersion)
+      throws IOException {
+    this.pool = new AnnotatorPool(properties, aWorkers);
+    this.workers = aWorkers;
+    this.outputFormat = anOutputFormat;
+    this.streaming = isStreaming;
+    this.lpName = aLpName;
+    this.lpVersion = aLpVersion;
+  }
+
+  /**
+   * Annotate a list of documents, writing the output into a directory.
+   * 
+   * @param inputs
+   *          the input documents
+   * @param inputDir
+   *          the directory containing the input documents, whose paths
+   *          relative to it are kept in the output directory, or null to
+   *          write every output directly into the output directory
+   * @param outputDir
+   *          the output directory
+   * @throws InterruptedException
+   *           if interrupted while waiting for the workers
+   * @throws IllegalArgumentException
+   *           if two documents have the same output file
+   */
+  public final void annotate(final List<File> inputs, final File inputDir,
+      final File outputDir) throws InterruptedException {
+    final Map<File, File> outputs = getOutputs(inputs, inputDir, outputDir,
+        this.outputFormat);
+    outputDir.mkdirs();
+    final long lStartTime = System.currentTimeMillis();
+    final ExecutorService executor = Executors
+        .newFixedThreadPool(this.workers);
+    for (final Map.Entry<File, File> entry : outputs.entrySet()) {
+      final File input = entry.getKey();
+      final File output = entry.getValue();
+      if (output.exists()) {
+        this.skipped.incrementAndGet();
+        continue;
+      }
+      executor.execute(new Runnable() {
+        public void run() {
+          annotate(input, output);
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    final long difference = System.currentTimeMillis() - lStartTime;
+    System.err.println("Annotated " + this.annotated.get() + " documents, "
+        + this.skipped.get() + " skipped, " + this.failed.get()
+        + " failed in " + difference + " miliseconds ... [DONE]");
+    if (this.pool.getSentenceCache() != null) {
+      System.err.println(this.pool.getSentenceCache());
+    }
+  }
+
+  /**
+   * Close the pool of annotators, releasing its worker threads and models.
+   */
+  public final void close() {
+    this.pool.close();
+  }
+
+  /**
+   * Annotate one document with an annotator leased from the pool.
+   * 
+   * @param input
+   *          the input document
+   * @param output
+   *          the output file
+   */
+  private void annotate(final File input, final File output) {
+    final File tmpOutput = new File(output.getParentFile(), output.getName()
+        + ".tmp");
+    Annotate annotator = null;
+    try {
+      output.getParentFile().mkdirs();
+      annotator = this.pool.acquire();
+      try (BufferedReader breader = new BufferedReader(new InputStreamReader(
+          new FileInputStream(input), UTF8));
+          BufferedWriter bwriter = new BufferedWriter(new OutputStreamWriter(
+              new FileOutputStream(tmpOutput), UTF8))) {
+        annotate(annotator, breader, bwriter);
+      }
+      if (!tmpOutput.renameTo(output)) {
+        throw new IOException("Could not rename " + tmpOutput + " to " + output);
+      }
+      this.annotated.incrementAndGet();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.failed.incrementAndGet();
+    } catch (final Exception e) {
+      System.err.println("ERROR: could not annotate " + input + ": " + e);
+      tmpOutput.delete();
+      this.failed.incrementAndGet();
+    } finally {
+      if (annotator != null) {
+        this.pool.release(annotator);
+      }
+    }
+  }
+
+  /**
+   * Annotate one NAF document.
+   * 
+   * @param annotator
+   *          the annotator
+   * @param breader
+   *          the input
+   * @param bwriter
+   *          the output
+   * @throws Exception
+   *           if the document could not be read or annotated
+   */
+  private void annotate(final Annotate annotator,
+      final BufferedReader breader, final BufferedWriter bwriter)
+      throws Exception {
+    if (this.streaming && this.outputFormat.equalsIgnoreCase("naf")) {
+      new NAFStreamAnnotator(annotator, this.lpName, this.lpVersion).annotate(
+          breader, bwriter);
+      return;
+    }
+    final KAFDocument kaf = KAFDocument.createFromStream(breader);
+    if (this.outputFormat.equalsIgnoreCase("conll")) {
+      annotator.annotate(kaf, new CoNLLSerializer(bwriter));
+    } else if (this.outputFormat.equalsIgnoreCase("json")) {
+      annotator.annotate(kaf, new JSONSerializer(bwriter));
+    } else {
+      final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
+          "terms", this.lpName, this.lpVersion);
+      newLp.setBeginTimestamp();
+      annotator.annotatePOSToKAF(kaf);
+      newLp.setEndTimestamp();
+      bwriter.write(kaf.toString());
+    }
+  }
+
+  /**
+   * Get the output file of every document. The documents of an input
+   * directory keep their path relative to it, so that documents with the
+   * same name in different subdirectories do not overwrite each other;
+   * documents of a file list are written directly into the output directory.
+   * 
+   * @param inputs
+   *          the input documents
+   * @param inputDir
+   *          the directory containing the input documents, null if none
+   * @param outputDir
+   *          the output directory
+   * @param outputFormat
+   *          the output format, one of naf, conll or json
+   * @return the output file of each document, in the order of the inputs
+   * @throws IllegalArgumentException
+   *           if two documents have the same output file
+   */
+  public static Map<File, File> getOutputs(final List<File> inputs,
+      final File inputDir, final File outputDir, final String outputFormat) {
+    final Map<File, File> outputs = new LinkedHashMap<File, File>();
+    final Map<File, File> inputOfOutput = new LinkedHashMap<File, File>();
+    for (final File input : inputs) {
+      File parent = outputDir;
+      if (inputDir != null) {
+        final String relative = inputDir.getAbsoluteFile().toPath()
+            .normalize()
+            .relativize(input.getAbsoluteFile().getParentFile().toPath()
+                .normalize()).toString();
+        if (!relative.isEmpty()) {
+          parent = new File(outputDir, relative);
+        }
+      }
+      final File output = new File(parent, getOutputName(input, outputFormat));
+      final File previous = inputOfOutput.put(output, input);
+      if (previous != null) {
+        throw new IllegalArgumentException("Documents " + previous + " and "
+            + input + " would both be written to " + output);
+      }
+      outputs.put(input, output);
+    }
+    return outputs;
+  }
+
+  /**
+   * Get the name of the output file of a document: the same name for NAF
+   * output, the extension replaced by the format otherwise.
+   * 
+   * @param input
+   *          the input document
+   * @param outputFormat
+   *          the output format
+   * @return the output file name
+   */
+  private static String getOutputName(final File input,
+      final String outputFormat) {
+    if (outputFormat.equalsIgnoreCase("naf")) {
+      return input.getName();
+    }
+    return Files.getNameWithoutExtension(input.getName()) + "."
+        + outputFormat.toLowerCase();
+  }
+}
@@ -29,8 +29,14 @@ import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Properties;
 
+import javax.xml.stream.XMLStreamException;
+
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -50,6 +56,8 @@ import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
 import eus.ixa.ixa.pipe.lemma.eval.LemmaEvaluate;
 import eus.ixa.ixa.pipe.lemma.train.LemmatizerFixedTrainer;
 import eus.ixa.ixa.pipe.lemma.train.LemmatizerTrainer;
+import eus.ixa.ixa.pipe.pos.dict.DictionaryLookupCache;
+import eus.ixa.ixa.pipe.pos.eval.DecodingBenchmark;
 import eus.ixa.ixa.pipe.pos.eval.POSCrossValidator;
 import eus.ixa.ixa.pipe.pos.eval.Evaluate;
 import eus.ixa.ixa.pipe.pos.eval.POSEvaluate;
@@ -111,6 +119,22 @@ public class CLI {
    * The parser that manages the cross validation sub-command.
    */
   private final Subparser crossValidateParser;
+  /**
+   * The parser that manages the decoding benchmark sub-command.
+   */
+  private final Subparser benchmarkParser;
+  /**
+   * The parser that manages the model compilation sub-command.
+   */
+  private final Subparser compileParser;
+  /**
+   * The parser that manages the model pruning sub-command.
+   */
+  private final Subparser pruneParser;
+  /**
+   * The parser that manages the batch tagging sub-command.
+   */
+  private final Subparser batchParser;
   /**
    * Parser to start TCP socket for server-client functionality.
    */
@@ -131,6 +155,9 @@ public class CLI {
   public CLI() {
     this.annotateParser = this.subParsers.addParser("tag").help("Tagging CLI");
     loadAnnotateParameters();
+    this.batchParser = this.subParsers.addParser("batch").help(
+        "Batch tagging CLI");
+    loadBatchParameters();
     this.trainParser = this.subParsers.addParser("train").help("Training CLI");
     loadTrainingParameters();
     this.evalParser = this.subParsers.addParser("eval").help("Evaluation CLI");
@@ -138,6 +165,15 @@ public class CLI {
     this.crossValidateParser = this.subParsers.addParser("cross").help(
         "Cross validation CLI");
     loadCrossValidateParameters();
+    this.benchmarkParser = this.subParsers.addParser("benchmark").help(
+        "Decoding benchmark CLI");
+    loadBenchmarkParameters();
+    this.compileParser = this.subParsers.addParser("compile-model").help(
+        "Model compilation CLI");
+    loadCompileParameters();
+    this.pruneParser = this.subParsers.addParser("prune").help(
+        "Model pruning CLI");
+    loadPruneParameters();
     serverParser = subParsers.addParser("server").help("Start TCP socket server");
     loadServerParameters();
     clientParser = subParsers.addParser("client").help("Send queries to the TCP socket server");
@@ -173,12 +209,20 @@ public class CLI {
       System.err.println("CLI options: " + this.parsedArguments);
       if (args[0].equals("tag")) {
         annotate(System.in, System.out);
+      } else if (args[0].equals("batch")) {
+        batch();
       } else if (args[0].equals("eval")) {
         eval();
       } else if (args[0].equals("train")) {
         train();
       } else if (args[0].equals("cross")) {
         crossValidate();
+      } else if (args[0].equals("benchmark")) {
+        benchmark();
+      } else if (args[0].equals("compile-model")) {
+        compileModel();
+      } else if (args[0].equals("prune")) {
+        prune();
       } else if (args[0].equals("server")) {
         server();
       } else if (args[0].equals("client")) {
@@ -187,7 +231,7 @@ public class CLI {
     } catch (final ArgumentParserException e) {
       this.argParser.handleError(e);
       System.out.println("Run java -jar target/ixa-pipe-pos-" + this.version
-          + ".jar (tag|train|eval|cross|server|client) -help for details");
+          + ".jar (tag|batch|train|eval|benchmark|cross|compile-model|prune|server|client) -help for details");
       System.exit(1);
     }
   }
@@ -213,12 +257,107 @@ public class CLI {
         .getBoolean("multiwords"));
     final String dictag = Boolean.toString(this.parsedArguments
         .getBoolean("dictag"));
-    String outputFormat = parsedArguments.getString("outputFormat");
+    final String dictFirst = Boolean.toString(this.parsedArguments
+        .getBoolean("dictFirst"));
+    final String threads = this.parsedArguments.getString("threads");
+    final String cacheSize = this.parsedArguments.getString("cacheSize");
+    final String decoding = getDecoding();
+    final String alternatives = this.parsedArguments.getString("alternatives");
+    final String tagConstraints = this.parsedArguments
+        .getString("tagConstraints");
+    final String joint = Boolean.toString(this.parsedArguments
+        .getBoolean("joint"));
+    final String pruneLemmaClasses = Boolean.toString(this.parsedArguments
+        .getBoolean("pruneLemmaClasses"));
+    final List<String> outputFormats = getOutputFormats();
+    final String outputPrefix = this.parsedArguments.getString("outputPrefix");
+    if (outputFormats.size() > 1 && outputPrefix == null) {
+      System.err.println("ERROR: outputPrefix parameter required for more than one output format!!");
+      System.exit(1);
+    }
+    final String inputFormat = parsedArguments.getString("inputFormat");
     BufferedReader breader = null;
     BufferedWriter bwriter = null;
     breader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
     bwriter = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+    // the first format goes to the standard output, every other to a file
+    final List<BufferedWriter> bwriters = new ArrayList<BufferedWriter>();
+    bwriters.add(bwriter);
+    for (final String outputFormat : outputFormats.subList(1,
+        outputFormats.size())) {
+      bwriters.add(Files.newWriter(new File(outputPrefix + "." + outputFormat),
+          Charset.forName("UTF-8")));
+    }
+    final int nafIndex = outputFormats.indexOf("naf");
 
+    final boolean streaming = this.parsedArguments.getBoolean("streaming");
+    if (streaming && inputFormat.equalsIgnoreCase("naf") && nafIndex >= 0) {
+      // stream NAF without building the KAFDocument
+      final String lang = this.parsedArguments.getString("language");
+      if (lang == null) {
+        System.err.println("ERROR: language parameter required for streaming NAF!!");
+        System.exit(1);
+      }
+      final Properties properties = setAnnotateProperties(model,
+          lemmatizerModel, lang, multiwords, dictag, dictFirst, threads,
+          cacheSize, decoding, alternatives, tagConstraints, joint,
+          pruneLemmaClasses);
+      final Annotate annotator = new Annotate(properties);
+      final NAFStreamAnnotator nafAnnotator = new NAFStreamAnnotator(
+          annotator, "ixa-pipe-pos-" + Files.getNameWithoutExtension(model),
+          this.version + "-" + this.commit);
+      final List<AnnotationSerializer> serializers = new ArrayList<AnnotationSerializer>();
+      for (int i = 0; i < outputFormats.size(); i++) {
+        if (i != nafIndex) {
+          serializers.add(createSerializer(outputFormats.get(i),
+              bwriters.get(i)));
+        }
+      }
+      try {
+        nafAnnotator.annotate(breader, bwriters.get(nafIndex), serializers
+            .toArray(new AnnotationSerializer[serializers.size()]));
+      } catch (final XMLStreamException e) {
+        System.err.println("ERROR: Badly formatted NAF document!! "
+            + e.getMessage());
+        System.exit(1);
+      }
+      annotator.close();
+      closeWriters(bwriters);
+      breader.close();
+      return;
+    }
+    if (!inputFormat.equalsIgnoreCase("naf")) {
+      // stream already tokenized text sentence by sentence
+      final String lang = this.parsedArguments.getString("language");
+      if (lang == null) {
+        System.err.println("ERROR: language parameter required for "
+            + inputFormat + " input!!");
+        System.exit(1);
+      }
+      final Properties properties = setAnnotateProperties(model,
+          lemmatizerModel, lang, multiwords, dictag, dictFirst, threads,
+          cacheSize, decoding, alternatives, tagConstraints, joint,
+          pruneLemmaClasses);
+      final Annotate annotator = new Annotate(properties);
+      final TokenizedSentenceReader sentenceReader = new TokenizedSentenceReader(
+          breader, inputFormat);
+      final AnnotationSerializer[] serializers = new AnnotationSerializer[outputFormats
+          .size()];
+      for (int i = 0; i < serializers.length; i++) {
+        serializers[i] = createSerializer(outputFormats.get(i), bwriters.get(i));
+      }
+      annotator.annotate(sentenceReader, serializers);
+      if (annotator.getSentenceCache() != null) {
+        System.err.println(annotator.getSentenceCache());
+      }
+      for (final DictionaryLookupCache cache : annotator.getDictionaryCaches()) {
+        System.err.println(cache);
+      }
+      annotator.close();
+      closeWriters(bwriters);
+      breader.close();
+      return;
+    }
     final KAFDocument kaf = KAFDocument.createFromStream(breader);
     // language
     String lang;
@@ -232,24 +371,95 @@ public class CLI {
       lang = kaf.getLang();
     }
     final Properties properties = setAnnotateProperties(model, lemmatizerModel, lang,
-        multiwords, dictag);
+        multiwords, dictag, dictFirst, threads, cacheSize, decoding,
+        alternatives, tagConstraints, joint, pruneLemmaClasses);
     final Annotate annotator = new Annotate(properties);
-    
-    if (outputFormat.equalsIgnoreCase("conll")) {
-      bwriter.write(annotator.annotatePOSToCoNLL(kaf));
-    } else {
+
+    final AnnotationSerializer[] serializers = new AnnotationSerializer[outputFormats
+        .size()];
+    for (int i = 0; i < serializers.length; i++) {
+      serializers[i] = i == nafIndex ? new NAFTermsSerializer(kaf)
+          : createSerializer(outputFormats.get(i), bwriters.get(i));
+    }
+    if (nafIndex >= 0) {
       final KAFDocument.LinguisticProcessor newLp = kaf.addLinguisticProcessor(
           "terms", "ixa-pipe-pos-" + Files.getNameWithoutExtension(model),
           this.version + "-" + this.commit);
       newLp.setBeginTimestamp();
-      annotator.annotatePOSToKAF(kaf);
+      annotator.annotate(kaf, serializers);
       newLp.setEndTimestamp();
-      bwriter.write(kaf.toString());
+      bwriters.get(nafIndex).write(kaf.toString());
+    } else {
+      annotator.annotate(kaf, serializers);
     }
-    bwriter.close();
+    annotator.close();
+    closeWriters(bwriters);
     breader.close();
   }
 
+  /**
+   * Get the output formats of the annotation, given comma separated or
+   * repeated, in the order given and without duplicates.
+   * 
+   * @return the output formats
+   */
+  private List<String> getOutputFormats() {
+    final List<String> outputFormats = new ArrayList<String>();
+    final List<String> values = this.parsedArguments.getList("outputFormat");
+    if (values == null) {
+      outputFormats.add(Flags.DEFAULT_OUTPUT_FORMAT);
+      return outputFormats;
+    }
+    for (final String value : values) {
+      for (final String format : value.split(",")) {
+        final String outputFormat = format.trim().toLowerCase();
+        if (!outputFormat.equals("naf") && !outputFormat.equals("conll")
+            && !outputFormat.equals("json")) {
+          System.err.println("ERROR: unknown output format " + format
+              + ", choose naf, conll or json!!");
+          System.exit(1);
+        }
+        if (!outputFormats.contains(outputFormat)) {
+          outputFormats.add(outputFormat);
+        }
+      }
+    }
+    return outputFormats;
+  }
+
+  /**
+   * Create the serializer of a tabulated output format. Tokenized input has
+   * no NAF document, so NAF output is written tabulated.
+   * 
+   * @param outputFormat
+   *          the output format
+   * @param writer
+   *          the output
+   * @return the serializer
+   */
+  private static AnnotationSerializer createSerializer(
+      final String outputFormat, final BufferedWriter writer) {
+    if (outputFormat.equalsIgnoreCase("json")) {
+      return new JSONSerializer(writer);
+    }
+    return new CoNLLSerializer(writer);
+  }
+
+  /**
+   * Close the writers of every output format.
+   * 
+   * @param bwriters
+   *          the writers
+   * @throws IOException
+   *           if io problems
+   */
+  private static void closeWriters(final List<BufferedWriter> bwriters)
+      throws IOException {
+    for (final BufferedWriter writer : bwriters) {
+      writer.close();
+    }
+  }
+
   /**
    * Generate the annotation parameter of the CLI.
    */
@@ -269,17 +479,206 @@ public class CLI {
         .required(false)
         .setDefault(DEFAULT_BEAM_SIZE)
         .help("Choose beam size for decoding, it defaults to 3.");
+    this.annotateParser.addArgument("--decoding")
+        .required(false)
+        .choices("greedy", "beam", "viterbi")
+        .setDefault(DecodingStrategy.DEFAULT_DECODING)
+        .help("Choose decoding strategy: greedy (fastest), beam search with the beamSize or exact viterbi; it defaults to beam.\n");
     annotateParser.addArgument("-o", "--outputFormat")
         .required(false)
-        .choices("naf", "conll")
-        .setDefault(Flags.DEFAULT_OUTPUT_FORMAT)
-        .help("Choose output format; it defaults to NAF.\n");
+        .action(Arguments.append())
+        .help("Choose output formats among naf, conll and json, comma separated "
+            + "or repeated; it defaults to NAF. Every format is written from the "
+            + "same tagging pass, the first to the standard output and the others "
+            + "to the outputPrefix files.\n");
+    annotateParser.addArgument("--outputPrefix")
+        .required(false)
+        .help("Write every output format but the first to the file outputPrefix.format, "
+            + "e.g., doc.conll; required for more than one output format.\n");
+    annotateParser.addArgument("--inputFormat")
+        .required(false)
+        .choices("naf", TokenizedSentenceReader.CONLL_FORMAT,
+            TokenizedSentenceReader.TOKENIZED_FORMAT)
+        .setDefault("naf")
+        .help("Choose input format; it defaults to NAF. The conll (one token per line) "
+            + "and tokenized (one sentence per line) formats are streamed sentence "
+            + "by sentence and output in tabulated or json format.\n");
+    this.annotateParser.addArgument("--streaming")
+        .action(Arguments.storeTrue())
+        .help("Read and write NAF with a streaming parser instead of loading "
+            + "the whole document in memory; requires the language parameter.\n");
     this.annotateParser.addArgument("-mw", "--multiwords")
         .action(Arguments.storeTrue())
         .help("Use to detect and process multiwords.\n");
     this.annotateParser.addArgument("-d", "--dictag")
         .action(Arguments.storeTrue())
         .help("Post process POS tagger output with a monosemic dictionary.\n");
+    this.annotateParser.addArgument("--dictFirst")
+        .action(Arguments.storeTrue())
+        .help("Look up the lemma dictionary first and lemmatize statistically only the words not found in it.\n");
+    this.annotateParser.addArgument("--cacheSize")
+        .required(false)
+        .setDefault(Annotate.DEFAULT_CACHE_SIZE)
+        .help("Number of distinct sentences whose annotation is cached to avoid tagging repeated sentences; it defaults to 0 (no cache).\n");
+    this.annotateParser.addArgument("-t", "--threads")
+        .required(false)
+        .setDefault(Annotate.DEFAULT_THREADS)
+        .help("Number of threads to tag the sentences of a document in parallel; it defaults to 1.\n");
+    this.annotateParser.addArgument("--tagConstraints")
+        .required(false)
+        .choices("none", "model", "dictionary")
+        .setDefault(Annotate.DEFAULT_TAG_CONSTRAINTS)
+        .help("Score only the tags allowed for each known token by the tag dictionary of the model or by the POS tagger dictionary of the language; it defaults to none (every tag is scored).\n");
+    this.annotateParser.addArgument("--alternatives")
+        .required(false)
+        .setDefault(Annotate.DEFAULT_ALTERNATIVES)
+        .help("Number of best sequences and postag and lemma alternatives per term, with their probabilities, kept from the decoding pass and written as external references of the NAF terms; it defaults to 0 (none).\n");
+    this.annotateParser.addArgument("--joint")
+        .action(Arguments.storeTrue())
+        .help("Decode the postags and lemmas of each sentence in a single pass of both models instead of lemmatizing the best postags; ignored with alternatives, multiwords or dictFirst.\n");
+    this.annotateParser.addArgument("--pruneLemmaClasses")
+        .action(Arguments.storeTrue())
+        .help("Score only the lemma classes seen in training for the suffix and postag of each token, if the lemmatizer model was trained with LemmaClasses=true; faster, but the lemmas may differ from scoring every class.\n");
+  }
+
+  /**
+   * Main entry point for batch annotation. Annotates every document in the
+   * input directory or file list into the output directory, loading the models
+   * only once.
+   * @throws IOException
+   *           if the models or the file list cannot be read
+   */
+  public final void batch() throws IOException {
+    final String model = this.parsedArguments.getString("model");
+    final String lemmatizerModel = this.parsedArguments.getString("lemmatizerModel");
+    final String lang = this.parsedArguments.getString("language");
+    final String multiwords = Boolean.toString(this.parsedArguments
+        .getBoolean("multiwords"));
+    final String dictag = Boolean.toString(this.parsedArguments
+        .getBoolean("dictag"));
+    final String dictFirst = Boolean.toString(this.parsedArguments
+        .getBoolean("dictFirst"));
+    final String cacheSize = this.parsedArguments.getString("cacheSize");
+    final String alternatives = this.parsedArguments.getString("alternatives");
+    final String tagConstraints = this.parsedArguments
+        .getString("tagConstraints");
+    final String joint = Boolean.toString(this.parsedArguments
+        .getBoolean("joint"));
+    final String pruneLemmaClasses = Boolean.toString(this.parsedArguments
+        .getBoolean("pruneLemmaClasses"));
+    final int workers = Integer.parseInt(this.parsedArguments
+        .getString("workers"));
+    final String outputFormat = this.parsedArguments.getString("outputFormat");
+    final boolean streaming = this.parsedArguments.getBoolean("streaming");
+    final String inputDir = this.parsedArguments.getString("inputDir");
+    final String fileList = this.parsedArguments.getString("fileList");
+    final File outputDir = new File(this.parsedArguments.getString("outputDir"));
+
+    final List<File> inputs = new ArrayList<File>();
+    if (inputDir != null) {
+      inputs.addAll(StringUtils.getFilesInDir(new File(inputDir)));
+    } else if (fileList != null) {
+      for (final String line : Files.readLines(new File(fileList),
+          Charset.forName("UTF-8"))) {
+        if (!line.trim().isEmpty()) {
+          inputs.add(new File(line.trim()));
+        }
+      }
+    } else {
+      System.err.println("ERROR: provide either an input directory or a file list!!");
+      System.exit(1);
+    }
+    final File inputRoot = inputDir == null ? null : new File(inputDir);
+    try {
+      // fail before loading the models if two outputs collide
+      BatchDocumentAnnotator.getOutputs(inputs, inputRoot, outputDir,
+          outputFormat);
+    } catch (final IllegalArgumentException e) {
+      System.err.println("ERROR: " + e.getMessage() + "!!");
+      System.exit(1);
+    }
+    final Properties properties = setAnnotateProperties(model, lemmatizerModel,
+        lang, multiwords, dictag, dictFirst, Annotate.DEFAULT_THREADS,
+        cacheSize, DecodingStrategy.DEFAULT_DECODING, alternatives,
+        tagConstraints, joint, pruneLemmaClasses);
+    final BatchDocumentAnnotator batchAnnotator = new BatchDocumentAnnotator(
+        properties, workers, outputFormat, streaming, "ixa-pipe-pos-"
+            + Files.getNameWithoutExtension(model), this.version + "-"
+            + this.commit);
+    try {
+      batchAnnotator.annotate(inputs, inputRoot, outputDir);
+    } catch (final InterruptedException e) {
+      System.err.println("ERROR: batch annotation interrupted!!");
+      System.exit(1);
+    } finally {
+      batchAnnotator.close();
+    }
+  }
+
+  /**
+   * Generate the batch annotation parameters of the CLI.
+   */
+  private void loadBatchParameters() {
+    this.batchParser.addArgument("-m", "--model")
+        .required(true)
+        .help("It is required to provide a POS tagging model.");
+    this.batchParser.addArgument("-lm", "--lemmatizerModel")
+        .required(true)
+        .help("It is required to provide a lemmatizer model.");
+    this.batchParser.addArgument("-l", "--language")
+        .choices("de", "en", "es", "eu", "fr", "gl", "it", "nl")
+        .required(true)
+        .help("Choose a language.");
+    this.batchParser.addArgument("--inputDir")
+        .required(false)
+        .help("Directory containing the NAF documents to annotate.\n");
+    this.batchParser.addArgument("--fileList")
+        .required(false)
+        .help("File containing the paths of the NAF documents to annotate, one per line.\n");
+    this.batchParser.addArgument("--outputDir")
+        .required(true)
+        .help("Directory to write the annotated documents; documents already "
+            + "annotated there are skipped.\n");
+    this.batchParser.addArgument("-w", "--workers")
+        .required(false)
+        .setDefault("1")
+        .help("Number of documents annotated concurrently; it defaults to 1.\n");
+    this.batchParser.addArgument("-o", "--outputFormat")
+        .required(false)
+        .choices("naf", "conll", "json")
+        .setDefault(Flags.DEFAULT_OUTPUT_FORMAT)
+        .help("Choose output format; it defaults to NAF.\n");
+    this.batchParser.addArgument("--streaming")
+        .action(Arguments.storeTrue())
+        .help("Read and write NAF with a streaming parser.\n");
+    this.batchParser.addArgument("-mw", "--multiwords")
+        .action(Arguments.storeTrue())
+        .help("Use to detect and process multiwords.\n");
+    this.batchParser.addArgument("-d", "--dictag")
+        .action(Arguments.storeTrue())
+        .help("Post process POS tagger output with a monosemic dictionary.\n");
+    this.batchParser.addArgument("--dictFirst")
+        .action(Arguments.storeTrue())
+        .help("Look up the lemma dictionary first and lemmatize statistically only the words not found in it.\n");
+    this.batchParser.addArgument("--cacheSize")
+        .required(false)
+        .setDefault(Annotate.DEFAULT_CACHE_SIZE)
+        .help("Number of distinct sentences whose annotation is cached to avoid tagging repeated sentences; it defaults to 0 (no cache).\n");
+    this.batchParser.addArgument("--tagConstraints")
+        .required(false)
+        .choices("none", "model", "dictionary")
+        .setDefault(Annotate.DEFAULT_TAG_CONSTRAINTS)
+        .help("Score only the tags allowed for each known token by the tag dictionary of the model or by the POS tagger dictionary of the language; it defaults to none (every tag is scored).\n");
+    this.batchParser.addArgument("--alternatives")
+        .required(false)
+        .setDefault(Annotate.DEFAULT_ALTERNATIVES)
+        .help("Number of best sequences and postag and lemma alternatives per term, with their probabilities, kept from the decoding pass and written as external references of the NAF terms; it defaults to 0 (none).\n");
+    this.batchParser.addArgument("--joint")
+        .action(Arguments.storeTrue())
+        .help("Decode the postags and lemmas of each sentence in a single pass of both models instead of lemmatizing the best postags; ignored with alternatives, multiwords or dictFirst.\n");
+    this.batchParser.addArgument("--pruneLemmaClasses")
+        .action(Arguments.storeTrue())
+        .help("Score only the lemma classes seen in training for the suffix and postag of each token, if the lemmatizer model was trained with LemmaClasses=true; faster, but the lemmas may differ from scoring every class.\n");
   }
 
   /**
@@ -329,12 +728,13 @@ public class CLI {
     final String component = this.parsedArguments.getString("component");
     final String testFile = this.parsedArguments.getString("testSet");
     final String model = this.parsedArguments.getString("model");
+    final String referenceModel = this.parsedArguments.getString("referenceModel");
     Evaluate evaluator = null;
 
     if (component.equalsIgnoreCase("pos")) {
-      evaluator = new POSEvaluate(testFile, model);
+      evaluator = new POSEvaluate(testFile, model, referenceModel);
     } else {
-      evaluator = new LemmaEvaluate(testFile, model);
+      evaluator = new LemmaEvaluate(testFile, model, referenceModel);
     }
     if (this.parsedArguments.getString("evalReport") != null) {
       if (this.parsedArguments.getString("evalReport").equalsIgnoreCase(
@@ -353,6 +753,64 @@ public class CLI {
    
   }
   
+  /**
+   * Main access to the decoding benchmark.
+   * @throws IOException
+   *           if the model or the test set cannot be read
+   */
+  public final void benchmark() throws IOException {
+    final DecodingBenchmark benchmark = new DecodingBenchmark(
+        this.parsedArguments.getString("component"),
+        this.parsedArguments.getString("testSet"),
+        this.parsedArguments.getString("model"));
+    if (this.parsedArguments.getBoolean("features")) {
+      benchmark.benchmarkFeatures(System.out);
+    } else if (this.parsedArguments.getBoolean("lemmaDecoding")) {
+      benchmark.benchmarkLemmaDecoding(System.out);
+    } else if (this.parsedArguments.getString("joint") != null) {
+      benchmark.benchmarkJoint(this.parsedArguments.getString("joint"),
+          System.out);
+    } else {
+      benchmark.benchmark(this.parsedArguments.getString("strategies"),
+          System.out);
+    }
+    benchmark.release();
+  }
+
+  /**
+   * Load the decoding benchmark parameters of the CLI.
+   */
+  private void loadBenchmarkParameters() {
+    this.benchmarkParser.addArgument("-c", "--component")
+        .required(true)
+        .choices("pos", "lemma")
+        .help("Choose component for the benchmark");
+    this.benchmarkParser.addArgument("-m", "--model")
+        .required(true)
+        .help("Choose model");
+    this.benchmarkParser.addArgument("-t", "--testSet")
+        .required(true)
+        .help("Input testset for the benchmark");
+    this.benchmarkParser.addArgument("-s", "--strategies")
+        .required(false)
+        .setDefault(DecodingBenchmark.DEFAULT_STRATEGIES)
+        .help("Comma separated decoding strategies (greedy, beam, beam-N, viterbi), followed by "
+            + DecodingBenchmark.TAG_DICTIONARY_SUFFIX
+            + " to score only the tags allowed by the tag dictionary of a POS model, or by "
+            + DecodingBenchmark.PRUNED_CLASSES_SUFFIX
+            + " to score only the lemma classes of the lemma class index of a lemmatizer model; it defaults to "
+            + DecodingBenchmark.DEFAULT_STRATEGIES + ".\n");
+    this.benchmarkParser.addArgument("--features")
+        .action(Arguments.storeTrue())
+        .help("Compare the feature extraction of the beam search (per hypothesis, per sentence, feature ids) instead of the decoding strategies.\n");
+    this.benchmarkParser.addArgument("--lemmaDecoding")
+        .action(Arguments.storeTrue())
+        .help("Compare the decoding of lemmas from parsed and compiled edit scripts instead of the decoding strategies; lemma component only.\n");
+    this.benchmarkParser.addArgument("--joint")
+        .required(false)
+        .help("Compare tagging and then lemmatizing with this POS model with decoding postags and lemmas jointly, instead of the decoding strategies; lemma component only.\n");
+  }
+
   /**
    * Set up the TCP socket for annotation.
    */
@@ -370,6 +828,15 @@ public class CLI {
     // language parameter
     String lang = parsedArguments.getString("language");
     Properties serverproperties = setServerProperties(port, model, lemmatizerModel, lang, multiwords, dictag, outputFormat);
+    serverproperties.setProperty("decoding", getDecoding());
+    serverproperties.setProperty("alternatives",
+        parsedArguments.getString("alternatives"));
+    serverproperties.setProperty("tagConstraints",
+        parsedArguments.getString("tagConstraints"));
+    serverproperties.setProperty("joint",
+        Boolean.toString(parsedArguments.getBoolean("joint")));
+    serverproperties.setProperty("pruneLemmaClasses",
+        Boolean.toString(parsedArguments.getBoolean("pruneLemmaClasses")));
     new StatisticalTaggerServer(serverproperties);
   }
   
@@ -445,6 +912,9 @@ public class CLI {
         .required(false)
         .choices("brief", "detailed", "error")
         .help("Choose type of evaluation report; defaults to brief");
+    this.evalParser.addArgument("-r", "--referenceModel")
+        .required(false)
+        .help("Choose the unquantized model to report the accuracy difference against");
   }
 
   /**
@@ -468,7 +938,107 @@ public class CLI {
     this.crossValidateParser.addArgument("-p", "--params").required(true)
         .help("Load the Cross validation parameters file\n");
   }
+
+  /**
+   * Compile a trained POS or lemmatizer model into the memory-mapped format.
+   * @throws IOException
+   *           if the model cannot be read or written
+   */
+  public final void compileModel() throws IOException {
+    final File model = new File(this.parsedArguments.getString("model"));
+    final File output = new File(this.parsedArguments.getString("output"));
+    final Quantization quantization = Quantization
+        .fromName(this.parsedArguments.getString("quantization"));
+    final long lStartTime = new Date().getTime();
+    final int numFeatures = CompiledModels.compile(model, output,
+        quantization);
+    final long lEndTime = new Date().getTime();
+    final long difference = lEndTime - lStartTime;
+    System.err.println("Compiled " + numFeatures + " features into " + output
+        + " (" + output.length() + " bytes, " + quantization.name()
+        .toLowerCase() + " weights) in " + difference
+        + " miliseconds ... [DONE]");
+  }
+
+  /**
+   * Create the parameters available for model compilation.
+   */
+  private void loadCompileParameters() {
+    this.compileParser.addArgument("-m", "--model").required(true)
+        .help("Choose the POS or lemmatizer model to compile.\n");
+    this.compileParser.addArgument("-o", "--output").required(true)
+        .help("Choose the file of the compiled model.\n");
+    this.compileParser.addArgument("-q", "--quantization").required(false)
+        .choices("none", "float16", "int8").setDefault("none")
+        .help("Quantize the weights to half floats or bytes, scaled per "
+            + "outcome; it defaults to none.\n");
+  }
   
+  /**
+   * Prune a trained POS or lemmatizer model and compare the size, load time,
+   * accuracy and speed of the original and pruned models.
+   * @throws IOException
+   *           if the models, the training or the test set cannot be read
+   */
+  public final void prune() throws IOException {
+    final String component = this.parsedArguments.getString("component");
+    final File model = new File(this.parsedArguments.getString("model"));
+    final File output = new File(this.parsedArguments.getString("output"));
+    final String testSet = this.parsedArguments.getString("testSet");
+    final String trainSet = this.parsedArguments.getString("trainSet");
+    final int minFrequency = Integer.parseInt(this.parsedArguments
+        .getString("minFrequency"));
+    if (minFrequency > 1 && trainSet == null) {
+      System.err.println("Pruning by frequency requires the --trainSet!");
+      System.exit(1);
+    }
+    final long lStartTime = new Date().getTime();
+    final int[] numFeatures = ModelPruner.prune(model, output,
+        Double.parseDouble(this.parsedArguments.getString("minWeight")),
+        minFrequency, trainSet);
+    final long lEndTime = new Date().getTime();
+    final long difference = lEndTime - lStartTime;
+    System.err.println("Pruned " + numFeatures[0] + " features to "
+        + numFeatures[1] + " into " + output + " in " + difference
+        + " miliseconds ... [DONE]");
+    // load a model once so that class loading is not timed
+    CompiledModels.loadModel(output);
+    System.out.println(String.format("%-10s %12s %10s %10s %14s", "model",
+        "bytes", "load ms", "accuracy", "tokens/sec"));
+    for (final File file : new File[] { model, output }) {
+      final DecodingBenchmark benchmark = new DecodingBenchmark(component,
+          testSet, file.getPath());
+      final double[] result = benchmark.measure();
+      System.out.println(String.format("%-10s %12d %10d %10.4f %14.1f",
+          file == model ? "original" : "pruned", file.length(),
+          benchmark.getLoadTime(), result[0], result[1]));
+      benchmark.release();
+    }
+  }
+
+  /**
+   * Create the parameters available for model pruning.
+   */
+  private void loadPruneParameters() {
+    this.pruneParser.addArgument("-c", "--component").required(true)
+        .choices("pos", "lemma")
+        .help("Choose component of the model.\n");
+    this.pruneParser.addArgument("-m", "--model").required(true)
+        .help("Choose the trained POS or lemmatizer model to prune.\n");
+    this.pruneParser.addArgument("-o", "--output").required(true)
+        .help("Choose the file of the pruned model.\n");
+    this.pruneParser.addArgument("-t", "--testSet").required(true)
+        .help("Input testset to compare the original and pruned models.\n");
+    this.pruneParser.addArgument("-w", "--minWeight").required(false)
+        .setDefault("0")
+        .help("Drop the parameters whose absolute weight is lower; it defaults to 0.\n");
+    this.pruneParser.addArgument("-f", "--minFrequency").required(false)
+        .setDefault("1")
+        .help("Drop the features seen fewer times in the training set; it defaults to 1.\n");
+    this.pruneParser.addArgument("--trainSet").required(false)
+        .help("Input training set to count the feature frequencies; required by --minFrequency.\n");
+  }
+
   /**
    * Create the available parameters for POS tagging.
    */
@@ -488,6 +1058,10 @@ public class CLI {
     serverParser.addArgument("--beamSize").required(false)
         .setDefault(DEFAULT_BEAM_SIZE)
         .help("Choose beam size for decoding, it defaults to 3.");
+    serverParser.addArgument("--decoding").required(false)
+        .choices("greedy", "beam", "viterbi")
+        .setDefault(DecodingStrategy.DEFAULT_DECODING)
+        .help("Choose decoding strategy: greedy (fastest), beam search with the beamSize or exact viterbi; it defaults to beam.\n");
     serverParser.addArgument("-o", "--outputFormat").required(false)
         .choices("naf", "tabulated").setDefault(Flags.DEFAULT_OUTPUT_FORMAT)
         .help("Choose output format; it defaults to NAF.\n");
@@ -497,6 +1071,19 @@ public class CLI {
     serverParser.addArgument("-d", "--dictag")
         .action(Arguments.storeTrue())
         .help("Post process POS tagger output with a monosemic dictionary.\n");
+    serverParser.addArgument("--tagConstraints").required(false)
+        .choices("none", "model", "dictionary")
+        .setDefault(Annotate.DEFAULT_TAG_CONSTRAINTS)
+        .help("Score only the tags allowed for each known token by the tag dictionary of the model or by the POS tagger dictionary of the language; it defaults to none (every tag is scored).\n");
+    serverParser.addArgument("--alternatives").required(false)
+        .setDefault(Annotate.DEFAULT_ALTERNATIVES)
+        .help("Number of best sequences and postag and lemma alternatives per term, with their probabilities, kept from the decoding pass and written as external references of the NAF terms; it defaults to 0 (none).\n");
+    serverParser.addArgument("--joint")
+        .action(Arguments.storeTrue())
+        .help("Decode the postags and lemmas of each sentence in a single pass of both models instead of lemmatizing the best postags; ignored with alternatives, multiwords or dictFirst.\n");
+    serverParser.addArgument("--pruneLemmaClasses")
+        .action(Arguments.storeTrue())
+        .help("Score only the lemma classes seen in training for the suffix and postag of each token, if the lemmatizer model was trained with LemmaClasses=true; faster, but the lemmas may differ from scoring every class.\n");
   }
   
   private void loadClientParameters() {
@@ -510,23 +1097,55 @@ public class CLI {
         .help("Hostname or IP where the TCP server is running.\n");
   }
 
+  /**
+   * Get the decoding strategy of the CLI options: greedy, viterbi or beam
+   * search with the beam size option.
+   * @return the decoding strategy
+   */
+  private String getDecoding() {
+    final String decoding = this.parsedArguments.getString("decoding");
+    if (decoding.equals("beam")) {
+      return "beam-" + this.parsedArguments.getString("beamSize");
+    }
+    return decoding;
+  }
+
   /**
    * Generate Properties objects for CLI usage.
    * @param model the model to perform the annotation
    * @param language the language
    * @param multiwords whether multiwords are to be detected
    * @param dictag whether tagging from a dictionary is activated
+   * @param dictFirst whether the lemma dictionary is looked up before the statistical lemmatizer
+   * @param threads the number of annotation threads
+   * @param cacheSize the size of the sentence cache
+   * @param decoding the decoding strategy
+   * @param alternatives the number of alternatives kept per term
+   * @param tagConstraints the tag dictionary restricting the tags scored
+   * @param joint whether tags and lemmas are decoded in a single pass
+   * @param pruneLemmaClasses whether only the lemma classes of the lemma class index are scored
    * @return a properties object
    */
   private Properties setAnnotateProperties(final String model, final String lemmatizerModel,
       final String language, final String multiwords,
-      final String dictag) {
+      final String dictag, final String dictFirst, final String threads,
+      final String cacheSize, final String decoding, final String alternatives,
+      final String tagConstraints, final String joint,
+      final String pruneLemmaClasses) {
     final Properties annotateProperties = new Properties();
     annotateProperties.setProperty("model", model);
     annotateProperties.setProperty("lemmatizerModel", lemmatizerModel);
     annotateProperties.setProperty("language", language);
     annotateProperties.setProperty("multiwords", multiwords);
     annotateProperties.setProperty("dictag", dictag);
+    annotateProperties.setProperty("dictFirst", dictFirst);
+    annotateProperties.setProperty("threads", threads);
+    annotateProperties.setProperty("cacheSize", cacheSize);
+    annotateProperties.setProperty("decoding", decoding);
+    annotateProperties.setProperty("alternatives", alternatives);
+    annotateProperties.setProperty("tagConstraints", tagConstraints);
+    annotateProperties.setProperty("joint", joint);
+    annotateProperties.setProperty("pruneLemmaClasses", pruneLemmaClasses);
     return annotateProperties;
   }
   
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.IOException;
+
+/**
+ * Serializes the annotation in tabulated CoNLL-style format: one
+ * word\tlemma\tpostag line per term and an empty line after each sentence.
+ * 
+ * @author ragerri
+ * @version 2016-05-12
+ */
+public class CoNLLSerializer implements AnnotationSerializer {
+
+  /**
+   * The output.
+   */
+  private final Appendable out;
+
+  /**
+   * Construct a CoNLL serializer.
+   * 
+   * @param anOut
+   *          the output, a {@code StringBuilder} or a {@code Writer}
+   */
+  public CoNLLSerializer(final Appendable anOut) {
+    this.out = anOut;
+  }
+
+  public final void serialize(final SentenceAnnotation sentence)
+      throws IOException {
+    for (int i = 0; i < sentence.size(); i++) {
+      this.out.append(sentence.getWord(i)).append('\t')
+          .append(sentence.getLemma(i)).append('\t')
+          .append(sentence.getTag(i)).append('\n');
+    }
+    this.out.append('\n');
+  }
+}
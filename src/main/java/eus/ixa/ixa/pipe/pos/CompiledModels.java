@@ -0,0 +1,720 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.GenericModelWriter;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSTaggerFactory;
+import opennlp.tools.postag.POSTaggerME;
+import eus.ixa.ixa.pipe.lemma.LemmatizerFactory;
+import eus.ixa.ixa.pipe.lemma.LemmatizerME;
+import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
+
+/**
+ * Compiles trained POS and lemmatizer models into a flat binary format which
+ * is evaluated straight from a read-only memory-mapped file by
+ * {@link MappedMaxentModel}. Loading a compiled model does not deserialize the
+ * feature strings and weights into the heap, so it is almost instant, and
+ * several JVMs on the same host share the model through the page cache.
+ * <p>
+ * The file contains a header, the outcomes, an open addressing hash table of
+ * feature indexes, a record per feature, the non-zero parameters as (outcome,
+ * float weight) pairs, the feature characters and, finally, the original
+ * model without its weights (the skeleton), which keeps the tag dictionary,
+ * the factory and the manifest.
+ * <p>
+ * The weights can be quantized to half floats or bytes (see
+ * {@link Quantization}); the parameters are then (char outcome, quantized
+ * weight) pairs followed by the float scale of each outcome. Quantized models
+ * are written with the second version of the format, so that older readers
+ * reject them.
+ *
+ * @author ragerri
+ * @version 2016-05-20
+ */
+public final class CompiledModels {
+
+  /**
+   * The magic number at the start of a compiled model.
+   */
+  private static final byte[] MAGIC = { 'I', 'X', 'A', 'M', 'O', 'D', 'E', 'L' };
+  /**
+   * The version of the format.
+   */
+  private static final int FORMAT_VERSION = 1;
+  /**
+   * The version of the format of quantized models.
+   */
+  private static final int QUANTIZED_FORMAT_VERSION = 2;
+  /**
+   * The size of the header in bytes.
+   */
+  private static final int HEADER_SIZE = 80;
+  /**
+   * The component id of POS models.
+   */
+  private static final int POS_COMPONENT = 0;
+  /**
+   * The component id of lemmatizer models.
+   */
+  private static final int LEMMATIZER_COMPONENT = 1;
+  /**
+   * The model entry of POS models.
+   */
+  static final String POS_MODEL_ENTRY = "pos.model";
+  /**
+   * The model entry of lemmatizer models.
+   */
+  private static final String LEMMATIZER_MODEL_ENTRY = "lemmatizer.model";
+  /**
+   * The manifest entry of every model.
+   */
+  private static final String MANIFEST_ENTRY = "manifest.properties";
+  /**
+   * The only feature of the placeholder model stored in the skeleton.
+   */
+  private static final String PLACEHOLDER_FEATURE = "*compiled*";
+
+  /**
+   * This class is not to be instantiated.
+   */
+  private CompiledModels() {
+  }
+
+  /**
+   * Check whether a file is a compiled model.
+   *
+   * @param modelFile
+   *          the model file
+   * @return true if it is a compiled model
+   * @throws IOException
+   *           if the file cannot be read
+   */
+  public static boolean isCompiled(final File modelFile) throws IOException {
+    final byte[] magic = new byte[MAGIC.length];
+    final DataInputStream in = new DataInputStream(new FileInputStream(
+        modelFile));
+    try {
+      in.readFully(magic);
+    } catch (final IOException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+    return Arrays.equals(magic, MAGIC);
+  }
+
+  /**
+   * Compile a POS or lemmatizer model.
+   *
+   * @param modelFile
+   *          the trained model
+   * @param outputFile
+   *          the compiled model
+   * @return the number of features of the compiled model
+   * @throws IOException
+   *           if the model cannot be read or written, or if it is not a
+   *           perceptron or maxent (GIS) model
+   */
+  public static int compile(final File modelFile, final File outputFile)
+      throws IOException {
+    return compile(modelFile, outputFile, Quantization.NONE);
+  }
+
+  /**
+   * Compile a POS or lemmatizer model, quantizing its weights.
+   *
+   * @param modelFile
+   *          the trained model
+   * @param outputFile
+   *          the compiled model
+   * @param quantization
+   *          the encoding of the weights
+   * @return the number of features of the compiled model
+   * @throws IOException
+   *           if the model cannot be read or written, or if it is not a
+   *           perceptron or maxent (GIS) model
+   */
+  public static int compile(final File modelFile, final File outputFile,
+      final Quantization quantization) throws IOException {
+    if (isCompiled(modelFile)) {
+      throw new IOException("Model already compiled: " + modelFile);
+    }
+    final String modelEntry = getModelEntry(modelFile);
+    final int component = modelEntry.equals(POS_MODEL_ENTRY) ? POS_COMPONENT
+        : LEMMATIZER_COMPONENT;
+    final AbstractModel model = loadModel(modelFile);
+    final boolean maxent = model.getModelType() == AbstractModel.ModelType.Maxent;
+    final Object[] data = model.getDataStructures();
+    final Context[] params = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    final IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    final String[] outcomes = (String[]) data[2];
+    final int correctionConstant = (Integer) data[3];
+    final double correctionParam = (Double) data[4];
+    final String[] predLabels = pmap.toArray(new String[pmap.size()]);
+    final byte[] skeleton = getSkeleton(modelFile, modelEntry, outcomes);
+    if (quantization != Quantization.NONE
+        && outcomes.length > Character.MAX_VALUE + 1) {
+      throw new IOException("Too many outcomes to quantize the model!");
+    }
+    final float[] scales = getScales(params, outcomes.length, quantization);
+
+    // keep only the features with some non-zero parameter
+    final List<Integer> features = new ArrayList<Integer>();
+    int numParams = 0;
+    int numChars = 0;
+    for (int i = 0; i < predLabels.length; i++) {
+      final int nonZero = countNonZero(params[i].getParameters());
+      if (nonZero > 0) {
+        features.add(i);
+        numParams += nonZero;
+        numChars += predLabels[i].length();
+      }
+    }
+    final int numFeatures = features.size();
+    int tableSize = 1;
+    while (tableSize < 2 * numFeatures) {
+      tableSize <<= 1;
+    }
+    int outcomesSize = 0;
+    for (final String outcome : outcomes) {
+      outcomesSize += 4 + 2 * outcome.length();
+    }
+    final long outcomesOffset = HEADER_SIZE;
+    final long tableOffset = outcomesOffset + outcomesSize;
+    final long featuresOffset = tableOffset + 4L * tableSize;
+    final long paramsOffset = featuresOffset
+        + (long) MappedMaxentModel.FEATURE_RECORD_SIZE * numFeatures;
+    final long scalesOffset = paramsOffset
+        + (long) quantization.getParamRecordSize() * numParams;
+    final long charsOffset = scalesOffset
+        + (quantization == Quantization.NONE ? 0 : 4L * outcomes.length);
+    final long skeletonOffset = charsOffset + 2L * numChars;
+    if (skeletonOffset + skeleton.length > Integer.MAX_VALUE) {
+      throw new IOException("Model too large to be compiled!");
+    }
+
+    // hash table of feature indexes (plus one, 0 is an empty slot)
+    final int[] table = new int[tableSize];
+    for (int f = 0; f < numFeatures; f++) {
+      int slot = MappedMaxentModel.hash(predLabels[features.get(f)])
+          & tableSize - 1;
+      while (table[slot] != 0) {
+        slot = slot + 1 & tableSize - 1;
+      }
+      table[slot] = f + 1;
+    }
+
+    final DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(outputFile)));
+    try {
+      out.write(MAGIC);
+      out.writeInt(quantization == Quantization.NONE ? FORMAT_VERSION
+          : QUANTIZED_FORMAT_VERSION);
+      out.writeInt(component);
+      out.writeInt(maxent ? 1 : 0);
+      out.writeInt(correctionConstant);
+      out.writeDouble(correctionParam);
+      out.writeInt(outcomes.length);
+      out.writeInt(numFeatures);
+      out.writeInt(tableSize);
+      out.writeInt(numParams);
+      out.writeInt((int) outcomesOffset);
+      out.writeInt((int) tableOffset);
+      out.writeInt((int) featuresOffset);
+      out.writeInt((int) paramsOffset);
+      out.writeInt((int) charsOffset);
+      out.writeInt((int) skeletonOffset);
+      out.writeInt(skeleton.length);
+      out.writeInt(quantization.getId());
+      for (final String outcome : outcomes) {
+        out.writeInt(outcome.length());
+        out.writeChars(outcome);
+      }
+      for (final int slot : table) {
+        out.writeInt(slot);
+      }
+      int paramStart = 0;
+      int charOffset = (int) charsOffset;
+      for (final int i : features) {
+        out.writeInt(MappedMaxentModel.hash(predLabels[i]));
+        out.writeInt(charOffset);
+        out.writeInt(predLabels[i].length());
+        out.writeInt(paramStart);
+        paramStart += countNonZero(params[i].getParameters());
+        charOffset += 2 * predLabels[i].length();
+      }
+      for (final int i : features) {
+        final int[] activeOutcomes = params[i].getOutcomes();
+        final double[] weights = params[i].getParameters();
+        for (int j = 0; j < weights.length; j++) {
+          if (weights[j] != 0) {
+            writeParameter(out, activeOutcomes[j], weights[j],
+                scales == null ? 0 : scales[activeOutcomes[j]], quantization);
+          }
+        }
+      }
+      if (scales != null) {
+        for (final float scale : scales) {
+          out.writeFloat(scale);
+        }
+      }
+      for (final int i : features) {
+        out.writeChars(predLabels[i]);
+      }
+      out.write(skeleton);
+    } finally {
+      out.close();
+    }
+    return numFeatures;
+  }
+
+  /**
+   * Load a compiled POS model.
+   *
+   * @param modelFile
+   *          the compiled model
+   * @return the POS model, whose weights are read from the mapped file
+   * @throws IOException
+   *           if the file is not a compiled POS model
+   */
+  public static POSModel loadPOSModel(final File modelFile) throws IOException {
+    final ByteBuffer buffer = map(modelFile);
+    checkHeader(buffer, POS_COMPONENT, modelFile);
+    final POSModel skeleton = new POSModel(getSkeleton(buffer));
+    final POSTaggerFactory factory = POSTaggerFactory.create(skeleton
+        .getFactory().getClass().getName(), skeleton.getNgramDictionary(),
+        skeleton.getFactory().getTagDictionary());
+    return new POSModel(skeleton.getLanguage(), getModel(buffer),
+        getBeamSize(skeleton.getManifestProperty(BeamSearch.BEAM_SIZE_PARAMETER),
+            POSTaggerME.DEFAULT_BEAM_SIZE), new HashMap<String, String>(),
+        factory);
+  }
+
+  /**
+   * Load a compiled lemmatizer model.
+   *
+   * @param modelFile
+   *          the compiled model
+   * @return the lemmatizer model, whose weights are read from the mapped file
+   * @throws IOException
+   *           if the file is not a compiled lemmatizer model
+   */
+  public static LemmatizerModel loadLemmatizerModel(final File modelFile)
+      throws IOException {
+    final ByteBuffer buffer = map(modelFile);
+    checkHeader(buffer, LEMMATIZER_COMPONENT, modelFile);
+    final LemmatizerModel skeleton = new LemmatizerModel(getSkeleton(buffer));
+    final LemmatizerFactory factory = LemmatizerFactory.create(skeleton
+        .getFactory().getClass().getName());
+    return new LemmatizerModel(skeleton.getLanguage(), getModel(buffer),
+        getBeamSize(skeleton.getManifestProperty(BeamSearch.BEAM_SIZE_PARAMETER),
+            LemmatizerME.DEFAULT_BEAM_SIZE), new HashMap<String, String>(),
+        factory, skeleton.getLemmaClassIndex());
+  }
+
+  /**
+   * Get the encoding of the weights of a model.
+   *
+   * @param model
+   *          the model
+   * @return the quantization of a compiled model, {@link Quantization#NONE}
+   *         for any other model
+   */
+  public static Quantization getQuantization(final MaxentModel model) {
+    return model instanceof MappedMaxentModel ? ((MappedMaxentModel) model)
+        .getQuantization() : Quantization.NONE;
+  }
+
+  /**
+   * Map a file read-only in memory.
+   *
+   * @param modelFile
+   *          the file
+   * @return the mapped buffer
+   * @throws IOException
+   *           if the file cannot be mapped
+   */
+  private static ByteBuffer map(final File modelFile) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(modelFile, "r");
+    try {
+      final FileChannel channel = file.getChannel();
+      final MappedByteBuffer buffer = channel.map(
+          FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return buffer;
+    } finally {
+      // the mapping stays valid after closing the file
+      file.close();
+    }
+  }
+
+  /**
+   * Check the header of a compiled model.
+   *
+   * @param buffer
+   *          the compiled model
+   * @param component
+   *          the expected component
+   * @param modelFile
+   *          the model file, for the error messages
+   * @throws IOException
+   *           if the header does not match
+   */
+  private static void checkHeader(final ByteBuffer buffer,
+      final int component, final File modelFile) throws IOException {
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buffer.get(i) != MAGIC[i]) {
+        throw new IOException("Not a compiled model: " + modelFile);
+      }
+    }
+    final int version = buffer.getInt(8);
+    if (version != FORMAT_VERSION && version != QUANTIZED_FORMAT_VERSION
+        || Quantization.fromId(buffer.getInt(76)) == null) {
+      throw new IOException("Unsupported compiled model version "
+          + buffer.getInt(8) + ": " + modelFile);
+    }
+    if (buffer.getInt(12) != component) {
+      throw new IOException("Wrong type of compiled model: " + modelFile);
+    }
+  }
+
+  /**
+   * Create the model evaluated over a compiled model buffer.
+   *
+   * @param buffer
+   *          the compiled model
+   * @return the model
+   */
+  private static MappedMaxentModel getModel(final ByteBuffer buffer) {
+    final int numOutcomes = buffer.getInt(32);
+    final String[] outcomes = new String[numOutcomes];
+    int offset = buffer.getInt(48);
+    for (int i = 0; i < numOutcomes; i++) {
+      final int length = buffer.getInt(offset);
+      offset += 4;
+      final char[] chars = new char[length];
+      for (int j = 0; j < length; j++) {
+        chars[j] = buffer.getChar(offset);
+        offset += 2;
+      }
+      outcomes[i] = new String(chars);
+    }
+    final Quantization quantization = Quantization.fromId(buffer.getInt(76));
+    float[] scales = null;
+    if (quantization != Quantization.NONE) {
+      scales = new float[numOutcomes];
+      offset = buffer.getInt(60) + buffer.getInt(44)
+          * quantization.getParamRecordSize();
+      for (int i = 0; i < numOutcomes; i++) {
+        scales[i] = buffer.getFloat(offset + 4 * i);
+      }
+    }
+    return new MappedMaxentModel(buffer, outcomes, buffer.getInt(16) == 1,
+        buffer.getInt(20), buffer.getDouble(24), buffer.getInt(36),
+        buffer.getInt(44), buffer.getInt(40), buffer.getInt(52),
+        buffer.getInt(56), buffer.getInt(60), quantization, scales);
+  }
+
+  /**
+   * Get the scale of the weights of each outcome: the largest absolute weight
+   * of the outcome, divided by the largest int8 value for int8 weights.
+   *
+   * @param params
+   *          the parameters of the model
+   * @param numOutcomes
+   *          the number of outcomes
+   * @param quantization
+   *          the encoding of the weights
+   * @return the scales, null if the weights are not quantized
+   */
+  private static float[] getScales(final Context[] params,
+      final int numOutcomes, final Quantization quantization) {
+    if (quantization == Quantization.NONE) {
+      return null;
+    }
+    final float[] scales = new float[numOutcomes];
+    for (final Context context : params) {
+      final int[] activeOutcomes = context.getOutcomes();
+      final double[] weights = context.getParameters();
+      for (int j = 0; j < weights.length; j++) {
+        scales[activeOutcomes[j]] = Math.max(scales[activeOutcomes[j]],
+            (float) Math.abs(weights[j]));
+      }
+    }
+    for (int i = 0; i < numOutcomes; i++) {
+      if (scales[i] == 0) {
+        scales[i] = 1;
+      } else if (quantization == Quantization.INT8) {
+        scales[i] /= Quantization.INT8_RANGE;
+      }
+    }
+    return scales;
+  }
+
+  /**
+   * Write a parameter of a compiled model.
+   *
+   * @param out
+   *          the compiled model
+   * @param outcome
+   *          the outcome of the parameter
+   * @param weight
+   *          the weight
+   * @param scale
+   *          the scale of the weights of the outcome
+   * @param quantization
+   *          the encoding of the weights
+   * @throws IOException
+   *           if the parameter cannot be written
+   */
+  private static void writeParameter(final DataOutputStream out,
+      final int outcome, final double weight, final float scale,
+      final Quantization quantization) throws IOException {
+    if (quantization == Quantization.NONE) {
+      out.writeInt(outcome);
+      out.writeFloat((float) weight);
+    } else if (quantization == Quantization.FLOAT16) {
+      out.writeChar(outcome);
+      out.writeShort(Quantization.toHalf((float) (weight / scale)));
+    } else {
+      out.writeChar(outcome);
+      out.writeByte((int) Math.max(-Quantization.INT8_RANGE,
+          Math.min(Quantization.INT8_RANGE, Math.round(weight / scale))));
+    }
+  }
+
+  /**
+   * Get the skeleton stored in a compiled model buffer.
+   *
+   * @param buffer
+   *          the compiled model
+   * @return the stream of the skeleton model
+   */
+  private static InputStream getSkeleton(final ByteBuffer buffer) {
+    final byte[] skeleton = new byte[buffer.getInt(72)];
+    final ByteBuffer view = buffer.duplicate();
+    view.position(buffer.getInt(68));
+    view.get(skeleton);
+    return new ByteArrayInputStream(skeleton);
+  }
+
+  /**
+   * Build the skeleton of a model: a copy of every entry of the model package
+   * except the model weights, replaced by a placeholder model with the same
+   * outcomes and a single feature (the model writers do not accept models
+   * without features).
+   *
+   * @param modelFile
+   *          the model package
+   * @param modelEntry
+   *          the name of the entry with the model weights
+   * @param outcomes
+   *          the outcomes of the model
+   * @return the skeleton package
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  private static byte[] getSkeleton(final File modelFile,
+      final String modelEntry, final String[] outcomes) throws IOException {
+    final Context[] placeholder = { new Context(new int[] { 0 },
+        new double[] { 1.0 }) };
+    return replaceModel(modelFile, modelEntry, new PerceptronModel(
+        placeholder, new String[] { PLACEHOLDER_FEATURE }, outcomes));
+  }
+
+  /**
+   * Copy a model package replacing its model weights.
+   *
+   * @param modelFile
+   *          the model package
+   * @param modelEntry
+   *          the name of the entry with the model weights
+   * @param model
+   *          the model written in place of the original weights
+   * @return the new package
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  static byte[] replaceModel(final File modelFile, final String modelEntry,
+      final AbstractModel model) throws IOException {
+    final ByteArrayOutputStream newModel = new ByteArrayOutputStream();
+    new GenericModelWriter(model, new DataOutputStream(newModel)).persist();
+    final ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+    final ZipOutputStream zip = new ZipOutputStream(skeleton);
+    final ZipInputStream in = new ZipInputStream(new FileInputStream(modelFile));
+    try {
+      final byte[] buffer = new byte[8192];
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        zip.putNextEntry(new ZipEntry(entry.getName()));
+        if (entry.getName().equals(modelEntry)) {
+          zip.write(newModel.toByteArray());
+        } else {
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            zip.write(buffer, 0, read);
+          }
+        }
+        zip.closeEntry();
+      }
+    } finally {
+      in.close();
+    }
+    zip.close();
+    return skeleton.toByteArray();
+  }
+
+  /**
+   * Get the name of the entry with the model weights of a POS or lemmatizer
+   * model package.
+   *
+   * @param modelFile
+   *          the model package
+   * @return the name of the entry
+   * @throws IOException
+   *           if the model cannot be read or it is not a POS or lemmatizer
+   *           model
+   */
+  static String getModelEntry(final File modelFile) throws IOException {
+    final String componentName = getComponentName(modelFile);
+    if ("POSTaggerME".equals(componentName)) {
+      return POS_MODEL_ENTRY;
+    } else if ("StatisticalLemmatizer".equals(componentName)) {
+      return LEMMATIZER_MODEL_ENTRY;
+    }
+    throw new IOException("Not a POS or lemmatizer model: " + modelFile);
+  }
+
+  /**
+   * Load the perceptron or maxent model of a POS or lemmatizer model package.
+   *
+   * @param modelFile
+   *          the model package
+   * @return the model
+   * @throws IOException
+   *           if the model cannot be read, or if it is not a perceptron or
+   *           maxent (GIS) model
+   */
+  static AbstractModel loadModel(final File modelFile) throws IOException {
+    final MaxentModel maxentModel = getModelEntry(modelFile).equals(
+        POS_MODEL_ENTRY) ? StatisticalTagger
+        .getMaxentModel(new POSModel(modelFile))
+        : new LemmatizerModel(modelFile).getLemmatizerMaxentModel();
+    if (!(maxentModel instanceof AbstractModel)) {
+      throw new IOException("Only perceptron and maxent models are supported!");
+    }
+    final AbstractModel model = (AbstractModel) maxentModel;
+    if (model.getModelType() != AbstractModel.ModelType.Perceptron
+        && model.getModelType() != AbstractModel.ModelType.Maxent) {
+      throw new IOException("Model type " + model.getModelType()
+          + " is not supported!");
+    }
+    return model;
+  }
+
+  /**
+   * Get the component name in the manifest of a model package.
+   *
+   * @param modelFile
+   *          the model package
+   * @return the component name or null if not found
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  private static String getComponentName(final File modelFile)
+      throws IOException {
+    final ZipFile zip = new ZipFile(modelFile);
+    try {
+      final ZipEntry entry = zip.getEntry(MANIFEST_ENTRY);
+      if (entry == null) {
+        return null;
+      }
+      final Properties manifest = new Properties();
+      final InputStream in = zip.getInputStream(entry);
+      try {
+        manifest.load(in);
+      } finally {
+        in.close();
+      }
+      return manifest.getProperty("Component-Name");
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Count the non-zero parameters of a feature.
+   *
+   * @param weights
+   *          the parameters
+   * @return the number of non-zero parameters
+   */
+  private static int countNonZero(final double[] weights) {
+    int nonZero = 0;
+    for (final double weight : weights) {
+      if (weight != 0) {
+        nonZero++;
+      }
+    }
+    return nonZero;
+  }
+
+  /**
+   * Parse the beam size of a model manifest.
+   *
+   * @param beamSize
+   *          the beam size property, possibly null
+   * @param defaultBeamSize
+   *          the default beam size
+   * @return the beam size
+   */
+  private static int getBeamSize(final String beamSize,
+      final int defaultBeamSize) {
+    return beamSize == null ? defaultBeamSize : Integer.parseInt(beamSize);
+  }
+
+}
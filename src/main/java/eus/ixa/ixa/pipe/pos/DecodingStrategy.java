@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+
+/**
+ * The strategy to decode the sequence of tags (or lemma classes) of a
+ * sentence from an event model:
+ * <ul>
+ * <li>{@code greedy}: the best outcome of each token given the previous
+ * decisions, the fastest strategy;</li>
+ * <li>{@code beam}: beam search keeping the best {@code N} hypotheses, written
+ * {@code beam-N}; plain {@code beam} uses the beam size of the model;</li>
+ * <li>{@code viterbi}: exact search of the best sequence, for models whose
+ * features only look at a fixed number of previous decisions.</li>
+ * </ul>
+ *
+ * @author ragerri
+ * @version 2016-05-22
+ */
+public final class DecodingStrategy {
+
+  /**
+   * The default strategy: beam search with the beam size of the model.
+   */
+  public static final String DEFAULT_DECODING = "beam";
+
+  /**
+   * The decoding algorithms.
+   */
+  public enum Type {
+    /**
+     * Best outcome of each token.
+     */
+    GREEDY,
+    /**
+     * Beam search.
+     */
+    BEAM,
+    /**
+     * Exact search.
+     */
+    VITERBI
+  }
+
+  /**
+   * The decoding algorithm.
+   */
+  private final Type type;
+  /**
+   * The beam size, 0 to use the beam size of the model.
+   */
+  private final int beamSize;
+
+  /**
+   * Construct a decoding strategy.
+   *
+   * @param aType
+   *          the decoding algorithm
+   * @param aBeamSize
+   *          the beam size, 0 to use the beam size of the model
+   */
+  private DecodingStrategy(final Type aType, final int aBeamSize) {
+    this.type = aType;
+    this.beamSize = aBeamSize;
+  }
+
+  /**
+   * Parse a decoding strategy: greedy, beam, beam-N or viterbi.
+   *
+   * @param decoding
+   *          the strategy, null for the default
+   * @return the decoding strategy
+   */
+  public static DecodingStrategy parse(final String decoding) {
+    if (decoding == null || decoding.equalsIgnoreCase("beam")) {
+      return new DecodingStrategy(Type.BEAM, 0);
+    } else if (decoding.equalsIgnoreCase("greedy")) {
+      return new DecodingStrategy(Type.GREEDY, 1);
+    } else if (decoding.equalsIgnoreCase("viterbi")) {
+      return new DecodingStrategy(Type.VITERBI, 0);
+    } else if (decoding.toLowerCase().startsWith("beam-")) {
+      final int beamSize;
+      try {
+        beamSize = Integer.parseInt(decoding.substring("beam-".length()));
+      } catch (final NumberFormatException e) {
+        throw new IllegalArgumentException("Wrong beam size in " + decoding);
+      }
+      if (beamSize < 1) {
+        throw new IllegalArgumentException("Wrong beam size in " + decoding);
+      }
+      return new DecodingStrategy(Type.BEAM, beamSize);
+    }
+    throw new IllegalArgumentException("Unknown decoding strategy " + decoding
+        + "; choose greedy, beam, beam-N or viterbi");
+  }
+
+  /**
+   * Get the decoding algorithm.
+   *
+   * @return the type of decoding
+   */
+  public Type getType() {
+    return this.type;
+  }
+
+  /**
+   * Get the beam size.
+   *
+   * @param defaultBeamSize
+   *          the beam size of the model
+   * @return the beam size, the beam size of the model unless set in the
+   *         strategy
+   */
+  public int getBeamSize(final int defaultBeamSize) {
+    return this.beamSize > 0 ? this.beamSize : defaultBeamSize;
+  }
+
+  /**
+   * Create the decoder of an event model.
+   *
+   * @param model
+   *          the event model
+   * @param order
+   *          the number of previous decisions seen by the features of the
+   *          model, used by the Viterbi decoder
+   * @param defaultBeamSize
+   *          the beam size of the model
+   * @return the decoder
+   */
+  public SequenceClassificationModel<String> createDecoder(
+      final MaxentModel model, final int order, final int defaultBeamSize) {
+    switch (this.type) {
+    case GREEDY:
+      return new GreedySearch(model);
+    case VITERBI:
+      return new ViterbiSearch(model, order);
+    default:
+      return new BeamSearch<String>(getBeamSize(defaultBeamSize), model);
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (this.type) {
+    case GREEDY:
+      return "greedy";
+    case VITERBI:
+      return "viterbi";
+    default:
+      return this.beamSize > 0 ? "beam-" + this.beamSize : "beam";
+    }
+  }
+
+}
@@ -0,0 +1,813 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import opennlp.tools.postag.TagDictionary;
+import opennlp.tools.util.Sequence;
+
+/**
+ * The OpenNLP beam search over feature ids, used by the POS tagger and the
+ * lemmatizer. Contexts are extracted by a {@link FeatureIdContextGenerator}
+ * into a reused array and evaluated by a {@link FeatureIdModel} into a reused
+ * array of probabilities; hypotheses are stored in reused arrays instead of
+ * {@code Sequence} objects. Once the buffers have grown to the longest
+ * sentence, the only allocation per sentence is the returned array of
+ * outcomes.
+ * <p>
+ * The search reproduces {@code BeamSearch} and its {@code ListHeap} step by
+ * step, including the order in which ties are broken, so the outcomes are
+ * the same as those of {@code POSTaggerME} or {@code LemmatizerME}. An
+ * optional tag dictionary constrains the outcomes as the
+ * {@code DefaultPOSSequenceValidator} does; it is looked up once per token.
+ * If the outcomes are restricted, the allowed outcomes of a known token are
+ * the only ones scored and are normalized among themselves, which no longer
+ * reproduces {@code BeamSearch} but saves scoring, sorting and expanding the
+ * outcomes the dictionary rules out. Other {@link OutcomeConstraints}, such
+ * as the lemma classes admitted by the suffix and postag of a token, restrict
+ * the outcomes in the same way; a token restricted to a single outcome, e.g.,
+ * a lemma class known beforehand, takes it with probability 1 without being
+ * scored.
+ * The k best sequences and the marginals of each token can be kept from the
+ * same pass, see {@link #bestSequences(String[], Object[], int)}.
+ * Instances are not thread-safe.
+ *
+ * @author ragerri
+ * @version 2016-05-23
+ */
+public class FeatureIdBeamSearch {
+
+  /**
+   * The minimum score of a hypothesis, as in {@code BeamSearch}.
+   */
+  private static final double MIN_SEQUENCE_SCORE = -100000;
+
+  /**
+   * The model.
+   */
+  private final FeatureIdModel model;
+  /**
+   * The context generator.
+   */
+  private final FeatureIdContextGenerator contextGenerator;
+  /**
+   * The allowed outcomes of each token, null if outcomes are not
+   * constrained.
+   */
+  private final OutcomeConstraints constraints;
+  /**
+   * The index of each outcome.
+   */
+  private final Map<String, Integer> outcomeIndex = new HashMap<String, Integer>();
+  /**
+   * The beam size.
+   */
+  private final int beamSize;
+  /**
+   * The feature ids of the current context.
+   */
+  private final int[] contextIds;
+  /**
+   * The probabilities of the outcomes.
+   */
+  private final double[] probs;
+  /**
+   * The number of features of each outcome, counted by the model if needed.
+   */
+  private final int[] featureCounts;
+  /**
+   * The sorted probabilities, to find the beam threshold.
+   */
+  private final double[] sortedProbs;
+  /**
+   * Whether each outcome is allowed for the current token.
+   */
+  private final boolean[] allowed;
+  /**
+   * The outcomes allowed for the current token, if constrained.
+   */
+  private final int[] allowedOutcomes;
+  /**
+   * The number of outcomes allowed for the current token.
+   */
+  private int numAllowed;
+  /**
+   * Whether only the allowed outcomes of a constrained token are scored.
+   */
+  private final boolean restrictOutcomes;
+  /**
+   * The heap of the hypotheses being expanded.
+   */
+  private Heap prev = new Heap();
+  /**
+   * The heap of the expanded hypotheses.
+   */
+  private Heap next = new Heap();
+  /**
+   * The score of each hypothesis.
+   */
+  private double[] nodeScores = new double[64];
+  /**
+   * The last outcome of each hypothesis, -1 for the empty one.
+   */
+  private int[] nodeOutcomes = new int[64];
+  /**
+   * The hypothesis extended by each hypothesis, -1 for the empty one.
+   */
+  private int[] nodeParents = new int[64];
+  /**
+   * The probability of the last outcome of each hypothesis.
+   */
+  private double[] nodeProbs = new double[64];
+  /**
+   * The number of most probable outcomes recorded for each expanded
+   * hypothesis, 0 if not recording.
+   */
+  private int numAlternatives;
+  /**
+   * The most probable outcomes of the expansion of each hypothesis, at
+   * {@code node * numAlternatives}; -1 if fewer outcomes were allowed.
+   */
+  private int[] expansionOutcomes = new int[0];
+  /**
+   * The probabilities of the most probable outcomes of the expansion of each
+   * hypothesis.
+   */
+  private double[] expansionProbs = new double[0];
+  /**
+   * The number of hypotheses of the current sentence.
+   */
+  private int numNodes;
+  /**
+   * The best hypothesis of the last sentence, -1 if none.
+   */
+  private int bestNode = -1;
+
+  /**
+   * Construct a beam search.
+   *
+   * @param aModel
+   *          the model
+   * @param aContextGenerator
+   *          the context generator
+   * @param aTagDictionary
+   *          the tag dictionary, null if none
+   * @param aBeamSize
+   *          the beam size
+   */
+  public FeatureIdBeamSearch(final FeatureIdModel aModel,
+      final FeatureIdContextGenerator aContextGenerator,
+      final TagDictionary aTagDictionary, final int aBeamSize) {
+    this(aModel, aContextGenerator, aTagDictionary, aBeamSize, false);
+  }
+
+  /**
+   * Construct a beam search which optionally scores only the outcomes allowed
+   * by the tag dictionary. Tokens for which the dictionary allows no outcome
+   * of the model are not constrained.
+   *
+   * @param aModel
+   *          the model
+   * @param aContextGenerator
+   *          the context generator
+   * @param aTagDictionary
+   *          the tag dictionary, null if none
+   * @param aBeamSize
+   *          the beam size
+   * @param aRestrictOutcomes
+   *          whether to score only the allowed outcomes of known tokens
+   */
+  public FeatureIdBeamSearch(final FeatureIdModel aModel,
+      final FeatureIdContextGenerator aContextGenerator,
+      final TagDictionary aTagDictionary, final int aBeamSize,
+      final boolean aRestrictOutcomes) {
+    this(aModel, aContextGenerator, aTagDictionary == null ? null
+        : new TagDictionaryConstraints(aTagDictionary), aBeamSize,
+        aRestrictOutcomes);
+  }
+
+  /**
+   * Construct a beam search which constrains the outcomes of each token and
+   * optionally scores only the allowed ones. Tokens for which no outcome of
+   * the model is allowed are not constrained.
+   *
+   * @param aModel
+   *          the model
+   * @param aContextGenerator
+   *          the context generator
+   * @param someConstraints
+   *          the allowed outcomes of each token, null if none
+   * @param aBeamSize
+   *          the beam size
+   * @param aRestrictOutcomes
+   *          whether to score only the allowed outcomes of constrained tokens
+   */
+  public FeatureIdBeamSearch(final FeatureIdModel aModel,
+      final FeatureIdContextGenerator aContextGenerator,
+      final OutcomeConstraints someConstraints, final int aBeamSize,
+      final boolean aRestrictOutcomes) {
+    this.model = aModel;
+    this.contextGenerator = aContextGenerator;
+    this.constraints = someConstraints;
+    this.beamSize = aBeamSize;
+    this.contextIds = new int[aContextGenerator.getMaxContextSize()];
+    final int numOutcomes = aModel.getNumOutcomes();
+    for (int i = 0; i < numOutcomes; i++) {
+      this.outcomeIndex.put(aModel.getOutcome(i), i);
+    }
+    this.probs = new double[numOutcomes];
+    this.featureCounts = new int[numOutcomes];
+    this.sortedProbs = new double[numOutcomes];
+    this.allowed = new boolean[numOutcomes];
+    this.allowedOutcomes = new int[numOutcomes];
+    this.restrictOutcomes = aRestrictOutcomes;
+  }
+
+  /**
+   * Find the best sequence of outcomes of a sentence.
+   *
+   * @param tokens
+   *          the tokens
+   * @param additionalContext
+   *          the additional context passed to the context generator
+   * @return the outcomes of the best sequence, null if no sequence is valid
+   */
+  public final String[] bestSequence(final String[] tokens,
+      final Object[] additionalContext) {
+    final String[] outcomes = new String[tokens.length];
+    return bestSequence(tokens, additionalContext, outcomes, 0) ? outcomes
+        : null;
+  }
+
+  /**
+   * Find the best sequence of outcomes of a sentence and store it in an
+   * array, e.g., the buffer of a {@link BatchAnnotation}, without allocating
+   * the array of outcomes.
+   *
+   * @param tokens
+   *          the tokens
+   * @param additionalContext
+   *          the additional context passed to the context generator
+   * @param outcomes
+   *          the array where the outcome of each token is stored
+   * @param offset
+   *          the index of the outcome of the first token
+   * @return true if some sequence is valid, false if none is and the array
+   *         is left untouched
+   */
+  public final boolean bestSequence(final String[] tokens,
+      final Object[] additionalContext, final String[] outcomes,
+      final int offset) {
+    if (!search(tokens, additionalContext, 0)) {
+      return false;
+    }
+    this.bestNode = this.prev.extract();
+    int node = this.bestNode;
+    for (int i = tokens.length - 1; i >= 0; i--) {
+      outcomes[offset + i] = this.model.getOutcome(this.nodeOutcomes[node]);
+      node = this.nodeParents[node];
+    }
+    return true;
+  }
+
+  /**
+   * Find the k best sequences of outcomes of a sentence and the marginals of
+   * each token in a single pass. The k most probable allowed outcomes of
+   * every expansion are recorded during the search; the marginals of a token
+   * mix the distributions from which each of the k best sequences chose its
+   * outcome, weighted by the normalized probability of the sequence. The
+   * best sequence is the one of {@link #bestSequence(String[], Object[])}.
+   *
+   * @param tokens
+   *          the tokens
+   * @param additionalContext
+   *          the additional context passed to the context generator
+   * @param k
+   *          the number of sequences and outcomes per token to keep
+   * @return the alternatives, null if no sequence is valid
+   */
+  public final SequenceAlternatives bestSequences(final String[] tokens,
+      final Object[] additionalContext, final int k) {
+    if (!search(tokens, additionalContext, k)) {
+      return null;
+    }
+    final int numSequences = Math.min(k, this.prev.size);
+    final int[][] paths = new int[numSequences][tokens.length];
+    final Sequence[] sequences = new Sequence[numSequences];
+    for (int h = 0; h < numSequences; h++) {
+      int node = this.prev.extract();
+      if (h == 0) {
+        this.bestNode = node;
+      }
+      for (int i = tokens.length - 1; i >= 0; i--) {
+        paths[h][i] = node;
+        node = this.nodeParents[node];
+      }
+      sequences[h] = new Sequence();
+      for (int i = 0; i < tokens.length; i++) {
+        sequences[h].add(this.model.getOutcome(this.nodeOutcomes[paths[h][i]]),
+            this.nodeProbs[paths[h][i]]);
+      }
+    }
+    final double[] weights = SequenceAlternatives.getWeights(sequences);
+    final List<Map<String, Double>> marginals = SequenceAlternatives
+        .newMarginals(tokens.length);
+    for (int h = 0; h < numSequences; h++) {
+      for (int i = 0; i < tokens.length; i++) {
+        final int node = paths[h][i];
+        final int base = this.nodeParents[node] * k;
+        boolean recorded = false;
+        for (int j = base; j < base + k && this.expansionOutcomes[j] >= 0; j++) {
+          recorded |= this.expansionOutcomes[j] == this.nodeOutcomes[node];
+          SequenceAlternatives.addMarginal(marginals.get(i), this.model
+              .getOutcome(this.expansionOutcomes[j]), weights[h]
+              * this.expansionProbs[j]);
+        }
+        if (!recorded) {
+          // the outcome was in the beam but not among the k most probable
+          SequenceAlternatives.addMarginal(marginals.get(i), this.model
+              .getOutcome(this.nodeOutcomes[node]), weights[h]
+              * this.nodeProbs[node]);
+        }
+      }
+    }
+    return SequenceAlternatives.create(sequences, marginals, k);
+  }
+
+  /**
+   * Run the beam search over a sentence, leaving the final hypotheses in the
+   * previous heap.
+   *
+   * @param tokens
+   *          the tokens
+   * @param additionalContext
+   *          the additional context passed to the context generator
+   * @param k
+   *          the number of most probable outcomes to record for each
+   *          expansion, 0 to record none
+   * @return true if some sequence is valid
+   */
+  private boolean search(final String[] tokens,
+      final Object[] additionalContext, final int k) {
+    final int numOutcomes = this.probs.length;
+    this.numAlternatives = k;
+    this.numNodes = 0;
+    this.bestNode = -1;
+    this.prev.reset();
+    this.next.reset();
+    this.prev.add(newNode(-1, -1, 1.0, 0));
+    for (int i = 0; i < tokens.length; i++) {
+      final boolean constrained = findAllowedOutcomes(i, tokens,
+          additionalContext);
+      final int sz = Math.min(this.beamSize, this.prev.size);
+      for (int sc = 0; this.prev.size > 0 && sc < sz; sc++) {
+        final int top = this.prev.extract();
+        if (constrained && this.restrictOutcomes && this.numAllowed == 1) {
+          advanceOnlyAllowed(top);
+          continue;
+        }
+        final int parent = this.nodeParents[top];
+        final String prevDecision = this.nodeOutcomes[top] < 0 ? null : this.model
+            .getOutcome(this.nodeOutcomes[top]);
+        final String prevPrevDecision = parent < 0 || this.nodeOutcomes[parent] < 0 ? null
+            : this.model.getOutcome(this.nodeOutcomes[parent]);
+        final int numIds = this.contextGenerator.getContextIds(i, tokens,
+            additionalContext, prevDecision, prevPrevDecision, this.model,
+            this.contextIds);
+        if (constrained && this.restrictOutcomes) {
+          expandAllowed(top, numIds);
+          continue;
+        }
+        this.model.eval(this.contextIds, numIds, this.probs,
+            this.featureCounts);
+        if (this.numAlternatives > 0) {
+          recordExpansion(top, constrained);
+        }
+        System.arraycopy(this.probs, 0, this.sortedProbs, 0, numOutcomes);
+        Arrays.sort(this.sortedProbs);
+        final double min = this.sortedProbs[Math.max(0, numOutcomes
+            - this.beamSize)];
+        for (int p = 0; p < numOutcomes; p++) {
+          // only advance the best outcomes
+          if (this.probs[p] >= min && (!constrained || this.allowed[p])) {
+            advance(top, p);
+          }
+        }
+        if (this.next.size == 0) {
+          // if no advanced sequences, advance all valid
+          for (int p = 0; p < numOutcomes; p++) {
+            if (!constrained || this.allowed[p]) {
+              advance(top, p);
+            }
+          }
+        }
+      }
+      this.prev.clear();
+      final Heap tmp = this.prev;
+      this.prev = this.next;
+      this.next = tmp;
+    }
+    return this.prev.size > 0;
+  }
+
+  /**
+   * Get the probabilities of the outcomes of the best sequence of the last
+   * sentence.
+   *
+   * @return the probability of each outcome, empty if no sequence was found
+   */
+  public final double[] getProbs() {
+    int length = 0;
+    for (int node = this.bestNode; node > 0; node = this.nodeParents[node]) {
+      length++;
+    }
+    final double[] outcomeProbs = new double[length];
+    int node = this.bestNode;
+    for (int i = length - 1; i >= 0; i--) {
+      outcomeProbs[i] = this.nodeProbs[node];
+      node = this.nodeParents[node];
+    }
+    return outcomeProbs;
+  }
+
+  /**
+   * Get the model.
+   *
+   * @return the model
+   */
+  final FeatureIdModel getModel() {
+    return this.model;
+  }
+
+  /**
+   * Get the context generator.
+   *
+   * @return the context generator
+   */
+  final FeatureIdContextGenerator getContextGenerator() {
+    return this.contextGenerator;
+  }
+
+  /**
+   * Get the allowed outcomes of each token.
+   *
+   * @return the constraints, null if outcomes are not constrained
+   */
+  final OutcomeConstraints getConstraints() {
+    return this.constraints;
+  }
+
+  /**
+   * Whether only the allowed outcomes of constrained tokens are scored.
+   *
+   * @return true if the outcomes are restricted
+   */
+  final boolean isRestrictOutcomes() {
+    return this.restrictOutcomes;
+  }
+
+  /**
+   * Get the beam size.
+   *
+   * @return the beam size
+   */
+  final int getBeamSize() {
+    return this.beamSize;
+  }
+
+  /**
+   * Expand a hypothesis scoring only the outcomes allowed for the current
+   * token, as the unrestricted search does over every outcome.
+   *
+   * @param top
+   *          the hypothesis
+   * @param numIds
+   *          the number of feature ids of its context
+   */
+  private void expandAllowed(final int top, final int numIds) {
+    this.model.eval(this.contextIds, numIds, this.probs,
+        this.featureCounts, this.allowedOutcomes, this.numAllowed);
+    if (this.numAlternatives > 0) {
+      recordExpansion(top, true);
+    }
+    for (int a = 0; a < this.numAllowed; a++) {
+      this.sortedProbs[a] = this.probs[this.allowedOutcomes[a]];
+    }
+    Arrays.sort(this.sortedProbs, 0, this.numAllowed);
+    final double min = this.sortedProbs[Math.max(0, this.numAllowed
+        - this.beamSize)];
+    for (int a = 0; a < this.numAllowed; a++) {
+      if (this.probs[this.allowedOutcomes[a]] >= min) {
+        advance(top, this.allowedOutcomes[a]);
+      }
+    }
+    if (this.next.size == 0) {
+      for (int a = 0; a < this.numAllowed; a++) {
+        advance(top, this.allowedOutcomes[a]);
+      }
+    }
+  }
+
+  /**
+   * Expand a hypothesis with the only outcome allowed for the current token,
+   * whose probability normalized among the allowed outcomes is 1, without
+   * extracting or scoring its context.
+   *
+   * @param top
+   *          the hypothesis
+   */
+  private void advanceOnlyAllowed(final int top) {
+    this.probs[this.allowedOutcomes[0]] = 1.0;
+    if (this.numAlternatives > 0) {
+      recordExpansion(top, true);
+    }
+    advance(top, this.allowedOutcomes[0]);
+  }
+
+  /**
+   * Record the most probable allowed outcomes of the expansion of a
+   * hypothesis, from the probabilities just evaluated.
+   *
+   * @param top
+   *          the hypothesis being expanded
+   * @param constrained
+   *          whether the outcomes of the token are constrained
+   */
+  private void recordExpansion(final int top, final boolean constrained) {
+    final int k = this.numAlternatives;
+    if (this.expansionOutcomes.length < this.nodeScores.length * k) {
+      this.expansionOutcomes = Arrays.copyOf(this.expansionOutcomes,
+          this.nodeScores.length * k);
+      this.expansionProbs = Arrays.copyOf(this.expansionProbs,
+          this.nodeScores.length * k);
+    }
+    final int base = top * k;
+    Arrays.fill(this.expansionOutcomes, base, base + k, -1);
+    for (int p = 0; p < this.probs.length; p++) {
+      if (constrained && !this.allowed[p]) {
+        continue;
+      }
+      // insertion into the k most probable outcomes so far
+      int j = base + k;
+      while (j > base
+          && (this.expansionOutcomes[j - 1] < 0 || this.expansionProbs[j - 1] < this.probs[p])) {
+        j--;
+      }
+      if (j == base + k) {
+        continue;
+      }
+      System.arraycopy(this.expansionOutcomes, j, this.expansionOutcomes,
+          j + 1, base + k - j - 1);
+      System.arraycopy(this.expansionProbs, j, this.expansionProbs, j + 1,
+          base + k - j - 1);
+      this.expansionOutcomes[j] = p;
+      this.expansionProbs[j] = this.probs[p];
+    }
+  }
+
+  /**
+   * Find the outcomes allowed for a token.
+   *
+   * @param i
+   *          the token index
+   * @param tokens
+   *          the tokens
+   * @param additionalContext
+   *          the additional context passed to the context generator
+   * @return true if the outcomes are constrained, false if every outcome is
+   *         allowed or, when restricting the outcomes, if none is known
+   */
+  private boolean findAllowedOutcomes(final int i, final String[] tokens,
+      final Object[] additionalContext) {
+    if (this.constraints == null) {
+      return false;
+    }
+    final String[] outcomes = this.constraints.getAllowedOutcomes(i, tokens,
+        additionalContext);
+    if (outcomes == null) {
+      return false;
+    }
+    Arrays.fill(this.allowed, false);
+    this.numAllowed = 0;
+    for (final String outcome : outcomes) {
+      final Integer index = this.outcomeIndex.get(outcome);
+      if (index != null && !this.allowed[index]) {
+        this.allowed[index] = true;
+        this.allowedOutcomes[this.numAllowed++] = index;
+      }
+    }
+    return this.numAllowed > 0 || !this.restrictOutcomes;
+  }
+
+  /**
+   * Extend a hypothesis with an outcome and add it to the next heap.
+   *
+   * @param top
+   *          the hypothesis
+   * @param outcome
+   *          the outcome
+   */
+  private void advance(final int top, final int outcome) {
+    final double score = this.nodeScores[top] + Math.log(this.probs[outcome]);
+    if (score > MIN_SEQUENCE_SCORE) {
+      this.next.add(newNode(top, outcome, this.probs[outcome], score));
+    }
+  }
+
+  /**
+   * Create a hypothesis.
+   *
+   * @param parent
+   *          the hypothesis extended
+   * @param outcome
+   *          the last outcome
+   * @param prob
+   *          the probability of the last outcome
+   * @param score
+   *          the score
+   * @return the hypothesis
+   */
+  private int newNode(final int parent, final int outcome, final double prob,
+      final double score) {
+    if (this.numNodes == this.nodeScores.length) {
+      final int length = this.nodeScores.length * 2;
+      this.nodeScores = Arrays.copyOf(this.nodeScores, length);
+      this.nodeProbs = Arrays.copyOf(this.nodeProbs, length);
+      this.nodeOutcomes = Arrays.copyOf(this.nodeOutcomes, length);
+      this.nodeParents = Arrays.copyOf(this.nodeParents, length);
+    }
+    this.nodeScores[this.numNodes] = score;
+    this.nodeProbs[this.numNodes] = prob;
+    this.nodeOutcomes[this.numNodes] = outcome;
+    this.nodeParents[this.numNodes] = parent;
+    return this.numNodes++;
+  }
+
+  /**
+   * The {@code ListHeap} of {@code BeamSearch} over hypothesis indexes: a
+   * binary heap with the best hypothesis on top which stops accepting
+   * hypotheses worse than the worst one seen once it holds the beam size. As
+   * in {@code ListHeap}, clearing the heap keeps the worst hypothesis seen.
+   */
+  private final class Heap {
+
+    /**
+     * The hypotheses.
+     */
+    private int[] elements = new int[16];
+    /**
+     * The number of hypotheses.
+     */
+    private int size;
+    /**
+     * The score of the worst hypothesis seen.
+     */
+    private double max;
+    /**
+     * Whether a hypothesis has been seen.
+     */
+    private boolean hasMax;
+
+    /**
+     * Reset the heap for a new sentence, as a new {@code ListHeap}.
+     */
+    void reset() {
+      this.size = 0;
+      this.hasMax = false;
+    }
+
+    /**
+     * Remove every hypothesis.
+     */
+    void clear() {
+      this.size = 0;
+    }
+
+    /**
+     * Add a hypothesis.
+     *
+     * @param node
+     *          the hypothesis
+     */
+    void add(final int node) {
+      final double score = FeatureIdBeamSearch.this.nodeScores[node];
+      if (!this.hasMax) {
+        this.max = score;
+        this.hasMax = true;
+      } else if (score < this.max) {
+        if (this.size < FeatureIdBeamSearch.this.beamSize) {
+          this.max = score;
+        } else {
+          return;
+        }
+      }
+      if (this.size == this.elements.length) {
+        this.elements = Arrays.copyOf(this.elements, this.size * 2);
+      }
+      int i = this.size++;
+      while (i > 0 && score(this.elements[(i - 1) / 2]) < score) {
+        this.elements[i] = this.elements[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      this.elements[i] = node;
+    }
+
+    /**
+     * Remove the best hypothesis.
+     *
+     * @return the hypothesis
+     */
+    int extract() {
+      final int top = this.elements[0];
+      this.size--;
+      if (this.size != 0) {
+        this.elements[0] = this.elements[this.size];
+        heapify();
+      }
+      return top;
+    }
+
+    /**
+     * Restore the heap from the top.
+     */
+    private void heapify() {
+      int i = 0;
+      while (true) {
+        final int l = 2 * i + 1;
+        final int r = 2 * i + 2;
+        int best = i;
+        if (l < this.size
+            && score(this.elements[l]) > score(this.elements[best])) {
+          best = l;
+        }
+        if (r < this.size
+            && score(this.elements[r]) > score(this.elements[best])) {
+          best = r;
+        }
+        if (best == i) {
+          return;
+        }
+        final int tmp = this.elements[best];
+        this.elements[best] = this.elements[i];
+        this.elements[i] = tmp;
+        i = best;
+      }
+    }
+
+    /**
+     * Get the score of a hypothesis.
+     *
+     * @param node
+     *          the hypothesis
+     * @return the score
+     */
+    private double score(final int node) {
+      return FeatureIdBeamSearch.this.nodeScores[node];
+    }
+  }
+
+  /**
+   * The tags allowed for each token by a tag dictionary.
+   */
+  private static final class TagDictionaryConstraints implements
+      OutcomeConstraints {
+
+    /**
+     * The tag dictionary.
+     */
+    private final TagDictionary tagDictionary;
+
+    /**
+     * Construct the constraints of a tag dictionary.
+     *
+     * @param aTagDictionary
+     *          the tag dictionary
+     */
+    TagDictionaryConstraints(final TagDictionary aTagDictionary) {
+      this.tagDictionary = aTagDictionary;
+    }
+
+    public String[] getAllowedOutcomes(final int index, final String[] tokens,
+        final Object[] additionalContext) {
+      return this.tagDictionary.getTags(tokens[index]);
+    }
+  }
+
+}
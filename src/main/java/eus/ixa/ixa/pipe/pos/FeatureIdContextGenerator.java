@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+/**
+ * A context generator which writes the ids of the features of a context, as
+ * given by a {@link FeatureIdModel}, instead of returning feature strings.
+ * It is used by the {@link FeatureIdBeamSearch}.
+ *
+ * @author ragerri
+ * @version 2016-05-24
+ */
+public interface FeatureIdContextGenerator {
+
+  /**
+   * Get the maximum number of features of a context.
+   *
+   * @return the maximum number of features
+   */
+  int getMaxContextSize();
+
+  /**
+   * Write the ids of the features of a context, leaving out the features
+   * unknown to the model.
+   *
+   * @param index
+   *          the index of the token
+   * @param tokens
+   *          the tokens of the sentence
+   * @param additionalContext
+   *          the additional context, as given to the beam search
+   * @param prevDecision
+   *          the previous decision, null at the sentence start
+   * @param prevPrevDecision
+   *          the decision before the previous one, null if none
+   * @param model
+   *          the model providing the feature ids
+   * @param ids
+   *          the array where the ids are written, of at least
+   *          {@link #getMaxContextSize()} elements
+   * @return the number of ids written
+   */
+  int getContextIds(int index, String[] tokens, Object[] additionalContext,
+      String prevDecision, String prevPrevDecision, FeatureIdModel model,
+      int[] ids);
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+/**
+ * A model which evaluates contexts given as feature ids instead of feature
+ * strings. Feature ids are looked up from any {@code CharSequence}, e.g., a
+ * reused {@code StringBuilder}, so that contexts are extracted and evaluated
+ * without allocating feature strings.
+ *
+ * @author ragerri
+ * @version 2016-05-23
+ */
+public interface FeatureIdModel {
+
+  /**
+   * Get the id of a feature.
+   *
+   * @param feature
+   *          the feature
+   * @return the id or -1 if the model does not know the feature
+   */
+  int getFeatureId(CharSequence feature);
+
+  /**
+   * Evaluate a context.
+   *
+   * @param featureIds
+   *          the ids of the features of the context
+   * @param numFeatures
+   *          the number of features of the context
+   * @param probs
+   *          the array where the probability of each outcome is stored
+   * @param featureCounts
+   *          an array of {@link #getNumOutcomes()} ints owned by the caller
+   *          where the features of each outcome are counted, if needed, so
+   *          that evaluating allocates nothing
+   */
+  void eval(int[] featureIds, int numFeatures, double[] probs,
+      int[] featureCounts);
+
+  /**
+   * Evaluate a context over some of the outcomes only, e.g., the tags allowed
+   * for a token by a tag dictionary. The probabilities of those outcomes are
+   * normalized among themselves, so the rest of outcomes need not be scored;
+   * their probabilities are left unspecified.
+   *
+   * @param featureIds
+   *          the ids of the features of the context
+   * @param numFeatures
+   *          the number of features of the context
+   * @param probs
+   *          the array where the probability of each outcome is stored
+   * @param featureCounts
+   *          an array of {@link #getNumOutcomes()} ints owned by the caller
+   *          where the features of each outcome are counted, if needed
+   * @param outcomes
+   *          the indexes of the outcomes evaluated
+   * @param numOutcomes
+   *          the number of outcomes evaluated
+   */
+  void eval(int[] featureIds, int numFeatures, double[] probs,
+      int[] featureCounts, int[] outcomes, int numOutcomes);
+
+  /**
+   * Get the number of outcomes.
+   *
+   * @return the number of outcomes
+   */
+  int getNumOutcomes();
+
+  /**
+   * Get the name of an outcome.
+   *
+   * @param i
+   *          the outcome index
+   * @return the outcome
+   */
+  String getOutcome(int i);
+
+  /**
+   * Get the index of an outcome.
+   *
+   * @param outcome
+   *          the outcome
+   * @return the index or -1 if not an outcome of the model
+   */
+  int getIndex(String outcome);
+
+}
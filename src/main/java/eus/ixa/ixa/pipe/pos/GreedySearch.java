@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+
+/**
+ * Greedy decoding: the best valid outcome of each token given the outcomes
+ * already chosen. It is equivalent to a beam search of size 1 without the
+ * bookkeeping of the beam.
+ *
+ * @author ragerri
+ * @version 2016-05-22
+ */
+public class GreedySearch implements SequenceClassificationModel<String> {
+
+  /**
+   * The event model.
+   */
+  private final MaxentModel model;
+
+  /**
+   * Construct a greedy decoder.
+   *
+   * @param aModel
+   *          the event model
+   */
+  public GreedySearch(final MaxentModel aModel) {
+    this.model = aModel;
+  }
+
+  public final Sequence bestSequence(final String[] sequence,
+      final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> cg,
+      final SequenceValidator<String> validator) {
+    final String[] outcomes = new String[sequence.length];
+    final Sequence best = new Sequence();
+    for (int i = 0; i < sequence.length; i++) {
+      final String[] priorDecisions = new String[i];
+      System.arraycopy(outcomes, 0, priorDecisions, 0, i);
+      final double[] probs = this.model.eval(cg.getContext(i, sequence,
+          priorDecisions, additionalContext));
+      int bestOutcome = -1;
+      for (int oi = 0; oi < probs.length; oi++) {
+        if ((bestOutcome < 0 || probs[oi] > probs[bestOutcome])
+            && (validator == null || validator.validSequence(i, sequence,
+                priorDecisions, this.model.getOutcome(oi)))) {
+          bestOutcome = oi;
+        }
+      }
+      if (bestOutcome < 0) {
+        // no valid outcome, as the beam search would drop every hypothesis
+        return null;
+      }
+      outcomes[i] = this.model.getOutcome(bestOutcome);
+      best.add(outcomes[i], probs[bestOutcome]);
+    }
+    return best;
+  }
+
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final double minSequenceScore,
+      final BeamSearchContextGenerator<String> cg,
+      final SequenceValidator<String> validator) {
+    final Sequence best = bestSequence(sequence, additionalContext, cg,
+        validator);
+    return best == null || best.getScore() < minSequenceScore ? new Sequence[0]
+        : new Sequence[] { best };
+  }
+
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> cg,
+      final SequenceValidator<String> validator) {
+    return bestSequences(numSequences, sequence, additionalContext,
+        -Double.MAX_VALUE, cg, validator);
+  }
+
+  public final String[] getOutcomes() {
+    final String[] outcomes = new String[this.model.getNumOutcomes()];
+    for (int i = 0; i < outcomes.length; i++) {
+      outcomes[i] = this.model.getOutcome(i);
+    }
+    return outcomes;
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A model of a {@link ModelRegistry} which can be atomically replaced by
+ * another version while in use. Readers get either the old or the new model,
+ * never a mix; the old version is released once the new one is loaded, so at
+ * most two versions are in memory during the swap.
+ *
+ * @author ragerri
+ * @version 2016-05-18
+ * @param <M>
+ *          the model type
+ */
+public class HotSwapModel<M> {
+
+  /**
+   * The registry of the model.
+   */
+  private final ModelRegistry<M> registry;
+  /**
+   * The handle to the current version of the model.
+   */
+  private final AtomicReference<ModelRegistry.Handle<M>> current;
+
+  /**
+   * Construct a swappable model, acquiring its first version.
+   *
+   * @param aRegistry
+   *          the registry
+   * @param model
+   *          the path of the model file
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  public HotSwapModel(final ModelRegistry<M> aRegistry, final String model)
+      throws IOException {
+    this.registry = aRegistry;
+    this.current = new AtomicReference<ModelRegistry.Handle<M>>(
+        aRegistry.acquire(model));
+  }
+
+  /**
+   * Lease the current version, which gives access to the model and its id
+   * consistently. The version is not released by a concurrent swap until
+   * the handle returned is released too.
+   *
+   * @return a new handle to the current version, to be released after use
+   * @throws IllegalStateException
+   *           if the model was released
+   */
+  public final ModelRegistry.Handle<M> acquire() {
+    ModelRegistry.Handle<M> handle = this.current.get();
+    while (true) {
+      final ModelRegistry.Handle<M> lease = handle.retain();
+      if (lease != null) {
+        return lease;
+      }
+      // released by a swap, which makes the new version current first
+      final ModelRegistry.Handle<M> latest = this.current.get();
+      if (latest == handle) {
+        throw new IllegalStateException("Model released");
+      }
+      handle = latest;
+    }
+  }
+
+  /**
+   * Get the current version of the model.
+   *
+   * @return the model
+   */
+  public final M get() {
+    return this.current.get().get();
+  }
+
+  /**
+   * Replace the model by another version. If the new version cannot be read
+   * the current one is kept.
+   *
+   * @param model
+   *          the path of the new model file
+   * @throws IOException
+   *           if the new model cannot be read
+   */
+  public final void swap(final String model) throws IOException {
+    final ModelRegistry.Handle<M> newHandle = this.registry.acquire(model);
+    this.current.getAndSet(newHandle).release();
+  }
+
+  /**
+   * Release the current version of the model.
+   */
+  public final void release() {
+    this.current.get().release();
+  }
+
+}
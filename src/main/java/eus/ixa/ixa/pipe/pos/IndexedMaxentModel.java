@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.model.MaxentModel;
+
+/**
+ * A {@link FeatureIdModel} view of the parameters of a perceptron or maxent
+ * model loaded in the heap. The feature id is the index of the parameters of
+ * the feature in the model, which are evaluated in place, and the features
+ * are stored in an open addressing hash table which can be probed with any
+ * {@code CharSequence}; only the table is added to the memory of the model. The probabilities are
+ * computed exactly as {@code PerceptronModel} and {@code GISModel} compute
+ * them. The view is immutable and thus thread-safe; it is built once per
+ * model and shared by every tagger using it.
+ *
+ * @author ragerri
+ * @version 2016-05-23
+ */
+public final class IndexedMaxentModel implements FeatureIdModel {
+
+  /**
+   * The views already built, by model.
+   */
+  private static final Map<MaxentModel, IndexedMaxentModel> VIEWS = new WeakHashMap<MaxentModel, IndexedMaxentModel>();
+
+  /**
+   * The features, by id.
+   */
+  private final String[] features;
+  /**
+   * The hash of each feature.
+   */
+  private final int[] hashes;
+  /**
+   * The hash table: feature id plus one in each slot, 0 if empty.
+   */
+  private final int[] table;
+  /**
+   * The parameters of the model, by feature id.
+   */
+  private final Context[] params;
+  /**
+   * The outcomes.
+   */
+  private final String[] outcomes;
+  /**
+   * Whether this is a maxent (GIS) model; otherwise it is a perceptron.
+   */
+  private final boolean maxent;
+  /**
+   * The GIS correction constant.
+   */
+  private final double correctionConstant;
+  /**
+   * The GIS correction parameter.
+   */
+  private final double correctionParam;
+
+  /**
+   * Build the view of a model.
+   *
+   * @param model
+   *          the model
+   */
+  private IndexedMaxentModel(final AbstractModel model) {
+    final Object[] data = model.getDataStructures();
+    this.params = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    final IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    this.outcomes = (String[]) data[2];
+    this.maxent = model.getModelType() == AbstractModel.ModelType.Maxent;
+    this.correctionConstant = ((Integer) data[3]).doubleValue();
+    this.correctionParam = ((Double) data[4]).doubleValue();
+    this.features = pmap.toArray(new String[pmap.size()]);
+    this.hashes = new int[this.features.length];
+    int tableSize = 2;
+    while (tableSize < this.features.length * 2) {
+      tableSize <<= 1;
+    }
+    this.table = new int[tableSize];
+    for (int id = 0; id < this.features.length; id++) {
+      this.hashes[id] = MappedMaxentModel.hash(this.features[id]);
+      int slot = this.hashes[id] & tableSize - 1;
+      while (this.table[slot] != 0) {
+        slot = slot + 1 & tableSize - 1;
+      }
+      this.table[slot] = id + 1;
+    }
+  }
+
+  /**
+   * Get the {@link FeatureIdModel} of a model: the model itself if it
+   * evaluates feature ids, otherwise its shared indexed view.
+   *
+   * @param model
+   *          the model
+   * @return the model evaluating feature ids, null if the model is neither a
+   *         perceptron nor a maxent model
+   */
+  public static FeatureIdModel getFeatureIdModel(final MaxentModel model) {
+    if (model instanceof FeatureIdModel) {
+      return (FeatureIdModel) model;
+    }
+    if (!(model instanceof AbstractModel)) {
+      return null;
+    }
+    final AbstractModel.ModelType type = ((AbstractModel) model)
+        .getModelType();
+    if (type != AbstractModel.ModelType.Perceptron
+        && type != AbstractModel.ModelType.Maxent) {
+      return null;
+    }
+    synchronized (VIEWS) {
+      IndexedMaxentModel view = VIEWS.get(model);
+      if (view == null) {
+        view = new IndexedMaxentModel((AbstractModel) model);
+        VIEWS.put(model, view);
+      }
+      return view;
+    }
+  }
+
+  public int getFeatureId(final CharSequence feature) {
+    final int hash = MappedMaxentModel.hash(feature);
+    final int mask = this.table.length - 1;
+    int slot = hash & mask;
+    while (this.table[slot] != 0) {
+      final int id = this.table[slot] - 1;
+      if (this.hashes[id] == hash && matches(this.features[id], feature)) {
+        return id;
+      }
+      slot = slot + 1 & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Compare a feature with a character sequence.
+   *
+   * @param feature
+   *          the feature
+   * @param chars
+   *          the characters
+   * @return true if they contain the same characters
+   */
+  private static boolean matches(final String feature, final CharSequence chars) {
+    if (feature.length() != chars.length()) {
+      return false;
+    }
+    for (int i = 0; i < feature.length(); i++) {
+      if (feature.charAt(i) != chars.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void eval(final int[] featureIds, final int numFeatures,
+      final double[] probs, final int[] featureCounts) {
+    eval(featureIds, numFeatures, probs, featureCounts, null,
+        this.outcomes.length);
+  }
+
+  public void eval(final int[] featureIds, final int numFeatures,
+      final double[] probs, final int[] featureCounts,
+      final int[] someOutcomes, final int numOutcomes) {
+    int[] numFeats = null;
+    if (this.maxent) {
+      // uniform prior
+      Arrays.fill(probs, Math.log(1.0 / this.outcomes.length));
+      if (this.correctionParam != 0) {
+        numFeats = featureCounts;
+        Arrays.fill(numFeats, 0);
+      }
+    } else {
+      Arrays.fill(probs, 0);
+    }
+    for (int ci = 0; ci < numFeatures; ci++) {
+      final Context context = this.params[featureIds[ci]];
+      final int[] paramOutcomes = context.getOutcomes();
+      final double[] paramWeights = context.getParameters();
+      for (int p = 0; p < paramOutcomes.length; p++) {
+        probs[paramOutcomes[p]] += paramWeights[p];
+        if (numFeats != null) {
+          numFeats[paramOutcomes[p]]++;
+        }
+      }
+    }
+    if (this.maxent) {
+      MappedMaxentModel.normalizeMaxent(probs, numFeats,
+          1.0 / this.correctionConstant, this.correctionConstant,
+          this.correctionParam, someOutcomes, numOutcomes);
+    } else {
+      MappedMaxentModel.normalizePerceptron(probs, someOutcomes, numOutcomes);
+    }
+  }
+
+  public int getNumOutcomes() {
+    return this.outcomes.length;
+  }
+
+  public String getOutcome(final int i) {
+    return this.outcomes[i];
+  }
+
+  public int getIndex(final String outcome) {
+    for (int i = 0; i < this.outcomes.length; i++) {
+      if (this.outcomes[i].equals(outcome)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
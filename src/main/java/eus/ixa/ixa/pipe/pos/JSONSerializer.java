@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.IOException;
+
+/**
+ * Serializes the annotation as JSON lines, one object per sentence:
+ * 
+ * <pre>
+ * {"terms":[{"word":"...","lemma":"...","tag":"...","pos":"..."},...]}
+ * </pre>
+ * 
+ * If the annotation has alternatives, each term also has
+ * {@code "tags":[{"value":"...","prob":...},...]} and the same for
+ * {@code "lemmas"}, most probable first.
+ * 
+ * @author ragerri
+ * @version 2016-05-12
+ */
+public class JSONSerializer implements AnnotationSerializer {
+
+  /**
+   * The output.
+   */
+  private final Appendable out;
+
+  /**
+   * Construct a JSON serializer.
+   * 
+   * @param anOut
+   *          the output, a {@code StringBuilder} or a {@code Writer}
+   */
+  public JSONSerializer(final Appendable anOut) {
+    this.out = anOut;
+  }
+
+  public final void serialize(final SentenceAnnotation sentence)
+      throws IOException {
+    this.out.append("{\"terms\":[");
+    for (int i = 0; i < sentence.size(); i++) {
+      if (i > 0) {
+        this.out.append(',');
+      }
+      this.out.append("{\"word\":");
+      appendString(sentence.getWord(i));
+      this.out.append(",\"lemma\":");
+      appendString(sentence.getLemma(i));
+      this.out.append(",\"tag\":");
+      appendString(sentence.getTag(i));
+      this.out.append(",\"pos\":");
+      appendString(sentence.getPosId(i));
+      appendAlternatives("tags", sentence.getTagAlternatives(), i);
+      appendAlternatives("lemmas", sentence.getLemmaAlternatives(), i);
+      this.out.append('}');
+    }
+    this.out.append("]}\n");
+  }
+
+  /**
+   * Append the alternatives of a term, if any.
+   * 
+   * @param name
+   *          the name of the alternatives
+   * @param alternatives
+   *          the alternatives of the sentence, null if none
+   * @param i
+   *          the term index
+   * @throws IOException
+   *           if io problems
+   */
+  private void appendAlternatives(final String name,
+      final SequenceAlternatives alternatives, final int i)
+      throws IOException {
+    if (alternatives == null) {
+      return;
+    }
+    this.out.append(",\"").append(name).append("\":[");
+    final String[] outcomes = alternatives.getOutcomes(i);
+    final double[] probs = alternatives.getProbs(i);
+    for (int j = 0; j < outcomes.length; j++) {
+      if (j > 0) {
+        this.out.append(',');
+      }
+      this.out.append("{\"value\":");
+      appendString(outcomes[j]);
+      this.out.append(",\"prob\":").append(Float.toString((float) probs[j]))
+          .append('}');
+    }
+    this.out.append(']');
+  }
+
+  /**
+   * Append a quoted and escaped JSON string.
+   * 
+   * @param value
+   *          the string, null is written as JSON null
+   * @throws IOException
+   *           if io problems
+   */
+  private void appendString(final String value) throws IOException {
+    if (value == null) {
+      this.out.append("null");
+      return;
+    }
+    this.out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        this.out.append("\\\"");
+        break;
+      case '\\':
+        this.out.append("\\\\");
+        break;
+      case '\n':
+        this.out.append("\\n");
+        break;
+      case '\r':
+        this.out.append("\\r");
+        break;
+      case '\t':
+        this.out.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          this.out.append(String.format("\\u%04x", (int) c));
+        } else {
+          this.out.append(c);
+        }
+      }
+    }
+    this.out.append('"');
+  }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the postags and the lemma classes of a sentence in a single beam
+ * search over feature ids, instead of tagging the sentence and then
+ * lemmatizing the best sequence of tags. A hypothesis of the beam is a
+ * sequence of (postag, lemma class) pairs scored by
+ * {@code log p(tag) + log p(class | tag)}: each hypothesis is extended with
+ * the best tags of the POS model and, for each tag, the best lemma classes of
+ * the lemmatizer model given that tag.
+ * <p>
+ * The lexical feature ids of each token are extracted once per sentence by
+ * the context generator of each model and shared by every hypothesis; the
+ * contexts of the hypotheses with the same previous tags, or the same tag and
+ * previous lemma class, are evaluated once per token. The tags and lemma
+ * classes allowed by the constraints of each beam search (the tag dictionary
+ * of the POS model or the lemma class index of the lemmatizer) are ranked
+ * among themselves. Instances are not thread-safe.
+ *
+ * @author ragerri
+ * @version 2016-05-30
+ */
+public class JointDecoder {
+
+  /**
+   * The minimum score of a hypothesis, as in {@code BeamSearch}.
+   */
+  private static final double MIN_SEQUENCE_SCORE = -100000;
+
+  /**
+   * The POS model.
+   */
+  private final FeatureIdModel tagModel;
+  /**
+   * The POS context generator.
+   */
+  private final FeatureIdContextGenerator tagGenerator;
+  /**
+   * The allowed tags of each token, null if none.
+   */
+  private final OutcomeConstraints tagConstraints;
+  /**
+   * Whether only the allowed tags of constrained tokens are scored.
+   */
+  private final boolean restrictTags;
+  /**
+   * The lemmatizer model.
+   */
+  private final FeatureIdModel lemmaModel;
+  /**
+   * The lemmatizer context generator, whose additional context is the tags
+   * of the sentence.
+   */
+  private final FeatureIdContextGenerator lemmaGenerator;
+  /**
+   * The allowed lemma classes of each token, null if none.
+   */
+  private final OutcomeConstraints lemmaConstraints;
+  /**
+   * Whether only the allowed lemma classes of constrained tokens are scored.
+   */
+  private final boolean restrictLemmas;
+  /**
+   * The number of hypotheses kept and of tags tried per hypothesis.
+   */
+  private final int beamSize;
+  /**
+   * The number of lemma classes tried per tag.
+   */
+  private final int lemmaBeamSize;
+  /**
+   * The candidates of each model: the feature ids of a context, the
+   * probabilities of the outcomes and the allowed outcomes.
+   */
+  private final Candidates tagCandidates;
+  private final Candidates lemmaCandidates;
+  /**
+   * The selected tags of each distinct POS context of the current token:
+   * the previous two tags, the number of tags and the tags with their
+   * probabilities, at {@code entry * beamSize}.
+   */
+  private final int[] tagContextKeys;
+  private final int[] numTagsOfContext;
+  private final int[] tagsOfContext;
+  private final double[] tagProbsOfContext;
+  private int numTagContexts;
+  /**
+   * The selected lemma classes of each distinct lemmatizer context of the
+   * current token: the tag and the previous class, the number of classes and
+   * the classes with their probabilities, at {@code entry * lemmaBeamSize}.
+   */
+  private final int[] lemmaContextKeys;
+  private final int[] numLemmasOfContext;
+  private final int[] lemmasOfContext;
+  private final double[] lemmaProbsOfContext;
+  private int numLemmaContexts;
+  /**
+   * The hypotheses being expanded and the expanded ones, best first.
+   */
+  private int[] prev;
+  private int[] next;
+  private int prevSize;
+  private int nextSize;
+  /**
+   * The score, tag, lemma class and parent of each hypothesis.
+   */
+  private double[] nodeScores = new double[64];
+  private int[] nodeTags = new int[64];
+  private int[] nodeLemmas = new int[64];
+  private int[] nodeParents = new int[64];
+  private int numNodes;
+
+  /**
+   * Construct a joint decoder from the beam searches over feature ids of a
+   * POS tagger and a lemmatizer. The beam size is that of the POS tagger;
+   * the number of lemma classes tried for each tag is the beam size of the
+   * lemmatizer.
+   *
+   * @param tagSearch
+   *          the beam search of the POS tagger
+   * @param lemmaSearch
+   *          the beam search of the lemmatizer
+   */
+  public JointDecoder(final FeatureIdBeamSearch tagSearch,
+      final FeatureIdBeamSearch lemmaSearch) {
+    this.tagModel = tagSearch.getModel();
+    this.tagGenerator = tagSearch.getContextGenerator();
+    this.tagConstraints = tagSearch.getConstraints();
+    this.restrictTags = tagSearch.isRestrictOutcomes();
+    this.lemmaModel = lemmaSearch.getModel();
+    this.lemmaGenerator = lemmaSearch.getContextGenerator();
+    this.lemmaConstraints = lemmaSearch.getConstraints();
+    this.restrictLemmas = lemmaSearch.isRestrictOutcomes();
+    this.beamSize = tagSearch.getBeamSize();
+    this.lemmaBeamSize = lemmaSearch.getBeamSize();
+    this.tagCandidates = new Candidates(this.tagModel, this.tagGenerator);
+    this.lemmaCandidates = new Candidates(this.lemmaModel,
+        this.lemmaGenerator);
+    this.tagContextKeys = new int[this.beamSize * 2];
+    this.numTagsOfContext = new int[this.beamSize];
+    this.tagsOfContext = new int[this.beamSize * this.beamSize];
+    this.tagProbsOfContext = new double[this.beamSize * this.beamSize];
+    final int maxLemmaContexts = this.beamSize * this.beamSize;
+    this.lemmaContextKeys = new int[maxLemmaContexts * 2];
+    this.numLemmasOfContext = new int[maxLemmaContexts];
+    this.lemmasOfContext = new int[maxLemmaContexts * this.lemmaBeamSize];
+    this.lemmaProbsOfContext = new double[maxLemmaContexts
+        * this.lemmaBeamSize];
+    this.prev = new int[this.beamSize];
+    this.next = new int[this.beamSize];
+  }
+
+  /**
+   * Decode the postags and lemma classes of a sentence.
+   *
+   * @param tokens
+   *          the tokens
+   * @return the postags and the lemma classes, null if no sequence is valid
+   */
+  public final String[][] decode(final String[] tokens) {
+    // the lemmatizer features see the tag of the current hypothesis
+    final String[] tags = new String[tokens.length];
+    final Object[] lemmaContext = new Object[] { tags };
+    this.numNodes = 0;
+    this.prevSize = 0;
+    this.prev[this.prevSize++] = newNode(-1, -1, -1, 0);
+    for (int i = 0; i < tokens.length; i++) {
+      this.tagCandidates.findAllowed(this.tagConstraints, i, tokens, null,
+          this.restrictTags);
+      this.numTagContexts = 0;
+      this.numLemmaContexts = 0;
+      this.nextSize = 0;
+      for (int h = 0; h < this.prevSize; h++) {
+        final int top = this.prev[h];
+        final int tagEntry = getTagContext(i, tokens, top);
+        for (int t = 0; t < this.numTagsOfContext[tagEntry]; t++) {
+          final int tag = this.tagsOfContext[tagEntry * this.beamSize + t];
+          final double tagScore = this.nodeScores[top]
+              + Math.log(this.tagProbsOfContext[tagEntry * this.beamSize + t]);
+          tags[i] = this.tagModel.getOutcome(tag);
+          final int lemmaEntry = getLemmaContext(i, tokens, lemmaContext,
+              top, tag);
+          for (int l = 0; l < this.numLemmasOfContext[lemmaEntry]; l++) {
+            final int offset = lemmaEntry * this.lemmaBeamSize + l;
+            final double score = tagScore
+                + Math.log(this.lemmaProbsOfContext[offset]);
+            if (score > MIN_SEQUENCE_SCORE) {
+              advance(top, tag, this.lemmasOfContext[offset], score);
+            }
+          }
+        }
+      }
+      if (this.nextSize == 0) {
+        return null;
+      }
+      final int[] tmp = this.prev;
+      this.prev = this.next;
+      this.next = tmp;
+      this.prevSize = this.nextSize;
+    }
+    final String[] lemmaClasses = new String[tokens.length];
+    int node = this.prev[0];
+    for (int i = tokens.length - 1; i >= 0; i--) {
+      tags[i] = this.tagModel.getOutcome(this.nodeTags[node]);
+      lemmaClasses[i] = this.lemmaModel.getOutcome(this.nodeLemmas[node]);
+      node = this.nodeParents[node];
+    }
+    return new String[][] { tags, lemmaClasses };
+  }
+
+  /**
+   * Get the selected tags of the POS context of a hypothesis, evaluating the
+   * context unless a hypothesis with the same previous tags was evaluated.
+   *
+   * @param i
+   *          the token index
+   * @param tokens
+   *          the tokens
+   * @param top
+   *          the hypothesis
+   * @return the entry of the context
+   */
+  private int getTagContext(final int i, final String[] tokens, final int top) {
+    final int prevTag = this.nodeTags[top];
+    final int parent = this.nodeParents[top];
+    final int prevPrevTag = parent < 0 ? -1 : this.nodeTags[parent];
+    for (int c = 0; c < this.numTagContexts; c++) {
+      if (this.tagContextKeys[2 * c] == prevTag
+          && this.tagContextKeys[2 * c + 1] == prevPrevTag) {
+        return c;
+      }
+    }
+    final int c = this.numTagContexts++;
+    this.tagContextKeys[2 * c] = prevTag;
+    this.tagContextKeys[2 * c + 1] = prevPrevTag;
+    this.numTagsOfContext[c] = this.tagCandidates.select(i, tokens, null,
+        prevTag < 0 ? null : this.tagModel.getOutcome(prevTag),
+        prevPrevTag < 0 ? null : this.tagModel.getOutcome(prevPrevTag),
+        this.beamSize, this.tagsOfContext, this.tagProbsOfContext, c
+            * this.beamSize);
+    return c;
+  }
+
+  /**
+   * Get the selected lemma classes of the lemmatizer context of a hypothesis
+   * extended with a tag, evaluating the context unless it was evaluated for
+   * the same tag and previous lemma class.
+   *
+   * @param i
+   *          the token index
+   * @param tokens
+   *          the tokens
+   * @param lemmaContext
+   *          the additional context of the lemmatizer, with the tag of the
+   *          token set
+   * @param top
+   *          the hypothesis
+   * @param tag
+   *          the tag
+   * @return the entry of the context
+   */
+  private int getLemmaContext(final int i, final String[] tokens,
+      final Object[] lemmaContext, final int top, final int tag) {
+    final int prevLemma = this.nodeLemmas[top];
+    for (int c = 0; c < this.numLemmaContexts; c++) {
+      if (this.lemmaContextKeys[2 * c] == tag
+          && this.lemmaContextKeys[2 * c + 1] == prevLemma) {
+        return c;
+      }
+    }
+    final int c = this.numLemmaContexts++;
+    this.lemmaContextKeys[2 * c] = tag;
+    this.lemmaContextKeys[2 * c + 1] = prevLemma;
+    final int parent = this.nodeParents[top];
+    this.lemmaCandidates.findAllowed(this.lemmaConstraints, i, tokens,
+        lemmaContext, this.restrictLemmas);
+    this.numLemmasOfContext[c] = this.lemmaCandidates.select(i, tokens,
+        lemmaContext, prevLemma < 0 ? null : this.lemmaModel
+            .getOutcome(prevLemma), parent < 0 || this.nodeLemmas[parent] < 0
+            ? null : this.lemmaModel.getOutcome(this.nodeLemmas[parent]),
+        this.lemmaBeamSize, this.lemmasOfContext, this.lemmaProbsOfContext, c
+            * this.lemmaBeamSize);
+    return c;
+  }
+
+  /**
+   * Add an extended hypothesis to the next beam if it is among the best.
+   *
+   * @param top
+   *          the hypothesis extended
+   * @param tag
+   *          the tag
+   * @param lemma
+   *          the lemma class
+   * @param score
+   *          the score of the extended hypothesis
+   */
+  private void advance(final int top, final int tag, final int lemma,
+      final double score) {
+    if (this.nextSize == this.beamSize
+        && score <= this.nodeScores[this.next[this.nextSize - 1]]) {
+      return;
+    }
+    final int node = newNode(top, tag, lemma, score);
+    int j = Math.min(this.nextSize, this.beamSize - 1);
+    while (j > 0 && this.nodeScores[this.next[j - 1]] < score) {
+      this.next[j] = this.next[j - 1];
+      j--;
+    }
+    this.next[j] = node;
+    if (this.nextSize < this.beamSize) {
+      this.nextSize++;
+    }
+  }
+
+  /**
+   * Create a hypothesis.
+   *
+   * @param parent
+   *          the hypothesis extended, -1 for the empty one
+   * @param tag
+   *          the last tag
+   * @param lemma
+   *          the last lemma class
+   * @param score
+   *          the score
+   * @return the hypothesis
+   */
+  private int newNode(final int parent, final int tag, final int lemma,
+      final double score) {
+    if (this.numNodes == this.nodeScores.length) {
+      final int size = this.numNodes * 2;
+      this.nodeScores = Arrays.copyOf(this.nodeScores, size);
+      this.nodeTags = Arrays.copyOf(this.nodeTags, size);
+      this.nodeLemmas = Arrays.copyOf(this.nodeLemmas, size);
+      this.nodeParents = Arrays.copyOf(this.nodeParents, size);
+    }
+    this.nodeScores[this.numNodes] = score;
+    this.nodeTags[this.numNodes] = tag;
+    this.nodeLemmas[this.numNodes] = lemma;
+    this.nodeParents[this.numNodes] = parent;
+    return this.numNodes++;
+  }
+
+  /**
+   * The evaluation of the contexts of one of the models, keeping the most
+   * probable outcomes.
+   */
+  private static final class Candidates {
+
+    /**
+     * The model.
+     */
+    private final FeatureIdModel model;
+    /**
+     * The context generator.
+     */
+    private final FeatureIdContextGenerator generator;
+    /**
+     * The feature ids of the context.
+     */
+    private final int[] contextIds;
+    /**
+     * The probabilities of the outcomes.
+     */
+    private final double[] probs;
+    /**
+     * The number of features of each outcome, counted by the model if needed.
+     */
+    private final int[] featureCounts;
+    /**
+     * Whether each outcome is allowed for the current token.
+     */
+    private final boolean[] allowed;
+    /**
+     * The allowed outcomes of the current token.
+     */
+    private final int[] allowedOutcomes;
+    /**
+     * The number of allowed outcomes, 0 if the token is not constrained.
+     */
+    private int numAllowed;
+    /**
+     * Whether only the allowed outcomes are scored.
+     */
+    private boolean restricted;
+
+    /**
+     * Construct the candidates of a model.
+     *
+     * @param aModel
+     *          the model
+     * @param aGenerator
+     *          the context generator
+     */
+    Candidates(final FeatureIdModel aModel,
+        final FeatureIdContextGenerator aGenerator) {
+      this.model = aModel;
+      this.generator = aGenerator;
+      this.contextIds = new int[aGenerator.getMaxContextSize()];
+      this.probs = new double[aModel.getNumOutcomes()];
+      this.featureCounts = new int[aModel.getNumOutcomes()];
+      this.allowed = new boolean[aModel.getNumOutcomes()];
+      this.allowedOutcomes = new int[aModel.getNumOutcomes()];
+    }
+
+    /**
+     * Find the outcomes allowed for a token. Tokens for which no outcome of
+     * the model is allowed are not constrained.
+     *
+     * @param constraints
+     *          the constraints, null if none
+     * @param i
+     *          the token index
+     * @param tokens
+     *          the tokens
+     * @param additionalContext
+     *          the additional context of the context generator
+     * @param restrict
+     *          whether to score only the allowed outcomes
+     */
+    void findAllowed(final OutcomeConstraints constraints, final int i,
+        final String[] tokens, final Object[] additionalContext,
+        final boolean restrict) {
+      for (int a = 0; a < this.numAllowed; a++) {
+        this.allowed[this.allowedOutcomes[a]] = false;
+      }
+      this.numAllowed = 0;
+      this.restricted = restrict;
+      final String[] outcomes = constraints == null ? null : constraints
+          .getAllowedOutcomes(i, tokens, additionalContext);
+      if (outcomes == null) {
+        return;
+      }
+      for (final String outcome : outcomes) {
+        final int index = this.model.getIndex(outcome);
+        if (index >= 0 && !this.allowed[index]) {
+          this.allowed[index] = true;
+          this.allowedOutcomes[this.numAllowed++] = index;
+        }
+      }
+    }
+
+    /**
+     * Evaluate a context and select its most probable allowed outcomes.
+     *
+     * @param i
+     *          the token index
+     * @param tokens
+     *          the tokens
+     * @param additionalContext
+     *          the additional context of the context generator
+     * @param prevDecision
+     *          the previous decision, null at the sentence start
+     * @param prevPrevDecision
+     *          the decision before the previous one, null if none
+     * @param k
+     *          the maximum number of outcomes selected
+     * @param outcomes
+     *          the array where the selected outcomes are written, best first
+     * @param outcomeProbs
+     *          the array where their probabilities are written
+     * @param offset
+     *          the offset of the selection in the arrays
+     * @return the number of outcomes selected
+     */
+    int select(final int i, final String[] tokens,
+        final Object[] additionalContext, final String prevDecision,
+        final String prevPrevDecision, final int k, final int[] outcomes,
+        final double[] outcomeProbs, final int offset) {
+      final int numIds = this.generator.getContextIds(i, tokens,
+          additionalContext, prevDecision, prevPrevDecision, this.model,
+          this.contextIds);
+      final boolean constrained = this.numAllowed > 0;
+      if (constrained && this.restricted) {
+        this.model.eval(this.contextIds, numIds, this.probs,
+            this.featureCounts, this.allowedOutcomes, this.numAllowed);
+      } else {
+        this.model.eval(this.contextIds, numIds, this.probs,
+            this.featureCounts);
+      }
+      final int numCandidates = constrained ? this.numAllowed
+          : this.probs.length;
+      int selected = 0;
+      for (int c = 0; c < numCandidates; c++) {
+        final int outcome = constrained ? this.allowedOutcomes[c] : c;
+        final double prob = this.probs[outcome];
+        if (selected == k && prob <= outcomeProbs[offset + k - 1]) {
+          continue;
+        }
+        // insertion into the k most probable outcomes so far
+        int j = Math.min(selected, k - 1);
+        while (j > 0 && outcomeProbs[offset + j - 1] < prob) {
+          outcomes[offset + j] = outcomes[offset + j - 1];
+          outcomeProbs[offset + j] = outcomeProbs[offset + j - 1];
+          j--;
+        }
+        outcomes[offset + j] = outcome;
+        outcomeProbs[offset + j] = prob;
+        if (selected < k) {
+          selected++;
+        }
+      }
+      return selected;
+    }
+  }
+
+}
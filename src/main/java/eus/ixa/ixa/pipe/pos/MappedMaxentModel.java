@@ -0,0 +1,465 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+
+/**
+ * A perceptron or maxent model evaluated straight from the flat binary format
+ * written by {@link CompiledModels}, usually a read-only memory-mapped file.
+ * Feature strings are never loaded in the heap: they are looked up in an open
+ * addressing hash table stored in the buffer, and their weights are read from
+ * the buffer as floats, or as half floats or bytes multiplied by the scale of
+ * their outcome in quantized models. Only absolute reads are performed on the
+ * buffer, so
+ * the model is thread-safe. It extends {@code AbstractModel} with no
+ * parameters in the heap because OpenNLP factories expect one when they
+ * validate the tag dictionary against the outcomes. Feature ids are the
+ * indexes of the feature records.
+ *
+ * @author ragerri
+ * @version 2016-05-20
+ */
+public class MappedMaxentModel extends AbstractModel implements
+    FeatureIdModel {
+
+  /**
+   * The size in bytes of the record of a feature: hash, offset of its
+   * characters, number of characters and index of its first parameter.
+   */
+  static final int FEATURE_RECORD_SIZE = 16;
+
+  /**
+   * The buffer containing the model.
+   */
+  private final ByteBuffer buffer;
+  /**
+   * Whether this is a maxent (GIS) model; otherwise it is a perceptron.
+   */
+  private final boolean maxent;
+  /**
+   * The GIS correction constant.
+   */
+  private final double correctionConstant;
+  /**
+   * The inverse of the GIS correction constant.
+   */
+  private final double constantInverse;
+  /**
+   * The GIS correction parameter.
+   */
+  private final double correctionParam;
+  /**
+   * The number of features.
+   */
+  private final int numFeatures;
+  /**
+   * The number of parameters.
+   */
+  private final int numParams;
+  /**
+   * The number of slots of the hash table minus one.
+   */
+  private final int tableMask;
+  /**
+   * The offset of the hash table.
+   */
+  private final int tableOffset;
+  /**
+   * The offset of the feature records.
+   */
+  private final int featuresOffset;
+  /**
+   * The offset of the parameters.
+   */
+  private final int paramsOffset;
+  /**
+   * The encoding of the weights.
+   */
+  private final Quantization quantization;
+  /**
+   * The size in bytes of a parameter.
+   */
+  private final int paramRecordSize;
+  /**
+   * The scale of the weights of each outcome, null if not quantized.
+   */
+  private final float[] scales;
+
+  /**
+   * Construct a model over a buffer.
+   *
+   * @param aBuffer
+   *          the buffer
+   * @param anOutcomes
+   *          the outcome names
+   * @param isMaxent
+   *          true for a maxent model, false for a perceptron
+   * @param aCorrectionConstant
+   *          the GIS correction constant
+   * @param aCorrectionParam
+   *          the GIS correction parameter
+   * @param aNumFeatures
+   *          the number of features
+   * @param aNumParams
+   *          the number of parameters
+   * @param aTableSize
+   *          the number of slots of the hash table, a power of two
+   * @param aTableOffset
+   *          the offset of the hash table
+   * @param aFeaturesOffset
+   *          the offset of the feature records
+   * @param aParamsOffset
+   *          the offset of the parameters
+   * @param aQuantization
+   *          the encoding of the weights
+   * @param aScales
+   *          the scale of the weights of each outcome, null if not quantized
+   */
+  MappedMaxentModel(final ByteBuffer aBuffer, final String[] anOutcomes,
+      final boolean isMaxent, final double aCorrectionConstant,
+      final double aCorrectionParam, final int aNumFeatures,
+      final int aNumParams, final int aTableSize, final int aTableOffset,
+      final int aFeaturesOffset, final int aParamsOffset,
+      final Quantization aQuantization, final float[] aScales) {
+    super(new Context[0], new String[0], anOutcomes);
+    this.modelType = isMaxent ? ModelType.Maxent : ModelType.Perceptron;
+    this.buffer = aBuffer;
+    this.maxent = isMaxent;
+    this.correctionConstant = aCorrectionConstant;
+    this.constantInverse = 1.0 / aCorrectionConstant;
+    this.correctionParam = aCorrectionParam;
+    this.numFeatures = aNumFeatures;
+    this.numParams = aNumParams;
+    this.tableMask = aTableSize - 1;
+    this.tableOffset = aTableOffset;
+    this.featuresOffset = aFeaturesOffset;
+    this.paramsOffset = aParamsOffset;
+    this.quantization = aQuantization;
+    this.paramRecordSize = aQuantization.getParamRecordSize();
+    this.scales = aScales;
+  }
+
+  /**
+   * Get the hash of a feature used to place it in the table.
+   *
+   * @param feature
+   *          the feature
+   * @return the hash
+   */
+  static int hash(final CharSequence feature) {
+    // String.hashCode computed over any character sequence
+    int h = 0;
+    for (int i = 0; i < feature.length(); i++) {
+      h = 31 * h + feature.charAt(i);
+    }
+    return h ^ h >>> 16;
+  }
+
+  /**
+   * Get the index of a feature.
+   *
+   * @param feature
+   *          the feature
+   * @return the index or -1 if the model does not know the feature
+   */
+  public final int getFeatureIndex(final String feature) {
+    return getFeatureId(feature);
+  }
+
+  public final int getFeatureId(final CharSequence feature) {
+    final int hash = hash(feature);
+    int slot = hash & this.tableMask;
+    while (true) {
+      final int entry = this.buffer.getInt(this.tableOffset + 4 * slot);
+      if (entry == 0) {
+        return -1;
+      }
+      final int index = entry - 1;
+      final int record = this.featuresOffset + index * FEATURE_RECORD_SIZE;
+      if (this.buffer.getInt(record) == hash
+          && matches(feature, this.buffer.getInt(record + 4),
+              this.buffer.getInt(record + 8))) {
+        return index;
+      }
+      slot = slot + 1 & this.tableMask;
+    }
+  }
+
+  /**
+   * Compare a feature with the characters stored in the buffer.
+   *
+   * @param feature
+   *          the feature
+   * @param offset
+   *          the offset of the stored characters
+   * @param length
+   *          the number of stored characters
+   * @return true if they are the same string
+   */
+  private boolean matches(final CharSequence feature, final int offset,
+      final int length) {
+    if (feature.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (this.buffer.getChar(offset + 2 * i) != feature.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public final double[] eval(final String[] context) {
+    return eval(context, null, new double[this.outcomeNames.length]);
+  }
+
+  public final double[] eval(final String[] context, final double[] probs) {
+    return eval(context, null, probs);
+  }
+
+  public final double[] eval(final String[] context, final float[] values) {
+    return eval(context, values, new double[this.outcomeNames.length]);
+  }
+
+  /**
+   * Evaluate a context as {@code PerceptronModel} or {@code GISModel} would.
+   *
+   * @param context
+   *          the features
+   * @param values
+   *          the feature values, null if every value is 1
+   * @param scores
+   *          the array where the probabilities are stored
+   * @return the probability of each outcome
+   */
+  private double[] eval(final String[] context, final float[] values,
+      final double[] scores) {
+    final int[] numFeats = startEval(scores,
+        this.maxent && this.correctionParam != 0 ? new int[scores.length]
+            : null);
+    for (int ci = 0; ci < context.length; ci++) {
+      final int index = getFeatureIndex(context[ci]);
+      if (index >= 0) {
+        addParameters(index, values == null ? 1 : values[ci], scores, numFeats);
+      }
+    }
+    return endEval(scores, numFeats);
+  }
+
+  public final void eval(final int[] featureIds, final int numFeatures,
+      final double[] probs, final int[] featureCounts) {
+    final int[] numFeats = startEval(probs, featureCounts);
+    for (int ci = 0; ci < numFeatures; ci++) {
+      addParameters(featureIds[ci], 1, probs, numFeats);
+    }
+    endEval(probs, numFeats);
+  }
+
+  public final void eval(final int[] featureIds, final int numFeatures,
+      final double[] probs, final int[] featureCounts, final int[] outcomes,
+      final int numOutcomes) {
+    final int[] numFeats = startEval(probs, featureCounts);
+    for (int ci = 0; ci < numFeatures; ci++) {
+      addParameters(featureIds[ci], 1, probs, numFeats);
+    }
+    if (this.maxent) {
+      normalizeMaxent(probs, numFeats, this.constantInverse,
+          this.correctionConstant, this.correctionParam, outcomes, numOutcomes);
+    } else {
+      normalizePerceptron(probs, outcomes, numOutcomes);
+    }
+  }
+
+  /**
+   * Initialize the scores before adding the parameters of a context.
+   *
+   * @param scores
+   *          the scores
+   * @param featureCounts
+   *          the array where the active features of each outcome are counted
+   * @return the cleared array counting the active features of each outcome
+   *         for a corrected maxent model, null otherwise
+   */
+  private int[] startEval(final double[] scores, final int[] featureCounts) {
+    if (this.maxent) {
+      // uniform prior
+      Arrays.fill(scores, Math.log(1.0 / this.outcomeNames.length));
+      if (this.correctionParam == 0) {
+        return null;
+      }
+      Arrays.fill(featureCounts, 0);
+      return featureCounts;
+    }
+    Arrays.fill(scores, 0);
+    return null;
+  }
+
+  /**
+   * Add the parameters of a feature to the scores.
+   *
+   * @param index
+   *          the feature index
+   * @param value
+   *          the feature value
+   * @param scores
+   *          the scores
+   * @param numFeats
+   *          the number of active features of each outcome, null if not
+   *          counted
+   */
+  private void addParameters(final int index, final double value,
+      final double[] scores, final int[] numFeats) {
+    final int start = this.buffer.getInt(this.featuresOffset + index
+        * FEATURE_RECORD_SIZE + 12);
+    final int end = index + 1 < this.numFeatures ? this.buffer
+        .getInt(this.featuresOffset + (index + 1) * FEATURE_RECORD_SIZE + 12)
+        : this.numParams;
+    for (int p = start; p < end; p++) {
+      final int param = this.paramsOffset + p * this.paramRecordSize;
+      final int oid;
+      final float weight;
+      if (this.quantization == Quantization.NONE) {
+        oid = this.buffer.getInt(param);
+        weight = this.buffer.getFloat(param + 4);
+      } else if (this.quantization == Quantization.FLOAT16) {
+        oid = this.buffer.getChar(param);
+        weight = Quantization.fromHalf(this.buffer.getShort(param + 2))
+            * this.scales[oid];
+      } else {
+        oid = this.buffer.getChar(param);
+        weight = this.buffer.get(param + 2) * this.scales[oid];
+      }
+      scores[oid] += weight * value;
+      if (numFeats != null) {
+        numFeats[oid]++;
+      }
+    }
+  }
+
+  /**
+   * Normalize the scores once the parameters of a context are added.
+   *
+   * @param scores
+   *          the scores
+   * @param numFeats
+   *          the number of active features of each outcome
+   * @return the probabilities
+   */
+  private double[] endEval(final double[] scores, final int[] numFeats) {
+    if (this.maxent) {
+      normalizeMaxent(scores, numFeats, this.constantInverse,
+          this.correctionConstant, this.correctionParam, null, scores.length);
+    } else {
+      normalizePerceptron(scores, null, scores.length);
+    }
+    return scores;
+  }
+
+  /**
+   * Normalize the scores as {@code GISModel} does, over every outcome or
+   * over some of them only.
+   *
+   * @param scores
+   *          the scores
+   * @param numFeats
+   *          the number of active features of each outcome
+   * @param constantInverse
+   *          the inverse of the correction constant
+   * @param correctionConstant
+   *          the correction constant
+   * @param correctionParam
+   *          the correction parameter
+   * @param outcomes
+   *          the outcomes normalized, null for every outcome
+   * @param numOutcomes
+   *          the number of outcomes normalized
+   */
+  static void normalizeMaxent(final double[] scores, final int[] numFeats,
+      final double constantInverse, final double correctionConstant,
+      final double correctionParam, final int[] outcomes,
+      final int numOutcomes) {
+    double normal = 0.0;
+    for (int i = 0; i < numOutcomes; i++) {
+      final int oid = outcomes == null ? i : outcomes[i];
+      if (correctionParam != 0) {
+        scores[oid] = Math.exp(scores[oid] * constantInverse
+            + (1.0 - numFeats[oid] / correctionConstant) * correctionParam);
+      } else {
+        scores[oid] = Math.exp(scores[oid] * constantInverse);
+      }
+      normal += scores[oid];
+    }
+    for (int i = 0; i < numOutcomes; i++) {
+      scores[outcomes == null ? i : outcomes[i]] /= normal;
+    }
+  }
+
+  /**
+   * Normalize the scores as {@code PerceptronModel} does, over every outcome
+   * or over some of them only. The scores are scaled by the largest score of
+   * every outcome, so the probabilities of some outcomes are those of every
+   * outcome normalized among themselves.
+   *
+   * @param scores
+   *          the scores of every outcome
+   * @param outcomes
+   *          the outcomes normalized, null for every outcome
+   * @param numOutcomes
+   *          the number of outcomes normalized
+   */
+  static void normalizePerceptron(final double[] scores, final int[] outcomes,
+      final int numOutcomes) {
+    double maxPrior = 1;
+    for (final double score : scores) {
+      if (maxPrior < Math.abs(score)) {
+        maxPrior = Math.abs(score);
+      }
+    }
+    double normal = 0.0;
+    for (int i = 0; i < numOutcomes; i++) {
+      final int oid = outcomes == null ? i : outcomes[i];
+      scores[oid] = Math.exp(scores[oid] / maxPrior);
+      normal += scores[oid];
+    }
+    for (int i = 0; i < numOutcomes; i++) {
+      scores[outcomes == null ? i : outcomes[i]] /= normal;
+    }
+  }
+
+  /**
+   * Get the number of features of the model.
+   *
+   * @return the number of features
+   */
+  public final int getNumFeatures() {
+    return this.numFeatures;
+  }
+
+  /**
+   * Get the encoding of the weights of the model.
+   *
+   * @return the quantization
+   */
+  public final Quantization getQuantization() {
+    return this.quantization;
+  }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import opennlp.tools.ml.model.AbstractModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.Event;
+import opennlp.tools.ml.model.IndexHashTable;
+import opennlp.tools.ml.perceptron.PerceptronModel;
+import opennlp.tools.ml.maxent.GISModel;
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSSampleEventStream;
+import opennlp.tools.util.ObjectStream;
+import eus.ixa.ixa.pipe.lemma.LemmaSampleEventStream;
+import eus.ixa.ixa.pipe.lemma.LemmaSampleStream;
+import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
+import eus.ixa.ixa.pipe.pos.train.InputOutputUtils;
+
+/**
+ * Prunes trained POS and lemmatizer models. Models trained without cutoff
+ * keep every feature seen in the training data, most of them seen once and
+ * with tiny weights. The pruner drops the parameters whose absolute weight is
+ * below a threshold and, given the training data, the features seen fewer
+ * times than a frequency threshold, as the cutoff of the trainer would. The
+ * features left without parameters are removed and the rest of the model
+ * package (tag dictionary, factory and manifest) is kept as it is.
+ *
+ * @author ragerri
+ * @version 2016-05-26
+ */
+public final class ModelPruner {
+
+  /**
+   * This class is not to be instantiated.
+   */
+  private ModelPruner() {
+  }
+
+  /**
+   * Prune a POS or lemmatizer model.
+   *
+   * @param modelFile
+   *          the trained model
+   * @param outputFile
+   *          the pruned model
+   * @param minWeight
+   *          the minimum absolute weight of a parameter
+   * @param minFrequency
+   *          the minimum frequency of a feature in the training data
+   * @param trainData
+   *          the training data, in the format of the component; null to
+   *          prune by weight only
+   * @return the number of features before and after pruning
+   * @throws IOException
+   *           if the model or the training data cannot be read, if the
+   *           pruned model cannot be written, or if the model is not a
+   *           perceptron or maxent (GIS) model
+   */
+  public static int[] prune(final File modelFile, final File outputFile,
+      final double minWeight, final int minFrequency, final String trainData)
+      throws IOException {
+    if (CompiledModels.isCompiled(modelFile)) {
+      throw new IOException("Compiled models cannot be pruned: " + modelFile);
+    }
+    final String modelEntry = CompiledModels.getModelEntry(modelFile);
+    final AbstractModel model = CompiledModels.loadModel(modelFile);
+    final Object[] data = model.getDataStructures();
+    final Context[] params = (Context[]) data[0];
+    @SuppressWarnings("unchecked")
+    final IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+    final String[] outcomes = (String[]) data[2];
+    final String[] predLabels = pmap.toArray(new String[pmap.size()]);
+    final int[] frequencies = trainData == null ? null : countFeatures(
+        modelFile, modelEntry, trainData, pmap);
+
+    final List<Context> prunedParams = new ArrayList<Context>();
+    final List<String> prunedLabels = new ArrayList<String>();
+    for (int i = 0; i < predLabels.length; i++) {
+      if (frequencies != null && frequencies[i] < minFrequency) {
+        continue;
+      }
+      final Context pruned = prune(params[i], minWeight);
+      if (pruned != null) {
+        prunedParams.add(pruned);
+        prunedLabels.add(predLabels[i]);
+      }
+    }
+    if (prunedLabels.isEmpty()) {
+      throw new IOException("Every feature of the model would be pruned!");
+    }
+    final Context[] newParams = prunedParams.toArray(new Context[prunedParams
+        .size()]);
+    final String[] newLabels = prunedLabels.toArray(new String[prunedLabels
+        .size()]);
+    final AbstractModel prunedModel;
+    if (model.getModelType() == AbstractModel.ModelType.Maxent) {
+      prunedModel = new GISModel(newParams, newLabels, outcomes,
+          (Integer) data[3], (Double) data[4]);
+    } else {
+      prunedModel = new PerceptronModel(newParams, newLabels, outcomes);
+    }
+    final byte[] prunedPackage = CompiledModels.replaceModel(modelFile,
+        modelEntry, prunedModel);
+    final OutputStream out = new FileOutputStream(outputFile);
+    try {
+      out.write(prunedPackage);
+    } finally {
+      out.close();
+    }
+    return new int[] { predLabels.length, newLabels.length };
+  }
+
+  /**
+   * Drop the parameters of a feature whose absolute weight is below a
+   * threshold.
+   *
+   * @param context
+   *          the parameters of the feature
+   * @param minWeight
+   *          the minimum absolute weight
+   * @return the parameters kept, null if none is kept
+   */
+  private static Context prune(final Context context, final double minWeight) {
+    final int[] activeOutcomes = context.getOutcomes();
+    final double[] weights = context.getParameters();
+    int kept = 0;
+    for (final double weight : weights) {
+      if (weight != 0 && Math.abs(weight) >= minWeight) {
+        kept++;
+      }
+    }
+    if (kept == 0) {
+      return null;
+    }
+    final int[] keptOutcomes = new int[kept];
+    final double[] keptWeights = new double[kept];
+    kept = 0;
+    for (int j = 0; j < weights.length; j++) {
+      if (weights[j] != 0 && Math.abs(weights[j]) >= minWeight) {
+        keptOutcomes[kept] = activeOutcomes[j];
+        keptWeights[kept] = weights[j];
+        kept++;
+      }
+    }
+    return new Context(keptOutcomes, keptWeights);
+  }
+
+  /**
+   * Count how many times each feature of a model is seen in the training
+   * events, extracted with the context generator of the model.
+   *
+   * @param modelFile
+   *          the model package
+   * @param modelEntry
+   *          the name of the entry with the model weights
+   * @param trainData
+   *          the training data
+   * @param pmap
+   *          the index of each feature of the model
+   * @return the frequency of each feature, by index
+   * @throws IOException
+   *           if the model or the training data cannot be read
+   */
+  private static int[] countFeatures(final File modelFile,
+      final String modelEntry, final String trainData,
+      final IndexHashTable<String> pmap)
+      throws IOException {
+    final ObjectStream<String> trainStream = InputOutputUtils
+        .readFileIntoMarkableStreamFactory(trainData);
+    final ObjectStream<Event> events;
+    if (modelEntry.equals(CompiledModels.POS_MODEL_ENTRY)) {
+      events = new POSSampleEventStream(new MorphoSampleStream(trainStream),
+          new POSModel(modelFile).getFactory().getPOSContextGenerator(0));
+    } else {
+      events = new LemmaSampleEventStream(new LemmaSampleStream(trainStream),
+          new LemmatizerModel(modelFile).getFactory().getContextGenerator());
+    }
+    final int[] frequencies = new int[pmap.size()];
+    try {
+      Event event;
+      while ((event = events.read()) != null) {
+        for (final String feature : event.getContext()) {
+          final int index = pmap.get(feature);
+          if (index >= 0) {
+            frequencies[index]++;
+          }
+        }
+      }
+    } finally {
+      events.close();
+    }
+    return frequencies;
+  }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * A registry of loaded models keyed by model identity, namely, the canonical
+ * path of the model file and the checksum of its content. Two annotators
+ * asking for the same model file share one copy of the model, whereas a
+ * different (or retrained) model file is loaded on its own, whatever its
+ * language.
+ * <p>
+ * Models are leased through reference-counted {@link Handle}s. A model stays
+ * in the registry while it has handles which have not been released, or
+ * until it is explicitly unloaded; then it is removed from the registry and
+ * it can be garbage collected as soon as nobody uses it anymore. Models are
+ * loaded outside the registry lock: the first thread asking for a model
+ * loads it while the rest asking for the same model wait for it, and other
+ * models can be acquired and released meanwhile.
+ *
+ * @author ragerri
+ * @version 2016-05-18
+ * @param <M>
+ *          the model type
+ */
+public class ModelRegistry<M> {
+
+  /**
+   * Loads a model from a file.
+   *
+   * @param <M>
+   *          the model type
+   */
+  public interface ModelLoader<M> {
+
+    /**
+     * Load a model.
+     *
+     * @param modelFile
+     *          the model file
+     * @return the model
+     * @throws IOException
+     *           if the model cannot be read
+     */
+    M load(File modelFile) throws IOException;
+  }
+
+  /**
+   * The loader of the models.
+   */
+  private final ModelLoader<M> loader;
+  /**
+   * The registered models by identity.
+   */
+  private final Map<String, Entry<M>> entries = new HashMap<String, Entry<M>>();
+
+  /**
+   * Construct a model registry.
+   *
+   * @param aLoader
+   *          the loader of the models
+   */
+  public ModelRegistry(final ModelLoader<M> aLoader) {
+    this.loader = aLoader;
+  }
+
+  /**
+   * Lease a model, loading it if it is not already in the registry. The
+   * handle must be released when the model is no longer needed.
+   *
+   * @param model
+   *          the path of the model file
+   * @return a handle to the model
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  public final Handle<M> acquire(final String model) throws IOException {
+    final File modelFile = new File(model).getCanonicalFile();
+    final String id = modelFile.getPath() + "@"
+        + Files.hash(modelFile, Hashing.crc32()).toString();
+    Entry<M> entry;
+    boolean loading = false;
+    synchronized (this.entries) {
+      entry = this.entries.get(id);
+      if (entry == null) {
+        // a placeholder, so that a model is never loaded twice
+        entry = new Entry<M>(id, new FutureTask<M>(new Callable<M>() {
+          public M call() throws IOException {
+            return ModelRegistry.this.loader.load(modelFile);
+          }
+        }));
+        this.entries.put(id, entry);
+        loading = true;
+      }
+      entry.references++;
+    }
+    if (loading) {
+      entry.model.run();
+    }
+    try {
+      return new Handle<M>(this, entry, entry.model.get());
+    } catch (final InterruptedException e) {
+      release(entry);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading " + model);
+    } catch (final ExecutionException e) {
+      synchronized (this.entries) {
+        // the next acquire loads the model again
+        if (this.entries.get(id) == entry) {
+          this.entries.remove(id);
+        }
+      }
+      release(entry);
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * Remove every version of a model file from the registry. Handles already
+   * leased keep working until they are released, but the next
+   * {@link #acquire(String)} will load the model again.
+   *
+   * @param model
+   *          the path of the model file
+   * @return true if some model was removed
+   * @throws IOException
+   *           if the path cannot be resolved
+   */
+  public final boolean unload(final String model) throws IOException {
+    final String prefix = new File(model).getCanonicalPath() + "@";
+    boolean removed = false;
+    synchronized (this.entries) {
+      for (final String id : new ArrayList<String>(this.entries.keySet())) {
+        if (id.startsWith(prefix)) {
+          this.entries.remove(id);
+          removed = true;
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Get the identity of the models in the registry.
+   *
+   * @return the model ids, i.e., path and checksum
+   */
+  public final List<String> getModelIds() {
+    synchronized (this.entries) {
+      return new ArrayList<String>(this.entries.keySet());
+    }
+  }
+
+  /**
+   * Get the number of unreleased handles to a model.
+   *
+   * @param id
+   *          the model id
+   * @return the number of references, 0 if not in the registry
+   */
+  public final int getReferences(final String id) {
+    synchronized (this.entries) {
+      final Entry<M> entry = this.entries.get(id);
+      return entry == null ? 0 : entry.references;
+    }
+  }
+
+  /**
+   * Add a reference to a model which already has some.
+   *
+   * @param entry
+   *          the model entry
+   */
+  private void retain(final Entry<M> entry) {
+    synchronized (this.entries) {
+      entry.references++;
+    }
+  }
+
+  /**
+   * Release a reference to a model, removing it from the registry if it was
+   * the last one.
+   *
+   * @param entry
+   *          the model entry
+   */
+  private void release(final Entry<M> entry) {
+    synchronized (this.entries) {
+      entry.references--;
+      if (entry.references == 0 && this.entries.get(entry.id) == entry) {
+        this.entries.remove(entry.id);
+      }
+    }
+  }
+
+  /**
+   * A registered model.
+   *
+   * @param <M>
+   *          the model type
+   */
+  private static class Entry<M> {
+
+    /**
+     * The model id.
+     */
+    private final String id;
+    /**
+     * The loading of the model.
+     */
+    private final FutureTask<M> model;
+    /**
+     * The number of unreleased handles, guarded by the registry lock.
+     */
+    private int references;
+
+    /**
+     * Construct an entry.
+     *
+     * @param anId
+     *          the model id
+     * @param aModel
+     *          the loading of the model
+     */
+    Entry(final String anId, final FutureTask<M> aModel) {
+      this.id = anId;
+      this.model = aModel;
+    }
+  }
+
+  /**
+   * A reference-counted lease of a model of a {@link ModelRegistry}.
+   *
+   * @param <M>
+   *          the model type
+   */
+  public static class Handle<M> {
+
+    /**
+     * The registry of the model.
+     */
+    private final ModelRegistry<M> registry;
+    /**
+     * The model entry.
+     */
+    private final Entry<M> entry;
+    /**
+     * The model.
+     */
+    private final M model;
+    /**
+     * Whether the handle has been released.
+     */
+    private boolean released;
+
+    /**
+     * Construct a handle.
+     *
+     * @param aRegistry
+     *          the registry
+     * @param anEntry
+     *          the model entry
+     * @param aModel
+     *          the loaded model
+     */
+    Handle(final ModelRegistry<M> aRegistry, final Entry<M> anEntry,
+        final M aModel) {
+      this.registry = aRegistry;
+      this.entry = anEntry;
+      this.model = aModel;
+    }
+
+    /**
+     * Get the model.
+     *
+     * @return the model
+     */
+    public final M get() {
+      return this.model;
+    }
+
+    /**
+     * Get the identity of the model, i.e., its path and checksum.
+     *
+     * @return the model id
+     */
+    public final String getId() {
+      return this.entry.id;
+    }
+
+    /**
+     * Lease the model of this handle again, unless it has been released.
+     * The new handle must be released on its own.
+     *
+     * @return a new handle to the same model, null if this one has been
+     *         released
+     */
+    public final synchronized Handle<M> retain() {
+      if (this.released) {
+        return null;
+      }
+      this.registry.retain(this.entry);
+      return new Handle<M>(this.registry, this.entry, this.model);
+    }
+
+    /**
+     * Release the model. Releasing a handle twice has no effect.
+     */
+    public final synchronized void release() {
+      if (!this.released) {
+        this.released = true;
+        this.registry.release(this.entry);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,628 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Annotates NAF documents with a StAX streaming parser instead of building a
+ * {@code KAFDocument}. The {@code wf} elements are read sentence by sentence
+ * and tagged with the annotation core of {@link Annotate}; every other layer
+ * is copied through event by event, without materializing the document. The
+ * terms layer is spooled to a temporary file while the text layer is being
+ * copied and written right after it. An existing terms layer in the input is
+ * replaced.
+ * 
+ * Since the document is written while it is read, the linguistic processor
+ * added to the header only records the begin timestamp.
+ * 
+ * @author ragerri
+ * @version 2016-05-20
+ */
+public class NAFStreamAnnotator {
+
+  /**
+   * The UTF-8 charset.
+   */
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /**
+   * The NAF timestamp format.
+   */
+  private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+  /**
+   * The property of the JDK StAX parser to report CDATA sections.
+   */
+  private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+  /**
+   * The annotator.
+   */
+  private final Annotate annotator;
+  /**
+   * The name of the linguistic processor.
+   */
+  private final String lpName;
+  /**
+   * The version of the linguistic processor.
+   */
+  private final String lpVersion;
+  /**
+   * The StAX input factory.
+   */
+  private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+  /**
+   * The StAX output factory.
+   */
+  private final XMLOutputFactory outputFactory = XMLOutputFactory
+      .newInstance();
+  /**
+   * The StAX event factory.
+   */
+  private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+  /**
+   * Construct a streaming NAF annotator.
+   * 
+   * @param anAnnotator
+   *          the annotator
+   * @param aLpName
+   *          the name of the linguistic processor for the NAF header
+   * @param aLpVersion
+   *          the version of the linguistic processor for the NAF header
+   */
+  public NAFStreamAnnotator(final Annotate anAnnotator, final String aLpName,
+      final String aLpVersion) {
+    this.annotator = anAnnotator;
+    this.lpName = aLpName;
+    this.lpVersion = aLpVersion;
+    // keep CDATA sections (e.g., the raw layer) as CDATA in the output
+    try {
+      this.inputFactory.setProperty(REPORT_CDATA, Boolean.TRUE);
+    } catch (final IllegalArgumentException e) {
+      // not supported by this StAX implementation, CDATA becomes text
+    }
+  }
+
+  /**
+   * Read a NAF document, add the terms layer and write it.
+   * 
+   * @param in
+   *          the NAF input
+   * @param out
+   *          the NAF output
+   * @throws IOException
+   *           if io problems
+   * @throws XMLStreamException
+   *           if the input is not well-formed XML
+   */
+  public final void annotate(final Reader in, final Writer out)
+      throws IOException, XMLStreamException {
+    annotate(in, out, new AnnotationSerializer[0]);
+  }
+
+  /**
+   * Read a NAF document, add the terms layer and write it, also writing the
+   * annotation with every other serializer given, e.g., a
+   * {@link CoNLLSerializer}, in the same decoding pass.
+   * 
+   * @param in
+   *          the NAF input
+   * @param out
+   *          the NAF output
+   * @param serializers
+   *          the other serializers
+   * @throws IOException
+   *           if io problems
+   * @throws XMLStreamException
+   *           if the input is not well-formed XML
+   */
+  public final void annotate(final Reader in, final Writer out,
+      final AnnotationSerializer... serializers) throws IOException,
+      XMLStreamException {
+    final File termsFile = File.createTempFile("ixa-pipe-pos", ".terms");
+    try {
+      annotate(in, out, termsFile, serializers);
+    } finally {
+      termsFile.delete();
+    }
+  }
+
+  /**
+   * Read a NAF document, add the terms layer and write it, spooling the terms
+   * layer into a temporary file.
+   * 
+   * @param in
+   *          the NAF input
+   * @param out
+   *          the NAF output
+   * @param termsFile
+   *          the temporary file
+   * @param serializers
+   *          the other serializers
+   * @throws IOException
+   *           if io problems
+   * @throws XMLStreamException
+   *           if the input is not well-formed XML
+   */
+  private void annotate(final Reader in, final Writer out,
+      final File termsFile, final AnnotationSerializer[] serializers)
+      throws IOException, XMLStreamException {
+    final XMLEventReader reader = this.inputFactory.createXMLEventReader(in);
+    final XMLEventWriter writer = this.outputFactory.createXMLEventWriter(out);
+    final Writer termsOut = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(termsFile), UTF8));
+    final TermsSerializer terms = new TermsSerializer(
+        this.outputFactory.createXMLStreamWriter(termsOut), serializers);
+    boolean headerDone = false;
+    boolean inText = false;
+    int skipDepth = 0;
+    String sentence = null;
+    while (reader.hasNext()) {
+      final XMLEvent event = reader.nextEvent();
+      // skip any existing terms layer
+      if (skipDepth > 0) {
+        if (event.isStartElement()) {
+          skipDepth++;
+        } else if (event.isEndElement()) {
+          skipDepth--;
+        }
+        continue;
+      }
+      if (event.isStartDocument()) {
+        writer.add(event);
+        writer.add(this.eventFactory.createCharacters("\n"));
+        continue;
+      }
+      if (event.isStartElement()) {
+        final String name = event.asStartElement().getName().getLocalPart();
+        if (name.equals("terms")) {
+          System.err.println("WARNING: replacing existing terms layer!");
+          skipDepth = 1;
+          continue;
+        }
+        if (name.equals("text")) {
+          if (!headerDone) {
+            writeHeader(writer);
+            headerDone = true;
+          }
+          inText = true;
+        } else if (inText && name.equals("wf")) {
+          final StartElement wf = event.asStartElement();
+          final String sent = getAttribute(wf, "sent");
+          if (sentence != null && sent != null && !sent.equals(sentence)) {
+            terms.endSentence();
+          }
+          if (sent != null) {
+            sentence = sent;
+          }
+          writer.add(event);
+          terms.addToken(getAttribute(wf, "id"), copyText(reader, writer));
+          continue;
+        }
+      } else if (event.isEndElement()) {
+        final String name = event.asEndElement().getName().getLocalPart();
+        if (name.equals("nafHeader")) {
+          writeLinguisticProcessor(writer);
+          headerDone = true;
+        } else if (name.equals("text")) {
+          inText = false;
+          terms.endSentence();
+          terms.close();
+          termsOut.close();
+          writer.add(event);
+          writer.flush();
+          copyFile(termsFile, out);
+          continue;
+        }
+      }
+      writer.add(event);
+    }
+    writer.flush();
+    writer.close();
+    termsOut.close();
+  }
+
+  /**
+   * Copy the text content of the current element up to and including its end
+   * tag.
+   * 
+   * @param reader
+   *          the event reader
+   * @param writer
+   *          the event writer
+   * @return the text content
+   * @throws XMLStreamException
+   *           if the input is not well-formed XML
+   */
+  private static String copyText(final XMLEventReader reader,
+      final XMLEventWriter writer) throws XMLStreamException {
+    final StringBuilder text = new StringBuilder();
+    while (reader.hasNext()) {
+      final XMLEvent event = reader.nextEvent();
+      writer.add(event);
+      if (event.isCharacters()) {
+        text.append(event.asCharacters().getData());
+      } else if (event.isEndElement()) {
+        break;
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Get the value of an attribute.
+   * 
+   * @param element
+   *          the element
+   * @param name
+   *          the attribute name
+   * @return the value or null if not present
+   */
+  private static String getAttribute(final StartElement element,
+      final String name) {
+    final Attribute attribute = element.getAttributeByName(new QName(name));
+    return attribute == null ? null : attribute.getValue();
+  }
+
+  /**
+   * Write a NAF header containing only the linguistic processor.
+   * 
+   * @param writer
+   *          the event writer
+   * @throws XMLStreamException
+   *           if xml problems
+   */
+  private void writeHeader(final XMLEventWriter writer)
+      throws XMLStreamException {
+    writer.add(this.eventFactory.createStartElement("", "", "nafHeader"));
+    writeLinguisticProcessor(writer);
+    writer.add(this.eventFactory.createEndElement("", "", "nafHeader"));
+    writer.add(this.eventFactory.createCharacters("\n  "));
+  }
+
+  /**
+   * Write the linguistic processor of the terms layer.
+   * 
+   * @param writer
+   *          the event writer
+   * @throws XMLStreamException
+   *           if xml problems
+   */
+  private void writeLinguisticProcessor(final XMLEventWriter writer)
+      throws XMLStreamException {
+    final String timestamp = new SimpleDateFormat(TIMESTAMP_FORMAT)
+        .format(new Date());
+    writer.add(this.eventFactory.createCharacters("  "));
+    writer.add(this.eventFactory.createStartElement("", "",
+        "linguisticProcessors"));
+    writer.add(this.eventFactory.createAttribute("layer", "terms"));
+    writer.add(this.eventFactory.createCharacters("\n      "));
+    writer.add(this.eventFactory.createStartElement("", "", "lp"));
+    writer.add(this.eventFactory.createAttribute("name", this.lpName));
+    writer.add(this.eventFactory.createAttribute("version", this.lpVersion));
+    writer.add(this.eventFactory.createAttribute("timestamp", timestamp));
+    writer.add(this.eventFactory.createAttribute("beginTimestamp", timestamp));
+    writer.add(this.eventFactory.createAttribute("hostname", getHostname()));
+    writer.add(this.eventFactory.createEndElement("", "", "lp"));
+    writer.add(this.eventFactory.createCharacters("\n    "));
+    writer.add(this.eventFactory.createEndElement("", "",
+        "linguisticProcessors"));
+    writer.add(this.eventFactory.createCharacters("\n  "));
+  }
+
+  /**
+   * Get the name of this host.
+   * 
+   * @return the hostname
+   */
+  private static String getHostname() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (final UnknownHostException e) {
+      return "unknown";
+    }
+  }
+
+  /**
+   * Copy the content of a file into a writer.
+   * 
+   * @param file
+   *          the file
+   * @param out
+   *          the writer
+   * @throws IOException
+   *           if io problems
+   */
+  private static void copyFile(final File file, final Writer out)
+      throws IOException {
+    final char[] buffer = new char[8192];
+    try (BufferedReader fileReader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), UTF8))) {
+      int read;
+      while ((read = fileReader.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    }
+  }
+
+  /**
+   * Get the comment of a term: its tokens separated by spaces, with every
+   * pair of adjacent hyphens broken and no trailing hyphen, as XML comments
+   * do not allow them.
+   * 
+   * @param sentTokens
+   *          the tokens of the sentence
+   * @param from
+   *          the first token of the term
+   * @param to
+   *          the token after the last token of the term
+   * @return the comment
+   */
+  static String getComment(final String[] sentTokens, final int from,
+      final int to) {
+    final StringBuilder sb = new StringBuilder();
+    for (int j = from; j < to; j++) {
+      if (j > from) {
+        sb.append(' ');
+      }
+      sb.append(sentTokens[j]);
+    }
+    String comment = sb.toString();
+    // a single pass leaves "--" in runs of three or more hyphens
+    while (comment.contains("--")) {
+      comment = comment.replace("--", "- -");
+    }
+    if (comment.endsWith("-")) {
+      comment = comment + " ";
+    }
+    return comment;
+  }
+
+  /**
+   * Collects the tokens of each sentence, annotates them in chunks and writes
+   * the terms layer.
+   */
+  private class TermsSerializer implements AnnotationSerializer {
+
+    /**
+     * The terms layer writer.
+     */
+    private final XMLStreamWriter termsWriter;
+    /**
+     * This serializer followed by the other serializers.
+     */
+    private final AnnotationSerializer[] serializers;
+    /**
+     * The tokens of the current sentence.
+     */
+    private final List<String> tokens = new ArrayList<String>();
+    /**
+     * The wf ids of the current sentence.
+     */
+    private final List<String> ids = new ArrayList<String>();
+    /**
+     * The sentences waiting to be annotated.
+     */
+    private final List<String[]> sentences = new ArrayList<String[]>();
+    /**
+     * The wf ids of the sentences waiting to be annotated.
+     */
+    private final List<String[]> sentenceIds = new ArrayList<String[]>();
+    /**
+     * The index of the next sentence to serialize.
+     */
+    private int sentenceIndex;
+    /**
+     * The term counter.
+     */
+    private int termCounter = 0;
+
+    /**
+     * Construct a terms serializer.
+     * 
+     * @param aTermsWriter
+     *          the terms layer writer
+     * @param otherSerializers
+     *          the other serializers
+     * @throws XMLStreamException
+     *           if xml problems
+     */
+    TermsSerializer(final XMLStreamWriter aTermsWriter,
+        final AnnotationSerializer[] otherSerializers)
+        throws XMLStreamException {
+      this.termsWriter = aTermsWriter;
+      this.serializers = new AnnotationSerializer[otherSerializers.length + 1];
+      this.serializers[0] = this;
+      System.arraycopy(otherSerializers, 0, this.serializers, 1,
+          otherSerializers.length);
+      this.termsWriter.writeCharacters("\n  ");
+      this.termsWriter.writeStartElement("terms");
+    }
+
+    /**
+     * Add a token to the current sentence.
+     * 
+     * @param id
+     *          the wf id
+     * @param form
+     *          the wf form
+     */
+    void addToken(final String id, final String form) {
+      this.ids.add(id);
+      this.tokens.add(form);
+    }
+
+    /**
+     * End the current sentence, annotating the pending sentences if enough
+     * have been collected.
+     * 
+     * @throws IOException
+     *           if io problems
+     */
+    void endSentence() throws IOException {
+      if (!this.tokens.isEmpty()) {
+        this.sentences.add(this.tokens.toArray(new String[this.tokens.size()]));
+        this.sentenceIds.add(this.ids.toArray(new String[this.ids.size()]));
+        this.tokens.clear();
+        this.ids.clear();
+      }
+      if (this.sentences.size() >= Annotate.STREAM_CHUNK_SIZE) {
+        flush();
+      }
+    }
+
+    /**
+     * Annotate and write the pending sentences.
+     * 
+     * @throws IOException
+     *           if io problems
+     */
+    private void flush() throws IOException {
+      this.sentenceIndex = 0;
+      annotator.annotate(this.sentences, this.serializers);
+      this.sentences.clear();
+      this.sentenceIds.clear();
+    }
+
+    /**
+     * Annotate the remaining sentences and close the terms layer.
+     * 
+     * @throws IOException
+     *           if io problems
+     * @throws XMLStreamException
+     *           if xml problems
+     */
+    void close() throws IOException, XMLStreamException {
+      flush();
+      this.termsWriter.writeCharacters("\n  ");
+      this.termsWriter.writeEndElement();
+      this.termsWriter.flush();
+      this.termsWriter.close();
+    }
+
+    public void serialize(final SentenceAnnotation sentence)
+        throws IOException {
+      final String[] sentTokens = this.sentences.get(this.sentenceIndex);
+      final String[] sentIds = this.sentenceIds.get(this.sentenceIndex++);
+      try {
+        for (int i = 0; i < sentence.size(); i++) {
+          final int from = sentence.getTermStart(i);
+          final int to = sentence.getTermStart(i + 1);
+          final String comment = getComment(sentTokens, from, to);
+          final String posId = sentence.getPosId(i);
+          this.termsWriter.writeCharacters("\n    ");
+          this.termsWriter.writeComment(comment);
+          this.termsWriter.writeCharacters("\n    ");
+          this.termsWriter.writeStartElement("term");
+          this.termsWriter.writeAttribute("id", "t" + ++this.termCounter);
+          this.termsWriter.writeAttribute("type",
+              Resources.setTermType(posId));
+          if (sentence.getLemma(i) != null) {
+            this.termsWriter.writeAttribute("lemma", sentence.getLemma(i));
+          }
+          this.termsWriter.writeAttribute("pos", posId);
+          this.termsWriter.writeAttribute("morphofeat", sentence.getTag(i));
+          this.termsWriter.writeCharacters("\n      ");
+          this.termsWriter.writeStartElement("span");
+          this.termsWriter.writeCharacters("\n        ");
+          this.termsWriter.writeComment(comment);
+          for (int j = from; j < to; j++) {
+            this.termsWriter.writeCharacters("\n        ");
+            this.termsWriter.writeEmptyElement("target");
+            this.termsWriter.writeAttribute("id", sentIds[j]);
+          }
+          this.termsWriter.writeCharacters("\n      ");
+          this.termsWriter.writeEndElement();
+          if (sentence.getTagAlternatives() != null
+              || sentence.getLemmaAlternatives() != null) {
+            this.termsWriter.writeCharacters("\n      ");
+            this.termsWriter.writeStartElement("externalReferences");
+            writeAlternatives(sentence.getTagAlternatives(), i,
+                NAFTermsSerializer.TAG_REFTYPE);
+            writeAlternatives(sentence.getLemmaAlternatives(), i,
+                NAFTermsSerializer.LEMMA_REFTYPE);
+            this.termsWriter.writeCharacters("\n      ");
+            this.termsWriter.writeEndElement();
+          }
+          this.termsWriter.writeCharacters("\n    ");
+          this.termsWriter.writeEndElement();
+        }
+      } catch (final XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * Write the alternatives of a term as external references, as
+     * {@link NAFTermsSerializer} does.
+     * 
+     * @param alternatives
+     *          the alternatives of the sentence, null if none
+     * @param i
+     *          the term index
+     * @param reftype
+     *          the type of the alternatives
+     * @throws XMLStreamException
+     *           if xml problems
+     */
+    private void writeAlternatives(final SequenceAlternatives alternatives,
+        final int i, final String reftype) throws XMLStreamException {
+      if (alternatives == null) {
+        return;
+      }
+      final String[] outcomes = alternatives.getOutcomes(i);
+      final double[] probs = alternatives.getProbs(i);
+      for (int j = 0; j < outcomes.length; j++) {
+        this.termsWriter.writeCharacters("\n        ");
+        this.termsWriter.writeEmptyElement("externalRef");
+        this.termsWriter.writeAttribute("resource",
+            NAFTermsSerializer.ALTERNATIVES_RESOURCE);
+        this.termsWriter.writeAttribute("reference", outcomes[j]);
+        this.termsWriter.writeAttribute("reftype", reftype);
+        this.termsWriter.writeAttribute("confidence",
+            Float.toString((float) probs[j]));
+      }
+    }
+  }
+}
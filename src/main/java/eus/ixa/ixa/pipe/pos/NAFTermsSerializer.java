@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import ixa.kaflib.ExternalRef;
+import ixa.kaflib.KAFDocument;
+import ixa.kaflib.Span;
+import ixa.kaflib.Term;
+import ixa.kaflib.WF;
+
+import java.util.List;
+
+/**
+ * Serializes the annotation as the terms layer of the NAF document that was
+ * annotated. Sentences are expected in the order of
+ * {@link KAFDocument#getSentences()}. If the annotation has alternatives,
+ * each postag and lemma alternative of a term is added as an external
+ * reference of the term with its probability as confidence.
+ * 
+ * @author ragerri
+ * @version 2016-05-12
+ */
+public class NAFTermsSerializer implements AnnotationSerializer {
+
+  /**
+   * The resource of the external references of the alternatives.
+   */
+  public static final String ALTERNATIVES_RESOURCE = "ixa-pipe-pos";
+  /**
+   * The reftype of the external references of the postag alternatives.
+   */
+  public static final String TAG_REFTYPE = "morphofeat";
+  /**
+   * The reftype of the external references of the lemma alternatives.
+   */
+  public static final String LEMMA_REFTYPE = "lemma";
+  /**
+   * The NAF document.
+   */
+  private final KAFDocument kaf;
+  /**
+   * The sentences of the NAF document.
+   */
+  private final List<List<WF>> sentences;
+  /**
+   * The index of the next sentence to serialize.
+   */
+  private int sentenceIndex = 0;
+
+  /**
+   * Construct a NAF serializer.
+   * 
+   * @param aKaf
+   *          the NAF document
+   */
+  public NAFTermsSerializer(final KAFDocument aKaf) {
+    this.kaf = aKaf;
+    this.sentences = aKaf.getSentences();
+  }
+
+  /**
+   * Get the sentences of the NAF document.
+   * 
+   * @return the sentences as lists of WFs
+   */
+  public final List<List<WF>> getSentences() {
+    return this.sentences;
+  }
+
+  public final void serialize(final SentenceAnnotation sentence) {
+    final List<WF> wfs = this.sentences.get(this.sentenceIndex++);
+    for (int i = 0; i < sentence.size(); i++) {
+      final Span<WF> span = KAFDocument.newWFSpan(wfs.subList(
+          sentence.getTermStart(i), sentence.getTermStart(i + 1)));
+      final Term term = this.kaf.newTerm(span);
+      final String posId = sentence.getPosId(i);
+      term.setType(Resources.setTermType(posId));
+      term.setLemma(sentence.getLemma(i));
+      term.setPos(posId);
+      term.setMorphofeat(sentence.getTag(i));
+      addAlternatives(term, sentence.getTagAlternatives(), i, TAG_REFTYPE);
+      addAlternatives(term, sentence.getLemmaAlternatives(), i, LEMMA_REFTYPE);
+    }
+  }
+
+  /**
+   * Add the alternatives of a term as external references.
+   * 
+   * @param term
+   *          the term
+   * @param alternatives
+   *          the alternatives of the sentence, null if none
+   * @param i
+   *          the term index
+   * @param reftype
+   *          the type of the alternatives
+   */
+  private void addAlternatives(final Term term,
+      final SequenceAlternatives alternatives, final int i,
+      final String reftype) {
+    if (alternatives == null) {
+      return;
+    }
+    final String[] outcomes = alternatives.getOutcomes(i);
+    final double[] probs = alternatives.getProbs(i);
+    for (int j = 0; j < outcomes.length; j++) {
+      final ExternalRef externalRef = this.kaf.newExternalRef(
+          ALTERNATIVES_RESOURCE, outcomes[j]);
+      externalRef.setReftype(reftype);
+      externalRef.setConfidence((float) probs[j]);
+      term.addExternalRef(externalRef);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+/**
+ * The outcomes a {@link FeatureIdBeamSearch} may choose for each token of a
+ * sentence, e.g., the tags of a tag dictionary or the lemma classes seen in
+ * the training data for the suffix and postag of a token.
+ *
+ * @author ragerri
+ * @version 2016-05-29
+ */
+public interface OutcomeConstraints {
+
+  /**
+   * Get the outcomes allowed for a token.
+   *
+   * @param index
+   *          the token index
+   * @param tokens
+   *          the tokens of the sentence
+   * @param additionalContext
+   *          the additional context of the sentence, as passed to the
+   *          context generator
+   * @return the allowed outcomes, null if the token is not constrained
+   */
+  String[] getAllowedOutcomes(int index, String[] tokens,
+      Object[] additionalContext);
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+/**
+ * The encoding of the weights of a compiled model. Quantized weights are
+ * scaled per outcome: each weight is divided by the largest absolute weight
+ * of its outcome before being encoded, and multiplied by it when decoded.
+ *
+ * @author ragerri
+ * @version 2016-05-25
+ */
+public enum Quantization {
+
+  /**
+   * Single precision floats; parameters are (int outcome, float weight).
+   */
+  NONE(0, 8),
+  /**
+   * Half precision floats; parameters are (char outcome, half weight).
+   */
+  FLOAT16(1, 4),
+  /**
+   * Signed bytes in [-127, 127]; parameters are (char outcome, byte weight).
+   */
+  INT8(2, 3);
+
+  /**
+   * The largest absolute value of an int8 weight.
+   */
+  static final int INT8_RANGE = 127;
+
+  /**
+   * The id stored in the header of a compiled model.
+   */
+  private final int id;
+  /**
+   * The size in bytes of a parameter.
+   */
+  private final int paramRecordSize;
+
+  /**
+   * Create a quantization.
+   *
+   * @param anId
+   *          the id stored in compiled models
+   * @param aParamRecordSize
+   *          the size of a parameter
+   */
+  private Quantization(final int anId, final int aParamRecordSize) {
+    this.id = anId;
+    this.paramRecordSize = aParamRecordSize;
+  }
+
+  /**
+   * Get the id stored in the header of compiled models.
+   *
+   * @return the id
+   */
+  int getId() {
+    return this.id;
+  }
+
+  /**
+   * Get the size in bytes of a parameter.
+   *
+   * @return the size of a parameter
+   */
+  int getParamRecordSize() {
+    return this.paramRecordSize;
+  }
+
+  /**
+   * Get the quantization of an id stored in a compiled model.
+   *
+   * @param id
+   *          the id
+   * @return the quantization, null if the id is unknown
+   */
+  static Quantization fromId(final int id) {
+    for (final Quantization quantization : values()) {
+      if (quantization.id == id) {
+        return quantization;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the quantization of a name given in the command line.
+   *
+   * @param name
+   *          the name, case insensitive
+   * @return the quantization
+   * @throws IllegalArgumentException
+   *           if the name is not a quantization
+   */
+  public static Quantization fromName(final String name) {
+    return valueOf(name.toUpperCase());
+  }
+
+  /**
+   * Encode a float as an IEEE 754 half precision float, rounding to the
+   * nearest even value.
+   *
+   * @param value
+   *          the float
+   * @return the bits of the half precision float
+   */
+  static short toHalf(final float value) {
+    final int bits = Float.floatToIntBits(value);
+    final int sign = bits >>> 16 & 0x8000;
+    final int magnitude = bits & 0x7fffffff;
+    if (magnitude >= 0x47800000) {
+      // too large for a half, infinity or NaN
+      return (short) (sign | (magnitude > 0x7f800000 ? 0x7e00 : 0x7c00));
+    }
+    if (magnitude < 0x38800000) {
+      // subnormal half: multiples of 2^-24
+      return (short) (sign | Math.round(Float.intBitsToFloat(magnitude)
+          * (1 << 24)));
+    }
+    final int mantissa = magnitude & 0x7fffff;
+    int half = (magnitude >>> 23) - 112 << 10 | mantissa >>> 13;
+    final int rest = mantissa & 0x1fff;
+    if (rest > 0x1000 || rest == 0x1000 && (half & 1) != 0) {
+      // a carry into the exponent is still the right value
+      half++;
+    }
+    return (short) (sign | half);
+  }
+
+  /**
+   * Decode an IEEE 754 half precision float.
+   *
+   * @param half
+   *          the bits of the half precision float
+   * @return the float
+   */
+  static float fromHalf(final short half) {
+    final int sign = (half & 0x8000) << 16;
+    final int exponent = half >>> 10 & 0x1f;
+    final int mantissa = half & 0x3ff;
+    if (exponent == 0) {
+      final float subnormal = mantissa / (float) (1 << 24);
+      return sign == 0 ? subnormal : -subnormal;
+    }
+    if (exponent == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+    }
+    return Float.intBitsToFloat(sign | exponent + 112 << 23 | mantissa << 13);
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+/**
+ * The morphological annotation of a sentence as produced by the annotation
+ * core of {@link Annotate}: one entry per term in parallel arrays. A term
+ * covers one token, or several tokens if a multiword has been detected; the
+ * tokens covered by term {@code i} go from {@code getTermStart(i)} (inclusive)
+ * to {@code getTermStart(i + 1)} (exclusive). If alternatives were requested,
+ * the postag and lemma alternatives are given per term too.
+ * 
+ * @author ragerri
+ * @version 2016-05-12
+ */
+public class SentenceAnnotation {
+
+  /**
+   * The word form of each term.
+   */
+  private final String[] words;
+  /**
+   * The postag of each term.
+   */
+  private final String[] tags;
+  /**
+   * The lemma of each term.
+   */
+  private final String[] lemmas;
+  /**
+   * The KAF pos of each term.
+   */
+  private final String[] posIds;
+  /**
+   * The index of the first token of each term plus the number of tokens.
+   */
+  private final int[] termStarts;
+  /**
+   * The postag alternatives of the terms, null if not requested.
+   */
+  private final SequenceAlternatives tagAlternatives;
+  /**
+   * The lemma alternatives of the terms, null if not requested.
+   */
+  private final SequenceAlternatives lemmaAlternatives;
+
+  /**
+   * Construct the annotation of a sentence. The arrays are not copied.
+   * 
+   * @param aWords
+   *          the word forms
+   * @param aTags
+   *          the postags
+   * @param aLemmas
+   *          the lemmas
+   * @param aPosIds
+   *          the KAF pos values
+   * @param aTermStarts
+   *          the index of the first token of each term followed by the number
+   *          of tokens of the sentence
+   */
+  public SentenceAnnotation(final String[] aWords, final String[] aTags,
+      final String[] aLemmas, final String[] aPosIds, final int[] aTermStarts) {
+    this(aWords, aTags, aLemmas, aPosIds, aTermStarts, null, null);
+  }
+
+  /**
+   * Construct the annotation of a sentence with its alternatives. The arrays
+   * are not copied.
+   * 
+   * @param aWords
+   *          the word forms
+   * @param aTags
+   *          the postags
+   * @param aLemmas
+   *          the lemmas
+   * @param aPosIds
+   *          the KAF pos values
+   * @param aTermStarts
+   *          the index of the first token of each term followed by the number
+   *          of tokens of the sentence
+   * @param aTagAlternatives
+   *          the postag alternatives of the terms, null if none
+   * @param aLemmaAlternatives
+   *          the lemma alternatives of the terms, null if none
+   */
+  public SentenceAnnotation(final String[] aWords, final String[] aTags,
+      final String[] aLemmas, final String[] aPosIds, final int[] aTermStarts,
+      final SequenceAlternatives aTagAlternatives,
+      final SequenceAlternatives aLemmaAlternatives) {
+    this.words = aWords;
+    this.tags = aTags;
+    this.lemmas = aLemmas;
+    this.posIds = aPosIds;
+    this.termStarts = aTermStarts;
+    this.tagAlternatives = aTagAlternatives;
+    this.lemmaAlternatives = aLemmaAlternatives;
+  }
+
+  /**
+   * Get the number of terms.
+   * 
+   * @return the number of terms
+   */
+  public final int size() {
+    return this.words.length;
+  }
+
+  /**
+   * Get the word form of a term; multiword terms join their tokens with '#'.
+   * 
+   * @param i
+   *          the term index
+   * @return the word form
+   */
+  public final String getWord(final int i) {
+    return this.words[i];
+  }
+
+  /**
+   * Get the postag of a term.
+   * 
+   * @param i
+   *          the term index
+   * @return the postag
+   */
+  public final String getTag(final int i) {
+    return this.tags[i];
+  }
+
+  /**
+   * Get the lemma of a term.
+   * 
+   * @param i
+   *          the term index
+   * @return the lemma
+   */
+  public final String getLemma(final int i) {
+    return this.lemmas[i];
+  }
+
+  /**
+   * Get the KAF pos of a term.
+   * 
+   * @param i
+   *          the term index
+   * @return the KAF pos
+   */
+  public final String getPosId(final int i) {
+    return this.posIds[i];
+  }
+
+  /**
+   * Get the index of the first token of a term. For {@code i == size()} it
+   * returns the number of tokens of the sentence.
+   * 
+   * @param i
+   *          the term index
+   * @return the token index
+   */
+  public final int getTermStart(final int i) {
+    return this.termStarts[i];
+  }
+
+  /**
+   * Get the postag alternatives of the terms.
+   * 
+   * @return the postag alternatives, null if not requested
+   */
+  public final SequenceAlternatives getTagAlternatives() {
+    return this.tagAlternatives;
+  }
+
+  /**
+   * Get the lemma alternatives of the terms.
+   * 
+   * @return the lemma alternatives, null if not requested or if the lemmas
+   *         are not decoded statistically
+   */
+  public final SequenceAlternatives getLemmaAlternatives() {
+    return this.lemmaAlternatives;
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of sentence annotations keyed by the exact token sequence
+ * and the id of the annotator configuration (language, models and options)
+ * which produced them. When full, the least recently used sentence is evicted.
+ * Repeated sentences, such as bylines or legal footers, are then annotated
+ * only once. The cache is thread-safe and can be shared by several annotators.
+ *
+ * @author ragerri
+ * @version 2016-05-16
+ */
+public class SentenceCache {
+
+  /**
+   * The maximum number of sentences kept.
+   */
+  private final int maxSize;
+  /**
+   * The cached annotations in access order.
+   */
+  private final Map<Key, SentenceAnnotation> annotations;
+  /**
+   * The number of lookups answered by the cache.
+   */
+  private final AtomicLong hits = new AtomicLong();
+  /**
+   * The number of lookups not answered by the cache.
+   */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Construct a sentence cache.
+   *
+   * @param aMaxSize
+   *          the maximum number of sentences kept
+   */
+  public SentenceCache(final int aMaxSize) {
+    if (aMaxSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive!");
+    }
+    this.maxSize = aMaxSize;
+    this.annotations = new LinkedHashMap<Key, SentenceAnnotation>(16, 0.75f,
+        true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<Key, SentenceAnnotation> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get the cached annotation of a sentence.
+   *
+   * @param annotatorId
+   *          the id of the annotator configuration
+   * @param tokens
+   *          the tokens of the sentence
+   * @return the annotation or null if not cached
+   */
+  public final SentenceAnnotation get(final String annotatorId,
+      final String[] tokens) {
+    final SentenceAnnotation annotation;
+    synchronized (this.annotations) {
+      annotation = this.annotations.get(new Key(annotatorId, tokens));
+    }
+    if (annotation == null) {
+      this.misses.incrementAndGet();
+    } else {
+      this.hits.incrementAndGet();
+    }
+    return annotation;
+  }
+
+  /**
+   * Cache the annotation of a sentence, evicting the least recently used
+   * sentence if the cache is full.
+   *
+   * @param annotatorId
+   *          the id of the annotator configuration
+   * @param tokens
+   *          the tokens of the sentence
+   * @param annotation
+   *          the annotation
+   */
+  public final void put(final String annotatorId, final String[] tokens,
+      final SentenceAnnotation annotation) {
+    synchronized (this.annotations) {
+      this.annotations.put(new Key(annotatorId, tokens.clone()), annotation);
+    }
+  }
+
+  /**
+   * Get the number of lookups answered by the cache.
+   *
+   * @return the number of hits
+   */
+  public final long getHits() {
+    return this.hits.get();
+  }
+
+  /**
+   * Get the number of lookups not answered by the cache.
+   *
+   * @return the number of misses
+   */
+  public final long getMisses() {
+    return this.misses.get();
+  }
+
+  /**
+   * Get the number of sentences currently cached.
+   *
+   * @return the number of sentences
+   */
+  public final int size() {
+    synchronized (this.annotations) {
+      return this.annotations.size();
+    }
+  }
+
+  /**
+   * Get the maximum number of sentences kept.
+   *
+   * @return the maximum size
+   */
+  public final int getMaxSize() {
+    return this.maxSize;
+  }
+
+  /**
+   * Remove every cached sentence.
+   */
+  public final void clear() {
+    synchronized (this.annotations) {
+      this.annotations.clear();
+    }
+  }
+
+  @Override
+  public final String toString() {
+    return "Sentence cache: " + getHits() + " hits, " + getMisses()
+        + " misses, " + size() + " sentences cached";
+  }
+
+  /**
+   * The key of a cached sentence.
+   */
+  private static class Key {
+
+    /**
+     * The annotator id.
+     */
+    private final String annotatorId;
+    /**
+     * The tokens.
+     */
+    private final String[] tokens;
+    /**
+     * The hash code, computed once.
+     */
+    private final int hash;
+
+    /**
+     * Construct a key.
+     *
+     * @param anAnnotatorId
+     *          the annotator id
+     * @param aTokens
+     *          the tokens
+     */
+    Key(final String anAnnotatorId, final String[] aTokens) {
+      this.annotatorId = anAnnotatorId;
+      this.tokens = aTokens;
+      this.hash = 31 * anAnnotatorId.hashCode() + Arrays.hashCode(aTokens);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return this.hash == other.hash
+          && this.annotatorId.equals(other.annotatorId)
+          && Arrays.equals(this.tokens, other.tokens);
+    }
+  }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import opennlp.tools.util.Sequence;
+
+/**
+ * The k best sequences of outcomes (tags or lemmas) of a sentence found by a
+ * single decoding pass, together with the most probable outcomes of each
+ * token and their marginal probabilities.
+ * <p>
+ * The marginals are estimated over the k best sequences: each sequence is
+ * weighted by its probability normalized over the k sequences, and
+ * contributes the probability distribution from which the decoder chose its
+ * outcome for the token. With a single sequence the marginals are the
+ * probabilities given by the model to each outcome in the context of the
+ * best sequence. Decoders which only keep the probability of the chosen
+ * outcomes contribute those only.
+ *
+ * @author ragerri
+ * @version 2016-05-27
+ */
+public class SequenceAlternatives {
+
+  /**
+   * The k best sequences, best first.
+   */
+  private final Sequence[] sequences;
+  /**
+   * The outcome of each token in the best sequence, unless pinned.
+   */
+  private final String[] bestOutcomes;
+  /**
+   * The most probable outcomes of each token.
+   */
+  private final String[][] outcomes;
+  /**
+   * The marginal probability of the most probable outcomes of each token.
+   */
+  private final double[][] probs;
+  /**
+   * The marginal probability of the outcome of each token in the best
+   * sequence.
+   */
+  private final double[] confidences;
+
+  /**
+   * Construct the alternatives of a sentence. The arrays are not copied.
+   *
+   * @param someSequences
+   *          the k best sequences, best first
+   * @param someOutcomes
+   *          the most probable outcomes of each token
+   * @param someProbs
+   *          the marginal probabilities of the outcomes of each token
+   * @param someConfidences
+   *          the marginal probability of the outcome of each token in the
+   *          best sequence
+   */
+  public SequenceAlternatives(final Sequence[] someSequences,
+      final String[][] someOutcomes, final double[][] someProbs,
+      final double[] someConfidences) {
+    this.sequences = someSequences;
+    final List<String> best = someSequences[0].getOutcomes();
+    this.bestOutcomes = best.toArray(new String[best.size()]);
+    this.outcomes = someOutcomes;
+    this.probs = someProbs;
+    this.confidences = someConfidences;
+  }
+
+  /**
+   * Create the alternatives of the sequences found by a decoder which only
+   * keeps the probabilities of the chosen outcomes, such as the OpenNLP
+   * {@code BeamSearch}.
+   *
+   * @param someSequences
+   *          the sequences, best first
+   * @param k
+   *          the number of sequences and outcomes per token to keep
+   * @return the alternatives
+   */
+  public static SequenceAlternatives fromSequences(
+      final Sequence[] someSequences, final int k) {
+    final Sequence[] kBest = new Sequence[Math.min(k, someSequences.length)];
+    System.arraycopy(someSequences, 0, kBest, 0, kBest.length);
+    final double[] weights = getWeights(kBest);
+    final int length = kBest[0].getOutcomes().size();
+    final List<Map<String, Double>> marginals = newMarginals(length);
+    for (int h = 0; h < kBest.length; h++) {
+      final List<String> sequenceOutcomes = kBest[h].getOutcomes();
+      final double[] sequenceProbs = kBest[h].getProbs();
+      for (int i = 0; i < length; i++) {
+        addMarginal(marginals.get(i), sequenceOutcomes.get(i), weights[h]
+            * sequenceProbs[i]);
+      }
+    }
+    return create(kBest, marginals, k);
+  }
+
+  /**
+   * Get the weight of each sequence: its probability normalized over the
+   * sequences.
+   *
+   * @param someSequences
+   *          the sequences, best first
+   * @return the weights
+   */
+  static double[] getWeights(final Sequence[] someSequences) {
+    final double[] weights = new double[someSequences.length];
+    double sum = 0;
+    for (int h = 0; h < someSequences.length; h++) {
+      weights[h] = Math.exp(someSequences[h].getScore()
+          - someSequences[0].getScore());
+      sum += weights[h];
+    }
+    for (int h = 0; h < someSequences.length; h++) {
+      weights[h] /= sum;
+    }
+    return weights;
+  }
+
+  /**
+   * Create the empty marginals of a sentence.
+   *
+   * @param length
+   *          the number of tokens
+   * @return the marginals of each token, by outcome
+   */
+  static List<Map<String, Double>> newMarginals(final int length) {
+    final List<Map<String, Double>> marginals = new ArrayList<Map<String, Double>>(
+        length);
+    for (int i = 0; i < length; i++) {
+      marginals.add(new LinkedHashMap<String, Double>());
+    }
+    return marginals;
+  }
+
+  /**
+   * Add the weighted probability of an outcome to the marginals of a token.
+   *
+   * @param marginals
+   *          the marginals of the token
+   * @param outcome
+   *          the outcome
+   * @param prob
+   *          the weighted probability
+   */
+  static void addMarginal(final Map<String, Double> marginals,
+      final String outcome, final double prob) {
+    final Double marginal = marginals.get(outcome);
+    marginals.put(outcome, marginal == null ? prob : marginal + prob);
+  }
+
+  /**
+   * Create the alternatives of a sentence from its marginals, keeping the k
+   * most probable outcomes of each token.
+   *
+   * @param someSequences
+   *          the k best sequences, best first
+   * @param marginals
+   *          the marginals of each token, by outcome
+   * @param k
+   *          the number of outcomes per token to keep
+   * @return the alternatives
+   */
+  static SequenceAlternatives create(final Sequence[] someSequences,
+      final List<Map<String, Double>> marginals, final int k) {
+    final List<String> best = someSequences[0].getOutcomes();
+    final String[][] someOutcomes = new String[marginals.size()][];
+    final double[][] someProbs = new double[marginals.size()][];
+    final double[] someConfidences = new double[marginals.size()];
+    for (int i = 0; i < marginals.size(); i++) {
+      final List<Map.Entry<String, Double>> entries = new ArrayList<Map.Entry<String, Double>>(
+          marginals.get(i).entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+        public int compare(final Map.Entry<String, Double> e1,
+            final Map.Entry<String, Double> e2) {
+          return Double.compare(e2.getValue(), e1.getValue());
+        }
+      });
+      final int size = Math.min(k, entries.size());
+      someOutcomes[i] = new String[size];
+      someProbs[i] = new double[size];
+      for (int j = 0; j < size; j++) {
+        someOutcomes[i][j] = entries.get(j).getKey();
+        someProbs[i][j] = entries.get(j).getValue();
+      }
+      someConfidences[i] = marginals.get(i).get(best.get(i));
+    }
+    return new SequenceAlternatives(someSequences, someOutcomes, someProbs,
+        someConfidences);
+  }
+
+  /**
+   * Get the number of tokens.
+   *
+   * @return the number of tokens
+   */
+  public final int size() {
+    return this.bestOutcomes.length;
+  }
+
+  /**
+   * Get the k best sequences; they are the output of the decoder, not
+   * changed by {@link #pin(int, String)}.
+   *
+   * @return the sequences, best first
+   */
+  public final Sequence[] getSequences() {
+    return this.sequences;
+  }
+
+  /**
+   * Get the outcome of each token in the best sequence, or the pinned
+   * outcome.
+   *
+   * @return a copy of the outcomes
+   */
+  public final String[] getBestOutcomes() {
+    return this.bestOutcomes.clone();
+  }
+
+  /**
+   * Get the outcome of a token in the best sequence, or the pinned outcome.
+   *
+   * @param i
+   *          the token index
+   * @return the outcome
+   */
+  public final String getBestOutcome(final int i) {
+    return this.bestOutcomes[i];
+  }
+
+  /**
+   * Get the most probable outcomes of a token.
+   *
+   * @param i
+   *          the token index
+   * @return the outcomes, most probable first
+   */
+  public final String[] getOutcomes(final int i) {
+    return this.outcomes[i];
+  }
+
+  /**
+   * Get the marginal probabilities of the most probable outcomes of a token.
+   *
+   * @param i
+   *          the token index
+   * @return the probabilities, in the order of {@link #getOutcomes(int)}
+   */
+  public final double[] getProbs(final int i) {
+    return this.probs[i];
+  }
+
+  /**
+   * Get the marginal probability of the outcome of a token in the best
+   * sequence, 1.0 if the outcome is pinned.
+   *
+   * @param i
+   *          the token index
+   * @return the confidence
+   */
+  public final double getConfidence(final int i) {
+    return this.confidences[i];
+  }
+
+  /**
+   * Pin the outcome of a token, e.g., given by a dictionary: it becomes its
+   * only alternative, with probability 1.0.
+   *
+   * @param i
+   *          the token index
+   * @param outcome
+   *          the outcome
+   */
+  public final void pin(final int i, final String outcome) {
+    this.bestOutcomes[i] = outcome;
+    this.outcomes[i] = new String[] { outcome };
+    this.probs[i] = new double[] { 1.0 };
+    this.confidences[i] = 1.0;
+  }
+
+}
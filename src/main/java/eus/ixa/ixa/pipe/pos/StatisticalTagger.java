@@ -15,17 +15,25 @@
 
 package eus.ixa.ixa.pipe.pos;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+import opennlp.tools.postag.DefaultPOSSequenceValidator;
+import opennlp.tools.postag.POSContextGenerator;
 import opennlp.tools.postag.POSModel;
 import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.postag.TagDictionary;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+import eus.ixa.ixa.pipe.pos.train.BaselineContextGenerator;
 
 /**
  * POS tagging module based on Apache OpenNLP machine learning API.
@@ -41,14 +49,58 @@ public class StatisticalTagger {
    */
   private final POSTaggerME posTagger;
   /**
-   * The models to use for every language. The keys of the hashmap are the language
-   * codes, the values the models.
+   * The model wrapped by the morpho tagger.
    */
-  private static ConcurrentHashMap<String, POSModel> posModels = new ConcurrentHashMap<String, POSModel>();
+  private final POSModel posModel;
+  /**
+   * The registry of models, shared by every instance. Models are identified by
+   * path and checksum, so several models of the same language can be in use.
+   */
+  private static final ModelRegistry<POSModel> MODELS = new ModelRegistry<POSModel>(
+      new ModelRegistry.ModelLoader<POSModel>() {
+        public POSModel load(final File modelFile) throws IOException {
+          final long lStartTime = new Date().getTime();
+          final POSModel model = CompiledModels.isCompiled(modelFile) ? CompiledModels
+              .loadPOSModel(modelFile) : new POSModel(modelFile);
+          final long lEndTime = new Date().getTime();
+          final long difference = lEndTime - lStartTime;
+          System.err.println("ixa-pipe-pos model loaded in: " + difference
+              + " miliseconds ... [DONE]");
+          return model;
+        }
+      });
+  /**
+   * The handle to the model in the registry, null if the model was not
+   * obtained from the registry.
+   */
+  private final ModelRegistry.Handle<POSModel> modelHandle;
   /**
    * The morpho factory.
    */
   private MorphoFactory morphoFactory;
+  /**
+   * The number of previous tags seen by the features of the POS context
+   * generators, used by the Viterbi decoder.
+   */
+  public static final int ORDER = 2;
+  /**
+   * The decoder of the decoding strategy, null if decoding with the beam
+   * search of the {@code POSTaggerME}.
+   */
+  private SequenceClassificationModel<String> decoder;
+  /**
+   * The context generator used with the decoder.
+   */
+  private POSContextGenerator contextGenerator;
+  /**
+   * The sequence validator used with the decoder.
+   */
+  private SequenceValidator<String> sequenceValidator;
+  /**
+   * The beam search over feature ids, null if the model or its context
+   * generator do not support feature ids.
+   */
+  private FeatureIdBeamSearch featureIdDecoder;
 
   /**
    * Construct a morphotagger.
@@ -57,10 +109,11 @@ public class StatisticalTagger {
    *          the properties object
    */
   public StatisticalTagger(final Properties props) {
-    final String lang = props.getProperty("language");
     final String model = props.getProperty("model");
-    final POSModel posModel = loadModel(lang, model);
-    this.posTagger = new POSTaggerME(posModel);
+    this.modelHandle = loadModel(model);
+    this.posModel = this.modelHandle.get();
+    this.posTagger = new POSTaggerME(this.posModel);
+    createDecoder(DecodingStrategy.parse(props.getProperty("decoding")), null);
   }
 
   /**
@@ -72,11 +125,179 @@ public class StatisticalTagger {
    *          the morpho factory
    */
   public StatisticalTagger(final Properties props, final MorphoFactory aMorphoFactory) {
-    final String lang = props.getProperty("language");
     final String model = props.getProperty("model");
-    final POSModel posModel = loadModel(lang, model);
-    this.posTagger = new POSTaggerME(posModel);
+    this.modelHandle = loadModel(model);
+    this.posModel = this.modelHandle.get();
+    this.posTagger = new POSTaggerME(this.posModel);
+    createDecoder(DecodingStrategy.parse(props.getProperty("decoding")), null);
+    this.morphoFactory = aMorphoFactory;
+  }
+
+  /**
+   * Construct a morphotagger over an already loaded model. The
+   * {@code POSTaggerME} is not thread-safe, but several morphotaggers can share
+   * the same {@link POSModel}.
+   * 
+   * @param aPosModel
+   *          the model
+   * @param aMorphoFactory
+   *          the morpho factory
+   */
+  public StatisticalTagger(final POSModel aPosModel,
+      final MorphoFactory aMorphoFactory) {
+    this(aPosModel, aMorphoFactory, DecodingStrategy
+        .parse(DecodingStrategy.DEFAULT_DECODING));
+  }
+
+  /**
+   * Construct a morphotagger over an already loaded model with a decoding
+   * strategy.
+   * 
+   * @param aPosModel
+   *          the model
+   * @param aMorphoFactory
+   *          the morpho factory
+   * @param decoding
+   *          the decoding strategy
+   */
+  public StatisticalTagger(final POSModel aPosModel,
+      final MorphoFactory aMorphoFactory, final DecodingStrategy decoding) {
+    this(aPosModel, aMorphoFactory, decoding, null);
+  }
+
+  /**
+   * Construct a morphotagger over an already loaded model with a decoding
+   * strategy, scoring only the tags allowed by a tag dictionary for the
+   * tokens it knows. The tags of the other tokens are scored as usual.
+   * Only the beam search over perceptron and maxent models is constrained.
+   * 
+   * @param aPosModel
+   *          the model
+   * @param aMorphoFactory
+   *          the morpho factory
+   * @param decoding
+   *          the decoding strategy
+   * @param tagConstraints
+   *          the tag dictionary restricting the tags scored, null to score
+   *          every tag
+   */
+  public StatisticalTagger(final POSModel aPosModel,
+      final MorphoFactory aMorphoFactory, final DecodingStrategy decoding,
+      final TagDictionary tagConstraints) {
+    this.modelHandle = null;
+    this.posModel = aPosModel;
+    this.posTagger = new POSTaggerME(this.posModel);
     this.morphoFactory = aMorphoFactory;
+    createDecoder(decoding, tagConstraints);
+  }
+
+  /**
+   * Create the decoder of a decoding strategy other than the default beam
+   * search of the model. {@code POSTaggerME} always decodes with the beam
+   * size stored in the model, so the other strategies are decoded here over
+   * the event model, with the context generator and the sequence validator
+   * (tag dictionary) of the model.
+   * 
+   * @param decoding
+   *          the decoding strategy
+   * @param tagConstraints
+   *          the tag dictionary restricting the tags scored, null if none
+   */
+  private void createDecoder(final DecodingStrategy decoding,
+      final TagDictionary tagConstraints) {
+    int defaultBeamSize = POSTaggerME.DEFAULT_BEAM_SIZE;
+    final String beamSizeString = this.posModel
+        .getManifestProperty(BeamSearch.BEAM_SIZE_PARAMETER);
+    if (beamSizeString != null) {
+      defaultBeamSize = Integer.parseInt(beamSizeString);
+    }
+    final int beamSize = decoding.getBeamSize(defaultBeamSize);
+    if (decoding.getType() == DecodingStrategy.Type.BEAM
+        && createFeatureIdDecoder(beamSize, tagConstraints)) {
+      return;
+    }
+    if (tagConstraints != null) {
+      System.err.println("WARNING: tag constraints only available for beam "
+          + "search over perceptron or maxent models, scoring every tag");
+    }
+    if (decoding.getType() == DecodingStrategy.Type.BEAM
+        && beamSize == defaultBeamSize) {
+      return;
+    }
+    final MaxentModel maxentModel = getMaxentModel(this.posModel);
+    if (maxentModel == null) {
+      System.err.println("WARNING: " + decoding
+          + " decoding not available for sequence models, using beam search");
+      return;
+    }
+    this.decoder = decoding.createDecoder(maxentModel, ORDER, defaultBeamSize);
+    this.contextGenerator = this.posModel.getFactory().getPOSContextGenerator(
+        decoding.getType() == DecodingStrategy.Type.BEAM ? beamSize : 0);
+    this.sequenceValidator = this.posModel.getFactory().getSequenceValidator();
+  }
+
+  /**
+   * Create the beam search over feature ids, which decodes as the beam search
+   * of {@code POSTaggerME} without allocating feature strings and hypotheses.
+   * It requires a perceptron or maxent model, the
+   * {@link BaselineContextGenerator} and the default sequence validator.
+   * 
+   * @param beamSize
+   *          the beam size
+   * @param tagConstraints
+   *          the tag dictionary restricting the tags scored instead of the
+   *          tag dictionary of the model, null if none
+   * @return true if the decoder was created
+   */
+  private boolean createFeatureIdDecoder(final int beamSize,
+      final TagDictionary tagConstraints) {
+    final MaxentModel maxentModel = getMaxentModel(this.posModel);
+    if (maxentModel == null
+        || this.posModel.getFactory().getSequenceValidator().getClass() != DefaultPOSSequenceValidator.class) {
+      return false;
+    }
+    final POSContextGenerator generator = this.posModel.getFactory()
+        .getPOSContextGenerator(0);
+    final FeatureIdModel featureIdModel = IndexedMaxentModel
+        .getFeatureIdModel(maxentModel);
+    if (!(generator instanceof BaselineContextGenerator)
+        || featureIdModel == null) {
+      return false;
+    }
+    if (tagConstraints != null) {
+      this.featureIdDecoder = new FeatureIdBeamSearch(featureIdModel,
+          (BaselineContextGenerator) generator, tagConstraints, beamSize, true);
+    } else {
+      this.featureIdDecoder = new FeatureIdBeamSearch(featureIdModel,
+          (BaselineContextGenerator) generator, this.posModel.getFactory()
+              .getTagDictionary(), beamSize);
+    }
+    return true;
+  }
+
+  /**
+   * Get the perceptron or maxent model of a POS model package, as the
+   * deprecated {@code POSModel.getPosModel()} does.
+   * 
+   * @param aPosModel
+   *          the POS model package
+   * @return the model, null if the package holds a sequence model
+   */
+  public static MaxentModel getMaxentModel(final POSModel aPosModel) {
+    final Object artifact = aPosModel
+        .getArtifact(POSModel.POS_MODEL_ENTRY_NAME);
+    return artifact instanceof MaxentModel ? (MaxentModel) artifact : null;
+  }
+
+  /**
+   * Get the beam search over feature ids, e.g., to decode tags and lemmas
+   * jointly with a {@link JointDecoder}.
+   * 
+   * @return the beam search, null if the decoding strategy, the model or its
+   *         context generator do not support feature ids
+   */
+  public final FeatureIdBeamSearch getFeatureIdDecoder() {
+    return this.featureIdDecoder;
   }
 
   /**
@@ -101,12 +322,64 @@ public class StatisticalTagger {
    * @return a list containing the postags
    */
   public final List<String> posAnnotate(final String[] tokens) {
-    final String[] annotatedText = this.posTagger.tag(tokens);
+    final String[] annotatedText = tag(tokens);
     final List<String> posTags = new ArrayList<String>(
         Arrays.asList(annotatedText));
     return posTags;
   }
 
+  /**
+   * Produce postags from a tokenized sentence.
+   * 
+   * @param tokens
+   *          the sentence
+   * @return the array of postags
+   */
+  public final String[] tag(final String[] tokens) {
+    if (this.featureIdDecoder != null) {
+      final String[] tags = this.featureIdDecoder.bestSequence(tokens, null);
+      if (tags != null) {
+        return tags;
+      }
+    }
+    if (this.decoder == null) {
+      return this.posTagger.tag(tokens);
+    }
+    final List<String> tags = this.decoder.bestSequence(tokens, null,
+        this.contextGenerator, this.sequenceValidator).getOutcomes();
+    return tags.toArray(new String[tags.size()]);
+  }
+
+  /**
+   * Produce the k best sequences of postags of a tokenized sentence and the
+   * most probable postags of each token, with their marginal probabilities,
+   * in a single decoding pass. The greedy and Viterbi decoders only find the
+   * best sequence.
+   * 
+   * @param tokens
+   *          the sentence
+   * @param k
+   *          the number of sequences and postags per token to keep
+   * @return the postag alternatives
+   */
+  public final SequenceAlternatives tag(final String[] tokens, final int k) {
+    if (this.featureIdDecoder != null) {
+      final SequenceAlternatives alternatives = this.featureIdDecoder
+          .bestSequences(tokens, null, k);
+      if (alternatives != null) {
+        return alternatives;
+      }
+    }
+    final Sequence[] sequences;
+    if (this.decoder == null) {
+      sequences = this.posTagger.topKSequences(tokens);
+    } else {
+      sequences = this.decoder.bestSequences(k, tokens, null,
+          this.contextGenerator, this.sequenceValidator);
+    }
+    return SequenceAlternatives.fromSequences(sequences, k);
+  }
+
   /**
    * Create {@code Morpheme} objects from the output of posAnnotate.
    * 
@@ -129,31 +402,47 @@ public class StatisticalTagger {
   }
 
   /**
-   * Loads statically the probabilistic model. Every instance of this finder
-   * will share the same model.
+   * Get the model used by this morphotagger.
+   * 
+   * @return the model
+   */
+  public final POSModel getModel() {
+    return this.posModel;
+  }
+
+  /**
+   * Release the model in the registry, if it was obtained from it. The model
+   * is unloaded once no other instance uses it.
+   */
+  public final void release() {
+    if (this.modelHandle != null) {
+      this.modelHandle.release();
+    }
+  }
+
+  /**
+   * Get the registry of models shared by every instance.
+   * 
+   * @return the model registry
+   */
+  public static ModelRegistry<POSModel> getModelRegistry() {
+    return MODELS;
+  }
+
+  /**
+   * Leases the probabilistic model from the registry. Every instance using the
+   * same model file will share the same model.
    * 
-   * @param lang
-   *          the language
    * @param model
    *          the model to be loaded
-   * @return the model as a {@link POSModel} object
+   * @return the handle to the model
    */
-  private POSModel loadModel(final String lang, final String model) {
-    final long lStartTime = new Date().getTime();
+  private ModelRegistry.Handle<POSModel> loadModel(final String model) {
     try {
-      synchronized (posModels) {
-        if (!posModels.containsKey(lang)) {
-          posModels.put(lang, new POSModel(new FileInputStream(model)));
-        }
-      }
+      return MODELS.acquire(model);
     } catch (final IOException e) {
-      e.printStackTrace();
+      throw new IllegalArgumentException("Could not load model " + model, e);
     }
-    final long lEndTime = new Date().getTime();
-    final long difference = lEndTime - lStartTime;
-    System.err.println("ixa-pipe-pos model loaded in: " + difference
-        + " miliseconds ... [DONE]");
-    return posModels.get(lang);
   }
 
 }
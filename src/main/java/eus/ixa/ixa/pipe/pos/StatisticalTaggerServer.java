@@ -28,6 +28,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.jdom2.JDOMException;
 
@@ -53,6 +55,10 @@ public class StatisticalTaggerServer {
    * The annotation output format, one of NAF (default) or tabulated.
    */
   private String outputFormat = null;
+  /**
+   * The answer to the clients while the models are being loaded.
+   */
+  public static final String NOT_READY = "\n-> ERROR: Server not ready, models are still loading!!\n";
   
   /**
    * Construct a MorphoTagger server.
@@ -71,9 +77,11 @@ public class StatisticalTaggerServer {
     Socket activeSocket;
     BufferedReader inFromClient = null;
     BufferedWriter outToClient = null;
+    Annotate annotator = null;
 
     try {
-      Annotate annotator = new Annotate(properties);
+      // load the models in the background while the port is opened
+      Future<Annotate> futureAnnotator = Annotate.createAsync(properties);
       System.out.println("-> Trying to listen port... " + port);
       socketServer = new ServerSocket(port);
       System.out.println("-> Connected and listening to port " + port);
@@ -84,6 +92,15 @@ public class StatisticalTaggerServer {
           outToClient = new BufferedWriter(new OutputStreamWriter(activeSocket.getOutputStream(), "UTF-8"));
           //get data from client
           String stringFromClient = getClientData(inFromClient);
+          if (annotator == null) {
+            if (!futureAnnotator.isDone()) {
+              kafToString = NOT_READY;
+              sendDataToClient(outToClient, kafToString);
+              activeSocket.close();
+              continue;
+            }
+            annotator = getAnnotator(futureAnnotator);
+          }
           // annotate
           kafToString = getAnnotations(annotator, stringFromClient);
         } catch (JDOMException e) {
@@ -109,6 +126,9 @@ public class StatisticalTaggerServer {
       e.printStackTrace();
       System.err.println("-> IOException due to failing to create the TCP socket or to wrongly provided model path.");
     } finally {
+      if (annotator != null) {
+        annotator.close();
+      }
       System.out.println("closing tcp socket...");
       try {
         socketServer.close();
@@ -118,6 +138,28 @@ public class StatisticalTaggerServer {
     }
   }
   
+  /**
+   * Get the annotator once its resources are loaded. Exits if they could not
+   * be loaded.
+   * @param futureAnnotator the annotator being loaded
+   * @return the annotator
+   */
+  private Annotate getAnnotator(Future<Annotate> futureAnnotator) {
+    try {
+      Annotate annotator = futureAnnotator.get();
+      System.out.println("-> Models loaded " + annotator.getLoadTimes() + ", ready to annotate");
+      return annotator;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+      System.err.println("-> ERROR: Models could not be loaded, wrongly provided model path?");
+      System.exit(1);
+      return null;
+    }
+  }
+
   /**
    * Read data from the client and output to a String.
    * @param inFromClient the client inputstream
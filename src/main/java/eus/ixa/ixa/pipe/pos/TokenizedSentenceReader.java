@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package eus.ixa.ixa.pipe.pos;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Reads already tokenized text one sentence at a time, so that arbitrarily
+ * large corpora can be annotated in constant memory. Two formats are
+ * supported:
+ * <ul>
+ * <li>conll: one token per line, the token being the first tab-separated
+ * column; sentences are separated by empty lines.</li>
+ * <li>tokenized: one sentence per line, tokens separated by whitespace; empty
+ * lines are skipped.</li>
+ * </ul>
+ * 
+ * @author ragerri
+ * @version 2016-05-18
+ */
+public class TokenizedSentenceReader {
+
+  /**
+   * The CoNLL format.
+   */
+  public static final String CONLL_FORMAT = "conll";
+  /**
+   * The one sentence per line format.
+   */
+  public static final String TOKENIZED_FORMAT = "tokenized";
+  /**
+   * Whitespace regexp.
+   */
+  private static final Pattern spacePattern = Pattern.compile("\\s+");
+  /**
+   * Tab regexp.
+   */
+  private static final Pattern tabPattern = Pattern.compile("\t");
+  /**
+   * The input.
+   */
+  private final BufferedReader reader;
+  /**
+   * Whether the input is in CoNLL format.
+   */
+  private final boolean conll;
+
+  /**
+   * Construct a sentence reader.
+   * 
+   * @param aReader
+   *          the input
+   * @param format
+   *          the format, one of {@value #CONLL_FORMAT} or
+   *          {@value #TOKENIZED_FORMAT}
+   */
+  public TokenizedSentenceReader(final BufferedReader aReader,
+      final String format) {
+    if (format.equalsIgnoreCase(CONLL_FORMAT)) {
+      this.conll = true;
+    } else if (format.equalsIgnoreCase(TOKENIZED_FORMAT)) {
+      this.conll = false;
+    } else {
+      throw new IllegalArgumentException("Unknown input format: " + format);
+    }
+    this.reader = aReader;
+  }
+
+  /**
+   * Read the next sentence.
+   * 
+   * @return the tokens of the sentence or null at the end of the input
+   * @throws IOException
+   *           if io problems
+   */
+  public final String[] read() throws IOException {
+    if (this.conll) {
+      return readCoNLL();
+    }
+    String line;
+    while ((line = this.reader.readLine()) != null) {
+      line = line.trim();
+      if (!line.isEmpty()) {
+        return spacePattern.split(line);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Read the next sentence in CoNLL format.
+   * 
+   * @return the tokens of the sentence or null at the end of the input
+   * @throws IOException
+   *           if io problems
+   */
+  private String[] readCoNLL() throws IOException {
+    final List<String> tokens = new ArrayList<String>();
+    String line;
+    while ((line = this.reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        if (!tokens.isEmpty()) {
+          break;
+        }
+      } else {
+        tokens.add(tabPattern.split(line, 2)[0].trim());
+      }
+    }
+    if (tokens.isEmpty()) {
+      return null;
+    }
+    return tokens.toArray(new String[tokens.size()]);
+  }
+}
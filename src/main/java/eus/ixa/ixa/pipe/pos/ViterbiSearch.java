@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.ml.model.SequenceClassificationModel;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+
+/**
+ * Exact decoding of the sequence maximizing the sum of the log probabilities
+ * of its outcomes, the objective approximated by the beam search. It holds
+ * for models whose features only look at the last {@code order} decisions,
+ * e.g., the previous two tags of the POS tagger or the previous lemma class
+ * of the lemmatizer: every hypothesis ending with the same {@code order}
+ * outcomes is then scored alike from there on and only the best one is kept.
+ * <p>
+ * The context generator sees the last {@code order} decisions; earlier
+ * positions of the prior decisions are null. The search evaluates the model
+ * once per distinct history, i.e., up to {@code outcomes^order} times per
+ * token, so it is much slower than the beam search for large tagsets.
+ *
+ * @author ragerri
+ * @version 2016-05-22
+ */
+public class ViterbiSearch implements SequenceClassificationModel<String> {
+
+  /**
+   * The event model.
+   */
+  private final MaxentModel model;
+  /**
+   * The number of previous decisions in a history.
+   */
+  private final int order;
+  /**
+   * The number of distinct histories, used to encode them as numbers.
+   */
+  private final long numHistories;
+
+  /**
+   * Construct a Viterbi decoder.
+   *
+   * @param aModel
+   *          the event model
+   * @param anOrder
+   *          the number of previous decisions seen by the features
+   */
+  public ViterbiSearch(final MaxentModel aModel, final int anOrder) {
+    if (anOrder < 0) {
+      throw new IllegalArgumentException("Wrong Viterbi order " + anOrder);
+    }
+    this.model = aModel;
+    this.order = anOrder;
+    // every position of the history is an outcome or the sentence start
+    final long base = aModel.getNumOutcomes() + 1;
+    long histories = 1;
+    for (int i = 0; i < anOrder; i++) {
+      if (histories > Long.MAX_VALUE / base / base) {
+        throw new IllegalArgumentException("Too many outcomes for a Viterbi"
+            + " search of order " + anOrder);
+      }
+      histories *= base;
+    }
+    this.numHistories = histories;
+  }
+
+  public final Sequence bestSequence(final String[] sequence,
+      final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> cg,
+      final SequenceValidator<String> validator) {
+    final int numOutcomes = this.model.getNumOutcomes();
+    Map<Long, Node> states = new HashMap<Long, Node>();
+    states.put(0L, new Node(null, -1, 1.0, 0.0));
+    for (int i = 0; i < sequence.length; i++) {
+      final Map<Long, Node> nextStates = new HashMap<Long, Node>();
+      for (final Map.Entry<Long, Node> state : states.entrySet()) {
+        final Node node = state.getValue();
+        final String[] priorDecisions = getPriorDecisions(node, i);
+        final double[] probs = this.model.eval(cg.getContext(i, sequence,
+            priorDecisions, additionalContext));
+        for (int oi = 0; oi < numOutcomes; oi++) {
+          if (validator != null
+              && !validator.validSequence(i, sequence, priorDecisions,
+                  this.model.getOutcome(oi))) {
+            continue;
+          }
+          final double score = node.score + Math.log(probs[oi]);
+          final long history = (state.getKey() * (numOutcomes + 1) + oi + 1)
+              % this.numHistories;
+          final Node best = nextStates.get(history);
+          if (best == null || score > best.score) {
+            nextStates.put(history, new Node(node, oi, probs[oi], score));
+          }
+        }
+      }
+      if (nextStates.isEmpty()) {
+        // no valid sequence
+        return null;
+      }
+      states = nextStates;
+    }
+    Node best = null;
+    for (final Node node : states.values()) {
+      if (best == null || node.score > best.score) {
+        best = node;
+      }
+    }
+    return toSequence(best, sequence.length);
+  }
+
+  /**
+   * Get the prior decisions seen by the context generator: the last
+   * {@code order} outcomes of a hypothesis.
+   *
+   * @param node
+   *          the last node of the hypothesis
+   * @param length
+   *          the number of decisions of the hypothesis
+   * @return the decisions, null beyond the order
+   */
+  private String[] getPriorDecisions(final Node node, final int length) {
+    final String[] priorDecisions = new String[length];
+    Node current = node;
+    for (int i = length - 1; i >= 0 && i >= length - this.order; i--) {
+      priorDecisions[i] = this.model.getOutcome(current.outcome);
+      current = current.prev;
+    }
+    return priorDecisions;
+  }
+
+  /**
+   * Build the sequence ending with a node.
+   *
+   * @param last
+   *          the last node
+   * @param length
+   *          the length of the sequence
+   * @return the sequence
+   */
+  private Sequence toSequence(final Node last, final int length) {
+    final Node[] path = new Node[length];
+    Node current = last;
+    for (int i = length - 1; i >= 0; i--) {
+      path[i] = current;
+      current = current.prev;
+    }
+    final Sequence sequence = new Sequence();
+    for (final Node node : path) {
+      sequence.add(this.model.getOutcome(node.outcome), node.prob);
+    }
+    return sequence;
+  }
+
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final double minSequenceScore,
+      final BeamSearchContextGenerator<String> cg,
+      final SequenceValidator<String> validator) {
+    // only the best sequence is kept by the search
+    final Sequence best = bestSequence(sequence, additionalContext, cg,
+        validator);
+    return best == null || best.getScore() < minSequenceScore ? new Sequence[0]
+        : new Sequence[] { best };
+  }
+
+  public final Sequence[] bestSequences(final int numSequences,
+      final String[] sequence, final Object[] additionalContext,
+      final BeamSearchContextGenerator<String> cg,
+      final SequenceValidator<String> validator) {
+    return bestSequences(numSequences, sequence, additionalContext,
+        -Double.MAX_VALUE, cg, validator);
+  }
+
+  public final String[] getOutcomes() {
+    final String[] outcomes = new String[this.model.getNumOutcomes()];
+    for (int i = 0; i < outcomes.length; i++) {
+      outcomes[i] = this.model.getOutcome(i);
+    }
+    return outcomes;
+  }
+
+  /**
+   * The best hypothesis ending in a given history.
+   */
+  private static class Node {
+
+    /**
+     * The previous node, null at the sentence start.
+     */
+    private final Node prev;
+    /**
+     * The outcome index, -1 at the sentence start.
+     */
+    private final int outcome;
+    /**
+     * The probability of the outcome.
+     */
+    private final double prob;
+    /**
+     * The log probability of the hypothesis.
+     */
+    private final double score;
+
+    /**
+     * Construct a node.
+     *
+     * @param aPrev
+     *          the previous node
+     * @param anOutcome
+     *          the outcome index
+     * @param aProb
+     *          the probability of the outcome
+     * @param aScore
+     *          the log probability of the hypothesis
+     */
+    Node(final Node aPrev, final int anOutcome, final double aProb,
+        final double aScore) {
+      this.prev = aPrev;
+      this.outcome = anOutcome;
+      this.prob = aProb;
+      this.score = aScore;
+    }
+  }
+
+}
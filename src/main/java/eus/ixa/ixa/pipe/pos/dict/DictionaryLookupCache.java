@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos.dict;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Memoizes the results of a FSA dictionary lookup keyed by the lowercased word
+ * form and the postag. Word frequencies are Zipfian, so a few thousand forms
+ * answer most lookups. The cache is bounded by an approximate memory budget,
+ * evicting the least recently used entries, and it can be shared by every
+ * annotator thread.
+ *
+ * @author ragerri
+ * @version 2016-05-17
+ */
+public class DictionaryLookupCache {
+
+  /**
+   * The default memory budget of each dictionary cache in megabytes.
+   */
+  public static final String DEFAULT_CACHE_MB = "8";
+  /**
+   * The estimated size in bytes of a cache entry, excluding the characters of
+   * the key and value strings.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * The cached lookups.
+   */
+  private final Cache<String, String> lookups;
+
+  /**
+   * Construct a dictionary lookup cache.
+   *
+   * @param memoryBudget
+   *          the approximate maximum size of the cache in bytes
+   */
+  public DictionaryLookupCache(final long memoryBudget) {
+    this.lookups = CacheBuilder.newBuilder().maximumWeight(memoryBudget)
+        .weigher(new Weigher<String, String>() {
+          public int weigh(final String key, final String value) {
+            return ENTRY_OVERHEAD + 2 * (key.length() + value.length());
+          }
+        }).recordStats().build();
+  }
+
+  /**
+   * Get the cached result of a lookup.
+   *
+   * @param word
+   *          the lowercased word form
+   * @param postag
+   *          the postag
+   * @return the result or null if not cached
+   */
+  public final String get(final String word, final String postag) {
+    return this.lookups.getIfPresent(getKey(word, postag));
+  }
+
+  /**
+   * Cache the result of a lookup.
+   *
+   * @param word
+   *          the lowercased word form
+   * @param postag
+   *          the postag
+   * @param result
+   *          the result of the lookup
+   */
+  public final void put(final String word, final String postag,
+      final String result) {
+    this.lookups.put(getKey(word, postag), result);
+  }
+
+  /**
+   * Get the fraction of lookups answered by the cache.
+   *
+   * @return the hit rate
+   */
+  public final double getHitRate() {
+    return this.lookups.stats().hitRate();
+  }
+
+  /**
+   * Get the statistics of the cache: hits, misses and evictions.
+   *
+   * @return the statistics
+   */
+  public final CacheStats getStats() {
+    return this.lookups.stats();
+  }
+
+  /**
+   * Get the number of cached lookups.
+   *
+   * @return the number of entries
+   */
+  public final long size() {
+    return this.lookups.size();
+  }
+
+  @Override
+  public final String toString() {
+    final CacheStats stats = this.lookups.stats();
+    return "Dictionary cache: " + stats.hitCount() + " hits, "
+        + stats.missCount() + " misses, " + stats.evictionCount()
+        + " evictions, " + size() + " entries";
+  }
+
+  /**
+   * Build the key of a lookup.
+   *
+   * @param word
+   *          the lowercased word form
+   * @param postag
+   *          the postag
+   * @return the key
+   */
+  private static String getKey(final String word, final String postag) {
+    return word + '\t' + postag;
+  }
+
+}
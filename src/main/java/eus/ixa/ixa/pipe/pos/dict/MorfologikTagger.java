@@ -18,28 +18,37 @@ package eus.ixa.ixa.pipe.pos.dict;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import morfologik.stemming.Dictionary;
 import morfologik.stemming.DictionaryLookup;
 import morfologik.stemming.IStemmer;
 import morfologik.stemming.WordData;
+import opennlp.tools.postag.TagDictionary;
 
 /**
  * POS tagger based on Morfologik Stemming library. It requires a FSA Morfologik
  * dictionary as input. Right now this is only thought to work with monosemic
- * dictionaries.
+ * dictionaries. As a {@link TagDictionary} it gives every postag of a word in
+ * the dictionary, to constrain the statistical tagger.
  * 
  * @author ragerri
  * @version 2014-12-05
  * 
  */
-public class MorfologikTagger implements DictionaryTagger {
+public class MorfologikTagger implements DictionaryTagger, TagDictionary {
 
   /**
-   * The Morfologik steamer to perform pos tagging with FSA dictionaries.
+   * The Morfologik steamer to perform pos tagging with FSA dictionaries, one
+   * per thread over the shared FSA dictionary.
    */
-  private final IStemmer dictLookup;
+  private final ThreadLocal<IStemmer> dictLookup;
+  /**
+   * The cache of lookups, null if not caching.
+   */
+  private final DictionaryLookupCache cache;
 
   /**
    * Reads a dictionary in morfologik FSA format.
@@ -53,7 +62,31 @@ public class MorfologikTagger implements DictionaryTagger {
    */
   public MorfologikTagger(final URL dictURL, final String aLang)
       throws IOException {
-    this.dictLookup = new DictionaryLookup(Dictionary.read(dictURL));
+    this(dictURL, aLang, null);
+  }
+
+  /**
+   * Reads a dictionary in morfologik FSA format, caching the lookups.
+   * 
+   * @param dictURL
+   *          the URL containing the dictionary
+   * @param aLang
+   *          the language
+   * @param aCache
+   *          the cache of lookups, null for no caching
+   * @throws IOException
+   *           throws an exception if dictionary path is not correct
+   */
+  public MorfologikTagger(final URL dictURL, final String aLang,
+      final DictionaryLookupCache aCache) throws IOException {
+    this.cache = aCache;
+    final Dictionary dictionary = Dictionary.read(dictURL);
+    this.dictLookup = new ThreadLocal<IStemmer>() {
+      @Override
+      protected IStemmer initialValue() {
+        return new DictionaryLookup(dictionary);
+      }
+    };
   }
 
   /**
@@ -65,7 +98,29 @@ public class MorfologikTagger implements DictionaryTagger {
    * @return the hashmap with the word as key and the postag as value
    */
   public String tag(final String word, final String posTag) {
-    final List<WordData> wdList = this.dictLookup.lookup(word.toLowerCase());
+    final String lowercaseWord = word.toLowerCase();
+    if (this.cache == null) {
+      return lookup(lowercaseWord, posTag);
+    }
+    String newPosTag = this.cache.get(lowercaseWord, posTag);
+    if (newPosTag == null) {
+      newPosTag = lookup(lowercaseWord, posTag);
+      this.cache.put(lowercaseWord, posTag, newPosTag);
+    }
+    return newPosTag;
+  }
+
+  /**
+   * Look up the postag of a lowercased surface form in the dictionary.
+   * 
+   * @param word
+   *          the lowercased surface form
+   * @param posTag
+   *          the postag to keep if the word is not in the dictionary
+   * @return the postag
+   */
+  private String lookup(final String word, final String posTag) {
+    final List<WordData> wdList = this.dictLookup.get().lookup(word);
     String newPosTag = null;
     for (final WordData wd : wdList) {
       newPosTag = wd.getTag().toString();
@@ -75,4 +130,33 @@ public class MorfologikTagger implements DictionaryTagger {
     }
     return newPosTag;
   }
+
+  /**
+   * Get every postag of a surface form in the dictionary.
+   * 
+   * @param word
+   *          the surface form
+   * @return the postags, null if the word is not in the dictionary
+   */
+  public final String[] getTags(final String word) {
+    final List<WordData> wdList = this.dictLookup.get().lookup(
+        word.toLowerCase());
+    if (wdList.isEmpty()) {
+      return null;
+    }
+    final Set<String> tags = new LinkedHashSet<String>();
+    for (final WordData wd : wdList) {
+      tags.add(wd.getTag().toString());
+    }
+    return tags.toArray(new String[tags.size()]);
+  }
+
+  /**
+   * Get the cache of dictionary lookups.
+   * 
+   * @return the cache or null if not caching
+   */
+  public final DictionaryLookupCache getCache() {
+    return this.cache;
+  }
 }
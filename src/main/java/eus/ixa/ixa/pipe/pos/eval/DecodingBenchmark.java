@@ -0,0 +1,593 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos.eval;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSSample;
+import opennlp.tools.postag.TagDictionary;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.ObjectStream;
+import opennlp.tools.util.SequenceValidator;
+import eus.ixa.ixa.pipe.lemma.EditScriptDecoder;
+import eus.ixa.ixa.pipe.lemma.LemmaSample;
+import eus.ixa.ixa.pipe.lemma.LemmaSampleStream;
+import eus.ixa.ixa.pipe.lemma.LemmatizerME;
+import eus.ixa.ixa.pipe.lemma.LemmatizerModel;
+import eus.ixa.ixa.pipe.lemma.StatisticalLemmatizer;
+import eus.ixa.ixa.pipe.pos.DecodingStrategy;
+import eus.ixa.ixa.pipe.pos.FeatureIdBeamSearch;
+import eus.ixa.ixa.pipe.pos.JointDecoder;
+import eus.ixa.ixa.pipe.pos.ModelRegistry;
+import eus.ixa.ixa.pipe.pos.MorphoFactory;
+import eus.ixa.ixa.pipe.pos.MorphoSampleStream;
+import eus.ixa.ixa.pipe.pos.StatisticalTagger;
+import eus.ixa.ixa.pipe.pos.StringUtils;
+import eus.ixa.ixa.pipe.pos.train.InputOutputUtils;
+
+/**
+ * Compares the decoding strategies of a POS or lemmatizer model on a test
+ * set, reporting the word accuracy and the throughput of each strategy, so
+ * that the strategy of each deployment can be chosen. It also compares the
+ * ways of extracting the features of the beam search: feature strings
+ * recomputed for every hypothesis, feature strings planned per sentence and
+ * feature ids. A POS strategy followed by {@code +tagdict}, e.g.,
+ * {@code beam-3+tagdict}, only scores the tags allowed by the tag dictionary
+ * of the model for the tokens it knows. A lemmatizer strategy followed by
+ * {@code +pruned}, e.g., {@code beam-3+pruned}, only scores the lemma
+ * classes admitted by the suffix and postag of each token by the lemma class
+ * index of the model.
+ * For lemmatizer models, it also compares the decoding of the lemmas from
+ * the lemma classes, and the two-stage pipeline, which lemmatizes the best
+ * postags of a POS model, with the joint decoding of postags and lemma
+ * classes of {@link JointDecoder}.
+ *
+ * @author ragerri
+ * @version 2016-05-24
+ */
+public class DecodingBenchmark {
+
+  /**
+   * The default strategies to compare.
+   */
+  public static final String DEFAULT_STRATEGIES = "greedy,beam-3,beam-10,viterbi";
+  /**
+   * The suffix of the strategies constrained by the tag dictionary.
+   */
+  public static final String TAG_DICTIONARY_SUFFIX = "+tagdict";
+  /**
+   * The suffix of the lemmatizer strategies scoring only the lemma classes of
+   * the lemma class index.
+   */
+  public static final String PRUNED_CLASSES_SUFFIX = "+pruned";
+  /**
+   * The number of times the lemmas of the test set are decoded by the lemma
+   * decoding benchmark.
+   */
+  private static final int LEMMA_DECODING_ROUNDS = 20;
+
+  /**
+   * The tokens of each test sentence.
+   */
+  private final List<String[]> sentences = new ArrayList<String[]>();
+  /**
+   * The postags of each test sentence.
+   */
+  private final List<String[]> tags = new ArrayList<String[]>();
+  /**
+   * The reference of each test sentence, postags or lemma classes.
+   */
+  private final List<String[]> references = new ArrayList<String[]>();
+  /**
+   * The POS model, null if benchmarking a lemmatizer.
+   */
+  private final ModelRegistry.Handle<POSModel> posModel;
+  /**
+   * The lemmatizer model, null if benchmarking a POS tagger.
+   */
+  private final ModelRegistry.Handle<LemmatizerModel> lemmatizerModel;
+  /**
+   * The number of tokens of the test set.
+   */
+  private int numTokens;
+  /**
+   * The time to load the model in milliseconds.
+   */
+  private final long loadTime;
+
+  /**
+   * Construct a benchmark.
+   *
+   * @param component
+   *          pos or lemma
+   * @param testData
+   *          the test set in the format of the component
+   * @param model
+   *          the model
+   * @throws IOException
+   *           if the test set or the model cannot be read
+   */
+  public DecodingBenchmark(final String component, final String testData,
+      final String model) throws IOException {
+    final ObjectStream<String> testStream = InputOutputUtils
+        .readFileIntoMarkableStreamFactory(testData);
+    final long start = System.nanoTime();
+    if (component.equalsIgnoreCase("pos")) {
+      this.posModel = StatisticalTagger.getModelRegistry().acquire(model);
+      this.lemmatizerModel = null;
+      this.loadTime = (System.nanoTime() - start) / 1000000;
+      final ObjectStream<POSSample> samples = new MorphoSampleStream(
+          testStream);
+      POSSample sample;
+      while ((sample = samples.read()) != null) {
+        add(sample.getSentence(), null, sample.getTags());
+      }
+      samples.close();
+    } else {
+      this.posModel = null;
+      this.lemmatizerModel = StatisticalLemmatizer.getModelRegistry().acquire(
+          model);
+      this.loadTime = (System.nanoTime() - start) / 1000000;
+      final ObjectStream<LemmaSample> samples = new LemmaSampleStream(
+          testStream);
+      LemmaSample sample;
+      while ((sample = samples.read()) != null) {
+        add(sample.getTokens(), sample.getTags(), sample.getLemmas());
+      }
+      samples.close();
+    }
+  }
+
+  /**
+   * Add a test sentence.
+   *
+   * @param tokens
+   *          the tokens
+   * @param posTags
+   *          the postags, null if benchmarking a POS tagger
+   * @param reference
+   *          the reference outcomes
+   */
+  private void add(final String[] tokens, final String[] posTags,
+      final String[] reference) {
+    this.sentences.add(tokens);
+    this.tags.add(posTags);
+    this.references.add(reference);
+    this.numTokens += tokens.length;
+  }
+
+  /**
+   * Run the benchmark and print a report line per strategy.
+   *
+   * @param strategies
+   *          the comma separated decoding strategies
+   * @param out
+   *          the stream where the report is printed
+   */
+  public final void benchmark(final String strategies, final PrintStream out) {
+    // warm up the JIT with the fastest strategy before timing
+    decode(DecodingStrategy.parse("greedy"));
+    out.println("Sentences: " + this.sentences.size() + ", tokens: "
+        + this.numTokens);
+    out.println(String.format("%-20s %10s %14s", "decoding", "accuracy",
+        "tokens/sec"));
+    for (final String strategy : strategies.split(",")) {
+      String name = strategy.trim();
+      TagDictionary constraints = null;
+      final boolean pruneClasses = name.endsWith(PRUNED_CLASSES_SUFFIX);
+      if (pruneClasses) {
+        name = name.substring(0, name.length() - PRUNED_CLASSES_SUFFIX.length());
+        if (this.lemmatizerModel == null
+            || this.lemmatizerModel.get().getLemmaClassIndex() == null) {
+          out.println(String.format("%-20s %s", strategy.trim(),
+              "no lemma class index in the model"));
+          continue;
+        }
+      } else if (name.endsWith(TAG_DICTIONARY_SUFFIX)) {
+        name = name.substring(0, name.length() - TAG_DICTIONARY_SUFFIX.length());
+        if (this.posModel == null
+            || this.posModel.get().getFactory().getTagDictionary() == null) {
+          out.println(String.format("%-20s %s", strategy.trim(),
+              "no tag dictionary in the model"));
+          continue;
+        }
+        constraints = this.posModel.get().getFactory().getTagDictionary();
+      }
+      final DecodingStrategy decoding = DecodingStrategy.parse(name);
+      final long start = System.nanoTime();
+      final int correct = decode(decoding, constraints, pruneClasses);
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      out.println(String.format("%-20s %10.4f %14.1f", decoding
+          + (constraints == null ? "" : TAG_DICTIONARY_SUFFIX)
+          + (pruneClasses ? PRUNED_CLASSES_SUFFIX : ""),
+          (double) correct / this.numTokens, this.numTokens / seconds));
+    }
+  }
+
+  /**
+   * Decode the test set with the default decoding strategy, after warming up
+   * the JIT.
+   *
+   * @return the word accuracy and the tokens per second
+   */
+  public final double[] measure() {
+    final DecodingStrategy decoding = DecodingStrategy
+        .parse(DecodingStrategy.DEFAULT_DECODING);
+    decode(decoding);
+    final long start = System.nanoTime();
+    final int correct = decode(decoding);
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    return new double[] { (double) correct / this.numTokens,
+        this.numTokens / seconds };
+  }
+
+  /**
+   * Get the time to load the model, including the checksum of the model
+   * registry.
+   *
+   * @return the time in milliseconds
+   */
+  public final long getLoadTime() {
+    return this.loadTime;
+  }
+
+  /**
+   * Run the feature extraction benchmark and print a report line per way of
+   * extracting the features. Every run uses the beam search with the beam
+   * size of the model.
+   *
+   * @param out
+   *          the stream where the report is printed
+   */
+  public final void benchmarkFeatures(final PrintStream out) {
+    final MaxentModel model;
+    final BeamSearchContextGenerator<String> contextGenerator;
+    final SequenceValidator<String> validator;
+    final String beamSize;
+    if (this.posModel != null) {
+      model = StatisticalTagger.getMaxentModel(this.posModel.get());
+      contextGenerator = this.posModel.get().getFactory()
+          .getPOSContextGenerator(0);
+      validator = this.posModel.get().getFactory().getSequenceValidator();
+      beamSize = this.posModel.get().getManifestProperty(
+          BeamSearch.BEAM_SIZE_PARAMETER);
+    } else {
+      model = this.lemmatizerModel.get().getLemmatizerMaxentModel();
+      contextGenerator = this.lemmatizerModel.get().getFactory()
+          .getContextGenerator();
+      validator = this.lemmatizerModel.get().getFactory()
+          .getSequenceValidator();
+      beamSize = this.lemmatizerModel.get().getManifestProperty(
+          BeamSearch.BEAM_SIZE_PARAMETER);
+    }
+    if (model == null) {
+      out.println("Feature benchmark not available for sequence models");
+      return;
+    }
+    final BeamSearch<String> search = new BeamSearch<String>(
+        beamSize == null ? LemmatizerME.DEFAULT_BEAM_SIZE : Integer
+            .parseInt(beamSize), model);
+    // a new token array per context defeats the sentence plan of the
+    // generator, so every feature is computed for every hypothesis
+    final BeamSearchContextGenerator<String> perHypothesis = new BeamSearchContextGenerator<String>() {
+      public String[] getContext(final int index, final String[] sequence,
+          final String[] priorDecisions, final Object[] additionalContext) {
+        return contextGenerator.getContext(index, sequence.clone(),
+            priorDecisions, additionalContext);
+      }
+    };
+    // warm up the JIT before timing
+    decode(search, contextGenerator, validator);
+    decode(DecodingStrategy.parse(DecodingStrategy.DEFAULT_DECODING));
+    out.println("Sentences: " + this.sentences.size() + ", tokens: "
+        + this.numTokens);
+    out.println(String.format("%-16s %10s %14s", "features", "accuracy",
+        "tokens/sec"));
+    for (final String features : new String[] { "per-hypothesis",
+        "per-sentence", "feature-ids" }) {
+      final long start = System.nanoTime();
+      final int correct;
+      if (features.equals("per-hypothesis")) {
+        correct = decode(search, perHypothesis, validator);
+      } else if (features.equals("per-sentence")) {
+        correct = decode(search, contextGenerator, validator);
+      } else {
+        correct = decode(DecodingStrategy
+            .parse(DecodingStrategy.DEFAULT_DECODING));
+      }
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      out.println(String.format("%-16s %10.4f %14.1f", features,
+          (double) correct / this.numTokens, this.numTokens / seconds));
+    }
+  }
+
+  /**
+   * Run the lemma decoding benchmark and print a report line per lemma
+   * decoder: the edit scripts parsed for every token and the edit scripts
+   * compiled when the model is loaded. Both decode the reference lemma
+   * classes of the test set, so the throughput does not include the
+   * lemmatizer.
+   *
+   * @param out
+   *          the stream where the report is printed
+   */
+  public final void benchmarkLemmaDecoding(final PrintStream out) {
+    if (this.lemmatizerModel == null) {
+      out.println("Lemma decoding benchmark only available for lemmatizer models");
+      return;
+    }
+    final EditScriptDecoder compiled = new EditScriptDecoder(
+        this.lemmatizerModel.get().getLemmatizerSequenceModel().getOutcomes());
+    // warm up the JIT before timing
+    decodeLemmas(null);
+    decodeLemmas(compiled);
+    out.println("Sentences: " + this.sentences.size() + ", tokens: "
+        + this.numTokens + ", compiled lemma classes: " + compiled.size());
+    out.println(String.format("%-16s %14s", "lemma decoding", "tokens/sec"));
+    for (final String decoder : new String[] { "parsed", "compiled" }) {
+      final long start = System.nanoTime();
+      for (int round = 0; round < LEMMA_DECODING_ROUNDS; round++) {
+        decodeLemmas(decoder.equals("parsed") ? null : compiled);
+      }
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      out.println(String.format("%-16s %14.1f", decoder, LEMMA_DECODING_ROUNDS
+          * this.numTokens / seconds));
+    }
+    int same = 0;
+    for (int i = 0; i < this.sentences.size(); i++) {
+      final String[] tokens = this.sentences.get(i);
+      final String[] lemmaClasses = this.references.get(i);
+      for (int j = 0; j < tokens.length; j++) {
+        final String wordForm = tokens[j].toLowerCase();
+        if (StringUtils.decodeShortestEditScript(wordForm, lemmaClasses[j])
+            .equals(compiled.decode(wordForm, lemmaClasses[j]))) {
+          same++;
+        }
+      }
+    }
+    out.println("Identical lemmas: " + same + "/" + this.numTokens);
+  }
+
+  /**
+   * Run the joint decoding benchmark and print a report line for the
+   * two-stage pipeline, which tags every sentence and lemmatizes its best
+   * postags, and for the joint decoding of the postags and lemma classes.
+   * The postags and lemma classes are compared with those of the test set.
+   *
+   * @param posModelFile
+   *          the POS model tagging the test set
+   * @param out
+   *          the stream where the report is printed
+   * @throws IOException
+   *           if the POS model cannot be read
+   */
+  public final void benchmarkJoint(final String posModelFile,
+      final PrintStream out) throws IOException {
+    if (this.lemmatizerModel == null) {
+      out.println("Joint decoding benchmark only available for lemmatizer models");
+      return;
+    }
+    final ModelRegistry.Handle<POSModel> jointPosModel = StatisticalTagger
+        .getModelRegistry().acquire(posModelFile);
+    try {
+      final DecodingStrategy decoding = DecodingStrategy
+          .parse(DecodingStrategy.DEFAULT_DECODING);
+      final StatisticalTagger tagger = new StatisticalTagger(
+          jointPosModel.get(), new MorphoFactory(), decoding);
+      final LemmatizerME lemmatizer = new LemmatizerME(
+          this.lemmatizerModel.get(), decoding);
+      final FeatureIdBeamSearch tagSearch = tagger.getFeatureIdDecoder();
+      final FeatureIdBeamSearch lemmaSearch = lemmatizer.getFeatureIdDecoder();
+      if (tagSearch == null || lemmaSearch == null) {
+        out.println("Joint decoding only available for beam search over perceptron or maxent models");
+        return;
+      }
+      final JointDecoder joint = new JointDecoder(tagSearch, lemmaSearch);
+      // warm up the JIT before timing
+      decodePipeline(tagger, lemmatizer);
+      decodeJoint(joint);
+      out.println("Sentences: " + this.sentences.size() + ", tokens: "
+          + this.numTokens);
+      out.println(String.format("%-16s %10s %10s %14s", "decoding",
+          "postags", "lemmas", "tokens/sec"));
+      for (final String mode : new String[] { "pipeline", "joint" }) {
+        final long start = System.nanoTime();
+        final int[] correct = mode.equals("pipeline") ? decodePipeline(
+            tagger, lemmatizer) : decodeJoint(joint);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format("%-16s %10.4f %10.4f %14.1f", mode,
+            (double) correct[0] / this.numTokens, (double) correct[1]
+                / this.numTokens, this.numTokens / seconds));
+      }
+    } finally {
+      jointPosModel.release();
+    }
+  }
+
+  /**
+   * Tag the test set and lemmatize its best postags.
+   *
+   * @param tagger
+   *          the POS tagger
+   * @param lemmatizer
+   *          the lemmatizer
+   * @return the number of postags and lemma classes correctly decoded
+   */
+  private int[] decodePipeline(final StatisticalTagger tagger,
+      final LemmatizerME lemmatizer) {
+    final int[] correct = new int[2];
+    for (int i = 0; i < this.sentences.size(); i++) {
+      final String[] tokens = this.sentences.get(i);
+      final String[] posTags = tagger.tag(tokens);
+      correct[0] += countCorrect(posTags, this.tags.get(i));
+      correct[1] += countCorrect(lemmatizer.lemmatize(tokens, posTags),
+          this.references.get(i));
+    }
+    return correct;
+  }
+
+  /**
+   * Decode the postags and lemma classes of the test set jointly.
+   *
+   * @param joint
+   *          the joint decoder
+   * @return the number of postags and lemma classes correctly decoded
+   */
+  private int[] decodeJoint(final JointDecoder joint) {
+    final int[] correct = new int[2];
+    for (int i = 0; i < this.sentences.size(); i++) {
+      final String[][] decoded = joint.decode(this.sentences.get(i));
+      if (decoded != null) {
+        correct[0] += countCorrect(decoded[0], this.tags.get(i));
+        correct[1] += countCorrect(decoded[1], this.references.get(i));
+      }
+    }
+    return correct;
+  }
+
+  /**
+   * Decode the lemmas of the reference lemma classes of the test set.
+   *
+   * @param compiled
+   *          the compiled edit scripts, null to parse the edit scripts
+   * @return the number of characters of the lemmas
+   */
+  private int decodeLemmas(final EditScriptDecoder compiled) {
+    int chars = 0;
+    for (int i = 0; i < this.sentences.size(); i++) {
+      final String[] tokens = this.sentences.get(i);
+      final String[] lemmaClasses = this.references.get(i);
+      for (int j = 0; j < tokens.length; j++) {
+        final String wordForm = tokens[j].toLowerCase();
+        chars += compiled == null ? StringUtils.decodeShortestEditScript(
+            wordForm, lemmaClasses[j]).length() : compiled.decode(wordForm,
+            lemmaClasses[j]).length();
+      }
+    }
+    return chars;
+  }
+
+  /**
+   * Decode the test set with the beam search over feature strings.
+   *
+   * @param search
+   *          the beam search
+   * @param contextGenerator
+   *          the context generator
+   * @param validator
+   *          the sequence validator
+   * @return the number of tokens correctly decoded
+   */
+  private int decode(final BeamSearch<String> search,
+      final BeamSearchContextGenerator<String> contextGenerator,
+      final SequenceValidator<String> validator) {
+    int correct = 0;
+    for (int i = 0; i < this.sentences.size(); i++) {
+      final Object[] additionalContext = this.posModel != null ? null
+          : new Object[] { this.tags.get(i) };
+      final List<String> outcomes = search.bestSequence(
+          this.sentences.get(i), additionalContext, contextGenerator,
+          validator).getOutcomes();
+      correct += countCorrect(outcomes.toArray(new String[outcomes.size()]),
+          this.references.get(i));
+    }
+    return correct;
+  }
+
+  /**
+   * Release the model.
+   */
+  public final void release() {
+    if (this.posModel != null) {
+      this.posModel.release();
+    } else {
+      this.lemmatizerModel.release();
+    }
+  }
+
+  /**
+   * Decode the test set with a strategy.
+   *
+   * @param decoding
+   *          the decoding strategy
+   * @return the number of tokens correctly decoded
+   */
+  private int decode(final DecodingStrategy decoding) {
+    return decode(decoding, null, false);
+  }
+
+  /**
+   * Decode the test set with a strategy, optionally scoring only the tags
+   * allowed by a tag dictionary or the lemma classes of the index.
+   *
+   * @param decoding
+   *          the decoding strategy
+   * @param constraints
+   *          the tag dictionary restricting the tags scored, null if none
+   * @param pruneClasses
+   *          whether to score only the lemma classes of the lemma class
+   *          index of a lemmatizer model
+   * @return the number of tokens correctly decoded
+   */
+  private int decode(final DecodingStrategy decoding,
+      final TagDictionary constraints, final boolean pruneClasses) {
+    int correct = 0;
+    if (this.posModel != null) {
+      final StatisticalTagger tagger = new StatisticalTagger(
+          this.posModel.get(), new MorphoFactory(), decoding, constraints);
+      for (int i = 0; i < this.sentences.size(); i++) {
+        correct += countCorrect(tagger.tag(this.sentences.get(i)),
+            this.references.get(i));
+      }
+    } else {
+      final LemmatizerME lemmatizer = new LemmatizerME(
+          this.lemmatizerModel.get(), decoding, pruneClasses);
+      for (int i = 0; i < this.sentences.size(); i++) {
+        correct += countCorrect(
+            lemmatizer.lemmatize(this.sentences.get(i), this.tags.get(i)),
+            this.references.get(i));
+      }
+    }
+    return correct;
+  }
+
+  /**
+   * Count the outcomes equal to the reference.
+   *
+   * @param predicted
+   *          the predicted outcomes
+   * @param reference
+   *          the reference outcomes
+   * @return the number of correct outcomes
+   */
+  private static int countCorrect(final String[] predicted,
+      final String[] reference) {
+    int correct = 0;
+    for (int i = 0; i < reference.length; i++) {
+      if (reference[i].equals(predicted[i])) {
+        correct++;
+      }
+    }
+    return correct;
+  }
+
+}
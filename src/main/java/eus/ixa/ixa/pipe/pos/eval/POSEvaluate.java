@@ -16,9 +16,8 @@
 
 package eus.ixa.ixa.pipe.pos.eval;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -29,7 +28,10 @@ import opennlp.tools.postag.POSModel;
 import opennlp.tools.postag.POSSample;
 import opennlp.tools.postag.POSTaggerEvaluationMonitor;
 import opennlp.tools.postag.POSTaggerME;
+import eus.ixa.ixa.pipe.pos.CompiledModels;
 import eus.ixa.ixa.pipe.pos.MorphoSampleStream;
+import eus.ixa.ixa.pipe.pos.Quantization;
+import eus.ixa.ixa.pipe.pos.StatisticalTagger;
 import opennlp.tools.util.ObjectStream;
 import opennlp.tools.util.eval.EvaluationMonitor;
 import eus.ixa.ixa.pipe.pos.train.InputOutputUtils;
@@ -54,6 +56,10 @@ public class POSEvaluate implements Evaluate {
    * An instance of the probabilistic {@link POSTaggerME}.
    */
   private final POSTaggerME posTagger;
+  /**
+   * The tagger of the reference (unquantized) model, null if none.
+   */
+  private final POSTaggerME referenceTagger;
 
   /**
    * Construct an evaluator. The features are encoded in the model itself.
@@ -66,28 +72,82 @@ public class POSEvaluate implements Evaluate {
    *           if input data not available
    */
   public POSEvaluate(final String testData, final String model) throws IOException {
+    this(testData, model, null);
+  }
+
+  /**
+   * Construct an evaluator which also reports the accuracy difference against
+   * a reference model, usually the unquantized model from which a quantized
+   * model was compiled.
+   * 
+   * @param testData
+   *          the reference data to evaluate against
+   * @param model
+   *          the model to be evaluated, trained or compiled
+   * @param referenceModel
+   *          the reference model, null if none
+   * @throws IOException
+   *           if input data not available
+   */
+  public POSEvaluate(final String testData, final String model,
+      final String referenceModel) throws IOException {
 
     final ObjectStream<String> testStream = InputOutputUtils
         .readFileIntoMarkableStreamFactory(testData);
     this.testSamples = new MorphoSampleStream(testStream);
-    InputStream trainedModelInputStream = null;
     try {
       if (posModel == null) {
-        trainedModelInputStream = new FileInputStream(model);
-        posModel = new POSModel(trainedModelInputStream);
+        posModel = loadModel(model);
       }
     } catch (final IOException e) {
       e.printStackTrace();
-    } finally {
-      if (trainedModelInputStream != null) {
-        try {
-          trainedModelInputStream.close();
-        } catch (final IOException e) {
-          System.err.println("Could not load model!");
-        }
-      }
     }
     this.posTagger = new POSTaggerME(posModel);
+    this.referenceTagger = referenceModel == null ? null : new POSTaggerME(
+        loadModel(referenceModel));
+  }
+
+  /**
+   * Load a trained or compiled POS model.
+   * 
+   * @param model
+   *          the model file
+   * @return the model
+   * @throws IOException
+   *           if the model cannot be loaded
+   */
+  private static POSModel loadModel(final String model) throws IOException {
+    final File modelFile = new File(model);
+    return CompiledModels.isCompiled(modelFile) ? CompiledModels
+        .loadPOSModel(modelFile) : new POSModel(modelFile);
+  }
+
+  /**
+   * Evaluate the reference model, if any, and print its accuracy and the
+   * difference with the accuracy of the evaluated model.
+   * 
+   * @param accuracy
+   *          the word accuracy of the evaluated model
+   */
+  private void printAccuracyDelta(final double accuracy) {
+    if (this.referenceTagger == null) {
+      if (CompiledModels.getQuantization(StatisticalTagger
+          .getMaxentModel(posModel)) != Quantization.NONE) {
+        System.err.println("Quantized model: choose the unquantized model with "
+            + "--referenceModel to report the accuracy difference");
+      }
+      return;
+    }
+    final POSEvaluator evaluator = new POSEvaluator(this.referenceTagger);
+    try {
+      this.testSamples.reset();
+      evaluator.evaluate(this.testSamples);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    System.out.println("Reference model accuracy: " + evaluator.getWordAccuracy());
+    System.out.println("Accuracy difference: "
+        + (accuracy - evaluator.getWordAccuracy()));
   }
 
   /**
@@ -101,6 +161,7 @@ public class POSEvaluate implements Evaluate {
       e.printStackTrace();
     }
     System.out.println(evaluator.getWordAccuracy());
+    printAccuracyDelta(evaluator.getWordAccuracy());
   }
 
   /**
@@ -135,6 +196,7 @@ public class POSEvaluate implements Evaluate {
       e.printStackTrace();
     }
     System.out.println(evaluator.getWordAccuracy());
+    printAccuracyDelta(evaluator.getWordAccuracy());
   }
 
 }
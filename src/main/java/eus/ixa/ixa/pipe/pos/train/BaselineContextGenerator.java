@@ -16,24 +16,35 @@
 package eus.ixa.ixa.pipe.pos.train;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import opennlp.tools.dictionary.Dictionary;
 import opennlp.tools.postag.POSContextGenerator;
 import opennlp.tools.util.Cache;
 import opennlp.tools.util.StringList;
+import eus.ixa.ixa.pipe.pos.FeatureIdContextGenerator;
+import eus.ixa.ixa.pipe.pos.FeatureIdModel;
 
 /**
  * An improved context generator for the POS Tagger. This baseline generator
  * provides more contextual features such as bigrams to the
  * {@code @DefaultPOSContextGenerator}. These extra features require at least
  * 2GB memory to train, more if training data is large.
+ * <p>
+ * The features of a context which do not depend on the previous tags (word,
+ * prefixes, suffixes, shape and surrounding words) are kept for each token
+ * position and computed again only if the tokens they depend on change; only
+ * the tag features are computed for each hypothesis of the beam. Besides the feature strings used for training, the
+ * generator can write the ids of the features of a context into a reused
+ * array with {@link #getContextIds}, building each feature in a reused
+ * buffer, so that tagging does not allocate feature strings.
  * 
  * @author ragerri
  * @version 2014-07-08
  */
-public class BaselineContextGenerator implements POSContextGenerator {
+public class BaselineContextGenerator implements POSContextGenerator,
+    FeatureIdContextGenerator {
 
   /**
    * The ending string.
@@ -52,13 +63,14 @@ public class BaselineContextGenerator implements POSContextGenerator {
    */
   private static final int SUFFIX_LENGTH = 4;
   /**
-   * Has capital regexp.
+   * The maximum number of features of a context.
    */
-  private static Pattern hasCap = Pattern.compile("[A-Z]");
+  public static final int MAX_CONTEXT_SIZE = 20;
   /**
-   * Has number regexp.
+   * The number of tokens the tag independent features of a token depend on:
+   * the token and two more on each side.
    */
-  private static Pattern hasNum = Pattern.compile("[0-9]");
+  private static final int WINDOW_SIZE = 5;
   /**
    * The context Cache.
    */
@@ -67,6 +79,10 @@ public class BaselineContextGenerator implements POSContextGenerator {
    * The words key.
    */
   private Object wordsKey;
+  /**
+   * The key used to look up the context cache, reused for every lookup.
+   */
+  private final ContextKey cacheProbe = new ContextKey();
   /**
    * The tag dictionary.
    */
@@ -75,6 +91,49 @@ public class BaselineContextGenerator implements POSContextGenerator {
    * The dictionary ngrams.
    */
   private final String[] dictGram;
+  /**
+   * The tag independent features of the token last seen at each position,
+   * null until computed.
+   */
+  private TokenFeatures[] tokenFeatures = new TokenFeatures[0];
+  /**
+   * The tokens the features in {@link #tokenFeatures} were computed from,
+   * {@link #WINDOW_SIZE} per position. They are checked on every call, as the
+   * token array of a sentence may be reused with other contents.
+   */
+  private String[] featuresWindows = new String[0];
+  /**
+   * The buffer where features are built by {@link #getContextIds}.
+   */
+  private final StringBuilder feature = new StringBuilder();
+  /**
+   * The tokens the feature ids in {@link #staticIds} were computed from,
+   * {@link #WINDOW_SIZE} per position.
+   */
+  private String[] idsWindows = new String[0];
+  /**
+   * The model of the feature ids in {@link #staticIds}.
+   */
+  private FeatureIdModel idsModel;
+  /**
+   * The tag independent feature ids of each token: those before the tag
+   * features at {@code index * MAX_CONTEXT_SIZE}, followed by those after the
+   * tag features.
+   */
+  private int[] staticIds = new int[0];
+  /**
+   * The number of feature ids of each token before the tag features, -1 if
+   * not computed yet.
+   */
+  private int[] numIdsBefore = new int[0];
+  /**
+   * The number of feature ids of each token after the tag features.
+   */
+  private int[] numIdsAfter = new int[0];
+  /**
+   * The id of the word two positions back of each token, -1 if none.
+   */
+  private int[] prevPrevIds = new int[0];
 
   /**
    * Initializes the current instance.
@@ -158,9 +217,140 @@ public class BaselineContextGenerator implements POSContextGenerator {
    */
   public final String[] getContext(final int index, final Object[] tokens,
       final String[] tags) {
-    String next, nextnext, lex, prev, prevprev;
     String tagprev, tagprevprev;
     tagprev = tagprevprev = null;
+    if (index - 1 >= 0) {
+      tagprev = tags[index - 1];
+      if (index - 2 >= 0) {
+        tagprevprev = tags[index - 2];
+      }
+    }
+    if (this.contextsCache != null) {
+      if (this.wordsKey == tokens) {
+        final String[] cachedContexts = (String[]) this.contextsCache
+            .get(this.cacheProbe.set(index, tagprev, tagprevprev));
+        if (cachedContexts != null) {
+          return cachedContexts;
+        }
+      } else {
+        this.contextsCache.clear();
+        this.wordsKey = tokens;
+      }
+    }
+    final TokenFeatures features = getTokenFeatures(index, tokens);
+    final List<String> featureList = new ArrayList<String>(MAX_CONTEXT_SIZE);
+    for (final String before : features.before) {
+      featureList.add(before);
+    }
+    // tags of the surrounding context
+    if (tagprev != null) {
+      featureList.add("pt=" + tagprev);
+      // bigram tag-1, w
+      featureList.add("pt,w=" + tagprev + "," + features.lex);
+    }
+    if (features.prevPrev != null) {
+      featureList.add(features.prevPrev);
+      if (tagprevprev != null) {
+        // bigram tag-2,tag-1
+        featureList.add("pt2,pt1=" + tagprevprev + "," + tagprev);
+      }
+    }
+    for (final String after : features.after) {
+      featureList.add(after);
+    }
+    final String[] contexts = featureList
+        .toArray(new String[featureList.size()]);
+    if (this.contextsCache != null) {
+      this.contextsCache.put(new ContextKey().set(index, tagprev, tagprevprev),
+          contexts);
+    }
+    return contexts;
+  }
+
+  /**
+   * Get the tag independent features of a token, computing them unless those
+   * of the same tokens are kept for its position.
+   * 
+   * @param index
+   *          the token index
+   * @param tokens
+   *          the sentence
+   * @return the features
+   */
+  private TokenFeatures getTokenFeatures(final int index, final Object[] tokens) {
+    if (this.tokenFeatures.length < tokens.length) {
+      this.tokenFeatures = Arrays.copyOf(this.tokenFeatures, tokens.length);
+      this.featuresWindows = Arrays.copyOf(this.featuresWindows, tokens.length
+          * WINDOW_SIZE);
+    }
+    if (this.tokenFeatures[index] == null
+        || !matchesWindow(this.featuresWindows, index, tokens)) {
+      this.tokenFeatures[index] = computeTokenFeatures(index, tokens);
+      setWindow(this.featuresWindows, index, tokens);
+    }
+    return this.tokenFeatures[index];
+  }
+
+  /**
+   * Check whether the tokens around a position are those recorded.
+   * 
+   * @param windows
+   *          the tokens recorded for each position
+   * @param index
+   *          the token index
+   * @param tokens
+   *          the sentence
+   * @return true if every token of the window is the same
+   */
+  private static boolean matchesWindow(final String[] windows,
+      final int index, final Object[] tokens) {
+    final int base = index * WINDOW_SIZE;
+    for (int k = 0; k < WINDOW_SIZE; k++) {
+      final int i = index - WINDOW_SIZE / 2 + k;
+      final String recorded = windows[base + k];
+      if (i < 0 || i >= tokens.length) {
+        if (recorded != null) {
+          return false;
+        }
+      } else if (recorded == null || !recorded.equals(tokens[i].toString())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Record the tokens around a position.
+   * 
+   * @param windows
+   *          the tokens recorded for each position
+   * @param index
+   *          the token index
+   * @param tokens
+   *          the sentence
+   */
+  private static void setWindow(final String[] windows, final int index,
+      final Object[] tokens) {
+    final int base = index * WINDOW_SIZE;
+    for (int k = 0; k < WINDOW_SIZE; k++) {
+      final int i = index - WINDOW_SIZE / 2 + k;
+      windows[base + k] = i < 0 || i >= tokens.length ? null : tokens[i]
+          .toString();
+    }
+  }
+
+  /**
+   * Compute the tag independent features of a token.
+   * 
+   * @param index
+   *          the token index
+   * @param tokens
+   *          the sentence
+   * @return the features
+   */
+  private TokenFeatures computeTokenFeatures(final int index,
+      final Object[] tokens) {
+    String next, nextnext, lex, prev, prevprev;
     next = nextnext = lex = prev = prevprev = null;
 
     lex = tokens[index].toString();
@@ -178,36 +368,19 @@ public class BaselineContextGenerator implements POSContextGenerator {
 
     if (index - 1 >= 0) {
       prev = tokens[index - 1].toString();
-      tagprev = tags[index - 1];
-
       if (index - 2 >= 0) {
         prevprev = tokens[index - 2].toString();
-        tagprevprev = tags[index - 2];
       } else {
         prevprev = this.SB; // Sentence Beginning
       }
     } else {
       prev = this.SB; // Sentence Beginning
     }
-    final String cacheKey = index + tagprev + tagprevprev;
-    if (this.contextsCache != null) {
-      if (this.wordsKey == tokens) {
-        final String[] cachedContexts = (String[]) this.contextsCache
-            .get(cacheKey);
-        if (cachedContexts != null) {
-          return cachedContexts;
-        }
-      } else {
-        this.contextsCache.clear();
-        this.wordsKey = tokens;
-      }
-    }
     final List<String> featureList = new ArrayList<String>();
     featureList.add("default");
     // add the word itself
     featureList.add("w=" + lex);
-    this.dictGram[0] = lex;
-    if (this.dict == null || !this.dict.contains(new StringList(this.dictGram))) {
+    if (!isDictionaryWord(lex)) {
       // do some basic suffix analysis
       final String[] suffs = getSuffixes(lex);
       for (final String suff : suffs) {
@@ -223,46 +396,353 @@ public class BaselineContextGenerator implements POSContextGenerator {
         featureList.add("h");
       }
 
-      if (hasCap.matcher(lex).find()) {
+      if (hasCapital(lex)) {
         featureList.add("c");
       }
 
-      if (hasNum.matcher(lex).find()) {
+      if (hasDigit(lex)) {
         featureList.add("d");
       }
     }
-    // add the words and pos's of the surrounding context
-    if (prev != null) {
-      featureList.add("pw=" + prev);
-      // bigram w-1,w
-      featureList.add("pw,w=" + prev + "," + lex);
-      if (tagprev != null) {
-        featureList.add("pt=" + tagprev);
-        // bigram tag-1, w
-        featureList.add("pt,w=" + tagprev + "," + lex);
+    // add the words of the surrounding context
+    featureList.add("pw=" + prev);
+    // bigram w-1,w
+    featureList.add("pw,w=" + prev + "," + lex);
+    final String[] before = featureList.toArray(new String[featureList
+        .size()]);
+    final String[] after = nextnext != null ? new String[] { "nw=" + next,
+        "nnw=" + nextnext } : new String[] { "nw=" + next };
+    return new TokenFeatures(lex, before, prevprev != null ? "ppw="
+        + prevprev : null, after);
+  }
+
+  public final int getMaxContextSize() {
+    return MAX_CONTEXT_SIZE;
+  }
+
+  public final int getContextIds(final int index, final String[] tokens,
+      final Object[] additionalContext, final String prevDecision,
+      final String prevPrevDecision, final FeatureIdModel model,
+      final int[] ids) {
+    return getContextIds(index, tokens, prevDecision, prevPrevDecision, model,
+        ids);
+  }
+
+  /**
+   * Writes the ids of the features of the context of a pos tag decision,
+   * the features of {@link #getContext(int, Object[], String[])} in the same
+   * order, leaving out the features unknown to the model. No feature string
+   * is allocated: the features are built in a reused buffer and looked up
+   * in the model. The ids of the tag independent features are computed once
+   * per token, unless the tokens around it change.
+   * 
+   * @param index
+   *          The index of the token for which the context is provided.
+   * @param tokens
+   *          The tokens in the sentence.
+   * @param tagprev
+   *          The tag of the previous token, null at the sentence start.
+   * @param tagprevprev
+   *          The tag of the token before the previous one, null if none.
+   * @param model
+   *          The model providing the feature ids.
+   * @param ids
+   *          The array where the ids are written, of at least
+   *          {@link #MAX_CONTEXT_SIZE} elements.
+   * @return The number of ids written.
+   */
+  public final int getContextIds(final int index, final String[] tokens,
+      final String tagprev, final String tagprevprev,
+      final FeatureIdModel model, final int[] ids) {
+    if (this.numIdsBefore.length < tokens.length || this.idsModel != model) {
+      if (this.numIdsBefore.length < tokens.length) {
+        this.staticIds = new int[tokens.length * MAX_CONTEXT_SIZE];
+        this.numIdsBefore = new int[tokens.length];
+        this.numIdsAfter = new int[tokens.length];
+        this.prevPrevIds = new int[tokens.length];
+        this.idsWindows = new String[tokens.length * WINDOW_SIZE];
+      }
+      Arrays.fill(this.numIdsBefore, -1);
+      this.idsModel = model;
+    }
+    if (this.numIdsBefore[index] < 0
+        || !matchesWindow(this.idsWindows, index, tokens)) {
+      computeStaticIds(index, tokens, model);
+      setWindow(this.idsWindows, index, tokens);
+    }
+    final int base = index * MAX_CONTEXT_SIZE;
+    int n = this.numIdsBefore[index];
+    System.arraycopy(this.staticIds, base, ids, 0, n);
+    if (tagprev != null) {
+      n = addFeature(start("pt=").append(tagprev), model, ids, n);
+      n = addFeature(
+          start("pt,w=").append(tagprev).append(',').append(tokens[index]),
+          model, ids, n);
+    }
+    if (index - 1 >= 0) {
+      if (this.prevPrevIds[index] >= 0) {
+        ids[n++] = this.prevPrevIds[index];
       }
-      if (prevprev != null) {
-        featureList.add("ppw=" + prevprev);
-        if (tagprevprev != null) {
-          // bigram tag-2,tag-1
-          featureList.add("pt2,pt1=" + tagprevprev + "," + tagprev);
-        }
+      if (tagprevprev != null) {
+        n = addFeature(
+            start("pt2,pt1=").append(tagprevprev).append(',')
+                .append(tagprev), model, ids, n);
+      }
+    }
+    System.arraycopy(this.staticIds, base + this.numIdsBefore[index], ids, n,
+        this.numIdsAfter[index]);
+    return n + this.numIdsAfter[index];
+  }
+
+  /**
+   * Compute the ids of the tag independent features of a token.
+   * 
+   * @param index
+   *          the token index
+   * @param tokens
+   *          the sentence
+   * @param model
+   *          the model providing the feature ids
+   */
+  private void computeStaticIds(final int index, final String[] tokens,
+      final FeatureIdModel model) {
+    final String lex = tokens[index];
+    final String prev = index - 1 >= 0 ? tokens[index - 1] : this.SB;
+    final String next = tokens.length > index + 1 ? tokens[index + 1]
+        : this.SE;
+    final int base = index * MAX_CONTEXT_SIZE;
+    int n = base;
+    n = addFeature(start("default"), model, this.staticIds, n);
+    n = addFeature(start("w=").append(lex), model, this.staticIds, n);
+    if (!isDictionaryWord(lex)) {
+      for (int li = 0; li < SUFFIX_LENGTH; li++) {
+        n = addFeature(
+            start("suf=").append(lex,
+                Math.max(lex.length() - li - 1, 0), lex.length()), model,
+            this.staticIds, n);
       }
+      for (int li = 0; li < PREFIX_LENGTH; li++) {
+        n = addFeature(
+            start("pre=").append(lex, 0, Math.min(li + 1, lex.length())),
+            model, this.staticIds, n);
+      }
+      if (lex.indexOf('-') != -1) {
+        n = addFeature(start("h"), model, this.staticIds, n);
+      }
+      if (hasCapital(lex)) {
+        n = addFeature(start("c"), model, this.staticIds, n);
+      }
+      if (hasDigit(lex)) {
+        n = addFeature(start("d"), model, this.staticIds, n);
+      }
+    }
+    n = addFeature(start("pw=").append(prev), model, this.staticIds, n);
+    n = addFeature(start("pw,w=").append(prev).append(',').append(lex),
+        model, this.staticIds, n);
+    this.numIdsBefore[index] = n - base;
+    this.prevPrevIds[index] = -1;
+    if (index - 1 >= 0) {
+      this.prevPrevIds[index] = model.getFeatureId(start("ppw=").append(
+          index - 2 >= 0 ? tokens[index - 2] : this.SB));
+    }
+    final int after = n;
+    n = addFeature(start("nw=").append(next), model, this.staticIds, n);
+    if (tokens.length > index + 1) {
+      n = addFeature(
+          start("nnw=").append(
+              tokens.length > index + 2 ? tokens[index + 2] : this.SE),
+          model, this.staticIds, n);
     }
+    this.numIdsAfter[index] = n - after;
+  }
 
-    if (next != null) {
-      featureList.add("nw=" + next);
-      if (nextnext != null) {
-        featureList.add("nnw=" + nextnext);
+  /**
+   * Start a new feature in the reused buffer.
+   * 
+   * @param prefix
+   *          the prefix of the feature
+   * @return the buffer
+   */
+  private StringBuilder start(final String prefix) {
+    this.feature.setLength(0);
+    return this.feature.append(prefix);
+  }
 
+  /**
+   * Add the id of the feature in the buffer, if known by the model.
+   * 
+   * @param buffer
+   *          the feature
+   * @param model
+   *          the model
+   * @param ids
+   *          the feature ids
+   * @param n
+   *          the number of feature ids
+   * @return the new number of feature ids
+   */
+  private static int addFeature(final CharSequence buffer,
+      final FeatureIdModel model, final int[] ids, final int n) {
+    final int id = model.getFeatureId(buffer);
+    if (id < 0) {
+      return n;
+    }
+    ids[n] = id;
+    return n + 1;
+  }
+
+  /**
+   * Check whether a word is in the dictionary.
+   * 
+   * @param lex
+   *          the word
+   * @return true if the word is in the dictionary
+   */
+  private boolean isDictionaryWord(final String lex) {
+    if (this.dict == null) {
+      return false;
+    }
+    this.dictGram[0] = lex;
+    return this.dict.contains(new StringList(this.dictGram));
+  }
+
+  /**
+   * Check whether a word contains an ASCII capital letter.
+   * 
+   * @param lex
+   *          the word
+   * @return true if there is a capital letter
+   */
+  private static boolean hasCapital(final String lex) {
+    for (int i = 0; i < lex.length(); i++) {
+      final char c = lex.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        return true;
       }
     }
-    final String[] contexts = featureList
-        .toArray(new String[featureList.size()]);
-    if (this.contextsCache != null) {
-      this.contextsCache.put(cacheKey, contexts);
+    return false;
+  }
+
+  /**
+   * Check whether a word contains a digit.
+   * 
+   * @param lex
+   *          the word
+   * @return true if there is a digit
+   */
+  private static boolean hasDigit(final String lex) {
+    for (int i = 0; i < lex.length(); i++) {
+      final char c = lex.charAt(i);
+      if (c >= '0' && c <= '9') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The features of a token which do not depend on the previous tags.
+   */
+  private static final class TokenFeatures {
+
+    /**
+     * The token.
+     */
+    private final String lex;
+    /**
+     * The features before the tag features.
+     */
+    private final String[] before;
+    /**
+     * The word two positions back, null at the sentence start.
+     */
+    private final String prevPrev;
+    /**
+     * The features after the tag features.
+     */
+    private final String[] after;
+
+    /**
+     * Construct the features of a token.
+     * 
+     * @param aLex
+     *          the token
+     * @param aBefore
+     *          the features before the tag features
+     * @param aPrevPrev
+     *          the word two positions back
+     * @param anAfter
+     *          the features after the tag features
+     */
+    TokenFeatures(final String aLex, final String[] aBefore,
+        final String aPrevPrev, final String[] anAfter) {
+      this.lex = aLex;
+      this.before = aBefore;
+      this.prevPrev = aPrevPrev;
+      this.after = anAfter;
+    }
+  }
+
+  /**
+   * The key of a context in the cache: the token index and the previous two
+   * tags. The key used for lookups is reused, so looking up the cache does
+   * not allocate.
+   */
+  private static final class ContextKey {
+
+    /**
+     * The token index.
+     */
+    private int index;
+    /**
+     * The previous tag.
+     */
+    private String tagprev;
+    /**
+     * The tag before the previous one.
+     */
+    private String tagprevprev;
+
+    /**
+     * Set the key.
+     * 
+     * @param anIndex
+     *          the token index
+     * @param aTagprev
+     *          the previous tag
+     * @param aTagprevprev
+     *          the tag before the previous one
+     * @return this key
+     */
+    ContextKey set(final int anIndex, final String aTagprev,
+        final String aTagprevprev) {
+      this.index = anIndex;
+      this.tagprev = aTagprev;
+      this.tagprevprev = aTagprevprev;
+      return this;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (!(other instanceof ContextKey)) {
+        return false;
+      }
+      final ContextKey key = (ContextKey) other;
+      return this.index == key.index
+          && (this.tagprev == null ? key.tagprev == null : this.tagprev
+              .equals(key.tagprev))
+          && (this.tagprevprev == null ? key.tagprevprev == null
+              : this.tagprevprev.equals(key.tagprevprev));
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = this.index;
+      hash = 31 * hash + (this.tagprev == null ? 0 : this.tagprev.hashCode());
+      hash = 31 * hash
+          + (this.tagprevprev == null ? 0 : this.tagprevprev.hashCode());
+      return hash;
     }
-    return contexts;
   }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that the features planned by {@link DefaultLemmatizerContextGenerator}
+ * follow the contents of the token and tag arrays when they are reused.
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class DefaultLemmatizerContextGeneratorTest {
+
+  private static String[] getContext(DefaultLemmatizerContextGenerator generator,
+      int index, String[] toks, String[] tags) {
+    return generator.getContext(index, toks, tags, new String[toks.length]);
+  }
+
+  @Test
+  public void testReusedArrays() {
+    DefaultLemmatizerContextGenerator generator = new DefaultLemmatizerContextGenerator();
+    String[] toks = { "the", "dogs", "walked" };
+    String[] tags = { "DT", "NNS", "VBD" };
+    for (int i = 0; i < toks.length; i++) {
+      getContext(generator, i, toks, tags);
+    }
+    // the same arrays with other contents, e.g., the next hypothesis of a
+    // joint decoder or the next sentence of a reused buffer
+    tags[2] = "VBN";
+    toks[1] = "cats";
+    for (int i = 0; i < toks.length; i++) {
+      assertArrayEquals(getContext(new DefaultLemmatizerContextGenerator(), i,
+          toks, tags), getContext(generator, i, toks, tags));
+    }
+  }
+
+  @Test
+  public void testLongerSentence() {
+    DefaultLemmatizerContextGenerator generator = new DefaultLemmatizerContextGenerator();
+    getContext(generator, 0, new String[] { "dogs" }, new String[] { "NNS" });
+    String[] toks = { "she", "runs", "fast" };
+    String[] tags = { "PRP", "VBZ", "RB" };
+    for (int i = 0; i < toks.length; i++) {
+      assertArrayEquals(getContext(new DefaultLemmatizerContextGenerator(), i,
+          toks, tags), getContext(generator, i, toks, tags));
+    }
+  }
+
+}
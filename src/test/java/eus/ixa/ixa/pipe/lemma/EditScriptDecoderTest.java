@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.pos.StringUtils;
+
+/**
+ * Checks that the compiled lemma classes of {@link EditScriptDecoder} decode
+ * the same lemmas as {@link StringUtils#decodeShortestEditScript(String, String)},
+ * for the scripts of real lemmas and for malformed scripts.
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class EditScriptDecoderTest {
+
+  /**
+   * Decode a lemma, recording the exception thrown, if any.
+   * @param decoder the decoder, null for the reference decoding
+   * @param wordForm the word form
+   * @param script the lemma class
+   * @return the lemma or the name of the exception thrown
+   */
+  private static String decode(EditScriptDecoder decoder, String wordForm,
+      String script) {
+    try {
+      return decoder == null ? StringUtils.decodeShortestEditScript(wordForm,
+          script) : decoder.decode(wordForm, script);
+    } catch (RuntimeException e) {
+      return "EX:" + e.getClass().getSimpleName();
+    }
+  }
+
+  private static String randomString(Random random, String alphabet,
+      int maxLength) {
+    StringBuilder builder = new StringBuilder();
+    int length = random.nextInt(maxLength);
+    for (int i = 0; i < length; i++) {
+      builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testSameLemmas() {
+    Random random = new Random(7);
+    List<String> scripts = new ArrayList<String>();
+    List<String> words = new ArrayList<String>();
+    // words longer than 10 chars have indexes of several digits
+    for (int i = 0; i < 2000; i++) {
+      String wordForm = randomString(random, "abcde", 24);
+      words.add(wordForm);
+      scripts.add(StringUtils.getShortestEditScript(wordForm,
+          randomString(random, "abcde", 24)));
+      scripts.add(randomString(random, "RIDOab0123456789xyz", 10));
+    }
+    words.add("");
+    scripts.add("");
+    EditScriptDecoder decoder = new EditScriptDecoder(
+        scripts.toArray(new String[scripts.size()]));
+    for (String script : scripts) {
+      for (int i = 0; i < 50; i++) {
+        String wordForm = words.get(random.nextInt(words.size()));
+        assertEquals(wordForm + " " + script, decode(null, wordForm, script),
+            decode(decoder, wordForm, script));
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownClasses() {
+    EditScriptDecoder decoder = new EditScriptDecoder(new String[] { "R0ya" });
+    assertEquals(1, decoder.size());
+    String script = StringUtils.getShortestEditScript("walked", "walk");
+    assertEquals("walk", decoder.decode("walked", script));
+    assertEquals("studa", decoder.decode("study", "R0ya"));
+  }
+
+  @Test
+  public void testMalformedScripts() {
+    assertNull(EditScriptDecoder.compile("R0y"));
+    assertNull(EditScriptDecoder.compile("Ixa"));
+    assertEquals(0, EditScriptDecoder.compile("O").length);
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import opennlp.tools.util.CollectionObjectStream;
+import opennlp.tools.util.TrainingParameters;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.pos.DecodingStrategy;
+import eus.ixa.ixa.pipe.pos.StringUtils;
+
+/**
+ * Checks the decoding of lemma classes with some classes pinned, e.g., by a
+ * lemma dictionary.
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class LemmatizerMETest {
+
+  private static final String[][] SENTENCES = {
+      { "the dogs walked to the parks", "DT NNS VBD TO DT NNS",
+          "the dog walk to the park" },
+      { "she runs in the park", "PRP VBZ IN DT NN", "she run in the park" },
+      { "the cats sees a dog", "DT NNS VBZ DT NN", "the cat see a dog" },
+      { "he walked the dogs", "PRP VBD DT NNS", "he walk the dog" } };
+
+  private static LemmatizerModel model;
+
+  @BeforeClass
+  public static void trainModel() throws IOException {
+    List<LemmaSample> samples = new ArrayList<LemmaSample>();
+    for (int i = 0; i < 20; i++) {
+      for (String[] sentence : SENTENCES) {
+        String[] tokens = sentence[0].split(" ");
+        String[] lemmas = sentence[2].split(" ");
+        String[] classes = new String[tokens.length];
+        for (int j = 0; j < tokens.length; j++) {
+          classes[j] = StringUtils.getShortestEditScript(tokens[j], lemmas[j]);
+        }
+        samples.add(new LemmaSample(tokens, sentence[1].split(" "), classes));
+      }
+    }
+    TrainingParameters params = new TrainingParameters();
+    params.put(TrainingParameters.ALGORITHM_PARAM, "PERCEPTRON");
+    params.put(TrainingParameters.ITERATIONS_PARAM, "20");
+    params.put(TrainingParameters.CUTOFF_PARAM, "0");
+    model = LemmatizerME.train("en", new CollectionObjectStream<LemmaSample>(samples),
+        params, new LemmatizerFactory());
+  }
+
+  @Test
+  public void testNothingPinned() {
+    for (String beam : new String[] { "beam-1", "beam-3", "beam-10" }) {
+      LemmatizerME lemmatizer = new LemmatizerME(model, DecodingStrategy.parse(beam));
+      for (String[] sentence : SENTENCES) {
+        String[] tokens = sentence[0].split(" ");
+        String[] tags = sentence[1].split(" ");
+        assertArrayEquals(beam, lemmatizer.lemmatize(tokens, tags),
+            lemmatizer.lemmatize(tokens, tags, new String[tokens.length]));
+      }
+    }
+  }
+
+  @Test
+  public void testPinned() {
+    LemmatizerME lemmatizer = new LemmatizerME(model);
+    String[] tokens = SENTENCES[0][0].split(" ");
+    String[] tags = SENTENCES[0][1].split(" ");
+    String[] pinned = new String[tokens.length];
+    pinned[1] = StringUtils.getShortestEditScript("dogs", "dogs");
+    String[] classes = lemmatizer.lemmatize(tokens, tags, pinned);
+    assertEquals(pinned[1], classes[1]);
+    assertEquals("walk", lemmatizer.decodeLemma(tokens[2], classes[2]));
+  }
+
+  @Test
+  public void testNoValidOutcome() {
+    LemmatizerME lemmatizer = new LemmatizerME(new LemmatizerModel("en",
+        model.getLemmatizerMaxentModel(), new HashMap<String, String>(),
+        new PinRejectingLemmatizerFactory()));
+    String[] tokens = SENTENCES[1][0].split(" ");
+    String[] tags = SENTENCES[1][1].split(" ");
+    String[] pinned = new String[tokens.length];
+    pinned[0] = PinRejectingLemmatizerFactory.REJECTED;
+    // no class can follow the pinned one: the classes are those of the
+    // unpinned search, with the pinned class
+    String[] expected = lemmatizer.lemmatize(tokens, tags);
+    expected[0] = PinRejectingLemmatizerFactory.REJECTED;
+    assertArrayEquals(expected, lemmatizer.lemmatize(tokens, tags, pinned));
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.lemma;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.pos.StringUtils;
+
+/**
+ * Checks that {@link ShortestEditScripts} computes the same scripts as
+ * {@link StringUtils#getShortestEditScript(String, String)}, with and
+ * without memoization.
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class ShortestEditScriptsTest {
+
+  private static void assertSameScripts(ShortestEditScripts scripts) {
+    Random random = new Random(3);
+    String alphabet = "abcABéÉ";
+    for (int t = 0; t < 20000; t++) {
+      StringBuilder wordForm = new StringBuilder();
+      StringBuilder lemma = new StringBuilder();
+      // words longer than 10 chars have indexes of several digits
+      int n = random.nextInt(24);
+      int m = random.nextInt(24);
+      for (int i = 0; i < n; i++) {
+        wordForm.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      for (int i = 0; i < m; i++) {
+        lemma.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      if (random.nextInt(3) == 0) {
+        // a suffix of the word form, as most lemmas are
+        lemma = new StringBuilder(wordForm).append(lemma.length() > 3 ? lemma
+            .substring(0, 2) : "");
+      }
+      String expected = StringUtils.getShortestEditScript(wordForm.toString(),
+          lemma.toString());
+      assertEquals(wordForm + " " + lemma, expected,
+          scripts.getShortestEditScript(wordForm.toString(), lemma.toString()));
+      // memoized, if at all
+      assertEquals(wordForm + " " + lemma, expected,
+          scripts.getShortestEditScript(wordForm.toString(), lemma.toString()));
+    }
+    assertEquals(StringUtils.getShortestEditScript("", ""),
+        scripts.getShortestEditScript("", ""));
+  }
+
+  @Test
+  public void testSameScripts() {
+    assertSameScripts(new ShortestEditScripts(null));
+  }
+
+  @Test
+  public void testSameMemoizedScripts() {
+    assertSameScripts(new ShortestEditScripts());
+  }
+
+  @Test
+  public void testUnambiguousKeys() {
+    ShortestEditScripts scripts = new ShortestEditScripts();
+    // the same concatenation of word form and lemma
+    assertEquals(StringUtils.getShortestEditScript("ab", "c"),
+        scripts.getShortestEditScript("ab", "c"));
+    assertEquals(StringUtils.getShortestEditScript("a", "bc"),
+        scripts.getShortestEditScript("a", "bc"));
+  }
+
+}
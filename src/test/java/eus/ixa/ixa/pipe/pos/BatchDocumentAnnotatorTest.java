@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the output files of {@link BatchDocumentAnnotator}.
+ *
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class BatchDocumentAnnotatorTest {
+
+  private final File inputDir = new File("corpus");
+  private final File outputDir = new File("out");
+
+  @Test
+  public void testInputDirKeepsRelativePaths() {
+    final File a = new File(this.inputDir, "a/doc.naf");
+    final File b = new File(this.inputDir, "b/doc.naf");
+    final File top = new File(this.inputDir, "top.naf");
+    final Map<File, File> outputs = BatchDocumentAnnotator.getOutputs(
+        Arrays.asList(a, b, top), this.inputDir, this.outputDir, "naf");
+    assertEquals(new File(this.outputDir, "a/doc.naf"), outputs.get(a));
+    assertEquals(new File(this.outputDir, "b/doc.naf"), outputs.get(b));
+    assertEquals(new File(this.outputDir, "top.naf"), outputs.get(top));
+  }
+
+  @Test
+  public void testOutputFormatExtension() {
+    final File a = new File(this.inputDir, "a/doc.naf");
+    final Map<File, File> outputs = BatchDocumentAnnotator.getOutputs(
+        Arrays.asList(a), this.inputDir, this.outputDir, "conll");
+    assertEquals(new File(this.outputDir, "a/doc.conll"), outputs.get(a));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFileListDuplicateNames() {
+    BatchDocumentAnnotator.getOutputs(
+        Arrays.asList(new File("a/doc.naf"), new File("b/doc.naf")), null,
+        this.outputDir, "naf");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInputDirDuplicateOutputs() {
+    // both documents are written as a/doc.json
+    BatchDocumentAnnotator.getOutputs(
+        Arrays.asList(new File(this.inputDir, "a/doc.naf"), new File(
+            this.inputDir, "a/doc.txt")), this.inputDir, this.outputDir,
+        "json");
+  }
+
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import opennlp.tools.ml.BeamSearch;
+import opennlp.tools.ml.maxent.GISModel;
+import opennlp.tools.ml.model.Context;
+import opennlp.tools.ml.model.MaxentModel;
+import opennlp.tools.postag.POSContextGenerator;
+import opennlp.tools.postag.POSDictionary;
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSSample;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.CollectionObjectStream;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+import opennlp.tools.util.TrainingParameters;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.pos.train.BaselineContextGenerator;
+import eus.ixa.ixa.pipe.pos.train.BaselineFactory;
+
+/**
+ * Checks that {@link FeatureIdBeamSearch} decodes the same sequences, with
+ * the same probabilities, as the OpenNLP {@code BeamSearch} over the feature
+ * strings of the same model, including ties between hypotheses, tag
+ * dictionary constraints and the k best sequences.
+ *
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class FeatureIdBeamSearchTest {
+
+  /**
+   * The words of the corpus with their tags; the first tag of a word is the
+   * one allowed by the tag dictionary when it is the only one.
+   */
+  private static final String[][] LEXICON = { { "the", "DT" },
+      { "a", "DT" }, { "that", "DT", "IN", "WDT" }, { "dog", "NN" },
+      { "cat", "NN" }, { "park", "NN", "VB" }, { "run", "NN", "VB" },
+      { "light", "JJ", "NN", "VB" }, { "green", "JJ", "NN" },
+      { "fast", "JJ", "RB" }, { "saw", "NN", "VBD" }, { "walked", "VBD" },
+      { "runs", "NNS", "VBZ" }, { "dogs", "NNS" }, { "sees", "VBZ" },
+      { "to", "TO", "IN" }, { "in", "IN" }, { "he", "PRP" },
+      { "she", "PRP" }, { "quickly", "RB" }, { ".", "." } };
+  /**
+   * The tag sequences of the sentences of the corpus.
+   */
+  private static final String[] PATTERNS = { "DT JJ NN VBD DT NN .",
+      "DT NN VBZ RB .", "PRP VBD IN DT NN .", "DT NN VBZ TO VB DT NN .",
+      "PRP VBZ DT JJ NNS .", "DT NNS VBD WDT VBD .", "PRP VBD RB IN DT NN .",
+      "NN VBZ JJ .", "DT JJ JJ NN VBZ IN DT NN .", "PRP VBD IN DT NN ." };
+  /**
+   * The beam sizes of the tests.
+   */
+  private static final int[] BEAM_SIZES = { 1, 2, 3, 5, 10 };
+
+  private static List<String[]> testSentences;
+  private static POSModel perceptronModel;
+  private static POSModel maxentModel;
+
+  @BeforeClass
+  public static void trainModels() throws IOException {
+    final Random random = new Random(15);
+    final Map<String, List<String>> wordsOfTag = new HashMap<String, List<String>>();
+    for (final String[] entry : LEXICON) {
+      for (int t = 1; t < entry.length; t++) {
+        List<String> words = wordsOfTag.get(entry[t]);
+        if (words == null) {
+          words = new ArrayList<String>();
+          wordsOfTag.put(entry[t], words);
+        }
+        words.add(entry[0]);
+      }
+    }
+    final List<POSSample> samples = new ArrayList<POSSample>();
+    for (int s = 0; s < 300; s++) {
+      final String[] tags = PATTERNS[random.nextInt(PATTERNS.length)]
+          .split(" ");
+      final String[] tokens = new String[tags.length];
+      for (int i = 0; i < tags.length; i++) {
+        final List<String> words = wordsOfTag.get(tags[i]);
+        tokens[i] = words.get(random.nextInt(words.size()));
+      }
+      samples.add(new POSSample(tokens, tags));
+    }
+    testSentences = new ArrayList<String[]>();
+    final String[] suffixes = { "ing", "ed", "s", "ly", "" };
+    for (int s = 0; s < 200; s++) {
+      final String[] tokens = new String[2 + random.nextInt(10)];
+      for (int i = 0; i < tokens.length; i++) {
+        if (random.nextInt(5) == 0) {
+          // unknown words
+          tokens[i] = "zq" + (char) ('a' + random.nextInt(26))
+              + suffixes[random.nextInt(suffixes.length)];
+        } else {
+          tokens[i] = LEXICON[random.nextInt(LEXICON.length)][0];
+        }
+      }
+      testSentences.add(tokens);
+    }
+    perceptronModel = train(samples, "PERCEPTRON");
+    maxentModel = train(samples, "MAXENT");
+  }
+
+  /**
+   * Train a model with the baseline features and the tag dictionary of the
+   * lexicon.
+   *
+   * @param samples
+   *          the training samples
+   * @param algorithm
+   *          the training algorithm
+   * @return the model
+   * @throws IOException
+   *           if the model cannot be trained
+   */
+  private static POSModel train(final List<POSSample> samples,
+      final String algorithm) throws IOException {
+    final TrainingParameters params = new TrainingParameters();
+    params.put(TrainingParameters.ALGORITHM_PARAM, algorithm);
+    params.put(TrainingParameters.ITERATIONS_PARAM, "50");
+    params.put(TrainingParameters.CUTOFF_PARAM, "0");
+    return POSTaggerME.train("en", new CollectionObjectStream<POSSample>(
+        samples), params, new BaselineFactory(null, getTagDictionary()));
+  }
+
+  /**
+   * Get the tag dictionary of the words of the lexicon with a single tag.
+   *
+   * @return the tag dictionary
+   */
+  private static POSDictionary getTagDictionary() {
+    final POSDictionary dictionary = new POSDictionary();
+    for (final String[] entry : LEXICON) {
+      if (entry.length == 2) {
+        dictionary.put(entry[0], entry[1]);
+      }
+    }
+    // a word allowing several tags
+    dictionary.put("light", "JJ", "NN");
+    return dictionary;
+  }
+
+  /**
+   * Create a model over some tags without features: every tag is equally
+   * probable, so every hypothesis of the same length ties.
+   *
+   * @param tags
+   *          the tags
+   * @param features
+   *          the features, with the weight of each tag
+   * @return the model
+   */
+  private static POSModel createModel(final String[] tags,
+      final Map<String, double[]> features) {
+    final Context[] params = new Context[features.size()];
+    final String[] predLabels = features.keySet().toArray(
+        new String[features.size()]);
+    final int[] outcomes = new int[tags.length];
+    for (int t = 0; t < tags.length; t++) {
+      outcomes[t] = t;
+    }
+    for (int p = 0; p < predLabels.length; p++) {
+      params[p] = new Context(outcomes, features.get(predLabels[p]));
+    }
+    final MaxentModel model = new GISModel(params, predLabels, tags, 1, 0.0);
+    return new POSModel("en", model, new HashMap<String, String>(),
+        new BaselineFactory());
+  }
+
+  @Test
+  public void testPerceptronBestSequences() {
+    assertSameSequences(perceptronModel, false);
+  }
+
+  @Test
+  public void testMaxentBestSequences() {
+    assertSameSequences(maxentModel, false);
+  }
+
+  @Test
+  public void testUniformTies() {
+    assertSameSequences(
+        createModel(new String[] { "DT", "NN", "VB", "JJ" },
+            new HashMap<String, double[]>()), false);
+  }
+
+  @Test
+  public void testPartialTies() {
+    final Map<String, double[]> features = new LinkedHashMap<String, double[]>();
+    features.put("w=the", new double[] { 2.0, 0.0, 0.0, 0.0 });
+    // run is as likely a noun as a verb
+    features.put("w=run", new double[] { 0.0, 1.0, 1.0, 0.0 });
+    features.put("w=light", new double[] { 0.0, 0.5, 0.5, 0.5 });
+    features.put("p=DT", new double[] { 0.0, 0.5, 0.0, 0.5 });
+    assertSameSequences(
+        createModel(new String[] { "DT", "NN", "VB", "JJ" }, features), false);
+  }
+
+  @Test
+  public void testRestrictedTagDictionary() {
+    assertSameSequences(perceptronModel, true);
+    assertSameSequences(maxentModel, true);
+  }
+
+  @Test
+  public void testStatisticalTaggerAsPOSTaggerME() {
+    for (final POSModel model : new POSModel[] { perceptronModel, maxentModel }) {
+      final POSTaggerME reference = new POSTaggerME(model);
+      final StatisticalTagger tagger = new StatisticalTagger(model,
+          new MorphoFactory());
+      assertNotNull(tagger.getFeatureIdDecoder());
+      for (final String[] tokens : testSentences) {
+        assertArrayEquals(Arrays.toString(tokens), reference.tag(tokens),
+            tagger.tag(tokens));
+      }
+    }
+  }
+
+  /**
+   * Assert that the feature id beam search decodes the best and k best
+   * sequences of the test sentences as {@code BeamSearch} does, for every
+   * beam size.
+   *
+   * @param model
+   *          the model
+   * @param restrict
+   *          whether only the tags allowed by the tag dictionary are scored
+   */
+  private static void assertSameSequences(final POSModel model,
+      final boolean restrict) {
+    final MaxentModel maxent = StatisticalTagger.getMaxentModel(model);
+    final FeatureIdModel featureIdModel = IndexedMaxentModel
+        .getFeatureIdModel(maxent);
+    final POSContextGenerator contextGenerator = model.getFactory()
+        .getPOSContextGenerator(0);
+    final SequenceValidator<String> validator = model.getFactory()
+        .getSequenceValidator();
+    final String[][] sentence = new String[1][];
+    final MaxentModel referenceModel = restrict ? new RestrictedModel(maxent,
+        model.getFactory().getTagDictionary(), sentence) : maxent;
+    final BeamSearchContextGenerator<String> referenceGenerator = restrict ? new IndexedContextGenerator(
+        contextGenerator) : contextGenerator;
+    for (final int beamSize : BEAM_SIZES) {
+      final BeamSearch<String> reference = new BeamSearch<String>(beamSize,
+          referenceModel);
+      final FeatureIdBeamSearch search = new FeatureIdBeamSearch(
+          featureIdModel, (BaselineContextGenerator) model.getFactory()
+              .getPOSContextGenerator(0), model.getFactory()
+              .getTagDictionary(), beamSize, restrict);
+      for (final String[] tokens : testSentences) {
+        sentence[0] = tokens;
+        final String message = "beam " + beamSize + " "
+            + Arrays.toString(tokens);
+        final Sequence best = reference.bestSequence(tokens, null,
+            referenceGenerator, validator);
+        assertArrayEquals(message, best.getOutcomes().toArray(),
+            search.bestSequence(tokens, null));
+        assertArrayEquals(message, best.getProbs(), search.getProbs(),
+            1e-12);
+        final Sequence[] expected = reference.bestSequences(beamSize, tokens,
+            null, referenceGenerator, validator);
+        final Sequence[] actual = search.bestSequences(tokens, null, beamSize)
+            .getSequences();
+        assertEquals(message, expected.length, actual.length);
+        for (int h = 0; h < expected.length; h++) {
+          assertEquals(message + " " + h, expected[h].getOutcomes(),
+              actual[h].getOutcomes());
+          assertArrayEquals(message + " " + h, expected[h].getProbs(),
+              actual[h].getProbs(), 1e-12);
+          assertEquals(message + " " + h, expected[h].getScore(),
+              actual[h].getScore(), 1e-9);
+        }
+        for (int i = 0; i < tokens.length && restrict; i++) {
+          final String[] allowed = model.getFactory().getTagDictionary()
+              .getTags(tokens[i]);
+          assertTrue(message, allowed == null
+              || Arrays.asList(allowed).contains(best.getOutcomes().get(i)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Prepends the index of the token to the context of the generator, so that
+   * {@link RestrictedModel} knows the token it evaluates.
+   */
+  private static final class IndexedContextGenerator implements
+      BeamSearchContextGenerator<String> {
+
+    private final BeamSearchContextGenerator<String> generator;
+
+    IndexedContextGenerator(final BeamSearchContextGenerator<String> aGenerator) {
+      this.generator = aGenerator;
+    }
+
+    public String[] getContext(final int index, final String[] sequence,
+        final String[] priorDecisions, final Object[] additionalContext) {
+      final String[] context = this.generator.getContext(index, sequence,
+          priorDecisions, additionalContext);
+      final String[] indexed = new String[context.length + 1];
+      indexed[0] = Integer.toString(index);
+      System.arraycopy(context, 0, indexed, 1, context.length);
+      return indexed;
+    }
+  }
+
+  /**
+   * The reference of the restricted search: the probabilities of the tags
+   * allowed by the tag dictionary for the token evaluated are normalized
+   * among themselves, and the rest are 0.
+   */
+  private static final class RestrictedModel implements MaxentModel {
+
+    private final MaxentModel model;
+    private final opennlp.tools.postag.TagDictionary dictionary;
+    private final String[][] sentence;
+
+    RestrictedModel(final MaxentModel aModel,
+        final opennlp.tools.postag.TagDictionary aDictionary,
+        final String[][] aSentence) {
+      this.model = aModel;
+      this.dictionary = aDictionary;
+      this.sentence = aSentence;
+    }
+
+    public double[] eval(final String[] indexed) {
+      final String[] context = Arrays.copyOfRange(indexed, 1, indexed.length);
+      final double[] probs = this.model.eval(context);
+      final String[] tags = this.dictionary.getTags(this.sentence[0][Integer
+          .parseInt(indexed[0])]);
+      if (tags == null) {
+        return probs;
+      }
+      final boolean[] allowed = new boolean[probs.length];
+      double sum = 0;
+      for (final String tag : tags) {
+        final int index = this.model.getIndex(tag);
+        if (index >= 0 && !allowed[index]) {
+          allowed[index] = true;
+          sum += probs[index];
+        }
+      }
+      if (sum == 0) {
+        return probs;
+      }
+      for (int p = 0; p < probs.length; p++) {
+        probs[p] = allowed[p] ? probs[p] / sum : 0;
+      }
+      return probs;
+    }
+
+    public double[] eval(final String[] context, final double[] probs) {
+      return eval(context);
+    }
+
+    public double[] eval(final String[] context, final float[] values) {
+      throw new UnsupportedOperationException();
+    }
+
+    public String getBestOutcome(final double[] outcomes) {
+      return this.model.getBestOutcome(outcomes);
+    }
+
+    public String getAllOutcomes(final double[] outcomes) {
+      return this.model.getAllOutcomes(outcomes);
+    }
+
+    public String getOutcome(final int i) {
+      return this.model.getOutcome(i);
+    }
+
+    public int getIndex(final String outcome) {
+      return this.model.getIndex(outcome);
+    }
+
+    public int getNumOutcomes() {
+      return this.model.getNumOutcomes();
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/**
+ * Checks the loading and the reference counting of the models of a
+ * {@link ModelRegistry} and of a {@link HotSwapModel}.
+ *
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class ModelRegistryTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Released when the slow model may finish loading.
+   */
+  private final CountDownLatch slowLoad = new CountDownLatch(1);
+  /**
+   * The number of loads.
+   */
+  private final AtomicInteger loads = new AtomicInteger();
+  /**
+   * The number of loads to fail.
+   */
+  private final AtomicInteger failures = new AtomicInteger();
+  private ModelRegistry<String> registry;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    this.executor = Executors.newCachedThreadPool();
+    this.registry = new ModelRegistry<String>(
+        new ModelRegistry.ModelLoader<String>() {
+          public String load(final File modelFile) throws IOException {
+            ModelRegistryTest.this.loads.incrementAndGet();
+            if (modelFile.getName().startsWith("slow")) {
+              try {
+                ModelRegistryTest.this.slowLoad.await();
+              } catch (final InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            if (ModelRegistryTest.this.failures.getAndDecrement() > 0) {
+              throw new IOException("Cannot read " + modelFile);
+            }
+            return Files.toString(modelFile, Charset.forName("UTF-8"));
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    this.slowLoad.countDown();
+    this.executor.shutdownNow();
+  }
+
+  private String createModel(final String name, final String content)
+      throws IOException {
+    final File file = this.folder.newFile(name);
+    Files.write(content, file, Charset.forName("UTF-8"));
+    return file.getPath();
+  }
+
+  private Future<ModelRegistry.Handle<String>> acquireAsync(final String model) {
+    return this.executor.submit(new Callable<ModelRegistry.Handle<String>>() {
+      public ModelRegistry.Handle<String> call() throws IOException {
+        return ModelRegistryTest.this.registry.acquire(model);
+      }
+    });
+  }
+
+  @Test
+  public void testLoadOutsideLock() throws Exception {
+    final String slow = createModel("slow.bin", "slow");
+    final String fast = createModel("fast.bin", "fast");
+    final Future<ModelRegistry.Handle<String>> slowHandle = acquireAsync(slow);
+    final Future<ModelRegistry.Handle<String>> sameSlowHandle = acquireAsync(slow);
+    // another model is loaded while the slow one is still loading
+    final ModelRegistry.Handle<String> fastHandle = acquireAsync(fast).get(10,
+        TimeUnit.SECONDS);
+    assertEquals("fast", fastHandle.get());
+    fastHandle.release();
+    assertTrue(!slowHandle.isDone() && !sameSlowHandle.isDone());
+    this.slowLoad.countDown();
+    assertSame(slowHandle.get(10, TimeUnit.SECONDS).get(), sameSlowHandle
+        .get(10, TimeUnit.SECONDS).get());
+    // the slow model was loaded once
+    assertEquals(2, this.loads.get());
+    assertEquals(2, this.registry.getReferences(slowHandle.get().getId()));
+  }
+
+  @Test
+  public void testFailedLoadIsRetried() throws IOException {
+    final String model = createModel("model.bin", "model");
+    this.failures.set(1);
+    try {
+      this.registry.acquire(model);
+      fail("The first load should fail");
+    } catch (final IOException e) {
+      assertTrue(this.registry.getModelIds().isEmpty());
+    }
+    final ModelRegistry.Handle<String> handle = this.registry.acquire(model);
+    assertEquals("model", handle.get());
+    assertEquals(1, this.registry.getReferences(handle.getId()));
+  }
+
+  @Test
+  public void testRetain() throws IOException {
+    final ModelRegistry.Handle<String> handle = this.registry
+        .acquire(createModel("model.bin", "model"));
+    final ModelRegistry.Handle<String> lease = handle.retain();
+    assertEquals(2, this.registry.getReferences(handle.getId()));
+    handle.release();
+    assertNull(handle.retain());
+    assertEquals(1, this.registry.getReferences(lease.getId()));
+    lease.release();
+    assertTrue(this.registry.getModelIds().isEmpty());
+  }
+
+  @Test
+  public void testLeaseSurvivesSwap() throws IOException {
+    final String oldModel = createModel("old.bin", "old");
+    final HotSwapModel<String> model = new HotSwapModel<String>(
+        this.registry, oldModel);
+    final ModelRegistry.Handle<String> lease = model.acquire();
+    model.swap(createModel("new.bin", "new"));
+    // the old version is still registered while leased
+    assertEquals(1, this.registry.getReferences(lease.getId()));
+    assertEquals("old", lease.get());
+    assertEquals("new", model.get());
+    lease.release();
+    assertEquals(0, this.registry.getReferences(lease.getId()));
+    assertEquals(1, this.registry.getModelIds().size());
+    model.release();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAcquireReleasedModel() throws IOException {
+    final HotSwapModel<String> model = new HotSwapModel<String>(
+        this.registry, createModel("model.bin", "model"));
+    model.release();
+    model.acquire();
+  }
+
+}
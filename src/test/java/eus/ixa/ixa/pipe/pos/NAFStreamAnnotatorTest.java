@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests the comments of the terms written by {@link NAFStreamAnnotator}.
+ *
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class NAFStreamAnnotatorTest {
+
+  @Test
+  public void testHyphenTokens() throws Exception {
+    final String[] tokens = { "-", "--", "---", "----", "-----", "a--b---c" };
+    for (int i = 0; i < tokens.length; i++) {
+      assertWellFormed(NAFStreamAnnotator.getComment(tokens, i, i + 1));
+    }
+    assertWellFormed(NAFStreamAnnotator.getComment(tokens, 0, tokens.length));
+  }
+
+  @Test
+  public void testHyphenComments() {
+    assertEquals("- - - ", NAFStreamAnnotator.getComment(
+        new String[] { "---" }, 0, 1));
+    assertEquals("- - - - ", NAFStreamAnnotator.getComment(
+        new String[] { "----" }, 0, 1));
+    assertEquals("- - ", NAFStreamAnnotator.getComment(new String[] { "-",
+        "-" }, 0, 2));
+    assertEquals("well-known", NAFStreamAnnotator.getComment(
+        new String[] { "well-known" }, 0, 1));
+  }
+
+  /**
+   * Assert that a comment is allowed in XML and parses back unchanged.
+   *
+   * @param comment
+   *          the comment
+   * @throws Exception
+   *           if the comment cannot be parsed
+   */
+  private static void assertWellFormed(final String comment) throws Exception {
+    assertFalse(comment, comment.contains("--"));
+    assertFalse(comment, comment.endsWith("-"));
+    final Document document = DocumentBuilderFactory.newInstance()
+        .newDocumentBuilder()
+        .parse(new InputSource(new StringReader("<terms><!--" + comment
+            + "--></terms>")));
+    assertEquals(comment, ((Comment) document.getDocumentElement()
+        .getFirstChild()).getData());
+  }
+
+}
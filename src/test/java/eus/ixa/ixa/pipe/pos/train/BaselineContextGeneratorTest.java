@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Rodrigo Agerri
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eus.ixa.ixa.pipe.pos.train;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eus.ixa.ixa.pipe.pos.FeatureIdModel;
+
+/**
+ * Checks that the features planned by {@link BaselineContextGenerator} follow
+ * the contents of the token array when it is reused.
+ *
+ * @author ragerri
+ * @version 2016-05-31
+ */
+public class BaselineContextGeneratorTest {
+
+  private static final String[] TAGS = { "DT", "NNS", "VBD", "TO", "DT" };
+
+  /**
+   * A model knowing every feature, with ids in order of lookup.
+   */
+  private final FeatureIdModel model = new FeatureIdModel() {
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    public int getFeatureId(final CharSequence feature) {
+      final String key = feature.toString();
+      Integer id = this.ids.get(key);
+      if (id == null) {
+        id = this.ids.size();
+        this.ids.put(key, id);
+      }
+      return id;
+    }
+
+    public void eval(final int[] featureIds, final int numFeatures,
+        final double[] probs, final int[] featureCounts) {
+      throw new UnsupportedOperationException();
+    }
+
+    public void eval(final int[] featureIds, final int numFeatures,
+        final double[] probs, final int[] featureCounts, final int[] outcomes,
+        final int numOutcomes) {
+      throw new UnsupportedOperationException();
+    }
+
+    public int getNumOutcomes() {
+      return 0;
+    }
+
+    public String getOutcome(final int i) {
+      return null;
+    }
+
+    public int getIndex(final String outcome) {
+      return -1;
+    }
+  };
+
+  private static void annotate(final BaselineContextGenerator generator,
+      final String[] toks) {
+    for (int i = 0; i < toks.length; i++) {
+      generator.getContext(i, toks, TAGS);
+    }
+  }
+
+  private int[] getContextIds(final BaselineContextGenerator generator,
+      final int index, final String[] toks) {
+    final int[] ids = new int[BaselineContextGenerator.MAX_CONTEXT_SIZE];
+    final int n = generator.getContextIds(index, toks,
+        index > 0 ? TAGS[index - 1] : null, index > 1 ? TAGS[index - 2]
+            : null, this.model, ids);
+    return Arrays.copyOf(ids, n);
+  }
+
+  @Test
+  public void testReusedTokens() {
+    final BaselineContextGenerator generator = new BaselineContextGenerator(
+        null);
+    final String[] toks = { "the", "dogs", "walked", "to", "the" };
+    annotate(generator, toks);
+    toks[1] = "cats";
+    for (int i = 0; i < toks.length; i++) {
+      assertArrayEquals(new BaselineContextGenerator(null).getContext(i,
+          toks, TAGS), generator.getContext(i, toks, TAGS));
+    }
+  }
+
+  @Test
+  public void testReusedTokenIds() {
+    final BaselineContextGenerator generator = new BaselineContextGenerator(
+        null);
+    final String[] toks = { "the", "dogs", "walked", "to", "the" };
+    for (int i = 0; i < toks.length; i++) {
+      getContextIds(generator, i, toks);
+    }
+    toks[3] = "from";
+    for (int i = 0; i < toks.length; i++) {
+      assertArrayEquals(getContextIds(new BaselineContextGenerator(null), i,
+          toks), getContextIds(generator, i, toks));
+    }
+  }
+
+  @Test
+  public void testShorterSentence() {
+    final BaselineContextGenerator generator = new BaselineContextGenerator(
+        null);
+    annotate(generator, new String[] { "the", "dogs", "walked", "to", "the" });
+    final String[] toks = { "the", "dogs" };
+    for (int i = 0; i < toks.length; i++) {
+      assertArrayEquals(new BaselineContextGenerator(null).getContext(i,
+          toks, TAGS), generator.getContext(i, toks, TAGS));
+      assertArrayEquals(getContextIds(new BaselineContextGenerator(null), i,
+          toks), getContextIds(generator, i, toks));
+    }
+  }
+
+}